@@ -0,0 +1,174 @@
+package org.jlopezinc;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.jlopezinc.dynamodb.UserModelDB;
+import org.jlopezinc.model.ChangeHistoryEntry;
+import org.jlopezinc.model.UserMetadataModel;
+import org.jlopezinc.model.UserModel;
+import org.jlopezinc.model.WebhookModel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import software.amazon.awssdk.auth.credentials.AnonymousCredentialsProvider;
+import software.amazon.awssdk.enhanced.dynamodb.DynamoDbEnhancedAsyncClient;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CPU-bound paths of the webhook ingest and of the user mappings, without any DynamoDB call.
+ *
+ * {@code historySize} is the number of change history entries on the registration: stored
+ * registrations written before the history moved to its own items still carry it in the metadata.
+ *
+ * Run with {@code mvn -Pbenchmark test}; the gc profiler reports the allocation rate next to the
+ * throughput.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MappingBenchmark {
+
+    private static final String EVENT = "ttamigosnatal2023";
+
+    static final String RAW_WEBHOOK = "{\n" +
+            "    \"created_at\": \"1698171807321\",\n" +
+            "    \"formId\": \"176ApWzf50S01l4ROdEfIFfGpJ-EiBmCns5jgz3IqhGY\",\n" +
+            "    \"formName\": \"Registo XI TT Amigos do Natal\",\n" +
+            "    \"submittedAt\": \"1698171313407\",\n" +
+            "    \"driverName\": \"João Lopes\",\n" +
+            "    \"driverCc\": \"12808562\",\n" +
+            "    \"address\": \"3230-269\",\n" +
+            "    \"phoneNumber\": \"+351 916 165 469\",\n" +
+            "    \"vehicleType\": \"Jipe\",\n" +
+            "    \"vehiclePlate\": \"12-AB-34\",\n" +
+            "    \"vehicleBrand\": \"land rover\",\n" +
+            "    \"guestsNumber\": \"4\",\n" +
+            "    \"guestsNames\": \"Andreia Santos<BR/>Leonor Lopes\\nMiguel Lopes, Ana \\\"Nita\\\" Costa\",\n" +
+            "    \"guestsCc\": \"128085<BR/>656465465\\n99887766,11223344\",\n" +
+            "    \"accept\": \"Sim\",\n" +
+            "    \"payment\": \"<a href='https://drive.google.com/open?id=1dd5R_KcAFIva5Q6Yiah0DuQuU45gFwXj'>File 1<plain>https://drive.google.com/open?id=1dd5R_KcAFIva5Q6Yiah0DuQuU45gFwXj</plain></a>\",\n" +
+            "    \"comment\": \"Levamos \\\"tenda\\\" e mesa\\nChegamos tarde\",\n" +
+            "    \"email\": \"jlopez.inc@gmail.com\"\n" +
+            "}";
+
+    @Param({"0", "50", "500"})
+    public int historySize;
+
+    private DynamoDbAsyncClient dynamoDbAsyncClient;
+    private EventV1Service service;
+    private ObjectMapper objectMapper;
+    private WebhookModel webhookModel;
+    private UserModelDB storedUser;
+    private UserModel userModel;
+    private List<UserMetadataModel.People> people;
+    private UserMetadataModel.Vehicle vehicle;
+    private String description;
+
+    @Setup
+    public void setUp() throws Exception {
+        // the mappings never reach DynamoDB; the client only exists so the service can be built
+        dynamoDbAsyncClient = DynamoDbAsyncClient.builder()
+                .region(Region.EU_WEST_1)
+                .credentialsProvider(AnonymousCredentialsProvider.create())
+                .build();
+        service = new EventV1Service(DynamoDbEnhancedAsyncClient.builder().dynamoDbClient(dynamoDbAsyncClient).build());
+        // same settings as the Quarkus-managed mapper
+        objectMapper = new ObjectMapper()
+                .registerModule(new JavaTimeModule())
+                .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+                .configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false);
+        service.objectMapper = objectMapper;
+
+        webhookModel = objectMapper.readValue(RAW_WEBHOOK, WebhookModel.class);
+
+        UserModelDB registered = service.transformWebHook(EVENT, RAW_WEBHOOK, objectMapper);
+        UserMetadataModel metadata = objectMapper.treeToValue(registered.getMetadata(), UserMetadataModel.class);
+        metadata.setChangeHistory(changeHistory(historySize));
+        registered.setMetadata(objectMapper.valueToTree(metadata));
+        registered.setCheckedIn(true);
+        registered.setCheckInAt(Instant.parse("2023-12-09T08:15:00Z"));
+        registered.setCheckInBy("gate-1");
+        storedUser = registered;
+
+        userModel = service.userModelDbTransform.apply(storedUser);
+        people = userModel.getMetadata().getPeople();
+        vehicle = userModel.getMetadata().getVehicle();
+        description = userModel.getMetadata().getComment();
+    }
+
+    @TearDown
+    public void tearDown() {
+        dynamoDbAsyncClient.close();
+    }
+
+    @Benchmark
+    public UserModelDB transformWebHook() throws Exception {
+        return service.transformWebHook(EVENT, RAW_WEBHOOK, objectMapper);
+    }
+
+    @Benchmark
+    public List<UserMetadataModel.People> transformPeople() {
+        return service.transformPeople(webhookModel);
+    }
+
+    @Benchmark
+    public UserModel userModelDbTransform() {
+        return service.userModelDbTransform.apply(storedUser);
+    }
+
+    @Benchmark
+    public UserModelDB userModelTransform() {
+        return service.userModelTransform(userModel);
+    }
+
+    @Benchmark
+    public String formatPeopleForAudit() {
+        return service.formatPeopleForAudit(people);
+    }
+
+    @Benchmark
+    public String formatVehicleForAudit() {
+        return service.formatVehicleForAudit(vehicle);
+    }
+
+    @Benchmark
+    public String sanitizeForDescription() {
+        return service.sanitizeForDescription(description);
+    }
+
+    static List<ChangeHistoryEntry> changeHistory(int size) {
+        List<ChangeHistoryEntry> entries = new ArrayList<>(size);
+        Instant start = Instant.parse("2023-10-24T18:15:13.407Z");
+        for (int i = 0; i < size; i++) {
+            String timestamp = ChangeHistoryService.TIMESTAMP_FORMAT.format(start.plusSeconds(60L * i));
+            entries.add(switch (i % 4) {
+                case 0 -> new ChangeHistoryEntry(timestamp, "USER_UPDATED",
+                        "people: driver: João Lopes (CC: 12808562), guest: Andreia Santos -> driver: João Lopes (CC: 12808562)\nphoneNumber: 916165469 -> 916165470");
+                case 1 -> new ChangeHistoryEntry(timestamp, "PAYMENT_ADDED", "Payment confirmed: 25.0 by admin@example.com");
+                case 2 -> new ChangeHistoryEntry(timestamp, "COMMENT_UPDATED", "comment: Levamos \\\"tenda\\\" -> Chegamos tarde");
+                default -> new ChangeHistoryEntry(timestamp, "CHECK_IN_ADDED", "User checked in by gate-" + i);
+            });
+        }
+        return entries;
+    }
+}
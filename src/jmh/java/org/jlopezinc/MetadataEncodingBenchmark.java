@@ -0,0 +1,151 @@
+package org.jlopezinc;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.jlopezinc.dynamodb.CompactJsonAttributeConverter;
+import org.jlopezinc.dynamodb.UserModelDB;
+import org.jlopezinc.model.UserMetadataModel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import software.amazon.awssdk.auth.credentials.AnonymousCredentialsProvider;
+import software.amazon.awssdk.enhanced.dynamodb.DynamoDbEnhancedAsyncClient;
+import software.amazon.awssdk.enhanced.dynamodb.TableSchema;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Storing the metadata of a registration: as the JSON text of {@code objectMapper.writeValueAsString}
+ * in a DynamoDB string (as before), as a native map (the default) or as Smile, deflated or not (see
+ * {@link CompactJsonAttributeConverter}). The benchmarks measure the CPU cost of writing and reading
+ * it back into a {@link UserMetadataModel}, through the JSON tree the converters map; the size of the whole registration item and the
+ * capacity units a write and a strongly consistent read of it consume are printed at setup.
+ *
+ * {@code historySize} change history entries are kept in the metadata, as in registrations written
+ * before the history moved to its own items, to stand for the large ones.
+ *
+ * Run with {@code mvn -Pbenchmark test -Djmh.include=MetadataEncodingBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MetadataEncodingBenchmark {
+
+    private static final String EVENT = "ttamigosnatal2023";
+
+    @Param({"0", "50", "500"})
+    public int historySize;
+
+    @Param({"string", "map", "smile", "smile-deflate"})
+    public String encoding;
+
+    private DynamoDbAsyncClient dynamoDbAsyncClient;
+    private ObjectMapper objectMapper;
+    private CompactJsonAttributeConverter converter;
+    private UserMetadataModel metadata;
+    private AttributeValue stored;
+
+    @Setup
+    public void setUp() throws Exception {
+        // the service is only used to map the webhook
+        dynamoDbAsyncClient = DynamoDbAsyncClient.builder()
+                .region(Region.EU_WEST_1)
+                .credentialsProvider(AnonymousCredentialsProvider.create())
+                .build();
+        EventV1Service service = new EventV1Service(DynamoDbEnhancedAsyncClient.builder().dynamoDbClient(dynamoDbAsyncClient).build());
+        // same settings as the Quarkus-managed mapper
+        objectMapper = new ObjectMapper()
+                .registerModule(new JavaTimeModule())
+                .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+                .configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false);
+        service.objectMapper = objectMapper;
+
+        switch (encoding) {
+            case "smile" -> CompactJsonAttributeConverter.configure(true, Integer.MAX_VALUE);
+            case "smile-deflate" -> CompactJsonAttributeConverter.configure(true, 0);
+            default -> CompactJsonAttributeConverter.configure(false, Integer.MAX_VALUE);
+        }
+        converter = CompactJsonAttributeConverter.create();
+
+        UserModelDB user = service.transformWebHook(EVENT, MappingBenchmark.RAW_WEBHOOK, objectMapper);
+        metadata = objectMapper.treeToValue(user.getMetadata(), UserMetadataModel.class);
+        metadata.setChangeHistory(MappingBenchmark.changeHistory(historySize));
+        user.setMetadata(objectMapper.valueToTree(metadata));
+        stored = write();
+
+        Map<String, AttributeValue> item = new HashMap<>(TableSchema.fromBean(UserModelDB.class).itemToMap(user, true));
+        item.put(UserModelDB.METADATA, stored);
+        long itemSize = itemSize(item);
+        System.out.printf("%n%s, %d history entries: metadata %d bytes, item %d bytes, %d WCU per write, %d RCU per read%n",
+                encoding, historySize, size(stored), itemSize, (itemSize + 1023) / 1024, (itemSize + 4095) / 4096);
+    }
+
+    @TearDown
+    public void tearDown() {
+        CompactJsonAttributeConverter.configure(false, 1024);
+        dynamoDbAsyncClient.close();
+    }
+
+    @Benchmark
+    public AttributeValue write() throws Exception {
+        return "string".equals(encoding) ? AttributeValue.builder().s(objectMapper.writeValueAsString(metadata)).build()
+                : converter.transformFrom(objectMapper.valueToTree(metadata));
+    }
+
+    @Benchmark
+    public UserMetadataModel read() throws Exception {
+        return "string".equals(encoding) ? objectMapper.readValue(stored.s(), UserMetadataModel.class)
+                : objectMapper.treeToValue(converter.transformTo(stored), UserMetadataModel.class);
+    }
+
+    /**
+     * The item size DynamoDB bills capacity on: attribute names and values, with numbers approximated
+     * from their digits and 3 bytes per map or list plus 1 per element.
+     */
+    private static long itemSize(Map<String, AttributeValue> item) {
+        long size = 0;
+        for (Map.Entry<String, AttributeValue> attribute : item.entrySet()) {
+            size += attribute.getKey().getBytes(StandardCharsets.UTF_8).length + size(attribute.getValue());
+        }
+        return size;
+    }
+
+    private static long size(AttributeValue value) {
+        if (value.hasM()) {
+            return 3 + value.m().size() + itemSize(value.m());
+        }
+        if (value.hasL()) {
+            return 3 + value.l().size() + value.l().stream().mapToLong(MetadataEncodingBenchmark::size).sum();
+        }
+        if (value.s() != null) {
+            return value.s().getBytes(StandardCharsets.UTF_8).length;
+        }
+        if (value.n() != null) {
+            return value.n().replaceAll("[^0-9]", "").length() / 2 + 2;
+        }
+        if (value.b() != null) {
+            return value.b().asByteArrayUnsafe().length;
+        }
+        return 1;
+    }
+}
@@ -0,0 +1,214 @@
+package org.jlopezinc;
+
+import io.quarkus.logging.Log;
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.Uni;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import software.amazon.awssdk.enhanced.dynamodb.DynamoDbAsyncTable;
+import software.amazon.awssdk.enhanced.dynamodb.model.Page;
+import software.amazon.awssdk.enhanced.dynamodb.model.QueryEnhancedRequest;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.ReturnConsumedCapacity;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+
+/**
+ * Paginated reads for admin and bulk jobs (reconcile, backfill...) that stay within a share of the
+ * table's read capacity, so they don't throttle the gate check-ins running at the same time.
+ *
+ * Pages are read one at a time, {@value #DEFAULT_PAGE_SIZE} items at most by default, through a
+ * {@link ReadBudget}: a token bucket refilled at {@code bulk-read.capacity-fraction} of the table's
+ * provisioned read capacity and charged with the {@code ConsumedCapacity} each page reports. When
+ * the bucket is in debt the next page waits until it is paid back. A page rejected with a
+ * throughput error halves the rate and is retried after the wait; every page read without one
+ * raises it back towards the target.
+ *
+ * The provisioned capacity is read with {@code DescribeTable} when a job starts, so it follows
+ * auto scaling; tables on demand (or a failed lookup) use {@code bulk-read.capacity-units}.
+ */
+@ApplicationScoped
+public class BulkReader {
+
+    static final int DEFAULT_PAGE_SIZE = 100;
+    private static final int MAX_THROTTLE_RETRIES = 10;
+
+    private final DynamoDbAsyncClient dynamoDbAsyncClient;
+    private final double capacityFraction;
+    private final double fallbackCapacityUnits;
+    private final int pageSize;
+
+    @Inject
+    BulkReader(DynamoDbAsyncClient dynamoDbAsyncClient,
+               @ConfigProperty(name = "bulk-read.capacity-fraction", defaultValue = "0.5") double capacityFraction,
+               @ConfigProperty(name = "bulk-read.capacity-units", defaultValue = "1") double fallbackCapacityUnits,
+               @ConfigProperty(name = "bulk-read.page-size", defaultValue = "" + DEFAULT_PAGE_SIZE) int pageSize) {
+        this.dynamoDbAsyncClient = dynamoDbAsyncClient;
+        this.capacityFraction = capacityFraction;
+        this.fallbackCapacityUnits = fallbackCapacityUnits;
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Every page of {@code request}, read within the capacity budget. The request's limit, if any,
+     * caps the page size.
+     */
+    public <T> Multi<Page<T>> query(DynamoDbAsyncTable<T> table, QueryEnhancedRequest request) {
+        return query(table, request, request.exclusiveStartKey());
+    }
+
+    /**
+     * Pages of {@code request} starting after {@code exclusiveStartKey} (null: from the beginning),
+     * to resume a job where it stopped.
+     */
+    public <T> Multi<Page<T>> query(DynamoDbAsyncTable<T> table, QueryEnhancedRequest request,
+                                    Map<String, AttributeValue> exclusiveStartKey) {
+        return query(table, request, exclusiveStartKey, page -> true);
+    }
+
+    /**
+     * Pages of {@code request} starting after {@code exclusiveStartKey}, up to the last one or the
+     * first one {@code readMore} returns false for, which is still emitted. {@code readMore} is
+     * called as each page is read, before the next one is requested.
+     */
+    public <T> Multi<Page<T>> query(DynamoDbAsyncTable<T> table, QueryEnhancedRequest request,
+                                    Map<String, AttributeValue> exclusiveStartKey, Predicate<Page<T>> readMore) {
+        return queryUntil(table, request, exclusiveStartKey, page -> Uni.createFrom().item(readMore.test(page)));
+    }
+
+    /**
+     * Like {@link #query(DynamoDbAsyncTable, QueryEnhancedRequest, Map, Predicate)}, for a
+     * {@code readMore} that has to read something else before it can tell (e.g. to complete the
+     * page's items); the next page is requested once it completes with true.
+     */
+    public <T> Multi<Page<T>> queryUntil(DynamoDbAsyncTable<T> table, QueryEnhancedRequest request,
+                                         Map<String, AttributeValue> exclusiveStartKey,
+                                         Function<Page<T>, Uni<Boolean>> readMore) {
+        int limit = request.limit() == null ? pageSize : Math.min(request.limit(), pageSize);
+        return budget(table.tableName())
+                .onItem().transformToMulti(budget -> {
+                    Cursor cursor = new Cursor(exclusiveStartKey);
+                    return Multi.createBy().repeating()
+                            .uni(() -> cursor, current -> nextPage(table, request.toBuilder()
+                                    .exclusiveStartKey(current.startKey)
+                                    .limit(limit)
+                                    .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL)
+                                    .build(), budget)
+                                    .onItem().invoke(page -> current.advance(page.lastEvaluatedKey()))
+                                    .call(page -> readMore.apply(page).onItem().invoke(more -> current.more = more)))
+                            .whilst(page -> !cursor.done && cursor.more);
+                });
+    }
+
+    private <T> Uni<Page<T>> nextPage(DynamoDbAsyncTable<T> table, QueryEnhancedRequest request, ReadBudget budget) {
+        return Uni.createFrom().deferred(() -> {
+                    Uni<Page<T>> page = DynamoDbMetrics.pages(() -> table.query(request).limit(1),
+                                    response -> DynamoDbMetrics.units(response.consumedCapacity()))
+                            .collect().first();
+                    Duration delay = budget.delay();
+                    return delay.isZero() ? page
+                            : Uni.createFrom().voidItem().onItem().delayIt().by(delay).replaceWith(page);
+                })
+                .onItem().invoke(page -> budget.consumed(DynamoDbMetrics.units(page.consumedCapacity())))
+                .onFailure(DynamoDbMetrics::isThrottle).invoke(error -> {
+                    budget.throttled();
+                    Log.warn("Bulk read of " + table.tableName() + " throttled, slowing down to "
+                            + String.format("%.2f", budget.rate()) + " RCU/s");
+                })
+                .onFailure(DynamoDbMetrics::isThrottle).retry().atMost(MAX_THROTTLE_RETRIES);
+    }
+
+    private Uni<ReadBudget> budget(String tableName) {
+        return Uni.createFrom().completionStage(() -> dynamoDbAsyncClient.describeTable(r -> r.tableName(tableName)))
+                .onItem().transform(response -> {
+                    Long provisioned = response.table().provisionedThroughput() == null ? null
+                            : response.table().provisionedThroughput().readCapacityUnits();
+                    return provisioned == null || provisioned == 0 ? fallbackCapacityUnits : provisioned.doubleValue();
+                })
+                .onFailure().recoverWithItem(error -> {
+                    Log.debug("Could not read the capacity of " + tableName + ", using " + fallbackCapacityUnits + " RCU", error);
+                    return fallbackCapacityUnits;
+                })
+                .onItem().transform(capacityUnits -> new ReadBudget(capacityUnits * capacityFraction, System::nanoTime));
+    }
+
+    private static final class Cursor {
+        private Map<String, AttributeValue> startKey;
+        private boolean done;
+        private boolean more = true;
+
+        Cursor(Map<String, AttributeValue> startKey) {
+            this.startKey = startKey == null || startKey.isEmpty() ? null : startKey;
+        }
+
+        void advance(Map<String, AttributeValue> lastEvaluatedKey) {
+            startKey = lastEvaluatedKey == null || lastEvaluatedKey.isEmpty() ? null : lastEvaluatedKey;
+            done = startKey == null;
+        }
+    }
+
+    /**
+     * Token bucket in read capacity units, charged after the fact with what each page consumed.
+     * The rate backs off multiplicatively on throttles and recovers additively (AIMD).
+     */
+    static final class ReadBudget {
+        private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+        private final double targetRate;
+        private final double minimumRate;
+        private final LongSupplier nanoTime;
+        private double rate;
+        private double balance;
+        private long refilledAt;
+
+        ReadBudget(double targetRate, LongSupplier nanoTime) {
+            this.targetRate = targetRate;
+            this.minimumRate = targetRate / 16;
+            this.nanoTime = nanoTime;
+            this.rate = targetRate;
+            // one second of burst, so the first page doesn't wait
+            this.balance = targetRate;
+            this.refilledAt = nanoTime.getAsLong();
+        }
+
+        /**
+         * How long to wait before the next page so the bucket is out of debt.
+         */
+        synchronized Duration delay() {
+            refill();
+            if (balance >= 0) {
+                return Duration.ZERO;
+            }
+            return Duration.ofNanos((long) Math.ceil(-balance / rate * NANOS_PER_SECOND));
+        }
+
+        synchronized void consumed(double capacityUnits) {
+            refill();
+            balance -= capacityUnits;
+            rate = Math.min(targetRate, rate + targetRate / 10);
+        }
+
+        synchronized void throttled() {
+            refill();
+            rate = Math.max(minimumRate, rate / 2);
+            // the table is out of capacity right now: sit out a second's worth at the new rate
+            balance = Math.min(balance, 0) - rate;
+        }
+
+        synchronized double rate() {
+            return rate;
+        }
+
+        private void refill() {
+            long now = nanoTime.getAsLong();
+            balance = Math.min(rate, balance + (now - refilledAt) * rate / NANOS_PER_SECOND);
+            refilledAt = now;
+        }
+    }
+}
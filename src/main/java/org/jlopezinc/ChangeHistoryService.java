@@ -0,0 +1,197 @@
+package org.jlopezinc;
+
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.Uni;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.BadRequestException;
+import org.jlopezinc.dynamodb.ChangeHistoryDB;
+import org.jlopezinc.model.ChangeHistoryEntry;
+import org.jlopezinc.model.ChangeHistoryPage;
+import software.amazon.awssdk.enhanced.dynamodb.DynamoDbAsyncTable;
+import software.amazon.awssdk.enhanced.dynamodb.DynamoDbEnhancedAsyncClient;
+import software.amazon.awssdk.enhanced.dynamodb.Key;
+import software.amazon.awssdk.enhanced.dynamodb.TableMetadata;
+import software.amazon.awssdk.enhanced.dynamodb.TableSchema;
+import software.amazon.awssdk.enhanced.dynamodb.model.Page;
+import software.amazon.awssdk.enhanced.dynamodb.model.QueryConditional;
+import software.amazon.awssdk.enhanced.dynamodb.model.QueryEnhancedRequest;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.Put;
+import software.amazon.awssdk.services.dynamodb.model.ReturnConsumedCapacity;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItem;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stores the change history of a registration as append-only items, one per entry, instead of a
+ * growing array inside the registration's metadata. Writing a change no longer rewrites the whole
+ * history, and a long-lived registration can't grow past the item size limit.
+ *
+ * Entries written before this layout are still embedded in the metadata. They are moved here the
+ * next time the registration is written (or backfilled); see {@link #append}.
+ */
+@ApplicationScoped
+public class ChangeHistoryService {
+
+    static final String PARTITION_PREFIX = "history#";
+    static final int DEFAULT_PAGE_SIZE = 50;
+    static final int MAX_PAGE_SIZE = 100;
+    private static final int WRITE_CONCURRENCY = 4;
+
+    /**
+     * Fixed-width so sort keys order chronologically; matches the format of {@link ChangeHistoryEntry#getTimestamp()}.
+     */
+    static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'")
+            .withZone(ZoneOffset.UTC);
+
+    private final DynamoDbAsyncTable<ChangeHistoryDB> historyTable;
+    private final String partitionKeyName;
+    private final String sortKeyName;
+
+    @Inject
+    ChangeHistoryService(DynamoDbEnhancedAsyncClient dynamoDbEnhancedAsyncClient) {
+        TableSchema<ChangeHistoryDB> tableSchema = TableSchema.fromClass(ChangeHistoryDB.class);
+        historyTable = dynamoDbEnhancedAsyncClient.table(EventV1Service.EVENTS_TABLE, tableSchema);
+        TableMetadata tableMetadata = tableSchema.tableMetadata();
+        partitionKeyName = tableMetadata.primaryPartitionKey();
+        sortKeyName = tableMetadata.primarySortKey().orElseThrow();
+    }
+
+    /**
+     * Writes history entries of a registration. The item key is derived from the entry's content,
+     * so writing the same entry twice (e.g. a retried request, or a legacy entry migrated twice)
+     * leaves a single item.
+     */
+    public Uni<Void> append(String event, String email, List<ChangeHistoryEntry> entries) {
+        if (entries == null || entries.isEmpty()) {
+            return Uni.createFrom().voidItem();
+        }
+        String partition = partition(event, email);
+        return Multi.createFrom().iterable(entries)
+                .onItem().transformToUni(entry -> DynamoDbMetrics.call(() -> historyTable.putItemWithResponse(r -> r
+                                .item(toItem(partition, entry))
+                                .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL)),
+                        response -> DynamoDbMetrics.units(response.consumedCapacity())))
+                .merge(WRITE_CONCURRENCY)
+                .collect().last()
+                .replaceWithVoid();
+    }
+
+    /**
+     * A put of one history entry, for writing it in the same transaction as the change it records.
+     */
+    public TransactWriteItem putItem(String event, String email, ChangeHistoryEntry entry) {
+        return TransactWriteItem.builder()
+                .put(Put.builder()
+                        .tableName(EventV1Service.EVENTS_TABLE)
+                        .item(historyTable.tableSchema().itemToMap(toItem(partition(event, email), entry), true))
+                        .build())
+                .build();
+    }
+
+    /**
+     * The latest {@code limit} entries of a registration, oldest first.
+     */
+    public Uni<List<ChangeHistoryEntry>> latest(String event, String email, int limit) {
+        if (limit <= 0) {
+            return Uni.createFrom().item(new ArrayList<>());
+        }
+        return page(event, email, Math.min(limit, MAX_PAGE_SIZE), null)
+                .onItem().transform(page -> {
+                    List<ChangeHistoryEntry> entries = new ArrayList<>(page.getEntries());
+                    Collections.reverse(entries);
+                    return entries;
+                });
+    }
+
+    /**
+     * One page of a registration's history, newest first.
+     *
+     * @param cursor the {@link ChangeHistoryPage#getNextCursor()} of the previous page, or null for the first page
+     */
+    public Uni<ChangeHistoryPage> page(String event, String email, int limit, String cursor) {
+        String partition = partition(event, email);
+        QueryEnhancedRequest.Builder request = QueryEnhancedRequest.builder()
+                .queryConditional(QueryConditional.keyEqualTo(Key.builder().partitionValue(partition).build()))
+                .scanIndexForward(false)
+                .limit(Math.max(1, Math.min(limit, MAX_PAGE_SIZE)))
+                .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL);
+        if (cursor != null) {
+            request.exclusiveStartKey(startKey(partition, cursor));
+        }
+        return DynamoDbMetrics.pages(() -> historyTable.query(request.build()).limit(1),
+                        page -> DynamoDbMetrics.units(page.consumedCapacity()))
+                .collect().first()
+                .onItem().transform(page -> toHistoryPage(page));
+    }
+
+    private ChangeHistoryPage toHistoryPage(Page<ChangeHistoryDB> page) {
+        ChangeHistoryPage historyPage = new ChangeHistoryPage();
+        List<ChangeHistoryEntry> entries = new ArrayList<>();
+        if (page != null) {
+            for (ChangeHistoryDB item : page.items()) {
+                entries.add(new ChangeHistoryEntry(item.getTimestamp(), item.getAction(), item.getDescription()));
+            }
+            if (page.lastEvaluatedKey() != null && !page.lastEvaluatedKey().isEmpty()) {
+                String lastSortKey = page.lastEvaluatedKey().get(sortKeyName).s();
+                historyPage.setNextCursor(Base64.getUrlEncoder().withoutPadding()
+                        .encodeToString(lastSortKey.getBytes(StandardCharsets.UTF_8)));
+            }
+        }
+        historyPage.setEntries(entries);
+        return historyPage;
+    }
+
+    private static ChangeHistoryDB toItem(String partition, ChangeHistoryEntry entry) {
+        return ChangeHistoryDB.builder()
+                .eventName(partition)
+                .userEmail(sortKey(entry))
+                .timestamp(entry.getTimestamp())
+                .action(entry.getAction())
+                .description(entry.getDescription())
+                .build();
+    }
+
+    private Map<String, AttributeValue> startKey(String partition, String cursor) {
+        String sortKey;
+        try {
+            sortKey = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException("Invalid cursor");
+        }
+        Map<String, AttributeValue> key = new HashMap<>();
+        key.put(partitionKeyName, AttributeValue.builder().s(partition).build());
+        key.put(sortKeyName, AttributeValue.builder().s(sortKey).build());
+        return key;
+    }
+
+    static String partition(String event, String email) {
+        return PARTITION_PREFIX + event + "#" + email;
+    }
+
+    /**
+     * {@code <timestamp>#<content hash>}. The timestamp is re-formatted to a fixed width because
+     * older entries were written with a variable number of fractional digits.
+     */
+    static String sortKey(ChangeHistoryEntry entry) {
+        String timestamp;
+        try {
+            timestamp = TIMESTAMP_FORMAT.format(Instant.parse(entry.getTimestamp()));
+        } catch (DateTimeParseException | NullPointerException e) {
+            timestamp = String.valueOf(entry.getTimestamp());
+        }
+        int hash = (entry.getAction() + "\n" + entry.getDescription()).hashCode();
+        return timestamp + "#" + String.format("%08x", hash);
+    }
+}
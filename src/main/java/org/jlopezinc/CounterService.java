@@ -0,0 +1,384 @@
+package org.jlopezinc;
+
+import io.quarkus.logging.Log;
+import io.smallrye.mutiny.Uni;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.jlopezinc.dynamodb.CounterDB;
+import software.amazon.awssdk.enhanced.dynamodb.TableMetadata;
+import software.amazon.awssdk.enhanced.dynamodb.TableSchema;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.BatchGetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.CancellationReason;
+import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
+import software.amazon.awssdk.services.dynamodb.model.GetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.KeysAndAttributes;
+import software.amazon.awssdk.services.dynamodb.model.ProvisionedThroughputExceededException;
+import software.amazon.awssdk.services.dynamodb.model.ReturnConsumedCapacity;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItem;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItemsRequest;
+import software.amazon.awssdk.services.dynamodb.model.TransactionCanceledException;
+import software.amazon.awssdk.services.dynamodb.model.Update;
+import software.amazon.awssdk.services.dynamodb.model.UpdateItemRequest;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maintains the event counters with server-side atomic updates.
+ *
+ * All counters of an event live in a single item (sort key {@value #COUNTERS_SORT_KEY}), one numeric
+ * attribute per counter, so the dashboard reads them with one {@code GetItem}. Counters are kept as
+ * top-level attributes rather than inside a nested map because DynamoDB only allows {@code ADD} on
+ * top-level attributes.
+ *
+ * Every counter change is a single {@code UpdateItem} round trip using an {@code ADD} expression,
+ * so concurrent check-ins at different gates never overwrite each other's counts. Counters are
+ * created on first use and decrements are floored at zero through a condition expression.
+ *
+ * Events created before this layout keep one {@link CounterDB} row per counter. Those rows are folded
+ * into the counters item the first time the event's counters are read (see {@link #migrateLegacyCounters}).
+ */
+@ApplicationScoped
+public class CounterService {
+
+    static final String COUNTERS_SORT_KEY = "counters";
+    static final String COUNT_ATTRIBUTE = "count";
+    static final String MIGRATED_ATTRIBUTE = "migratedFromLegacyRows";
+    private static final int MAX_DECREMENT_ATTEMPTS = 5;
+    private static final int MAX_BATCH_GET_ATTEMPTS = 5;
+
+    private final DynamoDbAsyncClient dynamoDbAsyncClient;
+    private final String partitionKeyName;
+    private final String sortKeyName;
+
+    @Inject
+    CounterService(DynamoDbAsyncClient dynamoDbAsyncClient) {
+        this.dynamoDbAsyncClient = dynamoDbAsyncClient;
+        TableMetadata tableMetadata = TableSchema.fromClass(CounterDB.class).tableMetadata();
+        this.partitionKeyName = tableMetadata.primaryPartitionKey();
+        this.sortKeyName = tableMetadata.primarySortKey().orElseThrow();
+    }
+
+    /**
+     * Adds {@code delta} to a counter. Positive values increment, negative values decrement.
+     * Decrements never take the counter below zero.
+     */
+    public Uni<Void> add(String event, String counter, long delta) {
+        if (delta == 0) {
+            return Uni.createFrom().voidItem();
+        }
+        if (delta > 0) {
+            return update(addRequest(event, Map.of(counter, delta), false));
+        }
+        long by = -delta;
+        // The decrement and the clamp are both conditional; if a concurrent change slips in between
+        // them the whole attempt is retried against the fresh value.
+        return update(addRequest(event, Map.of(counter, delta), true))
+                .onFailure(ConditionalCheckFailedException.class)
+                .recoverWithUni(() -> update(clampToZeroRequest(event, counter, by)))
+                .onFailure(ConditionalCheckFailedException.class).retry().atMost(MAX_DECREMENT_ATTEMPTS);
+    }
+
+    /**
+     * Applies several counter deltas in one atomic {@code UpdateItem}. If one of the decrements would
+     * take its counter below zero, the deltas are applied one by one so that counter is floored at zero.
+     */
+    public Uni<Void> add(String event, Map<String, Long> deltas) {
+        Map<String, Long> nonZero = new LinkedHashMap<>();
+        deltas.forEach((counter, delta) -> {
+            if (delta != 0) {
+                nonZero.put(counter, delta);
+            }
+        });
+        if (nonZero.isEmpty()) {
+            return Uni.createFrom().voidItem();
+        }
+        if (nonZero.size() == 1) {
+            Map.Entry<String, Long> only = nonZero.entrySet().iterator().next();
+            return add(event, only.getKey(), only.getValue());
+        }
+        return update(addRequest(event, nonZero, true))
+                .onFailure(ConditionalCheckFailedException.class).recoverWithUni(() -> {
+                    Log.warn("Counter below zero for event " + event + ", applying " + nonZero + " one by one");
+                    List<Uni<Void>> updates = new ArrayList<>();
+                    nonZero.forEach((counter, delta) -> updates.add(add(event, counter, delta)));
+                    return Uni.join().all(updates).andFailFast().replaceWithVoid();
+                });
+    }
+
+    /**
+     * Applies counter deltas and writes {@code items} in one {@code TransactWriteItems}, so a change
+     * and its effect on the counters are stored together. The counters update goes last, so the
+     * cancellation reason of {@code items.get(i)} is at index {@code i} (see {@link #isConditionFailure}).
+     *
+     * If a decrement would take its counter below zero, the items are written in a transaction of
+     * their own and the deltas are applied through {@link #add(String, Map)}, which floors them.
+     */
+    public Uni<Void> addInTransaction(String event, Map<String, Long> deltas, List<TransactWriteItem> items) {
+        Map<String, Long> nonZero = new LinkedHashMap<>();
+        deltas.forEach((counter, delta) -> {
+            if (delta != 0) {
+                nonZero.put(counter, delta);
+            }
+        });
+        if (nonZero.isEmpty()) {
+            return transactWrite(items);
+        }
+        List<TransactWriteItem> transactItems = new ArrayList<>(items);
+        transactItems.add(transactUpdate(addRequest(event, nonZero, true)));
+        return transactWrite(transactItems)
+                .onFailure(error -> isConditionFailure(error, items.size())).recoverWithUni(() -> {
+                    Log.warn("Counter below zero for event " + event + ", applying " + nonZero + " outside the transaction");
+                    return transactWrite(items).call(() -> add(event, nonZero));
+                });
+    }
+
+    /**
+     * Turns an {@code UpdateItem} built by this service into a transaction item.
+     */
+    static TransactWriteItem transactUpdate(UpdateItemRequest request) {
+        return TransactWriteItem.builder()
+                .update(Update.builder()
+                        .tableName(request.tableName())
+                        .key(request.key())
+                        .updateExpression(request.updateExpression())
+                        .conditionExpression(request.conditionExpression())
+                        .expressionAttributeNames(request.expressionAttributeNames())
+                        .expressionAttributeValues(request.expressionAttributeValues())
+                        .build())
+                .build();
+    }
+
+    /**
+     * Whether a transaction was cancelled because the condition of its {@code index}-th item failed.
+     */
+    static boolean isConditionFailure(Throwable error, int index) {
+        if (!(error instanceof TransactionCanceledException cancelled) || !cancelled.hasCancellationReasons()) {
+            return false;
+        }
+        List<CancellationReason> reasons = cancelled.cancellationReasons();
+        return reasons.size() > index && "ConditionalCheckFailed".equals(reasons.get(index).code());
+    }
+
+    private Uni<Void> transactWrite(List<TransactWriteItem> items) {
+        if (items.isEmpty()) {
+            return Uni.createFrom().voidItem();
+        }
+        return DynamoDbMetrics.call(() -> dynamoDbAsyncClient.transactWriteItems(TransactWriteItemsRequest.builder()
+                                .transactItems(items)
+                                .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL)
+                                .build()),
+                        response -> DynamoDbMetrics.units(response.consumedCapacity()))
+                .replaceWithVoid();
+    }
+
+    /**
+     * Overwrites counters with absolute values in one {@code UpdateItem}. Used by reconciliation.
+     */
+    public Uni<Void> set(String event, Map<String, Long> values) {
+        Map<String, String> names = new HashMap<>();
+        Map<String, AttributeValue> expressionValues = new HashMap<>();
+        List<String> assignments = new ArrayList<>();
+        int i = 0;
+        for (Map.Entry<String, Long> entry : values.entrySet()) {
+            names.put("#c" + i, entry.getKey());
+            expressionValues.put(":v" + i, number(Math.max(entry.getValue(), 0)));
+            assignments.add("#c" + i + " = :v" + i);
+            i++;
+        }
+        names.put("#migrated", MIGRATED_ATTRIBUTE);
+        expressionValues.put(":true", AttributeValue.builder().bool(true).build());
+        assignments.add("#migrated = :true");
+        return update(UpdateItemRequest.builder()
+                .tableName(EventV1Service.EVENTS_TABLE)
+                .key(key(event, COUNTERS_SORT_KEY))
+                .updateExpression("SET " + String.join(", ", assignments))
+                .expressionAttributeNames(names)
+                .expressionAttributeValues(expressionValues)
+                .build());
+    }
+
+    /**
+     * Reads every counter of an event with a single {@code GetItem}. Counters that were never
+     * touched are absent from the returned map.
+     */
+    public Uni<Map<String, Long>> getAll(String event) {
+        return readCountersItem(event)
+                .onItem().transformToUni(item -> {
+                    if (item.containsKey(MIGRATED_ATTRIBUTE)) {
+                        return Uni.createFrom().item(item);
+                    }
+                    return migrateLegacyCounters(event).replaceWith(readCountersItem(event));
+                })
+                .onItem().transform(CounterService::toCounts);
+    }
+
+    /**
+     * Folds the legacy per-sort-key {@link CounterDB} rows of an event into its counters item.
+     *
+     * The legacy values are added (not assigned) so increments that reached the counters item
+     * before the migration ran are kept. A marker attribute makes the migration run exactly once;
+     * the legacy rows are left in place untouched. It fails without setting the marker if some of
+     * them can't be read, so the next read of the counters runs it again.
+     */
+    public Uni<Void> migrateLegacyCounters(String event) {
+        List<Map<String, AttributeValue>> keys = new ArrayList<>();
+        for (String counter : EventV1Service.COUNTER_NAMES) {
+            keys.add(key(event, counter));
+        }
+        List<Map<String, AttributeValue>> rows = new ArrayList<>();
+        return readLegacyRows(keys, rows, 0)
+                .onItem().transformToUni(ignored -> {
+                    Map<String, Long> legacy = legacyCounts(rows);
+                    Map<String, String> names = new HashMap<>();
+                    Map<String, AttributeValue> values = new HashMap<>();
+                    List<String> additions = new ArrayList<>();
+                    int i = 0;
+                    for (Map.Entry<String, Long> entry : legacy.entrySet()) {
+                        names.put("#c" + i, entry.getKey());
+                        values.put(":v" + i, number(entry.getValue()));
+                        additions.add("#c" + i + " :v" + i);
+                        i++;
+                    }
+                    names.put("#migrated", MIGRATED_ATTRIBUTE);
+                    values.put(":true", AttributeValue.builder().bool(true).build());
+                    String updateExpression = "SET #migrated = :true" + (additions.isEmpty() ? "" : " ADD " + String.join(", ", additions));
+                    Log.info("Migrating " + legacy.size() + " legacy counter rows for event " + event);
+                    return update(UpdateItemRequest.builder()
+                            .tableName(EventV1Service.EVENTS_TABLE)
+                            .key(key(event, COUNTERS_SORT_KEY))
+                            .updateExpression(updateExpression)
+                            .conditionExpression("attribute_not_exists(#migrated)")
+                            .expressionAttributeNames(names)
+                            .expressionAttributeValues(values)
+                            .build())
+                            // another request migrated the event first
+                            .onFailure(ConditionalCheckFailedException.class).recoverWithNull();
+                });
+    }
+
+    UpdateItemRequest addRequest(String event, Map<String, Long> deltas, boolean floorAtZero) {
+        Map<String, String> names = new HashMap<>();
+        Map<String, AttributeValue> values = new HashMap<>();
+        List<String> additions = new ArrayList<>();
+        List<String> conditions = new ArrayList<>();
+        int i = 0;
+        for (Map.Entry<String, Long> entry : deltas.entrySet()) {
+            names.put("#c" + i, entry.getKey());
+            values.put(":d" + i, number(entry.getValue()));
+            additions.add("#c" + i + " :d" + i);
+            if (floorAtZero && entry.getValue() < 0) {
+                values.put(":b" + i, number(-entry.getValue()));
+                conditions.add("#c" + i + " >= :b" + i);
+            }
+            i++;
+        }
+        UpdateItemRequest.Builder builder = UpdateItemRequest.builder()
+                .tableName(EventV1Service.EVENTS_TABLE)
+                .key(key(event, COUNTERS_SORT_KEY))
+                .updateExpression("ADD " + String.join(", ", additions))
+                .expressionAttributeNames(names)
+                .expressionAttributeValues(values);
+        if (!conditions.isEmpty()) {
+            builder.conditionExpression(String.join(" AND ", conditions));
+        }
+        return builder.build();
+    }
+
+    UpdateItemRequest clampToZeroRequest(String event, String counter, long by) {
+        return UpdateItemRequest.builder()
+                .tableName(EventV1Service.EVENTS_TABLE)
+                .key(key(event, COUNTERS_SORT_KEY))
+                .updateExpression("SET #c0 = :zero")
+                .conditionExpression("attribute_not_exists(#c0) OR #c0 < :b0")
+                .expressionAttributeNames(Map.of("#c0", counter))
+                .expressionAttributeValues(Map.of(":zero", number(0), ":b0", number(by)))
+                .build();
+    }
+
+    private Uni<Map<String, AttributeValue>> readCountersItem(String event) {
+        return DynamoDbMetrics.call(() -> dynamoDbAsyncClient.getItem(GetItemRequest.builder()
+                                .tableName(EventV1Service.EVENTS_TABLE)
+                                .key(key(event, COUNTERS_SORT_KEY))
+                                .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL)
+                                .build()),
+                        response -> DynamoDbMetrics.units(response.consumedCapacity()))
+                .onItem().transform(response -> response.hasItem() ? response.item() : Map.of());
+    }
+
+    /**
+     * Reads the legacy rows with {@code BatchGetItem}, asking again for the keys DynamoDB leaves
+     * unprocessed when it runs short of capacity (as {@code EventV1Service#batchGetItems} does).
+     */
+    private Uni<Void> readLegacyRows(List<Map<String, AttributeValue>> keys, List<Map<String, AttributeValue>> rows, int attempt) {
+        return DynamoDbMetrics.call(() -> dynamoDbAsyncClient.batchGetItem(BatchGetItemRequest.builder()
+                                .requestItems(Map.of(EventV1Service.EVENTS_TABLE, KeysAndAttributes.builder()
+                                        .keys(keys)
+                                        .consistentRead(true)
+                                        .build()))
+                                .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL)
+                                .build()),
+                        response -> DynamoDbMetrics.units(response.consumedCapacity()))
+                .chain(response -> {
+                    rows.addAll(response.responses().getOrDefault(EventV1Service.EVENTS_TABLE, List.of()));
+                    KeysAndAttributes unprocessed = response.unprocessedKeys().get(EventV1Service.EVENTS_TABLE);
+                    if (unprocessed == null || unprocessed.keys().isEmpty()) {
+                        return Uni.createFrom().voidItem();
+                    }
+                    if (attempt >= MAX_BATCH_GET_ATTEMPTS) {
+                        return Uni.createFrom().failure(ProvisionedThroughputExceededException.builder()
+                                .message(unprocessed.keys().size() + " legacy counter rows left unprocessed by BatchGetItem")
+                                .build());
+                    }
+                    return Uni.createFrom().voidItem()
+                            .onItem().delayIt().by(Duration.ofMillis(50L << attempt))
+                            .chain(() -> readLegacyRows(unprocessed.keys(), rows, attempt + 1));
+                });
+    }
+
+    private Map<String, Long> legacyCounts(List<Map<String, AttributeValue>> rows) {
+        Map<String, Long> legacy = new HashMap<>();
+        for (Map<String, AttributeValue> row : rows) {
+            AttributeValue count = row.get(COUNT_ATTRIBUTE);
+            if (count != null && count.n() != null && Long.parseLong(count.n()) > 0) {
+                legacy.put(row.get(sortKeyName).s(), Long.parseLong(count.n()));
+            }
+        }
+        return legacy;
+    }
+
+    private static Map<String, Long> toCounts(Map<String, AttributeValue> item) {
+        Map<String, Long> counts = new HashMap<>();
+        item.forEach((name, value) -> {
+            if (value.n() != null) {
+                counts.put(name, Math.max(Long.parseLong(value.n()), 0));
+            }
+        });
+        return counts;
+    }
+
+    private Uni<Void> update(UpdateItemRequest request) {
+        return DynamoDbMetrics.call(() -> dynamoDbAsyncClient.updateItem(request.toBuilder()
+                                .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL)
+                                .build()),
+                        response -> DynamoDbMetrics.units(response.consumedCapacity()))
+                .replaceWithVoid();
+    }
+
+    private Map<String, AttributeValue> key(String event, String sortKey) {
+        Map<String, AttributeValue> key = new HashMap<>();
+        key.put(partitionKeyName, AttributeValue.builder().s(event).build());
+        key.put(sortKeyName, AttributeValue.builder().s(sortKey).build());
+        return key;
+    }
+
+    static AttributeValue number(long value) {
+        return AttributeValue.builder().n(Long.toString(value)).build();
+    }
+}
@@ -0,0 +1,222 @@
+package org.jlopezinc;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.quarkus.vertx.http.runtime.CurrentVertxRequest;
+import io.smallrye.mutiny.Context;
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.Uni;
+import io.smallrye.mutiny.subscription.Cancellable;
+import io.vertx.ext.web.RoutingContext;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import mutiny.zero.flow.adapters.AdaptersToFlow;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.reactivestreams.Publisher;
+import software.amazon.awssdk.services.dynamodb.model.CancellationReason;
+import software.amazon.awssdk.services.dynamodb.model.ConsumedCapacity;
+import software.amazon.awssdk.services.dynamodb.model.DynamoDbException;
+import software.amazon.awssdk.services.dynamodb.model.ProvisionedThroughputExceededException;
+import software.amazon.awssdk.services.dynamodb.model.RequestLimitExceededException;
+import software.amazon.awssdk.services.dynamodb.model.TransactionCanceledException;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Supplier;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * DynamoDB usage per logical operation (check-in, register, counters, reconcile...), to find the
+ * endpoints that burn the table's provisioned capacity.
+ *
+ * Endpoints run their work through {@link #track}, which puts a {@link Usage} in the Mutiny
+ * context of the subscription. DynamoDB calls made anywhere below it go through {@link #call} or
+ * {@link #pages}, which request {@code ReturnConsumedCapacity} totals and add each call, its
+ * capacity and any throttle to that usage; outside a tracked operation they only make the call.
+ *
+ * When the operation ends it is recorded as:
+ * <ul>
+ *     <li>{@code dynamodb.operation}: timer (count and latency histogram), tagged with the outcome</li>
+ *     <li>{@code dynamodb.operation.requests}: DynamoDB requests made</li>
+ *     <li>{@code dynamodb.operation.capacity}: consumed capacity units, per operation</li>
+ *     <li>{@code dynamodb.operation.throttles}: requests that failed on throughput limits</li>
+ * </ul>
+ * With {@code dynamodb.metrics.response-headers=true} the same usage is also returned in the
+ * {@value #REQUESTS_HEADER}, {@value #CAPACITY_HEADER} and {@value #THROTTLES_HEADER} headers.
+ *
+ * Throttles are counted once the SDK has given up retrying them; the ones it retried successfully
+ * only show up as latency.
+ */
+@ApplicationScoped
+public class DynamoDbMetrics {
+
+    static final String USAGE = "dynamodb.usage";
+    static final String REQUESTS_HEADER = "X-DynamoDB-Requests";
+    static final String CAPACITY_HEADER = "X-DynamoDB-Consumed-Capacity";
+    static final String THROTTLES_HEADER = "X-DynamoDB-Throttles";
+
+    private final MeterRegistry registry;
+
+    @ConfigProperty(name = "dynamodb.metrics.response-headers", defaultValue = "false")
+    boolean responseHeaders;
+
+    @Inject
+    CurrentVertxRequest currentVertxRequest;
+
+    @Inject
+    DynamoDbMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * Runs {@code operation} and records the DynamoDB usage of everything it subscribes to.
+     */
+    public <T> Uni<T> track(String operation, Supplier<Uni<T>> work) {
+        // captured on the request thread, the work completes on SDK threads
+        RoutingContext routingContext = responseHeaders && currentVertxRequest != null ? currentVertxRequest.getCurrent() : null;
+        return Uni.createFrom().emitter(emitter -> {
+            Usage usage = new Usage();
+            long start = System.nanoTime();
+            Cancellable subscription = Uni.createFrom().<T>deferred(work::get).subscribe().with(Context.of(USAGE, usage),
+                    item -> {
+                        record(operation, usage, null, System.nanoTime() - start, routingContext);
+                        emitter.complete(item);
+                    },
+                    failure -> {
+                        record(operation, usage, failure, System.nanoTime() - start, routingContext);
+                        emitter.fail(failure);
+                    });
+            emitter.onTermination(subscription::cancel);
+        });
+    }
+
+    /**
+     * Makes one DynamoDB request, adding it to the usage of the tracked operation if there is one.
+     */
+    static <T> Uni<T> call(Supplier<? extends CompletionStage<T>> request, ToDoubleFunction<T> consumedCapacity) {
+        return Uni.createFrom().context(context -> {
+            Usage usage = context.getOrElse(USAGE, () -> null);
+            Uni<T> response = Uni.createFrom().completionStage(request);
+            if (usage == null) {
+                return response;
+            }
+            return response
+                    .onItem().invoke(item -> usage.add(consumedCapacity.applyAsDouble(item)))
+                    .onFailure().invoke(usage::failed);
+        });
+    }
+
+    /**
+     * Streams the pages of a paginated DynamoDB request, adding each page to the usage of the tracked
+     * operation if there is one.
+     */
+    static <T> Multi<T> pages(Supplier<Publisher<T>> request, ToDoubleFunction<T> consumedCapacity) {
+        return Multi.createFrom().context(context -> {
+            Usage usage = context.getOrElse(USAGE, () -> null);
+            Multi<T> pages = Multi.createFrom().publisher(AdaptersToFlow.publisher(request.get()));
+            if (usage == null) {
+                return pages;
+            }
+            return pages
+                    .onItem().invoke(page -> usage.add(consumedCapacity.applyAsDouble(page)))
+                    .onFailure().invoke(usage::failed);
+        });
+    }
+
+    static double units(ConsumedCapacity consumedCapacity) {
+        return consumedCapacity == null || consumedCapacity.capacityUnits() == null ? 0 : consumedCapacity.capacityUnits();
+    }
+
+    static double units(List<ConsumedCapacity> consumedCapacity) {
+        return consumedCapacity == null ? 0 : consumedCapacity.stream().mapToDouble(DynamoDbMetrics::units).sum();
+    }
+
+    /**
+     * Whether a request failed because the table or the account ran out of throughput.
+     */
+    static boolean isThrottle(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (cause instanceof ProvisionedThroughputExceededException || cause instanceof RequestLimitExceededException) {
+            return true;
+        }
+        if (cause instanceof TransactionCanceledException cancelled && cancelled.hasCancellationReasons()) {
+            return cancelled.cancellationReasons().stream()
+                    .map(CancellationReason::code)
+                    .anyMatch(code -> "ThrottlingError".equals(code) || "ProvisionedThroughputExceeded".equals(code));
+        }
+        return cause instanceof DynamoDbException dynamoDbException
+                && dynamoDbException.awsErrorDetails() != null
+                && "ThrottlingException".equals(dynamoDbException.awsErrorDetails().errorCode());
+    }
+
+    private void record(String operation, Usage usage, Throwable failure, long nanos, RoutingContext routingContext) {
+        String outcome = failure == null ? "success" : (isThrottle(failure) ? "throttled" : "error");
+        Timer.builder("dynamodb.operation")
+                .description("Logical operations backed by DynamoDB")
+                .tag("operation", operation)
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(Duration.ofNanos(nanos));
+        Counter.builder("dynamodb.operation.requests")
+                .description("DynamoDB requests made by logical operations")
+                .tag("operation", operation)
+                .register(registry)
+                .increment(usage.requests());
+        DistributionSummary.builder("dynamodb.operation.capacity")
+                .description("Capacity units consumed by logical operations")
+                .baseUnit("capacity units")
+                .tag("operation", operation)
+                .register(registry)
+                .record(usage.capacity());
+        Counter.builder("dynamodb.operation.throttles")
+                .description("DynamoDB requests of logical operations rejected on throughput limits")
+                .tag("operation", operation)
+                .register(registry)
+                .increment(usage.throttles());
+        if (routingContext != null && !routingContext.response().headWritten()) {
+            routingContext.response()
+                    .putHeader(REQUESTS_HEADER, Integer.toString(usage.requests()))
+                    .putHeader(CAPACITY_HEADER, Double.toString(usage.capacity()))
+                    .putHeader(THROTTLES_HEADER, Integer.toString(usage.throttles()));
+        }
+    }
+
+    /**
+     * DynamoDB requests, consumed capacity and throttles of one tracked operation. Its requests may
+     * complete on different threads.
+     */
+    static final class Usage {
+        private int requests;
+        private double capacity;
+        private int throttles;
+
+        synchronized void add(double consumedCapacity) {
+            requests++;
+            capacity += consumedCapacity;
+        }
+
+        synchronized void failed(Throwable error) {
+            requests++;
+            if (isThrottle(error)) {
+                throttles++;
+            }
+        }
+
+        synchronized int requests() {
+            return requests;
+        }
+
+        synchronized double capacity() {
+            return capacity;
+        }
+
+        synchronized int throttles() {
+            return throttles;
+        }
+    }
+}
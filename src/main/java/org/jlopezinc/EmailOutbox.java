@@ -0,0 +1,268 @@
+package org.jlopezinc;
+
+import io.quarkus.logging.Log;
+import io.smallrye.mutiny.Uni;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.jlopezinc.dynamodb.CounterDB;
+import software.amazon.awssdk.enhanced.dynamodb.TableMetadata;
+import software.amazon.awssdk.enhanced.dynamodb.TableSchema;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
+import software.amazon.awssdk.services.dynamodb.model.PutItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.QueryRequest;
+import software.amazon.awssdk.services.dynamodb.model.ReturnConsumedCapacity;
+import software.amazon.awssdk.services.dynamodb.model.UpdateItemRequest;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Outbox of e-mails to send, stored in the events table so a request only has to persist a small
+ * record instead of talking to the SMTP server. {@link OutboxDispatcher} sends them in the background.
+ *
+ * All messages live in one partition ({@value #OUTBOX_PARTITION}). A message moves from
+ * {@value #PENDING} to {@value #SENDING} when a dispatcher claims it, then to {@value #SENT}, or back to
+ * {@value #PENDING} with a later {@value #DUE} time when sending fails. After {@value #MAX_ATTEMPTS}
+ * failed attempts it is left as {@value #FAILED}. Sent and failed messages expire through the table's
+ * TTL attribute ({@value #EXPIRES_AT}).
+ *
+ * Only pending and claimed messages have a {@value #DUE} attribute, the sort key of the sparse
+ * {@value #BY_DUE_INDEX} index: finding the due messages reads those, however many sent ones are
+ * kept until they expire.
+ *
+ * The message id is derived from its content, so enqueueing the same message twice (e.g. a retried
+ * webhook) leaves a single message that is sent once.
+ */
+@ApplicationScoped
+public class EmailOutbox {
+
+    static final String OUTBOX_PARTITION = "outbox";
+
+    static final String PENDING = "PENDING";
+    static final String SENDING = "SENDING";
+    static final String SENT = "SENT";
+    static final String FAILED = "FAILED";
+
+    static final String TARGET_EVENT = "targetEvent";
+    static final String TARGET_EMAIL = "targetEmail";
+    static final String TEMPLATE = "template";
+    static final String STATUS = "status";
+    static final String ATTEMPTS = "attempts";
+    static final String DUE = "due";
+    static final String CREATED_AT = "createdAt";
+    static final String LAST_ERROR = "lastError";
+    static final String EXPIRES_AT = "expiresAt";
+
+    static final String BY_DUE_INDEX = "outboxDue";
+
+    static final int MAX_ATTEMPTS = 8;
+    static final long CLAIM_LEASE_MILLIS = 60_000;
+    private static final long BASE_BACKOFF_MILLIS = 30_000;
+    private static final long MAX_BACKOFF_MILLIS = 3_600_000;
+    private static final long RETENTION_SECONDS = 7 * 24 * 3600;
+
+    private final DynamoDbAsyncClient dynamoDbAsyncClient;
+    private final String partitionKeyName;
+    private final String sortKeyName;
+
+    @Inject
+    EmailOutbox(DynamoDbAsyncClient dynamoDbAsyncClient) {
+        this.dynamoDbAsyncClient = dynamoDbAsyncClient;
+        TableMetadata tableMetadata = TableSchema.fromClass(CounterDB.class).tableMetadata();
+        this.partitionKeyName = tableMetadata.primaryPartitionKey();
+        this.sortKeyName = tableMetadata.primarySortKey().orElseThrow();
+    }
+
+    static final class Message {
+        final String id;
+        final String event;
+        final String email;
+        final String template;
+        final int attempts;
+
+        Message(String id, String event, String email, String template, int attempts) {
+            this.id = id;
+            this.event = event;
+            this.email = email;
+            this.template = template;
+            this.attempts = attempts;
+        }
+    }
+
+    /**
+     * Adds a message to the outbox, due immediately.
+     *
+     * @param dedupSource content identifying this particular message (e.g. the webhook body);
+     *                    a message with the same template, recipient and source is only sent once
+     */
+    public Uni<Void> enqueue(String event, String email, String template, String dedupSource) {
+        long now = System.currentTimeMillis();
+        Map<String, AttributeValue> item = key(messageId(event, email, template, dedupSource));
+        item.put(TARGET_EVENT, string(event));
+        item.put(TARGET_EMAIL, string(email));
+        item.put(TEMPLATE, string(template));
+        item.put(STATUS, string(PENDING));
+        item.put(ATTEMPTS, CounterService.number(0));
+        item.put(DUE, CounterService.number(now));
+        item.put(CREATED_AT, CounterService.number(now));
+        return DynamoDbMetrics.call(() -> dynamoDbAsyncClient.putItem(PutItemRequest.builder()
+                                .tableName(EventV1Service.EVENTS_TABLE)
+                                .item(item)
+                                .conditionExpression("attribute_not_exists(#sk)")
+                                .expressionAttributeNames(Map.of("#sk", sortKeyName))
+                                .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL)
+                                .build()),
+                        response -> DynamoDbMetrics.units(response.consumedCapacity()))
+                .replaceWithVoid()
+                .onFailure(ConditionalCheckFailedException.class).recoverWithItem(() -> {
+                    Log.info("Ignoring duplicate " + template + " e-mail for " + email + " (" + event + ")");
+                    return null;
+                });
+    }
+
+    /**
+     * Up to {@code limit} messages due at {@code now}, the longest due first: pending ones whose
+     * retry time has come and claimed ones whose dispatcher lease ran out. One query of the
+     * {@value #BY_DUE_INDEX} index, which is eventually consistent; {@link #claim} checks again.
+     */
+    public Uni<List<Message>> due(int limit, long now) {
+        return DynamoDbMetrics.call(() -> dynamoDbAsyncClient.query(QueryRequest.builder()
+                                .tableName(EventV1Service.EVENTS_TABLE)
+                                .indexName(BY_DUE_INDEX)
+                                .keyConditionExpression("#pk = :outbox AND #due <= :now")
+                                .expressionAttributeNames(Map.of("#pk", partitionKeyName, "#due", DUE))
+                                .expressionAttributeValues(Map.of(
+                                        ":outbox", string(OUTBOX_PARTITION),
+                                        ":now", CounterService.number(now)))
+                                .limit(limit)
+                                .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL)
+                                .build()),
+                        response -> DynamoDbMetrics.units(response.consumedCapacity()))
+                .onItem().transform(response -> response.items().stream().map(this::toMessage).toList());
+    }
+
+    /**
+     * Takes a lease on a due message so concurrent dispatchers don't send it twice.
+     *
+     * @return false if another dispatcher claimed it (or it was sent) in the meantime
+     */
+    public Uni<Boolean> claim(Message message, long now) {
+        return update(UpdateItemRequest.builder()
+                .tableName(EventV1Service.EVENTS_TABLE)
+                .key(key(message.id))
+                .updateExpression("SET #status = :sending, #due = :lease")
+                // sent and failed messages have no due time
+                .conditionExpression("#due <= :now")
+                .expressionAttributeNames(Map.of("#status", STATUS, "#due", DUE))
+                .expressionAttributeValues(Map.of(
+                        ":sending", string(SENDING),
+                        ":now", CounterService.number(now),
+                        ":lease", CounterService.number(now + CLAIM_LEASE_MILLIS)))
+                .build())
+                .replaceWith(true)
+                .onFailure(ConditionalCheckFailedException.class).recoverWithItem(false);
+    }
+
+    public Uni<Void> markSent(Message message, long now) {
+        return update(UpdateItemRequest.builder()
+                .tableName(EventV1Service.EVENTS_TABLE)
+                .key(key(message.id))
+                .updateExpression("SET #status = :sent, #expires = :expires ADD #attempts :one REMOVE #error, #due")
+                .expressionAttributeNames(Map.of("#status", STATUS, "#expires", EXPIRES_AT, "#attempts", ATTEMPTS,
+                        "#error", LAST_ERROR, "#due", DUE))
+                .expressionAttributeValues(Map.of(
+                        ":sent", string(SENT),
+                        ":expires", CounterService.number(now / 1000 + RETENTION_SECONDS),
+                        ":one", CounterService.number(1)))
+                .build());
+    }
+
+    /**
+     * Records a failed attempt: the message is retried after an exponential backoff, or given up
+     * on after {@value #MAX_ATTEMPTS} attempts.
+     *
+     * @return true if the message will be retried
+     */
+    public Uni<Boolean> markFailed(Message message, String error, long now) {
+        int attempts = message.attempts + 1;
+        boolean retry = attempts < MAX_ATTEMPTS;
+        Map<String, AttributeValue> values = new HashMap<>();
+        values.put(":status", string(retry ? PENDING : FAILED));
+        values.put(":attempts", CounterService.number(attempts));
+        values.put(":error", string(error == null ? "unknown error" : error));
+        String updateExpression = "SET #status = :status, #attempts = :attempts, #error = :error";
+        Map<String, String> names = new HashMap<>(Map.of(
+                "#status", STATUS, "#attempts", ATTEMPTS, "#error", LAST_ERROR, "#due", DUE));
+        if (retry) {
+            updateExpression += ", #due = :due";
+            values.put(":due", CounterService.number(now + backoffMillis(attempts)));
+        } else {
+            updateExpression += ", #expires = :expires REMOVE #due";
+            names.put("#expires", EXPIRES_AT);
+            values.put(":expires", CounterService.number(now / 1000 + RETENTION_SECONDS));
+        }
+        return update(UpdateItemRequest.builder()
+                .tableName(EventV1Service.EVENTS_TABLE)
+                .key(key(message.id))
+                .updateExpression(updateExpression)
+                .expressionAttributeNames(names)
+                .expressionAttributeValues(values)
+                .build())
+                .replaceWith(retry);
+    }
+
+    /**
+     * Exponential backoff with jitter: 30s, 1m, 2m, ... capped at one hour.
+     */
+    static long backoffMillis(int attempts) {
+        long backoff = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << Math.min(Math.max(attempts - 1, 0), 20));
+        return backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+    }
+
+    static String messageId(String event, String email, String template, String dedupSource) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest(String.valueOf(dedupSource).getBytes(StandardCharsets.UTF_8));
+            return template + "#" + event + "#" + email + "#" + HexFormat.of().formatHex(hash, 0, 8);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private Message toMessage(Map<String, AttributeValue> item) {
+        AttributeValue attempts = item.get(ATTEMPTS);
+        return new Message(
+                item.get(sortKeyName).s(),
+                item.get(TARGET_EVENT).s(),
+                item.get(TARGET_EMAIL).s(),
+                item.get(TEMPLATE).s(),
+                attempts != null ? Integer.parseInt(attempts.n()) : 0);
+    }
+
+    private Uni<Void> update(UpdateItemRequest request) {
+        return DynamoDbMetrics.call(() -> dynamoDbAsyncClient.updateItem(request.toBuilder()
+                                .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL)
+                                .build()),
+                        response -> DynamoDbMetrics.units(response.consumedCapacity()))
+                .replaceWithVoid();
+    }
+
+    private Map<String, AttributeValue> key(String id) {
+        Map<String, AttributeValue> key = new HashMap<>();
+        key.put(partitionKeyName, string(OUTBOX_PARTITION));
+        key.put(sortKeyName, string(id));
+        return key;
+    }
+
+    private static AttributeValue string(String value) {
+        return AttributeValue.builder().s(value).build();
+    }
+}
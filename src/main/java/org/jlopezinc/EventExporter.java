@@ -0,0 +1,348 @@
+package org.jlopezinc;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.smallrye.mutiny.Uni;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.BadRequestException;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jlopezinc.dynamodb.UserModelDB;
+import org.jlopezinc.model.UserMetadataModel;
+import software.amazon.awssdk.enhanced.dynamodb.DynamoDbAsyncTable;
+import software.amazon.awssdk.enhanced.dynamodb.DynamoDbEnhancedAsyncClient;
+import software.amazon.awssdk.enhanced.dynamodb.Key;
+import software.amazon.awssdk.enhanced.dynamodb.TableSchema;
+import software.amazon.awssdk.enhanced.dynamodb.model.Page;
+import software.amazon.awssdk.enhanced.dynamodb.model.QueryConditional;
+import software.amazon.awssdk.enhanced.dynamodb.model.QueryEnhancedRequest;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Exports the registrations of an event as CSV or NDJSON, in parts of about
+ * {@code export.max-part-bytes} each.
+ *
+ * The Lambda HTTP adapter returns a response whole, and a Lambda response can't exceed 6 MB, so an
+ * export isn't one streamed response: each part ends after the page that takes it past the limit
+ * and gives a cursor to ask for the next one. Pages are read through the {@link BulkReader}, whose
+ * pace on a small table can make a part take longer than the Lambda timeout, so a part also ends
+ * after the page read once {@code export.part-duration} is over. Only the
+ * attributes behind the requested columns are read; the metadata is read and parsed only for
+ * columns that come from it, or, for the people, vehicle and payment columns, for the registrations
+ * of a page still keeping those in it (see {@link EventV1Service#withUnsplitMetadata(String, List)}).
+ */
+@ApplicationScoped
+public class EventExporter {
+
+    public enum Format {
+        CSV("text/csv; charset=UTF-8", "csv"),
+        NDJSON("application/x-ndjson", "ndjson");
+
+        public final String contentType;
+        public final String extension;
+
+        Format(String contentType, String extension) {
+            this.contentType = contentType;
+            this.extension = extension;
+        }
+    }
+
+    /**
+     * Columns that can be exported, in their default order.
+     */
+    static final Map<String, Column> COLUMNS = new LinkedHashMap<>();
+
+    static {
+        COLUMNS.put("email", new Column(List.of(), row -> row.user.getUserEmail()));
+        COLUMNS.put("phoneNumber", new Column(UserModelDB.PHONE_NUMBER, row -> row.user.getPhoneNumber()));
+        COLUMNS.put("vehicleType", new Column(UserModelDB.VEHICLE_TYPE, row -> row.user.getVehicleType()));
+        COLUMNS.put("paid", new Column(UserModelDB.PAID, row -> row.user.isPaid()));
+        COLUMNS.put("checkedIn", new Column(UserModelDB.CHECKED_IN, row -> row.user.isCheckedIn()));
+        COLUMNS.put("checkInAt", new Column(UserModelDB.CHECK_IN_AT, row -> row.user.getCheckInAt()));
+        COLUMNS.put("checkInBy", new Column(UserModelDB.CHECK_IN_BY, row -> row.user.getCheckInBy()));
+        COLUMNS.put("participantCount", new Column(UserModelDB.PARTICIPANT_COUNT, row -> row.user.getParticipantCount()));
+        COLUMNS.put("names", Column.split(UserModelDB.PEOPLE, row -> row.metadata().getPeople() == null ? null
+                : row.metadata().getPeople().stream().map(UserMetadataModel.People::getName).collect(Collectors.joining("; "))));
+        COLUMNS.put("plate", Column.split(UserModelDB.VEHICLE, row -> row.metadata().getVehicle() == null ? null
+                : row.metadata().getVehicle().getPlate()));
+        COLUMNS.put("vehicle", Column.split(UserModelDB.VEHICLE, row -> row.metadata().getVehicle() == null ? null
+                : row.metadata().getVehicle().getMake()));
+        COLUMNS.put("registeredAt", new Column(UserModelDB.METADATA, row -> row.metadata().getRegisteredAt()));
+        COLUMNS.put("paymentAmount", Column.split(UserModelDB.PAYMENT_INFO, row -> row.metadata().getPaymentInfo() == null ? null
+                : row.metadata().getPaymentInfo().getAmount()));
+        COLUMNS.put("comment", new Column(UserModelDB.METADATA, row -> row.metadata().getComment()));
+    }
+
+    static final int DEFAULT_MAX_PART_BYTES = 3_000_000;
+    static final Duration DEFAULT_PART_DURATION = Duration.ofSeconds(10);
+
+    private final DynamoDbAsyncTable<UserModelDB> userModelTable;
+
+    @Inject
+    ObjectMapper objectMapper;
+
+    // uncompressed; a page of registrations past it stays well under the response limit
+    @ConfigProperty(name = "export.max-part-bytes", defaultValue = "" + DEFAULT_MAX_PART_BYTES)
+    int maxPartBytes = DEFAULT_MAX_PART_BYTES;
+
+    @ConfigProperty(name = "export.part-duration", defaultValue = "10s")
+    Duration partDuration = DEFAULT_PART_DURATION;
+
+    @Inject
+    BulkReader bulkReader;
+
+    @Inject
+    EventV1Service eventV1Service;
+
+    @Inject
+    EventExporter(DynamoDbEnhancedAsyncClient dynamoDbEnhancedAsyncClient) {
+        userModelTable = dynamoDbEnhancedAsyncClient.table(EventV1Service.EVENTS_TABLE, TableSchema.fromClass(UserModelDB.class));
+    }
+
+    /**
+     * Parses a {@code fields} parameter: comma separated column names, all of them if blank.
+     *
+     * @throws BadRequestException on an unknown column
+     */
+    static List<String> columns(String fields) {
+        if (fields == null || fields.isBlank()) {
+            return new ArrayList<>(COLUMNS.keySet());
+        }
+        Set<String> columns = new LinkedHashSet<>();
+        for (String field : fields.split(",")) {
+            String column = field.trim();
+            if (!COLUMNS.containsKey(column)) {
+                throw new BadRequestException("Unknown field " + column + ", expected some of " + COLUMNS.keySet());
+            }
+            columns.add(column);
+        }
+        return new ArrayList<>(columns);
+    }
+
+    /**
+     * A part of the export of {@code event}: the registrations after {@code cursor} (null: from the
+     * first one, with the CSV header) up to about {@code export.max-part-bytes}, or as many as were
+     * read in {@code export.part-duration}.
+     *
+     * @throws BadRequestException on an invalid cursor
+     */
+    public Uni<Part> export(String event, Format format, List<String> columns, boolean gzip, String cursor) {
+        Set<String> attributes = new LinkedHashSet<>();
+        attributes.add(UserModelDB.SORT_KEY);
+        columns.forEach(column -> attributes.addAll(COLUMNS.get(column).attributes));
+        boolean readsSplitParts = columns.stream().anyMatch(column -> COLUMNS.get(column).splitPart);
+        QueryEnhancedRequest request = QueryEnhancedRequest.builder()
+                .queryConditional(QueryConditional.keyEqualTo(Key.builder().partitionValue(event).build()))
+                .attributesToProject(new ArrayList<>(attributes))
+                .build();
+        Map<String, AttributeValue> startKey = cursor == null ? null : startKey(event, cursor);
+        return Uni.createFrom().deferred(() -> {
+            PartWriter part = new PartWriter(System.nanoTime() + partDuration.toNanos());
+            if (cursor == null && format == Format.CSV) {
+                part.write(utf8(csvLine(new ArrayList<>(columns))));
+            }
+            return bulkReader.queryUntil(userModelTable, request, startKey, page -> (readsSplitParts
+                            ? eventV1Service.withUnsplitMetadata(event, page.items()) : Uni.createFrom().item(page.items()))
+                            .onItem().transform(users -> part.add(lines(users, format, columns), page)))
+                    .onItem().ignoreAsUni()
+                    .onItem().transform(ignored -> part.finish(gzip));
+        });
+    }
+
+    private byte[] lines(List<UserModelDB> users, Format format, List<String> columns) {
+        StringBuilder lines = new StringBuilder();
+        for (UserModelDB user : users) {
+            if (!EventV1Service.isUserRecord(user)) {
+                continue;
+            }
+            Row row = new Row(user);
+            if (format == Format.CSV) {
+                List<Object> values = new ArrayList<>(columns.size());
+                columns.forEach(column -> values.add(COLUMNS.get(column).value.apply(row)));
+                lines.append(csvLine(values));
+            } else {
+                Map<String, Object> values = new LinkedHashMap<>();
+                columns.forEach(column -> values.put(column, json(COLUMNS.get(column).value.apply(row))));
+                try {
+                    lines.append(objectMapper.writeValueAsString(values)).append('\n');
+                } catch (JsonProcessingException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+        return utf8(lines.toString());
+    }
+
+    static String csvLine(List<Object> values) {
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < values.size(); i++) {
+            if (i > 0) {
+                line.append(',');
+            }
+            String value = text(values.get(i));
+            if (value.indexOf(',') >= 0 || value.indexOf('"') >= 0 || value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0) {
+                line.append('"').append(value.replace("\"", "\"\"")).append('"');
+            } else {
+                line.append(value);
+            }
+        }
+        return line.append("\r\n").toString();
+    }
+
+    private static String text(Object value) {
+        Object json = json(value);
+        return json == null ? "" : json.toString();
+    }
+
+    /**
+     * Dates as ISO 8601 text, like the rest of the API; everything else as it is.
+     */
+    private static Object json(Object value) {
+        if (value instanceof Date date) {
+            return date.toInstant().toString();
+        }
+        if (value instanceof Instant instant) {
+            return instant.toString();
+        }
+        return value;
+    }
+
+    private static byte[] utf8(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A registration being exported; the metadata is parsed the first time a column needs it.
+     */
+    private final class Row {
+        final UserModelDB user;
+        private UserMetadataModel metadata;
+
+        Row(UserModelDB user) {
+            this.user = user;
+        }
+
+        UserMetadataModel metadata() {
+            if (metadata == null) {
+                try {
+                    metadata = EventV1Service.readMetadata(objectMapper, user);
+                } catch (JsonProcessingException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return metadata;
+        }
+    }
+
+    static final class Column {
+        // the attributes to read for the column, none for the key
+        final List<String> attributes;
+        final Function<Row, Object> value;
+        // from a part split out of the metadata, still in it for records written before
+        final boolean splitPart;
+
+        Column(String attribute, Function<Row, Object> value) {
+            this(attribute == null ? List.of() : List.of(attribute), value, false);
+        }
+
+        private Column(List<String> attributes, Function<Row, Object> value, boolean splitPart) {
+            this.attributes = attributes;
+            this.value = value;
+            this.splitPart = splitPart;
+        }
+
+        /**
+         * A column from {@code attribute}, split out of the metadata; the people are read along to
+         * tell the records still keeping it in the metadata apart (every registration has a driver).
+         */
+        static Column split(String attribute, Function<Row, Object> value) {
+            return new Column(attribute.equals(UserModelDB.PEOPLE) ? List.of(attribute) : List.of(attribute, UserModelDB.PEOPLE),
+                    value, true);
+        }
+    }
+
+    /**
+     * A part of an export, and the cursor of the next one (null if it is the last part).
+     */
+    public static final class Part {
+        public final byte[] body;
+        public final String nextCursor;
+
+        Part(byte[] body, String nextCursor) {
+            this.body = body;
+            this.nextCursor = nextCursor;
+        }
+    }
+
+    private final class PartWriter {
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        // a System.nanoTime()
+        private final long deadline;
+        private Map<String, AttributeValue> lastEvaluatedKey;
+
+        PartWriter(long deadline) {
+            this.deadline = deadline;
+        }
+
+        void write(byte[] lines) {
+            body.writeBytes(lines);
+        }
+
+        /**
+         * @return whether there is room and time for another page
+         */
+        boolean add(byte[] lines, Page<UserModelDB> page) {
+            write(lines);
+            lastEvaluatedKey = page.lastEvaluatedKey();
+            return body.size() < maxPartBytes && System.nanoTime() < deadline;
+        }
+
+        Part finish(boolean gzip) {
+            String nextCursor = lastEvaluatedKey == null || lastEvaluatedKey.isEmpty() ? null
+                    : Base64.getUrlEncoder().withoutPadding().encodeToString(
+                            lastEvaluatedKey.get(UserModelDB.SORT_KEY).s().getBytes(StandardCharsets.UTF_8));
+            if (!gzip) {
+                return new Part(body.toByteArray(), nextCursor);
+            }
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(body.size() / 4 + 64);
+            try (GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+                body.writeTo(out);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return new Part(compressed.toByteArray(), nextCursor);
+        }
+    }
+
+    private static Map<String, AttributeValue> startKey(String event, String cursor) {
+        String sortKey;
+        try {
+            sortKey = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException("Invalid cursor");
+        }
+        Map<String, AttributeValue> key = new HashMap<>();
+        key.put(UserModelDB.PARTITION_KEY, AttributeValue.builder().s(event).build());
+        key.put(UserModelDB.SORT_KEY, AttributeValue.builder().s(sortKey).build());
+        return key;
+    }
+}
@@ -1,42 +1,83 @@
 package org.jlopezinc;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import io.quarkus.logging.Log;
+import io.smallrye.mutiny.Multi;
 import io.smallrye.mutiny.Uni;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
+import jakarta.ws.rs.BadRequestException;
 import jakarta.ws.rs.NotFoundException;
 import jakarta.ws.rs.core.NoContentException;
-import org.jlopezinc.dynamodb.CounterDB;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jlopezinc.dynamodb.CompactJsonAttributeConverter;
+import org.jlopezinc.dynamodb.JsonAttributeConverter;
 import org.jlopezinc.dynamodb.UserModelDB;
+import org.jlopezinc.model.BackfillResponse;
+import org.jlopezinc.model.BulkCheckInResponse;
+import org.jlopezinc.model.BulkCheckInResult;
 import org.jlopezinc.model.ChangeHistoryEntry;
+import org.jlopezinc.model.ChangeHistoryPage;
 import org.jlopezinc.model.CountersModel;
 import org.jlopezinc.model.PaymentInfo;
-import org.jlopezinc.model.ReconcileCountersResponse;
+import org.jlopezinc.model.ScannerOperation;
+import org.jlopezinc.model.ScannerSyncResponse;
+import org.jlopezinc.model.ScannerSyncResult;
 import org.jlopezinc.model.UserMetadataModel;
 import org.jlopezinc.model.UserModel;
 import org.jlopezinc.model.WebhookModel;
+import software.amazon.awssdk.enhanced.dynamodb.DynamoDbAsyncIndex;
 import software.amazon.awssdk.enhanced.dynamodb.DynamoDbAsyncTable;
 import software.amazon.awssdk.enhanced.dynamodb.DynamoDbEnhancedAsyncClient;
+import software.amazon.awssdk.enhanced.dynamodb.Expression;
 import software.amazon.awssdk.enhanced.dynamodb.Key;
 import software.amazon.awssdk.enhanced.dynamodb.TableSchema;
+import software.amazon.awssdk.enhanced.dynamodb.model.GetItemEnhancedResponse;
+import software.amazon.awssdk.enhanced.dynamodb.model.Page;
 import software.amazon.awssdk.enhanced.dynamodb.model.QueryConditional;
+import software.amazon.awssdk.enhanced.dynamodb.model.QueryEnhancedRequest;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
 import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.BatchGetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
+import software.amazon.awssdk.services.dynamodb.model.KeysAndAttributes;
+import software.amazon.awssdk.services.dynamodb.model.ProvisionedThroughputExceededException;
+import software.amazon.awssdk.services.dynamodb.model.Put;
+import software.amazon.awssdk.services.dynamodb.model.ReturnConsumedCapacity;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItem;
+import software.amazon.awssdk.services.dynamodb.model.Update;
+import software.amazon.awssdk.services.dynamodb.model.UpdateItemRequest;
 import software.amazon.awssdk.utils.StringUtils;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Base64;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.concurrent.CompletableFuture;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Function;
+import java.time.Duration;
 import java.time.Instant;
 
 @ApplicationScoped
 public class EventV1Service {
 
-    private static final String EVENTS_TABLE = "eventsRegister";
+    static final String EVENTS_TABLE = "eventsRegister";
     static final String CHECK_IN_COUNTER = "checkInCounter";
     static final String PAID_COUNTER = "paidCounter";
 
@@ -44,8 +85,51 @@ public class EventV1Service {
     static final String PARTICIPANTS_CHECKED_IN_COUNTER = "participantsCheckedIn";
     static final String PARTICIPANTS_NOT_CHECKED_IN_COUNTER = "participantsNotCheckedIn";
 
+    private static final int BACKFILL_CONCURRENCY = 4;
+    static final Duration DEFAULT_BACKFILL_SLICE = Duration.ofSeconds(10);
+    private static final String BACKFILL_ATTRIBUTES_PASS = "attributes";
+    private static final String BACKFILL_DOCUMENTS_PASS = "documents";
+    // the metadata field legacy change history entries are embedded in
+    private static final String EMBEDDED_CHANGE_HISTORY = "changeHistory";
+    private static final int MAX_WRITE_RETRIES = 2;
+    static final int MAX_BULK_CHECK_IN = 100;
+    // check-in and change history entry per registration, plus the counters: within the 100 items of a transaction
+    private static final int CHECK_INS_PER_TRANSACTION = 49;
+    private static final int MAX_TRANSACTION_ITEMS = 100;
+    // with their registrations, within the 100 keys of a BatchGetItem
+    static final int MAX_SYNC_OPERATIONS = 40;
+    static final String SYNCED_OPERATION_PREFIX = "scanner-op#";
+    private static final long SYNCED_OPERATION_RETENTION_SECONDS = 30L * 24 * 3600;
+    private static final int MAX_BATCH_GET_ATTEMPTS = 5;
+    private static final int MAX_BATCH_GET_KEYS = 100;
+    // change history entries written in the same transaction as the registration
+    private static final int MAX_TRANSACTION_HISTORY = 10;
+
+    static final String REGISTRATION_EMAIL_TEMPLATE = "userRegistration";
+
+    // stored with the JsonAttributeConverter, the metadata with the CompactJsonAttributeConverter
+    private static final List<String> JSON_DOCUMENTS = List.of(
+            UserModelDB.METADATA, UserModelDB.PEOPLE, UserModelDB.VEHICLE, UserModelDB.PAYMENT_INFO);
+    private static final CompactJsonAttributeConverter METADATA_ATTRIBUTE = CompactJsonAttributeConverter.create();
+    private static final JsonAttributeConverter PART_ATTRIBUTE = JsonAttributeConverter.create();
+
+    // metadata is only parsed for records without participantCount (not backfilled yet)
+    private static final List<String> RECONCILE_ATTRIBUTES = List.of(
+            UserModelDB.SORT_KEY, UserModelDB.VEHICLE_TYPE, UserModelDB.CHECKED_IN, UserModelDB.PAID,
+            UserModelDB.PARTICIPANT_COUNT, UserModelDB.METADATA);
+
+    // what a check-in's condition and counter deltas are computed from, and its "already checked in" log
+    private static final List<String> CHECK_IN_ATTRIBUTES = List.of(
+            UserModelDB.PARTITION_KEY, UserModelDB.SORT_KEY, UserModelDB.CHECKED_IN, UserModelDB.CHECK_IN_AT,
+            UserModelDB.PAID, UserModelDB.PARTICIPANT_COUNT, UserModelDB.VEHICLE_TYPE, UserModelDB.VERSION);
+
+    static final List<String> COUNTER_NAMES = List.of(
+            "total", "totalcar", "totalmotorcycle", "totalquad",
+            CHECK_IN_COUNTER + "car", CHECK_IN_COUNTER + "motorcycle", CHECK_IN_COUNTER + "quad",
+            PAID_COUNTER, PAID_COUNTER + "car", PAID_COUNTER + "motorcycle", PAID_COUNTER + "quad",
+            TOTAL_PARTICIPANTS_COUNTER, PARTICIPANTS_CHECKED_IN_COUNTER, PARTICIPANTS_NOT_CHECKED_IN_COUNTER);
+
     private DynamoDbAsyncTable<UserModelDB> userModelTable;
-    private DynamoDbAsyncTable<CounterDB> counterModelTable;
 
     @Inject
     ObjectMapper objectMapper;
@@ -53,10 +137,33 @@ public class EventV1Service {
     @Inject
     MailerService mailerService;
 
+    @Inject
+    CounterService counterService;
+
+    @Inject
+    DynamoDbAsyncClient dynamoDbAsyncClient;
+
+    @Inject
+    ChangeHistoryService changeHistoryService;
+
+    @Inject
+    EmailOutbox emailOutbox;
+
+    @Inject
+    BulkReader bulkReader;
+
+    @Inject
+    WebhookArchive webhookArchive;
+
+    // reading time per backfill call, within the Lambda timeout
+    @ConfigProperty(name = "backfill.slice-duration", defaultValue = "10s")
+    Duration backfillSliceDuration = DEFAULT_BACKFILL_SLICE;
+
+    private ObjectMapper storedMetadataMapper;
+
     @Inject
     EventV1Service (DynamoDbEnhancedAsyncClient dynamoDbEnhancedAsyncClient){
         userModelTable = dynamoDbEnhancedAsyncClient.table(EVENTS_TABLE, TableSchema.fromClass(UserModelDB.class));
-        counterModelTable = dynamoDbEnhancedAsyncClient.table(EVENTS_TABLE, TableSchema.fromClass(CounterDB.class));
     }
 
     /**
@@ -89,11 +196,17 @@ public class EventV1Service {
             metadata.setChangeHistory(new ArrayList<>());
         }
         
+        metadata.getChangeHistory().add(changeHistoryEntry(action, description));
+    }
+
+    /**
+     * Creates a change history entry timestamped now, for paths that write it directly
+     * instead of through the metadata (see {@link #addChangeHistoryEntry}).
+     */
+    static ChangeHistoryEntry changeHistoryEntry(String action, String description) {
         // Create ISO 8601 timestamp using thread-safe java.time API
-        String timestamp = Instant.now().toString();
-        
-        ChangeHistoryEntry entry = new ChangeHistoryEntry(timestamp, action, description);
-        metadata.getChangeHistory().add(entry);
+        String timestamp = ChangeHistoryService.TIMESTAMP_FORMAT.format(Instant.now());
+        return new ChangeHistoryEntry(timestamp, action, description);
     }
     
     /**
@@ -103,7 +216,7 @@ public class EventV1Service {
      * @param text The text to sanitize (can be null)
      * @return The sanitized text, or "(empty)" if null or blank
      */
-    private String sanitizeForDescription(String text) {
+    String sanitizeForDescription(String text) {
         if (text == null || text.isBlank()) {
             return "(empty)";
         }
@@ -123,7 +236,7 @@ public class EventV1Service {
      * @param people The people list to format (can be null)
      * @return A formatted string representation
      */
-    private String formatPeopleForAudit(List<UserMetadataModel.People> people) {
+    String formatPeopleForAudit(List<UserMetadataModel.People> people) {
         if (people == null || people.isEmpty()) {
             return "(empty)";
         }
@@ -149,7 +262,7 @@ public class EventV1Service {
      * @param vehicle The vehicle to format (can be null)
      * @return A formatted string representation
      */
-    private String formatVehicleForAudit(UserMetadataModel.Vehicle vehicle) {
+    String formatVehicleForAudit(UserMetadataModel.Vehicle vehicle) {
         if (vehicle == null) {
             return "(empty)";
         }
@@ -181,101 +294,233 @@ public class EventV1Service {
     }
 
     public Uni<UserModel> getByEventAndEmail (String event, String email){
-        Key partitioKey = Key.builder().partitionValue(event).sortValue(email).build();
-        return Uni.createFrom().completionStage(() -> userModelTable.getItem(partitioKey)).onItem().transform(
+        return getUserModelDB(event, email).onItem().transform(
                 userModelDbTransform
         );
     }
 
+    /**
+     * Reads a registration with the latest {@code historyLimit} change history entries, oldest first.
+     * Entries still embedded in the metadata of registrations that weren't written since the history
+     * moved to its own items are merged in.
+     */
+    public Uni<UserModel> getByEventAndEmail (String event, String email, int historyLimit){
+        return getByEventAndEmail(event, email)
+                .onItem().ifNotNull().call(userModel -> changeHistoryService.latest(event, email, historyLimit)
+                        .onItem().invoke(latest -> userModel.getMetadata().setChangeHistory(
+                                mergeChangeHistory(userModel.getMetadata().getChangeHistory(), latest, historyLimit))));
+    }
+
+    /**
+     * Reads the {@code fields} of a registration, all of them if null: only the attributes behind
+     * them are read, and the change history only when asked for.
+     */
+    Uni<UserModel> getByEventAndEmail (String event, String email, int historyLimit, UserFields fields){
+        if (fields == null) {
+            return getByEventAndEmail(event, email, historyLimit);
+        }
+        Uni<UserModel> userModel = getUserModelDB(event, email, fields.attributes())
+                .onItem().transformToUni(user -> withUnsplitMetadata(user, fields))
+                .onItem().transform(userModelDbTransform);
+        if (!fields.includes("changeHistory")) {
+            return userModel;
+        }
+        return userModel.onItem().ifNotNull().call(user -> changeHistoryService.latest(event, email, historyLimit)
+                .onItem().invoke(latest -> user.getMetadata().setChangeHistory(
+                        mergeChangeHistory(user.getMetadata().getChangeHistory(), latest, historyLimit))));
+    }
+
+    /**
+     * {@code user}, read with the projection of {@code fields}, with its metadata read as well when it
+     * was written before people, vehicle and payment were split out of it (it has no people) and one
+     * of them was asked for: they are still only in the metadata until the backfill splits them.
+     */
+    private Uni<UserModelDB> withUnsplitMetadata(UserModelDB user, UserFields fields) {
+        if (user == null || user.getPeople() != null || user.getMetadata() != null || !fields.readsSplitFields()) {
+            return Uni.createFrom().item(user);
+        }
+        return getUserModelDB(user.getEventName(), user.getUserEmail(),
+                        List.of(UserModelDB.PARTITION_KEY, UserModelDB.SORT_KEY, UserModelDB.METADATA))
+                .onItem().transform(unsplit -> {
+                    if (unsplit != null) {
+                        user.setMetadata(unsplit.getMetadata());
+                    }
+                    return user;
+                });
+    }
+
+    /**
+     * {@code users} of {@code event}, read with a projection without the metadata, with the metadata
+     * read as well for the ones written before people, vehicle and payment were split out of it (they
+     * have no people), as {@link #withUnsplitMetadata(UserModelDB, UserFields)} does for one
+     * registration: with a {@code BatchGetItem} per 100 of them.
+     */
+    Uni<List<UserModelDB>> withUnsplitMetadata(String event, List<UserModelDB> users) {
+        List<UserModelDB> unsplit = users.stream()
+                .filter(user -> isUserRecord(user) && user.getPeople() == null && user.getMetadata() == null)
+                .toList();
+        if (unsplit.isEmpty()) {
+            return Uni.createFrom().item(users);
+        }
+        List<List<Map<String, AttributeValue>>> batches = new ArrayList<>();
+        for (int i = 0; i < unsplit.size(); i += MAX_BATCH_GET_KEYS) {
+            batches.add(unsplit.subList(i, Math.min(i + MAX_BATCH_GET_KEYS, unsplit.size())).stream()
+                    .map(user -> userKey(event, user.getUserEmail()))
+                    .toList());
+        }
+        Map<String, UserModelDB> byEmail = new HashMap<>();
+        unsplit.forEach(user -> byEmail.put(user.getUserEmail(), user));
+        return Multi.createFrom().iterable(batches)
+                .onItem().transformToUniAndConcatenate(keys -> batchGetItems(keys,
+                        List.of(UserModelDB.PARTITION_KEY, UserModelDB.SORT_KEY, UserModelDB.METADATA)))
+                .onItem().invoke(items -> items.forEach(item -> {
+                    UserModelDB read = userModelTable.tableSchema().mapToItem(item);
+                    byEmail.get(read.getUserEmail()).setMetadata(read.getMetadata());
+                }))
+                .collect().last()
+                .replaceWith(users);
+    }
+
+    /**
+     * What to answer with {@code userModel}: itself, or only the requested {@code fields} of it.
+     */
+    Object view(UserModel userModel, UserFields fields) {
+        return userModel == null || fields == null ? userModel : fields.write(objectMapper, userModel);
+    }
+
+    /**
+     * Change history of a registration, newest first, one page at a time.
+     */
+    public Uni<ChangeHistoryPage> getChangeHistory(String event, String email, int limit, String cursor){
+        // entries still embedded in the metadata of registrations not written since are moved by the backfill
+        return changeHistoryService.page(event, email, limit, cursor)
+                .call(page -> cursor != null || !page.getEntries().isEmpty() ? Uni.createFrom().voidItem()
+                        : getUserModelDB(event, email, List.of(UserModelDB.PARTITION_KEY, UserModelDB.SORT_KEY))
+                                .onItem().ifNull().failWith(() -> new NoContentException("Not Found"))
+                                .replaceWithVoid());
+    }
+
+    /**
+     * The webhook body a registration was made (or last updated) with, from the {@link WebhookArchive},
+     * or embedded in the metadata for registrations not backfilled since bodies are archived.
+     */
+    public Uni<String> getRawWebhook(String event, String email) {
+        return getUserModelDB(event, email, List.of(UserModelDB.PARTITION_KEY, UserModelDB.SORT_KEY, UserModelDB.METADATA))
+                .onItem().ifNull().failWith(() -> new NoContentException("Not Found"))
+                .onItem().transform(userModelDbTransform)
+                .onItem().transformToUni(userModel -> userModel.getMetadata().getRawWebhookId() == null
+                        ? Uni.createFrom().item(userModel.getMetadata().getRawWebhook())
+                        : webhookArchive.fetch(event, userModel.getMetadata().getRawWebhookId()))
+                .onItem().ifNull().failWith(() -> new NoContentException("Not Found"));
+    }
+
+    static List<ChangeHistoryEntry> mergeChangeHistory(List<ChangeHistoryEntry> embedded, List<ChangeHistoryEntry> stored, int limit) {
+        Map<String, ChangeHistoryEntry> byKey = new TreeMap<>();
+        if (embedded != null) {
+            embedded.forEach(entry -> byKey.put(ChangeHistoryService.sortKey(entry), entry));
+        }
+        stored.forEach(entry -> byKey.put(ChangeHistoryService.sortKey(entry), entry));
+        List<ChangeHistoryEntry> merged = new ArrayList<>(byKey.values());
+        return new ArrayList<>(merged.subList(Math.max(0, merged.size() - Math.max(limit, 0)), merged.size()));
+    }
+
+    /**
+     * The metadata document to store. The change history is stored as separate items
+     * (see {@link ChangeHistoryService}), the check-in, people, vehicle and payment as attributes of
+     * their own (see {@link #userModelTransform}), so they are left out of it.
+     */
+    JsonNode storedMetadata(UserMetadataModel metadata) {
+        if (storedMetadataMapper == null) {
+            storedMetadataMapper = objectMapper.copy()
+                    .addMixIn(UserMetadataModel.class, StoredMetadataMixIn.class);
+        }
+        return storedMetadataMapper.valueToTree(metadata);
+    }
+
+    @JsonIgnoreProperties({"changeHistory", "checkIn", "people", "vehicle", "paymentInfo"})
+    private abstract static class StoredMetadataMixIn {
+    }
+
+    /**
+     * The metadata of a registration: the {@link UserModelDB#METADATA} document with the parts
+     * stored as attributes of their own laid over it. Records not written since the parts were split
+     * out only have the document. Empty if neither was read (a projected read without metadata fields).
+     */
+    static UserMetadataModel readMetadata(ObjectMapper objectMapper, UserModelDB userModelDB) throws JsonProcessingException {
+        UserMetadataModel metadata = userModelDB.getMetadata() == null ? new UserMetadataModel()
+                : objectMapper.treeToValue(userModelDB.getMetadata(), UserMetadataModel.class);
+        if (userModelDB.getPeople() != null) {
+            metadata.setPeople(objectMapper.treeToValue(userModelDB.getPeople(), objectMapper.constructType(PEOPLE_TYPE)));
+        }
+        if (userModelDB.getVehicle() != null) {
+            metadata.setVehicle(objectMapper.treeToValue(userModelDB.getVehicle(), UserMetadataModel.Vehicle.class));
+        }
+        if (userModelDB.getPaymentInfo() != null) {
+            metadata.setPaymentInfo(objectMapper.treeToValue(userModelDB.getPaymentInfo(), PaymentInfo.class));
+        }
+        return metadata;
+    }
+
+    private static final TypeReference<List<UserMetadataModel.People>> PEOPLE_TYPE = new TypeReference<>() {
+    };
+
     public Uni<UserModel> getByEventAndPhoneNumber(String event, String phoneNumber) {
-        QueryConditional queryConditional = QueryConditional.keyEqualTo(Key.builder().partitionValue(event).build());
-        
-        return Uni.createFrom().completionStage(() -> {
-            CompletableFuture<UserModelDB> userModelDBCompletableFuture = new CompletableFuture<>();
+        return getByEventAndPhoneNumber(event, phoneNumber, null);
+    }
 
-            userModelTable.query(r -> r.queryConditional(queryConditional)
-                    .filterExpression(software.amazon.awssdk.enhanced.dynamodb.Expression.builder()
-                            .expression("phoneNumber = :phoneNumber")
-                            .putExpressionValue(":phoneNumber", AttributeValue.builder().s(phoneNumber).build())
-                            .build()))
-                    .subscribe(rp -> {
-                        List<UserModelDB> userModelDBList = new ArrayList<>(rp.items());
-                        if (userModelDBList.isEmpty()){
-                            userModelDBCompletableFuture.complete(null);
-                        } else {
-                            userModelDBCompletableFuture.complete(userModelDBList.get(0));
-                        }
-                    });
-            return userModelDBCompletableFuture;
-        }).map(userModelDbTransform);
+    /**
+     * Reads the {@code fields} of the registration with {@code phoneNumber}, all of them if null.
+     */
+    Uni<UserModel> getByEventAndPhoneNumber(String event, String phoneNumber, UserFields fields) {
+        String normalizedPhoneNumber = normalizePhoneNumber(phoneNumber);
+        if (normalizedPhoneNumber == null) {
+            return Uni.createFrom().nullItem();
+        }
+        DynamoDbAsyncIndex<UserModelDB> byPhone = userModelTable.index(UserModelDB.BY_PHONE_INDEX);
+        QueryConditional queryConditional = QueryConditional.keyEqualTo(Key.builder().partitionValue(event).sortValue(normalizedPhoneNumber).build());
+
+        QueryEnhancedRequest.Builder request = QueryEnhancedRequest.builder()
+                .queryConditional(queryConditional)
+                .limit(1)
+                .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL);
+        if (fields != null) {
+            request.attributesToProject(fields.attributes());
+        }
+
+        return DynamoDbMetrics.pages(() -> byPhone.query(request.build()),
+                        page -> DynamoDbMetrics.units(page.consumedCapacity()))
+                .select().first()
+                .toUni()
+                .map(page -> page == null || page.items().isEmpty() ? null : page.items().get(0))
+                .chain(user -> fields == null ? Uni.createFrom().item(user) : withUnsplitMetadata(user, fields))
+                .map(userModelDbTransform);
     }
 
     public Uni<CountersModel> getCountersByEvent(String event) {
-        CompletableFuture<CounterDB> totalKey = counterModelTable.getItem(Key.builder().partitionValue(event).sortValue("total").build());
-        CompletableFuture<CounterDB> totalCarKey = counterModelTable.getItem(Key.builder().partitionValue(event).sortValue("totalcar").build());
-        CompletableFuture<CounterDB> totalMotorCycleKey = counterModelTable.getItem(Key.builder().partitionValue(event).sortValue("totalmotorcycle").build());
-        CompletableFuture<CounterDB> totalQuadKey = counterModelTable.getItem(Key.builder().partitionValue(event).sortValue("totalquad").build());
-        CompletableFuture<CounterDB> checkInCarKey = counterModelTable.getItem(Key.builder().partitionValue(event).sortValue(CHECK_IN_COUNTER + "car").build());
-        CompletableFuture<CounterDB> checkInMotorcycleKey = counterModelTable.getItem(Key.builder().partitionValue(event).sortValue(CHECK_IN_COUNTER + "motorcycle").build());
-        CompletableFuture<CounterDB> checkInQuadKey = counterModelTable.getItem(Key.builder().partitionValue(event).sortValue(CHECK_IN_COUNTER + "quad").build());
-        CompletableFuture<CounterDB> paidCounterKey = counterModelTable.getItem(Key.builder().partitionValue(event).sortValue(PAID_COUNTER).build());
-        CompletableFuture<CounterDB> paidCarKey = counterModelTable.getItem(Key.builder().partitionValue(event).sortValue(PAID_COUNTER + "car").build());
-        CompletableFuture<CounterDB> paidMotorcycleKey = counterModelTable.getItem(Key.builder().partitionValue(event).sortValue(PAID_COUNTER + "motorcycle").build());
-        CompletableFuture<CounterDB> paidQuadKey = counterModelTable.getItem(Key.builder().partitionValue(event).sortValue(PAID_COUNTER + "quad").build());
-        CompletableFuture<CounterDB> totalParticipantsKey = counterModelTable.getItem(Key.builder().partitionValue(event).sortValue(TOTAL_PARTICIPANTS_COUNTER).build());
-        CompletableFuture<CounterDB> participantsCheckedInKey = counterModelTable.getItem(Key.builder().partitionValue(event).sortValue(PARTICIPANTS_CHECKED_IN_COUNTER).build());
-        CompletableFuture<CounterDB> participantsNotCheckedInKey = counterModelTable.getItem(Key.builder().partitionValue(event).sortValue(PARTICIPANTS_NOT_CHECKED_IN_COUNTER).build());
-
-        return Uni.combine()
-                .all().unis(
-                        Uni.createFrom().completionStage(totalKey),
-                        Uni.createFrom().completionStage(totalCarKey),
-                        Uni.createFrom().completionStage(totalMotorCycleKey),
-                        Uni.createFrom().completionStage(totalQuadKey),
-                        Uni.createFrom().completionStage(checkInCarKey),
-                        Uni.createFrom().completionStage(checkInMotorcycleKey),
-                        Uni.createFrom().completionStage(checkInQuadKey),
-                        Uni.createFrom().completionStage(paidCounterKey),
-                        Uni.createFrom().completionStage(paidCarKey),
-                        Uni.createFrom().completionStage(paidMotorcycleKey),
-                        Uni.createFrom().completionStage(paidQuadKey),
-                        Uni.createFrom().completionStage(totalParticipantsKey),
-                        Uni.createFrom().completionStage(participantsCheckedInKey),
-                        Uni.createFrom().completionStage(participantsNotCheckedInKey))
-                .combinedWith(responses -> {
-                            CountersModel countersModel = new CountersModel();
-                            CounterDB totalUser = (CounterDB) responses.get(0);
-                            CounterDB totalCar = (CounterDB) responses.get(1);
-                            CounterDB totalMotorCycle = (CounterDB) responses.get(2);
-                            CounterDB totalQuad = (CounterDB) responses.get(3);
-                            CounterDB checkedInCarUser = (CounterDB) responses.get(4);
-                            CounterDB checkedInMotorbikeUser = (CounterDB) responses.get(5);
-                            CounterDB checkedInQuadUser = (CounterDB) responses.get(6);
-                            CounterDB paidUser = (CounterDB) responses.get(7);
-                            CounterDB paidCar = (CounterDB) responses.get(8);
-                            CounterDB paidMotorbike = (CounterDB) responses.get(9);
-                            CounterDB paidQuad = (CounterDB) responses.get(10);
-                            CounterDB totalParticipants = (CounterDB) responses.get(11);
-                            CounterDB participantsCheckedIn = (CounterDB) responses.get(12);
-                            CounterDB participantsNotCheckedIn = (CounterDB) responses.get(13);
-
-                            countersModel.setTotal(totalUser != null ? totalUser.getCount() : 0);
-                            countersModel.setTotalCar(totalCar != null ? totalCar.getCount() : 0);
-                            countersModel.setTotalMotorcycle(totalMotorCycle != null ? totalMotorCycle.getCount() : 0);
-                            countersModel.setTotalQuad(totalQuad != null ? totalQuad.getCount() : 0);
-                            countersModel.setCheckedInCar(checkedInCarUser != null ? checkedInCarUser.getCount() : 0);
-                            countersModel.setCheckedInMotorcycle(checkedInMotorbikeUser != null ? checkedInMotorbikeUser.getCount() : 0);
-                            countersModel.setCheckedInQuad(checkedInQuadUser != null ? checkedInQuadUser.getCount() : 0);
-                            countersModel.setPaid(paidUser != null ? paidUser.getCount() : 0);
-                            countersModel.setPaidCar(paidCar != null ? paidCar.getCount() : 0);
-                            countersModel.setPaidMotorcycle(paidMotorbike != null ? paidMotorbike.getCount() : 0);
-                            countersModel.setPaidQuad(paidQuad != null ? paidQuad.getCount() : 0);
-                            countersModel.setTotalParticipants(totalParticipants != null ? totalParticipants.getCount() : 0);
-                            countersModel.setParticipantsCheckedIn(participantsCheckedIn != null ? participantsCheckedIn.getCount() : 0);
-                            countersModel.setParticipantsNotCheckedIn(participantsNotCheckedIn != null ? participantsNotCheckedIn.getCount() : 0);
-                            return countersModel;
-                        }
-                );
+        return counterService.getAll(event).onItem().transform(EventV1Service::toCountersModel);
+    }
+
+    static CountersModel toCountersModel(Map<String, Long> counts) {
+        CountersModel countersModel = new CountersModel();
+        countersModel.setTotal(counts.getOrDefault("total", 0L));
+        countersModel.setTotalCar(counts.getOrDefault("totalcar", 0L));
+        countersModel.setTotalMotorcycle(counts.getOrDefault("totalmotorcycle", 0L));
+        countersModel.setTotalQuad(counts.getOrDefault("totalquad", 0L));
+        countersModel.setCheckedInCar(counts.getOrDefault(CHECK_IN_COUNTER + "car", 0L));
+        countersModel.setCheckedInMotorcycle(counts.getOrDefault(CHECK_IN_COUNTER + "motorcycle", 0L));
+        countersModel.setCheckedInQuad(counts.getOrDefault(CHECK_IN_COUNTER + "quad", 0L));
+        countersModel.setPaid(counts.getOrDefault(PAID_COUNTER, 0L));
+        countersModel.setPaidCar(counts.getOrDefault(PAID_COUNTER + "car", 0L));
+        countersModel.setPaidMotorcycle(counts.getOrDefault(PAID_COUNTER + "motorcycle", 0L));
+        countersModel.setPaidQuad(counts.getOrDefault(PAID_COUNTER + "quad", 0L));
+        countersModel.setTotalParticipants(counts.getOrDefault(TOTAL_PARTICIPANTS_COUNTER, 0L));
+        countersModel.setParticipantsCheckedIn(counts.getOrDefault(PARTICIPANTS_CHECKED_IN_COUNTER, 0L));
+        countersModel.setParticipantsNotCheckedIn(counts.getOrDefault(PARTICIPANTS_NOT_CHECKED_IN_COUNTER, 0L));
+        return countersModel;
+    }
+
+    public Uni<Void> migrateCounters(String event) {
+        return counterService.migrateLegacyCounters(event);
     }
 
     /** Sample with a GSI
@@ -300,75 +545,771 @@ public class EventV1Service {
         }).map(userModelDbTransform);
     }*/
 
+    /**
+     * Checks a registration in. The registration's check-in attributes, the counters and the change
+     * history entry are written in one transaction (see {@link #commitUserWrite}).
+     */
     public Uni<UserModel> checkInByEventAndEmail(String event, String email, String who){
-        return getByEventAndEmail(event, email)
-                .onItem().call(userModel -> {
-                    if (userModel == null){
-                        return Uni.createFrom().failure(new NoContentException("Not Found"));
+        return checkInByEventAndEmail(event, email, who, null);
+    }
+
+    /**
+     * Checks a registration in, answering with its {@code fields} (all of them if null).
+     *
+     * The registration is read once, projected to what the counter deltas and the condition need
+     * (see {@link #CHECK_IN_ATTRIBUTES}) plus the attributes behind {@code fields}, and written with
+     * a transaction conditioned on the version read. When it changed in between, both are retried.
+     */
+    Uni<UserModel> checkInByEventAndEmail(String event, String email, String who, UserFields fields){
+        ChangeHistoryEntry entry = changeHistoryEntry("CHECK_IN_ADDED", "User checked in by " + who);
+        return getCheckInState(event, email, fields)
+                .onItem().ifNull().failWith(() -> new NoContentException("Not Found"))
+                .onItem().transformToUni(userModelDB -> {
+                    if (userModelDB.isCheckedIn()) {
+                        Log.info("user " + email + ", (" + event + ") already checked in at " + userModelDB.getCheckInAt() + " by " + who);
+                        return Uni.createFrom().failure(new NoContentException("Already checked in"));
                     }
+                    return setCheckedIn(userModelDB, true, who, entry);
+                })
+                .onFailure(EventV1Service::isUserWriteConflict).retry().atMost(MAX_WRITE_RETRIES)
+                .onItem().transform(userModelDB -> withChangeHistoryEntry(userModelDbTransform.apply(userModelDB), entry));
+    }
 
-                    if (userModel.isCheckedIn()){
-                        Log.info("user " + email + ", (" + event + ") already checked in at " + userModel.getMetadata().getCheckIn().getCheckInAt() + " by " + who);
+    /**
+     * Cancels a check-in the same way {@link #checkInByEventAndEmail} records it.
+     */
+    public Uni<UserModel> cancelCheckInByEventAndEmail(String event, String email, String who){
+        return cancelCheckInByEventAndEmail(event, email, who, null);
+    }
+
+    /**
+     * Cancels a check-in, answering with the registration's {@code fields} (all of them if null).
+     */
+    Uni<UserModel> cancelCheckInByEventAndEmail(String event, String email, String who, UserFields fields){
+        ChangeHistoryEntry entry = changeHistoryEntry("CHECK_IN_REMOVED", "Check-in cancelled by " + who);
+        return getCheckInState(event, email, fields)
+                .onItem().ifNull().failWith(() -> new NoContentException("Not Found"))
+                .onItem().transformToUni(userModelDB -> {
+                    if (!userModelDB.isCheckedIn()) {
+                        Log.info("Cancelling user " + email + ", (" + event + ") failed because it's not checked (by "+ who + ")");
                         return Uni.createFrom().failure(new NoContentException("Already checked in"));
                     }
+                    return setCheckedIn(userModelDB, false, who, entry);
+                })
+                .onFailure(EventV1Service::isUserWriteConflict).retry().atMost(MAX_WRITE_RETRIES)
+                .onItem().transform(userModelDB -> withChangeHistoryEntry(userModelDbTransform.apply(userModelDB), entry));
+    }
 
-                    userModel.getMetadata().setCheckIn(new UserMetadataModel.CheckIn(){{
-                        setCheckInAt(new Date());
-                        setByWho(who);
-                    }});
-                    userModel.setCheckedIn(true);
-                    
-                    // Add change history entry
-                    addChangeHistoryEntry(userModel.getMetadata(), "CHECK_IN_ADDED", 
-                        "User checked in by " + who);
-                    
-                    UserModelDB userModelDB = userModelTransform(userModel);
-                    
-                    // Calculate participant count
-                    int participantCount = userModel.getMetadata().getPeople() != null ? 
-                        userModel.getMetadata().getPeople().size() : 1;
-
-                    return Uni.createFrom().completionStage(() -> userModelTable.updateItem(userModelDB))
-                            .call(() -> incrementOrDecrementCheckInCounter(userModelDB, true))
-                            .call(() -> incrementOrDecrementCounter(event, PARTICIPANTS_CHECKED_IN_COUNTER, true, participantCount))
-                            .call(() -> incrementOrDecrementCounter(event, PARTICIPANTS_NOT_CHECKED_IN_COUNTER, false, participantCount));
+    /**
+     * Reads what a check-in or its cancellation needs of a registration, and the attributes behind
+     * {@code fields} (the whole registration if null) to answer with.
+     */
+    private Uni<UserModelDB> getCheckInState(String event, String email, UserFields fields) {
+        if (fields == null) {
+            return getUserModelDB(event, email);
+        }
+        Set<String> attributes = new LinkedHashSet<>(CHECK_IN_ATTRIBUTES);
+        attributes.addAll(fields.attributes());
+        return getUserModelDB(event, email, new ArrayList<>(attributes))
+                .onItem().transformToUni(user -> withPeople(user, fields))
+                .onItem().transformToUni(user -> withUnsplitMetadata(user, fields));
+    }
+
+    /**
+     * Reads the people of a registration not backfilled with {@code participantCount} yet, which its
+     * counter deltas are computed from, unless they were read already.
+     */
+    private Uni<UserModelDB> withPeople(UserModelDB user, UserFields fields) {
+        if (user == null || user.getParticipantCount() != null || user.getPeople() != null || user.getMetadata() != null) {
+            return Uni.createFrom().item(user);
+        }
+        return getUserModelDB(user.getEventName(), user.getUserEmail(),
+                        List.of(UserModelDB.PARTITION_KEY, UserModelDB.SORT_KEY, UserModelDB.PEOPLE, UserModelDB.METADATA))
+                .onItem().transform(people -> {
+                    if (people != null) {
+                        user.setPeople(people.getPeople());
+                        user.setMetadata(fields.needsMetadata() || fields.readsSplitFields() ? people.getMetadata() : null);
+                        user.setParticipantCount(ReconcileAccumulator.countPeople(people));
+                    }
+                    return user;
                 });
     }
 
-    public Uni<UserModel> cancelCheckInByEventAndEmail(String event, String email, String who){
-        return getByEventAndEmail(event, email)
-                .onItem().call(userModel -> {
-                    if (userModel == null){
-                        return Uni.createFrom().failure(new NoContentException("Not Found"));
+    /**
+     * Flips {@code checkedIn} on the top-level check-in attributes only, leaving the metadata
+     * untouched, and returns the registration as it is now stored.
+     */
+    private Uni<UserModelDB> setCheckedIn(UserModelDB userModelDB, boolean checkedIn, String who, ChangeHistoryEntry entry) {
+        UserModelDB updated = withCheckIn(userModelDB, checkedIn, who);
+        return commitUserWrite(userModelDB.getEventName(), userModelDB.getUserEmail(), checkInWrite(userModelDB, updated),
+                ReconcileAccumulator.deltas(userModelDB, updated), List.of(entry))
+                .replaceWith(updated);
+    }
+
+    private UserModelDB withCheckIn(UserModelDB userModelDB, boolean checkedIn, String who) {
+        return withCheckIn(userModelDB, checkedIn, who, Instant.now());
+    }
+
+    private UserModelDB withCheckIn(UserModelDB userModelDB, boolean checkedIn, String who, Instant at) {
+        UserModelDB updated = copy(userModelDB);
+        updated.setCheckedIn(checkedIn);
+        updated.setCheckInAt(checkedIn ? at : null);
+        updated.setCheckInBy(checkedIn ? (who == null ? "" : who) : null);
+        return updated;
+    }
+
+    /**
+     * Writes the check-in attributes of {@code updated}, provided the registration is still stored
+     * as {@code current}.
+     */
+    private TransactWriteItem checkInWrite(UserModelDB current, UserModelDB updated) {
+        Expression expected = expectedState(current);
+        Map<String, String> names = new HashMap<>(expected.expressionNames());
+        names.put("#at", UserModelDB.CHECK_IN_AT);
+        names.put("#by", UserModelDB.CHECK_IN_BY);
+        names.put("#checkedIn", UserModelDB.CHECKED_IN);
+        names.put("#rosterVersion", UserModelDB.ROSTER_VERSION);
+        Map<String, AttributeValue> values = new HashMap<>(expected.expressionValues());
+        values.put(":checkedIn", AttributeValue.builder().bool(updated.isCheckedIn()).build());
+        values.put(":rosterVersion", CounterService.number(System.currentTimeMillis()));
+        updated.setVersion(nextVersion(current));
+        values.put(":version", CounterService.number(updated.getVersion()));
+        String updateExpression;
+        if (updated.isCheckedIn()) {
+            updateExpression = "SET #checkedIn = :checkedIn, #at = :at, #by = :by, #rosterVersion = :rosterVersion, #version = :version";
+            values.put(":at", AttributeValue.builder().s(updated.getCheckInAt().toString()).build());
+            values.put(":by", AttributeValue.builder().s(updated.getCheckInBy()).build());
+        } else {
+            updateExpression = "SET #checkedIn = :checkedIn, #rosterVersion = :rosterVersion, #version = :version REMOVE #at, #by";
+        }
+        return TransactWriteItem.builder().update(Update.builder()
+                        .tableName(EVENTS_TABLE)
+                        .key(userKey(current.getEventName(), current.getUserEmail()))
+                        .updateExpression(updateExpression)
+                        .conditionExpression(expected.expression())
+                        .expressionAttributeNames(names)
+                        .expressionAttributeValues(values)
+                        .build())
+                .build();
+    }
+
+    /**
+     * Checks a group of registrations in at once (e.g. a club arriving together at the gate).
+     *
+     * The registrations are read with one {@code BatchGetItem}. The ones to check in are written in
+     * transactions of {@value #CHECK_INS_PER_TRANSACTION}: each one's check-in attributes (conditioned
+     * as in {@link #checkInByEventAndEmail}) and change history entry, plus a single counters update
+     * with the sum of their deltas. When a registration changed since it was read, its transaction is
+     * cancelled and the registrations in it are read again and retried, up to {@value #MAX_WRITE_RETRIES}
+     * times; the ones still conflicting after that are reported as such and nothing is written for them.
+     *
+     * @return the outcome of each e-mail, in the order given (duplicates once)
+     */
+    public Uni<BulkCheckInResponse> bulkCheckIn(String event, List<String> emails, String who) {
+        if (emails == null || emails.isEmpty()) {
+            throw new BadRequestException("No e-mails to check in");
+        }
+        if (emails.size() > MAX_BULK_CHECK_IN) {
+            throw new BadRequestException("At most " + MAX_BULK_CHECK_IN + " e-mails can be checked in at once");
+        }
+        List<String> distinct = emails.stream().filter(StringUtils::isNotBlank).distinct().toList();
+        Map<String, BulkCheckInResult> results = new HashMap<>();
+        return bulkCheckInRound(event, distinct, who, results, 0)
+                .onItem().transform(ignored -> {
+                    BulkCheckInResponse response = new BulkCheckInResponse();
+                    response.setEventId(event);
+                    response.setResults(distinct.stream().map(results::get).toList());
+                    for (BulkCheckInResult result : response.getResults()) {
+                        switch (result.getOutcome()) {
+                            case CHECKED_IN -> response.setCheckedIn(response.getCheckedIn() + 1);
+                            case ALREADY_CHECKED_IN -> response.setAlreadyCheckedIn(response.getAlreadyCheckedIn() + 1);
+                            case NOT_FOUND -> response.setNotFound(response.getNotFound() + 1);
+                            case CONFLICT -> response.setConflicts(response.getConflicts() + 1);
+                        }
                     }
+                    return response;
+                });
+    }
 
-                    if (!userModel.isCheckedIn()){
-                        Log.info("Cancelling user " + email + ", (" + event + ") failed because it's not checked (by "+ who + ")");
-                        return Uni.createFrom().failure(new NoContentException("Already checked in"));
+    private Uni<Void> bulkCheckInRound(String event, List<String> emails, String who,
+                                       Map<String, BulkCheckInResult> results, int retry) {
+        return batchGetUsers(event, emails).chain(users -> {
+            List<UserModelDB> toCheckIn = new ArrayList<>();
+            for (String email : emails) {
+                UserModelDB userModelDB = users.get(email);
+                if (userModelDB == null) {
+                    results.put(email, bulkCheckInResult(email, BulkCheckInResult.Outcome.NOT_FOUND, null));
+                } else if (userModelDB.isCheckedIn()) {
+                    results.put(email, bulkCheckInResult(email, BulkCheckInResult.Outcome.ALREADY_CHECKED_IN, userModelDB));
+                } else {
+                    toCheckIn.add(userModelDB);
+                }
+            }
+            List<List<UserModelDB>> transactions = new ArrayList<>();
+            for (int i = 0; i < toCheckIn.size(); i += CHECK_INS_PER_TRANSACTION) {
+                transactions.add(toCheckIn.subList(i, Math.min(toCheckIn.size(), i + CHECK_INS_PER_TRANSACTION)));
+            }
+            List<String> conflicts = new ArrayList<>();
+            // one after the other: they all update the counters item
+            return Multi.createFrom().iterable(transactions)
+                    .onItem().transformToUniAndConcatenate(transaction -> checkInTogether(event, transaction, who, results)
+                            .onFailure(error -> isConditionFailure(error, 2 * transaction.size())).recoverWithItem(() -> {
+                                transaction.forEach(userModelDB -> conflicts.add(userModelDB.getUserEmail()));
+                                return null;
+                            }))
+                    .collect().last()
+                    .chain(() -> {
+                        if (conflicts.isEmpty()) {
+                            return Uni.createFrom().voidItem();
+                        }
+                        if (retry < MAX_WRITE_RETRIES) {
+                            return bulkCheckInRound(event, conflicts, who, results, retry + 1);
+                        }
+                        Log.warn("Giving up checking in " + conflicts + " (" + event + ") after " + retry + " retries");
+                        conflicts.forEach(email -> results.put(email, bulkCheckInResult(email, BulkCheckInResult.Outcome.CONFLICT, null)));
+                        return Uni.createFrom().voidItem();
+                    });
+        });
+    }
+
+    /**
+     * Checks {@code users} in with one {@code TransactWriteItems}: per registration its check-in
+     * (index {@code 2i}) and its change history entry ({@code 2i + 1}), then the counters.
+     */
+    private Uni<Void> checkInTogether(String event, List<UserModelDB> users, String who, Map<String, BulkCheckInResult> results) {
+        List<TransactWriteItem> items = new ArrayList<>();
+        Map<String, Long> deltas = new HashMap<>();
+        List<UserModelDB> checkedIn = new ArrayList<>();
+        for (UserModelDB userModelDB : users) {
+            UserModelDB updated = withCheckIn(userModelDB, true, who);
+            items.add(checkInWrite(userModelDB, updated));
+            items.add(changeHistoryService.putItem(event, userModelDB.getUserEmail(),
+                    changeHistoryEntry("CHECK_IN_ADDED", "User checked in by " + who)));
+            ReconcileAccumulator.deltas(userModelDB, updated)
+                    .forEach((counter, delta) -> deltas.merge(counter, delta, Long::sum));
+            checkedIn.add(updated);
+        }
+        return counterService.addInTransaction(event, deltas, items)
+                .onItem().invoke(() -> checkedIn.forEach(updated -> results.put(updated.getUserEmail(),
+                        bulkCheckInResult(updated.getUserEmail(), BulkCheckInResult.Outcome.CHECKED_IN, updated))));
+    }
+
+    /**
+     * Whether a transaction was cancelled because the condition of one of its first {@code items} failed.
+     */
+    private static boolean isConditionFailure(Throwable error, int items) {
+        for (int i = 0; i < items; i++) {
+            if (CounterService.isConditionFailure(error, i)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static BulkCheckInResult bulkCheckInResult(String email, BulkCheckInResult.Outcome outcome, UserModelDB userModelDB) {
+        BulkCheckInResult result = new BulkCheckInResult();
+        result.setEmail(email);
+        result.setOutcome(outcome);
+        if (userModelDB != null && userModelDB.isCheckedIn()) {
+            result.setCheckInAt(userModelDB.getCheckInAt() == null ? null : Date.from(userModelDB.getCheckInAt()));
+            result.setCheckInBy(userModelDB.getCheckInBy());
+        }
+        return result;
+    }
+
+    /**
+     * Reads the registrations of {@code emails} (at most 100) with one {@code BatchGetItem}.
+     *
+     * @return the registrations found, by e-mail
+     */
+    private Uni<Map<String, UserModelDB>> batchGetUsers(String event, List<String> emails) {
+        return batchGetItems(emails.stream().map(email -> userKey(event, email)).toList())
+                .onItem().transform(items -> {
+                    Map<String, UserModelDB> users = new HashMap<>();
+                    for (Map<String, AttributeValue> item : items) {
+                        UserModelDB userModelDB = userModelTable.tableSchema().mapToItem(item);
+                        users.put(userModelDB.getUserEmail(), userModelDB);
                     }
+                    return users;
+                });
+    }
 
-                    userModel.getMetadata().setCheckIn(new UserMetadataModel.CheckIn(){{
-                        setCheckInAt(null);
-                        setByWho(null);
-                    }});
-                    userModel.setCheckedIn(false);
-                    
-                    // Add change history entry
-                    addChangeHistoryEntry(userModel.getMetadata(), "CHECK_IN_REMOVED", 
-                        "Check-in cancelled by " + who);
-                    
-                    UserModelDB userModelDB = userModelTransform(userModel);
-                    
-                    // Calculate participant count
-                    int participantCount = userModel.getMetadata().getPeople() != null ? 
-                        userModel.getMetadata().getPeople().size() : 1;
-
-                    return Uni.createFrom().completionStage(() -> userModelTable.updateItem(userModelDB))
-                            .call(() -> incrementOrDecrementCheckInCounter(userModelDB, false))
-                            .call(() -> incrementOrDecrementCounter(event, PARTICIPANTS_CHECKED_IN_COUNTER, false, participantCount))
-                            .call(() -> incrementOrDecrementCounter(event, PARTICIPANTS_NOT_CHECKED_IN_COUNTER, true, participantCount));
+    /**
+     * Reads up to 100 items of the events table with {@code BatchGetItem}, asking again for the keys
+     * DynamoDB leaves unprocessed when it runs short of capacity. Items that don't exist are left out.
+     */
+    private Uni<List<Map<String, AttributeValue>>> batchGetItems(List<Map<String, AttributeValue>> keys) {
+        return batchGetItems(keys, null);
+    }
+
+    /**
+     * Like {@link #batchGetItems(List)}, reading only the {@code attributes} of the items if not null.
+     */
+    private Uni<List<Map<String, AttributeValue>>> batchGetItems(List<Map<String, AttributeValue>> keys, List<String> attributes) {
+        List<Map<String, AttributeValue>> items = new ArrayList<>();
+        if (keys.isEmpty()) {
+            return Uni.createFrom().item(items);
+        }
+        KeysAndAttributes request = attributes == null ? KeysAndAttributes.builder().keys(keys).build()
+                : KeysAndAttributes.builder()
+                        .keys(keys)
+                        .projectionExpression(projection(attributes))
+                        .expressionAttributeNames(projectionNames(attributes))
+                        .build();
+        return batchGetItems(request, items, 0).replaceWith(items);
+    }
+
+    private Uni<Void> batchGetItems(KeysAndAttributes request, List<Map<String, AttributeValue>> items, int attempt) {
+        return DynamoDbMetrics.call(() -> dynamoDbAsyncClient.batchGetItem(BatchGetItemRequest.builder()
+                                .requestItems(Map.of(EVENTS_TABLE, request))
+                                .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL)
+                                .build()),
+                        response -> DynamoDbMetrics.units(response.consumedCapacity()))
+                .chain(response -> {
+                    items.addAll(response.responses().getOrDefault(EVENTS_TABLE, List.of()));
+                    KeysAndAttributes unprocessed = response.unprocessedKeys().get(EVENTS_TABLE);
+                    if (unprocessed == null || unprocessed.keys().isEmpty()) {
+                        return Uni.createFrom().voidItem();
+                    }
+                    if (attempt >= MAX_BATCH_GET_ATTEMPTS) {
+                        return Uni.createFrom().failure(ProvisionedThroughputExceededException.builder()
+                                .message(unprocessed.keys().size() + " items left unprocessed by BatchGetItem")
+                                .build());
+                    }
+                    return Uni.createFrom().voidItem()
+                            .onItem().delayIt().by(Duration.ofMillis(50L << attempt))
+                            .chain(() -> batchGetItems(unprocessed, items, attempt + 1));
+                });
+    }
+
+    /**
+     * Applies the check-ins and cancellations a scanner queued while offline (see {@link ScannerOperation}).
+     *
+     * The registrations involved and the markers of operations already synced are read with one
+     * {@code BatchGetItem}. Operations already synced are reported as duplicates; the others are
+     * replayed per registration in the order they happened at the gate, keeping their {@code at} and
+     * {@code byWho}, and the ones that don't fit the registration's state are reported as conflicts
+     * (e.g. a check-in of a registration another gate checked in first).
+     *
+     * Each registration's net check-in change is written once, in a transaction with a marker per
+     * applied operation (conditioned on not existing yet, so racing syncs of the same queue apply it
+     * once), their change history entries and a single counters update for the transaction. As in
+     * {@link #bulkCheckIn}, registrations that changed meanwhile are read again and replayed.
+     *
+     * @param who who to record for operations without {@code byWho}
+     * @return the outcome of each operation, in the order given
+     */
+    public Uni<ScannerSyncResponse> syncScannerOperations(String event, String deviceId, List<ScannerOperation> operations, String who) {
+        if (operations == null || operations.isEmpty()) {
+            throw new BadRequestException("No operations to sync");
+        }
+        if (operations.size() > MAX_SYNC_OPERATIONS) {
+            throw new BadRequestException("At most " + MAX_SYNC_OPERATIONS + " operations can be synced at once");
+        }
+        Map<String, List<ScannerOperation>> byEmail = new LinkedHashMap<>();
+        Set<String> opIds = new HashSet<>();
+        for (ScannerOperation operation : operations) {
+            if (StringUtils.isBlank(operation.getOpId()) || StringUtils.isBlank(operation.getEmail())
+                    || operation.getType() == null || operation.getAt() == null) {
+                throw new BadRequestException("Every operation needs an opId, email, type and at");
+            }
+            // the same operation twice in a queue is applied once
+            if (opIds.add(operation.getOpId())) {
+                byEmail.computeIfAbsent(operation.getEmail(), email -> new ArrayList<>()).add(operation);
+            }
+        }
+        byEmail.values().forEach(queue -> queue.sort(Comparator.comparing(ScannerOperation::getAt)));
+        Map<String, ScannerSyncResult> results = new HashMap<>();
+        return syncRound(event, deviceId, who, byEmail, results, 0)
+                .onItem().transform(ignored -> {
+                    ScannerSyncResponse response = new ScannerSyncResponse();
+                    response.setEventId(event);
+                    response.setDeviceId(deviceId);
+                    Set<String> reported = new HashSet<>();
+                    response.setResults(operations.stream()
+                            .map(operation -> reported.add(operation.getOpId()) ? results.get(operation.getOpId())
+                                    : duplicateOf(operation, results.get(operation.getOpId())))
+                            .toList());
+                    for (ScannerSyncResult result : response.getResults()) {
+                        switch (result.getOutcome()) {
+                            case APPLIED -> response.setApplied(response.getApplied() + 1);
+                            case DUPLICATE -> response.setDuplicates(response.getDuplicates() + 1);
+                            case CONFLICT -> response.setConflicts(response.getConflicts() + 1);
+                            case NOT_FOUND -> response.setNotFound(response.getNotFound() + 1);
+                        }
+                    }
+                    return response;
                 });
     }
+
+    private Uni<Void> syncRound(String event, String deviceId, String who, Map<String, List<ScannerOperation>> byEmail,
+                                Map<String, ScannerSyncResult> results, int retry) {
+        List<Map<String, AttributeValue>> keys = new ArrayList<>();
+        byEmail.forEach((email, queue) -> {
+            keys.add(userKey(event, email));
+            queue.forEach(operation -> keys.add(syncedOperationKey(event, operation.getOpId())));
+        });
+        return batchGetItems(keys).chain(items -> {
+            Map<String, UserModelDB> users = new HashMap<>();
+            Set<String> synced = new HashSet<>();
+            for (Map<String, AttributeValue> item : items) {
+                if (event.equals(item.get(UserModelDB.PARTITION_KEY).s())) {
+                    UserModelDB userModelDB = userModelTable.tableSchema().mapToItem(item);
+                    users.put(userModelDB.getUserEmail(), userModelDB);
+                } else {
+                    synced.add(item.get(UserModelDB.SORT_KEY).s());
+                }
+            }
+
+            List<SyncedRegistration> registrations = new ArrayList<>();
+            byEmail.forEach((email, queue) -> {
+                UserModelDB current = users.get(email);
+                if (current == null) {
+                    queue.forEach(operation -> results.put(operation.getOpId(),
+                            syncResult(operation, ScannerSyncResult.Outcome.NOT_FOUND, "No registration with this e-mail", null)));
+                    return;
+                }
+                UserModelDB state = current;
+                List<ScannerOperation> applied = new ArrayList<>();
+                for (ScannerOperation operation : queue) {
+                    if (synced.contains(operation.getOpId())) {
+                        results.put(operation.getOpId(), syncResult(operation, ScannerSyncResult.Outcome.DUPLICATE, null, null));
+                        continue;
+                    }
+                    String conflict = syncConflict(state, operation);
+                    if (conflict != null) {
+                        results.put(operation.getOpId(), syncResult(operation, ScannerSyncResult.Outcome.CONFLICT, conflict, null));
+                        continue;
+                    }
+                    state = withCheckIn(state, operation.getType() == ScannerOperation.Type.CHECK_IN,
+                            StringUtils.isBlank(operation.getByWho()) ? who : operation.getByWho(), operation.getAt().toInstant());
+                    applied.add(operation);
+                    results.put(operation.getOpId(), syncResult(operation, ScannerSyncResult.Outcome.APPLIED, null, null));
+                }
+                for (ScannerOperation operation : queue) {
+                    withState(results.get(operation.getOpId()), state);
+                }
+                if (!applied.isEmpty()) {
+                    registrations.add(new SyncedRegistration(current, state, applied));
+                }
+            });
+
+            // a registration takes its update plus a marker and a history entry per operation
+            List<List<SyncedRegistration>> transactions = new ArrayList<>();
+            List<SyncedRegistration> transaction = new ArrayList<>();
+            int transactionItems = 0;
+            for (SyncedRegistration registration : registrations) {
+                int registrationItems = 1 + 2 * registration.operations.size();
+                if (transactionItems + registrationItems > MAX_TRANSACTION_ITEMS - 1) {
+                    transactions.add(transaction);
+                    transaction = new ArrayList<>();
+                    transactionItems = 0;
+                }
+                transaction.add(registration);
+                transactionItems += registrationItems;
+            }
+            if (!transaction.isEmpty()) {
+                transactions.add(transaction);
+            }
+
+            Map<String, List<ScannerOperation>> conflicts = new LinkedHashMap<>();
+            return Multi.createFrom().iterable(transactions)
+                    .onItem().transformToUniAndConcatenate(together -> writeSyncedRegistrations(event, deviceId, who, together)
+                            .onFailure(error -> isConditionFailure(error, together.size() + 2 * together.stream()
+                                    .mapToInt(registration -> registration.operations.size()).sum()))
+                            .recoverWithItem(() -> {
+                                together.forEach(registration -> conflicts.put(registration.current.getUserEmail(),
+                                        byEmail.get(registration.current.getUserEmail())));
+                                return null;
+                            }))
+                    .collect().last()
+                    .chain(() -> {
+                        if (conflicts.isEmpty()) {
+                            return Uni.createFrom().voidItem();
+                        }
+                        if (retry < MAX_WRITE_RETRIES) {
+                            return syncRound(event, deviceId, who, conflicts, results, retry + 1);
+                        }
+                        Log.warn("Giving up syncing " + conflicts.keySet() + " (" + event + ") after " + retry + " retries");
+                        conflicts.values().forEach(queue -> queue.forEach(operation -> {
+                            ScannerSyncResult result = results.get(operation.getOpId());
+                            if (result.getOutcome() == ScannerSyncResult.Outcome.APPLIED) {
+                                result.setOutcome(ScannerSyncResult.Outcome.CONFLICT);
+                                result.setReason("The registration kept changing while syncing, try again");
+                            }
+                        }));
+                        return Uni.createFrom().voidItem();
+                    });
+        });
+    }
+
+    /**
+     * Why {@code operation} can't be applied to a registration in {@code state}, null if it can.
+     */
+    private static String syncConflict(UserModelDB state, ScannerOperation operation) {
+        if (operation.getType() == ScannerOperation.Type.CHECK_IN) {
+            return state.isCheckedIn() ? "Already checked in" : null;
+        }
+        if (!state.isCheckedIn()) {
+            return "Not checked in";
+        }
+        if (state.getCheckInAt() != null && operation.getAt().toInstant().isBefore(state.getCheckInAt())) {
+            return "Checked in again after this cancellation";
+        }
+        return null;
+    }
+
+    private Uni<Void> writeSyncedRegistrations(String event, String deviceId, String who, List<SyncedRegistration> registrations) {
+        List<TransactWriteItem> items = new ArrayList<>();
+        Map<String, Long> deltas = new HashMap<>();
+        long expiresAt = Instant.now().getEpochSecond() + SYNCED_OPERATION_RETENTION_SECONDS;
+        for (SyncedRegistration registration : registrations) {
+            String email = registration.current.getUserEmail();
+            items.add(checkInWrite(registration.current, registration.updated));
+            for (ScannerOperation operation : registration.operations) {
+                items.add(syncedOperationPut(event, deviceId, operation, expiresAt));
+                String byWho = StringUtils.isBlank(operation.getByWho()) ? who : operation.getByWho();
+                String timestamp = ChangeHistoryService.TIMESTAMP_FORMAT.format(operation.getAt().toInstant());
+                items.add(changeHistoryService.putItem(event, email, operation.getType() == ScannerOperation.Type.CHECK_IN
+                        ? new ChangeHistoryEntry(timestamp, "CHECK_IN_ADDED", "User checked in by " + byWho + " (offline, device " + deviceId + ")")
+                        : new ChangeHistoryEntry(timestamp, "CHECK_IN_REMOVED", "Check-in cancelled by " + byWho + " (offline, device " + deviceId + ")")));
+            }
+            ReconcileAccumulator.deltas(registration.current, registration.updated)
+                    .forEach((counter, delta) -> deltas.merge(counter, delta, Long::sum));
+        }
+        return counterService.addInTransaction(event, deltas, items);
+    }
+
+    private static TransactWriteItem syncedOperationPut(String event, String deviceId, ScannerOperation operation, long expiresAt) {
+        Map<String, AttributeValue> item = syncedOperationKey(event, operation.getOpId());
+        item.put(EmailOutbox.TARGET_EMAIL, AttributeValue.builder().s(operation.getEmail()).build());
+        item.put("type", AttributeValue.builder().s(operation.getType().name()).build());
+        if (deviceId != null) {
+            item.put("deviceId", AttributeValue.builder().s(deviceId).build());
+        }
+        item.put(EmailOutbox.EXPIRES_AT, CounterService.number(expiresAt));
+        return TransactWriteItem.builder().put(Put.builder()
+                        .tableName(EVENTS_TABLE)
+                        .item(item)
+                        .conditionExpression("attribute_not_exists(#sk)")
+                        .expressionAttributeNames(Map.of("#sk", UserModelDB.SORT_KEY))
+                        .build())
+                .build();
+    }
+
+    /**
+     * Marker of a synced scanner operation; all of an event's live in one partition, by operation id.
+     */
+    static Map<String, AttributeValue> syncedOperationKey(String event, String opId) {
+        return userKey(SYNCED_OPERATION_PREFIX + event, opId);
+    }
+
+    private static ScannerSyncResult syncResult(ScannerOperation operation, ScannerSyncResult.Outcome outcome, String reason,
+                                                UserModelDB state) {
+        ScannerSyncResult result = new ScannerSyncResult();
+        result.setOpId(operation.getOpId());
+        result.setEmail(operation.getEmail());
+        result.setOutcome(outcome);
+        result.setReason(reason);
+        return withState(result, state);
+    }
+
+    private static ScannerSyncResult duplicateOf(ScannerOperation operation, ScannerSyncResult first) {
+        ScannerSyncResult result = syncResult(operation, ScannerSyncResult.Outcome.DUPLICATE, null, null);
+        result.setCheckedIn(first.isCheckedIn());
+        result.setCheckInAt(first.getCheckInAt());
+        result.setCheckInBy(first.getCheckInBy());
+        return result;
+    }
+
+    private static ScannerSyncResult withState(ScannerSyncResult result, UserModelDB state) {
+        if (state != null) {
+            result.setCheckedIn(state.isCheckedIn());
+            result.setCheckInAt(state.isCheckedIn() && state.getCheckInAt() != null ? Date.from(state.getCheckInAt()) : null);
+            result.setCheckInBy(state.isCheckedIn() ? state.getCheckInBy() : null);
+        }
+        return result;
+    }
+
+    private static final class SyncedRegistration {
+        final UserModelDB current;
+        final UserModelDB updated;
+        final List<ScannerOperation> operations;
+
+        SyncedRegistration(UserModelDB current, UserModelDB updated, List<ScannerOperation> operations) {
+            this.current = current;
+            this.updated = updated;
+            this.operations = operations;
+        }
+    }
+
+    /**
+     * Writes a change to a registration, the counter deltas it causes and its change history entries
+     * in one {@code TransactWriteItems}, so either all of it is stored or none of it is.
+     *
+     * {@code userWrite} must be conditioned on {@link #expectedState} of the registration the deltas
+     * were computed from; if the registration changed since it was read the transaction is cancelled
+     * (see {@link #isUserWriteConflict}) and callers retry from a fresh read.
+     */
+    private Uni<Void> commitUserWrite(String event, String email, TransactWriteItem userWrite, Map<String, Long> deltas,
+                                      List<ChangeHistoryEntry> history) {
+        List<ChangeHistoryEntry> entries = mergeChangeHistory(history, List.of(), Integer.MAX_VALUE);
+        int inTransaction = Math.max(0, entries.size() - MAX_TRANSACTION_HISTORY);
+        List<TransactWriteItem> items = new ArrayList<>();
+        items.add(userWrite);
+        entries.subList(inTransaction, entries.size()).forEach(entry -> items.add(changeHistoryService.putItem(event, email, entry)));
+        // older entries are legacy ones being moved out of the metadata; their puts are idempotent
+        // and they would push a large history past the transaction item limit
+        return changeHistoryService.append(event, email, entries.subList(0, inTransaction))
+                .chain(() -> counterService.addInTransaction(event, deltas, items));
+    }
+
+    /**
+     * Condition that a registration is still stored at the {@link UserModelDB#VERSION} of
+     * {@code userModelDB}, or that it doesn't exist if {@code userModelDB} is null. Every write of a
+     * registration increments its version (see {@link #nextVersion}), so this fails on any change
+     * made since it was read, not only on the attributes the counters are derived from.
+     */
+    static Expression expectedState(UserModelDB userModelDB) {
+        if (userModelDB == null) {
+            return Expression.builder()
+                    .expression("attribute_not_exists(#sk)")
+                    .putExpressionName("#sk", UserModelDB.SORT_KEY)
+                    .build();
+        }
+        Expression.Builder expected = Expression.builder()
+                .putExpressionName("#sk", UserModelDB.SORT_KEY)
+                .putExpressionName("#version", UserModelDB.VERSION);
+        if (userModelDB.getVersion() == null) {
+            // not written since versions exist: the first versioned write makes this fail for the others
+            return expected.expression("attribute_exists(#sk) AND attribute_not_exists(#version)").build();
+        }
+        return expected.expression("attribute_exists(#sk) AND #version = :expectedVersion")
+                .putExpressionValue(":expectedVersion", CounterService.number(userModelDB.getVersion()))
+                .build();
+    }
+
+    /**
+     * The version a write of {@code current} (null: not stored yet) stores.
+     */
+    static long nextVersion(UserModelDB current) {
+        return current == null || current.getVersion() == null ? 1 : current.getVersion() + 1;
+    }
+
+    /**
+     * Whether a {@link #commitUserWrite} was cancelled because the registration changed after it was read.
+     */
+    static boolean isUserWriteConflict(Throwable error) {
+        return CounterService.isConditionFailure(error, 0);
+    }
+
+    /**
+     * Replaces a registration with {@code updated}, provided it is still stored as {@code current}
+     * (null: not stored yet).
+     */
+    private TransactWriteItem putUser(UserModelDB current, UserModelDB updated) {
+        Expression expected = expectedState(current);
+        updated.setVersion(nextVersion(current));
+        Map<String, AttributeValue> item = new HashMap<>(userModelTable.tableSchema().itemToMap(updated, true));
+        item.put(UserModelDB.ROSTER_VERSION, CounterService.number(System.currentTimeMillis()));
+        return TransactWriteItem.builder().put(Put.builder()
+                        .tableName(EVENTS_TABLE)
+                        .item(item)
+                        .conditionExpression(expected.expression())
+                        .expressionAttributeNames(expected.expressionNames())
+                        .expressionAttributeValues(expected.expressionValues())
+                        .build())
+                .build();
+    }
+
+    /**
+     * Sets only the attributes of {@code updated} that differ from {@code current} and removes the
+     * ones it no longer has, provided the registration is still stored as {@code current}. A payment
+     * or a comment thus rewrites a few attributes, not the whole registration; a record whose metadata
+     * still embeds the parts split out of it (see {@link #readMetadata}) is split by its first update.
+     */
+    private TransactWriteItem updateUser(UserModelDB current, UserModelDB updated) {
+        Expression expected = expectedState(current);
+        updated.setVersion(nextVersion(current));
+        Map<String, AttributeValue> stored = userModelTable.tableSchema().itemToMap(current, true);
+        Map<String, AttributeValue> item = new HashMap<>(userModelTable.tableSchema().itemToMap(updated, true));
+        item.put(UserModelDB.ROSTER_VERSION, CounterService.number(System.currentTimeMillis()));
+        Map<String, String> names = new HashMap<>(expected.expressionNames());
+        Map<String, AttributeValue> values = new HashMap<>(expected.expressionValues());
+        List<String> assignments = new ArrayList<>();
+        List<String> removals = new ArrayList<>();
+        int i = 0;
+        for (Map.Entry<String, AttributeValue> attribute : item.entrySet()) {
+            if (attribute.getKey().equals(UserModelDB.PARTITION_KEY) || attribute.getKey().equals(UserModelDB.SORT_KEY)
+                    || attribute.getValue().equals(stored.get(attribute.getKey()))) {
+                continue;
+            }
+            names.put("#u" + i, attribute.getKey());
+            values.put(":u" + i, attribute.getValue());
+            assignments.add("#u" + i + " = :u" + i);
+            i++;
+        }
+        for (String attribute : stored.keySet()) {
+            if (!item.containsKey(attribute)) {
+                names.put("#u" + i, attribute);
+                removals.add("#u" + i);
+                i++;
+            }
+        }
+        String updateExpression = "SET " + String.join(", ", assignments)
+                + (removals.isEmpty() ? "" : " REMOVE " + String.join(", ", removals));
+        return TransactWriteItem.builder().update(Update.builder()
+                        .tableName(EVENTS_TABLE)
+                        .key(userKey(current.getEventName(), current.getUserEmail()))
+                        .updateExpression(updateExpression)
+                        .conditionExpression(expected.expression())
+                        .expressionAttributeNames(names)
+                        .expressionAttributeValues(values)
+                        .build())
+                .build();
+    }
+
+    private Uni<UserModelDB> getUserModelDB(String event, String email) {
+        return getUserModelDB(event, email, null);
+    }
+
+    /**
+     * Reads a registration, only its {@code attributes} if not null.
+     */
+    private Uni<UserModelDB> getUserModelDB(String event, String email, List<String> attributes) {
+        Key partitioKey = Key.builder().partitionValue(event).sortValue(email).build();
+        if (attributes != null) {
+            // the enhanced get has no projection
+            return DynamoDbMetrics.call(() -> dynamoDbAsyncClient.getItem(r -> r
+                                    .tableName(EVENTS_TABLE)
+                                    .key(userKey(event, email))
+                                    .projectionExpression(projection(attributes))
+                                    .expressionAttributeNames(projectionNames(attributes))
+                                    .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL)),
+                            response -> DynamoDbMetrics.units(response.consumedCapacity()))
+                    .map(response -> response.hasItem() && !response.item().isEmpty()
+                            ? userModelTable.tableSchema().mapToItem(response.item()) : null);
+        }
+        return DynamoDbMetrics.call(() -> userModelTable.getItemWithResponse(r -> r
+                                .key(partitioKey)
+                                .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL)),
+                        response -> DynamoDbMetrics.units(response.consumedCapacity()))
+                .map(GetItemEnhancedResponse::attributes);
+    }
+
+    private UserModelDB copy(UserModelDB userModelDB) {
+        TableSchema<UserModelDB> tableSchema = userModelTable.tableSchema();
+        return tableSchema.mapToItem(tableSchema.itemToMap(userModelDB, true));
+    }
+
+    private static UserModel withChangeHistoryEntry(UserModel userModel, ChangeHistoryEntry entry) {
+        if (userModel.getMetadata().getChangeHistory() == null) {
+            userModel.getMetadata().setChangeHistory(new ArrayList<>());
+        }
+        userModel.getMetadata().getChangeHistory().add(entry);
+        return userModel;
+    }
+
     public Uni<Void> register(String event, String body) {
         UserModelDB userModelDB;
         try {
@@ -376,16 +1317,20 @@ public class EventV1Service {
         } catch (JsonProcessingException e) {
             throw new RuntimeException(e);
         }
-        return Uni.createFrom().voidItem().call(() -> getByEventAndEmail(event, userModelDB.getUserEmail())
-                .onItem().call((existingUser) -> {
-                            // Only increment counter if user doesn't already exist
+        // the metadata is merged with the stored registration; a retry starts over from the webhook's
+        final JsonNode webhookMetadata = userModelDB.getMetadata();
+        Uni<Void> reRegistration = Uni.createFrom().voidItem().call(() -> getUserModelDB(event, userModelDB.getUserEmail())
+                .onItem().transformToUni((existingUserDB) -> {
+                            userModelDB.setMetadata(webhookMetadata);
+                            final UserModel existingUser = userModelDbTransform.apply(existingUserDB);
                             final boolean isNewUser = (existingUser == null);
+                            final List<ChangeHistoryEntry> changeHistory = new ArrayList<>();
                             
                             // If user exists, preserve comment history and add change history entry
                             if (!isNewUser) {
                                 try {
                                     UserMetadataModel existingMetadata = existingUser.getMetadata();
-                                    UserMetadataModel newMetadata = objectMapper.readValue(userModelDB.getMetadata(), UserMetadataModel.class);
+                                    UserMetadataModel newMetadata = readMetadata(objectMapper, userModelDB);
                                     
                                     // Preserve existing change history
                                     if (existingMetadata.getChangeHistory() != null) {
@@ -478,31 +1423,33 @@ public class EventV1Service {
                                     }
                                     
                                     // Update the metadata in userModelDB
-                                    userModelDB.setMetadata(objectMapper.writeValueAsString(newMetadata));
+                                    changeHistory.addAll(newMetadata.getChangeHistory());
+                                    userModelDB.setMetadata(storedMetadata(newMetadata));
                                 } catch (JsonProcessingException e) {
                                     throw new RuntimeException(e);
                                 }
                             }
                             
-                            return Uni.createFrom().completionStage(() -> userModelTable.putItem(userModelDB)).onItem()
-                                    .call(() -> {
-                                        if (isNewUser) {
-                                            return incrementOrDecrementTotalCounter(userModelDB, true);
-                                        }
-                                        return Uni.createFrom().voidItem();
-                                    })
-                                    .call(() -> mailerService.sendRegistrationEmail(userModelDbTransform.apply(userModelDB)));
+                            return commitUserWrite(event, userModelDB.getUserEmail(), putUser(existingUserDB, userModelDB),
+                                    ReconcileAccumulator.deltas(existingUserDB, userModelDB), changeHistory);
                         }
-                ));
+                )
+                .onFailure(EventV1Service::isUserWriteConflict).retry().atMost(MAX_WRITE_RETRIES));
+        // most webhooks are new registrations: written in one conditional transaction without reading
+        // first, and only if the e-mail is already registered read and merged with the stored one
+        return webhookArchive.store(event, userModelDB.getUserEmail(), body)
+                .replaceWithVoid()
+                .call(() -> commitUserWrite(event, userModelDB.getUserEmail(), putUser(null, userModelDB),
+                                ReconcileAccumulator.deltas(null, userModelDB), List.of())
+                        .onFailure(EventV1Service::isUserWriteConflict).recoverWithUni(() -> reRegistration))
+                // sent by the OutboxDispatcher, so an SMTP failure doesn't fail the webhook
+                .call(() -> emailOutbox.enqueue(event, userModelDB.getUserEmail(), REGISTRATION_EMAIL_TEMPLATE, body));
     }
     public Uni<Void> updatePaymentInfo(String event, String email, PaymentInfo paymentInfo) {
-        return  Uni.createFrom().voidItem().call(() -> getByEventAndEmail(event, email)
-                .call(userModel -> {
-                    if (userModel == null) {
-                        return Uni.createFrom().failure(new NoContentException("Not Found"));
-                    }
-                    final boolean alreadyPaid = userModel.isPaid();
-
+        return  Uni.createFrom().voidItem().call(() -> getUserModelDB(event, email)
+                .onItem().ifNull().failWith(() -> new NoContentException("Not Found"))
+                .onItem().transformToUni(userModelDB -> {
+                    UserModel userModel = userModelDbTransform.apply(userModelDB);
                     userModel.setPaid(true);
                     PaymentInfo storedPaymentInfo = userModel.getMetadata().getPaymentInfo();
                     if (storedPaymentInfo == null){
@@ -522,23 +1469,19 @@ public class EventV1Service {
                     addChangeHistoryEntry(userModel.getMetadata(), "PAYMENT_ADDED", 
                         "Payment confirmed: " + amountStr + " by " + byWho);
 
-                    return Uni.createFrom().completionStage(() -> userModelTable.putItem(userModelTransform(userModel)))
-                            .call(() -> {
-                                if (!alreadyPaid){
-                                    return incrementOrDecrementPaidCounter(userModelTransform(userModel), true);
-                                }
-                                return Uni.createFrom().voidItem();
-                            });
-                }));
+                    UserModelDB updated = userModelTransform(userModel);
+                    return commitUserWrite(event, email, updateUser(userModelDB, updated),
+                            ReconcileAccumulator.deltas(userModelDB, updated),
+                            userModel.getMetadata().getChangeHistory());
+                })
+                .onFailure(EventV1Service::isUserWriteConflict).retry().atMost(MAX_WRITE_RETRIES));
     }
 
     public Uni<UserModel> updateUserMetadata(String event, String email, UserModel updateRequest) {
-        return getByEventAndEmail(event, email)
-                .onItem().call(userModel -> {
-                    if (userModel == null) {
-                        return Uni.createFrom().failure(new NoContentException("Not Found"));
-                    }
-
+        return getUserModelDB(event, email)
+                .onItem().ifNull().failWith(() -> new NoContentException("Not Found"))
+                .onItem().transformToUni(storedUserModelDB -> {
+                    UserModel userModel = userModelDbTransform.apply(storedUserModelDB);
                     UserMetadataModel metadata = userModel.getMetadata();
                     String existingComment = metadata.getComment();
                     // Track field changes with old and new values
@@ -551,10 +1494,6 @@ public class EventV1Service {
                         return Uni.createFrom().item(userModel);
                     }
                     
-                    // Track old participant count for counter adjustment
-                    int oldParticipantCount = metadata.getPeople() != null ? metadata.getPeople().size() : 1;
-                    int newParticipantCount = oldParticipantCount;
-                    
                     // Update metadata fields if provided, capturing old values
                     if (incomingMetadata.getPeople() != null && !incomingMetadata.getPeople().isEmpty()) {
                         String oldValue = formatPeopleForAudit(metadata.getPeople());
@@ -563,8 +1502,6 @@ public class EventV1Service {
                         if (!oldValue.equals(newValue)) {
                             fieldChanges.add("people: " + oldValue + " -> " + newValue);
                         }
-                        // Update participant count after people update
-                        newParticipantCount = metadata.getPeople() != null ? metadata.getPeople().size() : 1;
                     }
                     
                     // Update phone number in metadata (not on driver object to avoid duplication)
@@ -664,31 +1601,14 @@ public class EventV1Service {
                         addChangeHistoryEntry(metadata, "USER_UPDATED", changesStr);
                     }
 
+                    // participant, vehicle type and paid changes reach the counters through the deltas
                     UserModelDB userModelDB = userModelTransform(userModel);
-                    
-                    // Calculate participant count difference
-                    int participantDiff = newParticipantCount - oldParticipantCount;
-                    
-                    // Update counters if participant count changed
-                    if (participantDiff != 0) {
-                        if (userModel.isCheckedIn()) {
-                            // User is checked in - adjust participantsCheckedIn counter
-                            return Uni.createFrom().completionStage(() -> userModelTable.updateItem(userModelDB))
-                                    .call(() -> incrementOrDecrementCounter(event, PARTICIPANTS_CHECKED_IN_COUNTER, 
-                                            participantDiff > 0, Math.abs(participantDiff)))
-                                    .onItem().transform(userModelDbTransform);
-                        } else {
-                            // User is NOT checked in - adjust participantsNotCheckedIn counter
-                            return Uni.createFrom().completionStage(() -> userModelTable.updateItem(userModelDB))
-                                    .call(() -> incrementOrDecrementCounter(event, PARTICIPANTS_NOT_CHECKED_IN_COUNTER, 
-                                            participantDiff > 0, Math.abs(participantDiff)))
-                                    .onItem().transform(userModelDbTransform);
-                        }
-                    }
-                    
-                    return Uni.createFrom().completionStage(() -> userModelTable.updateItem(userModelDB))
-                            .onItem().transform(userModelDbTransform);
-                });
+                    return commitUserWrite(event, email, updateUser(storedUserModelDB, userModelDB),
+                            ReconcileAccumulator.deltas(storedUserModelDB, userModelDB),
+                            metadata.getChangeHistory())
+                            .replaceWith(userModel);
+                })
+                .onFailure(EventV1Service::isUserWriteConflict).retry().atMost(MAX_WRITE_RETRIES);
     }
     
     private void updatePeopleInMetadata(UserMetadataModel metadata, UserModel updateRequest) {
@@ -766,6 +1686,27 @@ public class EventV1Service {
         }
     }
     
+    /**
+     * Normalizes a phone number for the {@link UserModelDB#BY_PHONE_INDEX} lookup: keeps only digits and
+     * drops the international prefix for Portuguese numbers, so "+351 916 165 469", "00351916165469"
+     * and "916165469" all resolve to the same registration.
+     *
+     * @return the normalized number, or null if there are no digits
+     */
+    static String normalizePhoneNumber(String phoneNumber) {
+        if (phoneNumber == null) {
+            return null;
+        }
+        String digits = phoneNumber.replaceAll("\\D", "");
+        if (digits.startsWith("00")) {
+            digits = digits.substring(2);
+        }
+        if (digits.startsWith("351") && digits.length() == 12) {
+            digits = digits.substring(3);
+        }
+        return digits.isEmpty() ? null : digits;
+    }
+
     private String normalizeVehicleType(String vehicleType) {
         return switch (vehicleType.toLowerCase()) {
             case "mota", "motorcycle" -> "motorcycle";
@@ -775,63 +1716,11 @@ public class EventV1Service {
         };
     }
 
-    private Uni<Void> incrementOrDecrementCounter(String event, String sortKey, boolean increment){
-        return incrementOrDecrementCounter(event, sortKey, increment, 1);
-    }
-    private Uni<Void> incrementOrDecrementCounter(String event, String sortKey, boolean increment, int by){
-        Key key = Key.builder().partitionValue(event).sortValue(sortKey).build();
-
-        return Uni.createFrom().voidItem().call(() -> Uni.createFrom().completionStage(() -> counterModelTable.getItem(key)).onItem().call(
-                counterDB -> {
-                    if (counterDB == null){
-                        final CounterDB newCounter = new CounterDB();
-                        newCounter.setCount(0);
-                        newCounter.setEventName(event);
-                        newCounter.setUserEmail(sortKey);
-                        if (increment) {
-                            newCounter.setCount(newCounter.getCount() + by);
-                        }
-                        return Uni.createFrom().completionStage(() -> counterModelTable.putItem(newCounter));
-                    }
-                    if (increment) {
-                        counterDB.setCount(counterDB.getCount() + by);
-                    } else {
-                        counterDB.setCount(Math.max(counterDB.getCount() - by, 0));
-                    }
-                    return Uni.createFrom().completionStage(() -> counterModelTable.updateItem(counterDB));
-                }
-        ));
-    }
-
-    private Uni<Void> incrementOrDecrementCheckInCounter(UserModelDB userModelDB, boolean increment) {
-        String sortKey = CHECK_IN_COUNTER + userModelDB.getVehicleType();
-        return incrementOrDecrementCounter(userModelDB.getEventName(), sortKey, increment);
-    }
-
-    private Uni<Void> incrementOrDecrementTotalCounter(UserModelDB userModelDB, boolean increment) {
-        String sortKey = "total";
-        String countByType = "total" + userModelDB.getVehicleType();
-        UserMetadataModel userMetadataModel;
-        try {
-            userMetadataModel = objectMapper.readValue(userModelDB.getMetadata(), UserMetadataModel.class);
-        } catch (JsonProcessingException e) {
-            throw new RuntimeException(e);
-        }
-        
-        int participantCount = userMetadataModel.getPeople() != null ? userMetadataModel.getPeople().size() : 1;
-
-        return Uni.combine()
-                .all().unis(incrementOrDecrementCounter(userModelDB.getEventName(), sortKey, increment),
-                        incrementOrDecrementCounter(userModelDB.getEventName(), countByType, increment),
-                        incrementOrDecrementCounter(userModelDB.getEventName(), TOTAL_PARTICIPANTS_COUNTER, increment, participantCount),
-                        incrementOrDecrementCounter(userModelDB.getEventName(), PARTICIPANTS_NOT_CHECKED_IN_COUNTER, increment, participantCount))
-                .combinedWith((unused, unused2, unused3, unused4) -> null);
-    }
-    private Uni<Void> incrementOrDecrementPaidCounter(UserModelDB userModelDB, boolean increment) {
-        return Uni.combine()
-                .all().unis(incrementOrDecrementCounter(userModelDB.getEventName(), PAID_COUNTER, increment),
-                        incrementOrDecrementCounter(userModelDB.getEventName(), PAID_COUNTER + userModelDB.getVehicleType(), increment))
-                .combinedWith((unused, unused2) -> null);
+    /**
+     * People on a registration (driver + guests); a registration without a people list counts its driver.
+     */
+    static int participantCount(UserMetadataModel metadata) {
+        return metadata != null && metadata.getPeople() != null ? metadata.getPeople().size() : 1;
     }
 
     final Function<UserModelDB, UserModel> userModelDbTransform = new Function<>() {
@@ -847,10 +1736,19 @@ public class EventV1Service {
                 setVehicleType(userModelDB.getVehicleType());
                 setCheckedIn(userModelDB.isCheckedIn());
                 try {
-                    setMetadata(objectMapper.readValue(userModelDB.getMetadata(), UserMetadataModel.class));
+                    setMetadata(readMetadata(objectMapper, userModelDB));
                 } catch (JsonProcessingException e) {
                     throw new RuntimeException(e);
                 }
+                // check-in and cancel only write the top-level attributes, which win over the metadata copy
+                if (!userModelDB.isCheckedIn()) {
+                    getMetadata().setCheckIn(new UserMetadataModel.CheckIn());
+                } else if (userModelDB.getCheckInAt() != null) {
+                    getMetadata().setCheckIn(new UserMetadataModel.CheckIn(){{
+                        setCheckInAt(Date.from(userModelDB.getCheckInAt()));
+                        setByWho(userModelDB.getCheckInBy());
+                    }});
+                }
             }};
         }
     };
@@ -880,16 +1778,23 @@ public class EventV1Service {
         }});
         userMetadataModel.setCheckIn(new UserMetadataModel.CheckIn());
         userMetadataModel.setComment(webhookModel.getComment());
-        userMetadataModel.setRawWebhook(rawWebhook);
+        // the body itself is archived by register, out of the registration
+        userMetadataModel.setRawWebhookId(WebhookArchive.archiveId(webhookModel.getEmail(), rawWebhook));
 
         return UserModelDB.builder()
                 .eventName(event)
                 .userEmail(webhookModel.getEmail())
                 .paid(false)
                 .checkedIn(false)
-                .metadata(objectMapper.writeValueAsString(userMetadataModel))
+                // people, vehicle and payment are stored as attributes of their own (see userModelTransform)
+                .metadata(storedMetadata(userMetadataModel))
+                .people(objectMapper.valueToTree(userMetadataModel.getPeople()))
+                .vehicle(objectMapper.valueToTree(userMetadataModel.getVehicle()))
+                .paymentInfo(objectMapper.valueToTree(userMetadataModel.getPaymentInfo()))
                 .vehicleType(vehicleType)
                 .phoneNumber(webhookModel.getPhoneNumber())
+                .phoneNumberNormalized(normalizePhoneNumber(webhookModel.getPhoneNumber()))
+                .participantCount(participantCount(userMetadataModel))
                 .build();
     }
 
@@ -900,7 +1805,7 @@ public class EventV1Service {
         }};
     }
 
-    private List<UserMetadataModel.People> transformPeople(WebhookModel webhookModel) {
+    List<UserMetadataModel.People> transformPeople(WebhookModel webhookModel) {
         String splitBy =  "<BR/>|\n|,";
         List<UserMetadataModel.People> peopleList = new ArrayList<>(webhookModel.getGuestsNumber() + 1);
         peopleList.add(new UserMetadataModel.People(){{
@@ -937,11 +1842,14 @@ public class EventV1Service {
     }
 
     final UserModelDB userModelTransform (UserModel userModel){
-        String metadata;
-        try {
-            metadata = objectMapper.writeValueAsString(userModel.getMetadata());
-        } catch (JsonProcessingException e) {
-            throw new RuntimeException(e);
+        JsonNode metadata = storedMetadata(userModel.getMetadata());
+        JsonNode people = null;
+        JsonNode vehicle = null;
+        JsonNode paymentInfo = null;
+        if (userModel.getMetadata() != null) {
+            people = objectMapper.valueToTree(userModel.getMetadata().getPeople());
+            vehicle = objectMapper.valueToTree(userModel.getMetadata().getVehicle());
+            paymentInfo = objectMapper.valueToTree(userModel.getMetadata().getPaymentInfo());
         }
         return UserModelDB.builder()
                 .userEmail(userModel.getUserEmail())
@@ -950,12 +1858,28 @@ public class EventV1Service {
                 .checkedIn(userModel.isCheckedIn())
                 .vehicleType(userModel.getVehicleType())
                 .phoneNumber(userModel.getMetadata() != null ? userModel.getMetadata().getPhoneNumber() : null)
-                .metadata(metadata).build();
+                .phoneNumberNormalized(userModel.getMetadata() != null ? normalizePhoneNumber(userModel.getMetadata().getPhoneNumber()) : null)
+                .participantCount(participantCount(userModel.getMetadata()))
+                .checkInAt(checkInAt(userModel))
+                .checkInBy(userModel.isCheckedIn() && userModel.getMetadata() != null && userModel.getMetadata().getCheckIn() != null
+                        ? userModel.getMetadata().getCheckIn().getByWho() : null)
+                .metadata(metadata)
+                .people(people)
+                .vehicle(vehicle)
+                .paymentInfo(paymentInfo).build();
+    }
+
+    private static Instant checkInAt(UserModel userModel) {
+        if (!userModel.isCheckedIn() || userModel.getMetadata() == null || userModel.getMetadata().getCheckIn() == null
+                || userModel.getMetadata().getCheckIn().getCheckInAt() == null) {
+            return null;
+        }
+        return userModel.getMetadata().getCheckIn().getCheckInAt().toInstant();
     }
 
     public Uni<Void> sendEmailTemplate(String event, String email, String emailTemplate) {
         return switch (emailTemplate) {
-            case "userRegistration" -> Uni.createFrom().voidItem().call(() -> getByEventAndEmail(event, email)
+            case REGISTRATION_EMAIL_TEMPLATE -> Uni.createFrom().voidItem().call(() -> getByEventAndEmail(event, email)
                     .onItem().call((userModel) ->
                             mailerService.sendRegistrationEmail(userModel)
                     ));
@@ -967,153 +1891,387 @@ public class EventV1Service {
         };
     }
 
-    public Uni<ReconcileCountersResponse> reconcileCounters(String event) {
-        // Get current counters before reconciliation
-        return getCountersByEvent(event)
-                .onItem().transformToUni(beforeCounters -> {
-                    // Query all users for this event
-                    QueryConditional queryConditional = QueryConditional.keyEqualTo(Key.builder().partitionValue(event).build());
-                    
-                    return Uni.createFrom().completionStage(() -> {
-                        CompletableFuture<List<UserModelDB>> usersFuture = new CompletableFuture<>();
-                        List<UserModelDB> allUsers = new ArrayList<>();
-                        
-                        userModelTable.query(r -> r.queryConditional(queryConditional))
-                                .subscribe(page -> {
-                                    // Filter out counter records (they don't have user emails in the sort key)
-                                    page.items().stream()
-                                            .filter(user -> user.getUserEmail() != null && !user.getUserEmail().startsWith("total") 
-                                                    && !user.getUserEmail().startsWith(CHECK_IN_COUNTER) 
-                                                    && !user.getUserEmail().startsWith(PAID_COUNTER)
-                                                    && !user.getUserEmail().equals(PARTICIPANTS_CHECKED_IN_COUNTER)
-                                                    && !user.getUserEmail().equals(PARTICIPANTS_NOT_CHECKED_IN_COUNTER))
-                                            .forEach(allUsers::add);
-                                })
-                                .whenComplete((v, error) -> {
-                                    if (error != null) {
-                                        usersFuture.completeExceptionally(error);
-                                    } else {
-                                        usersFuture.complete(allUsers);
-                                    }
-                                });
-                        
-                        return usersFuture;
-                    }).onItem().transformToUni(users -> {
-                                // Calculate actual counts
-                                long totalCar = 0;
-                                long totalMotorcycle = 0;
-                                long totalQuad = 0;
-                                long checkedInCar = 0;
-                                long checkedInMotorcycle = 0;
-                                long checkedInQuad = 0;
-                                long paidTotal = 0;
-                                long paidCar = 0;
-                                long paidMotorcycle = 0;
-                                long paidQuad = 0;
-                                long totalParticipants = 0;
-                                long participantsCheckedIn = 0;
-                                long participantsNotCheckedIn = 0;
-                                
-                                for (UserModelDB user : users) {
-                                    String vehicleType = user.getVehicleType();
-                                    
-                                    // Count by vehicle type
-                                    switch (vehicleType) {
-                                        case "car":
-                                            totalCar++;
-                                            if (user.isCheckedIn()) checkedInCar++;
-                                            if (user.isPaid()) paidCar++;
-                                            break;
-                                        case "motorcycle":
-                                            totalMotorcycle++;
-                                            if (user.isCheckedIn()) checkedInMotorcycle++;
-                                            if (user.isPaid()) paidMotorcycle++;
-                                            break;
-                                        case "quad":
-                                            totalQuad++;
-                                            if (user.isCheckedIn()) checkedInQuad++;
-                                            if (user.isPaid()) paidQuad++;
-                                            break;
-                                    }
-                                    
-                                    if (user.isPaid()) paidTotal++;
-                                    
-                                    // Count total participants (driver + guests)
-                                    try {
-                                        UserMetadataModel metadata = objectMapper.readValue(user.getMetadata(), UserMetadataModel.class);
-                                        int participantCount = metadata.getPeople() != null ? metadata.getPeople().size() : 1;
-                                        totalParticipants += participantCount;
-                                        
-                                        // Count checked-in vs not-checked-in participants
-                                        if (user.isCheckedIn()) {
-                                            participantsCheckedIn += participantCount;
-                                        } else {
-                                            participantsNotCheckedIn += participantCount;
-                                        }
-                                    } catch (JsonProcessingException e) {
-                                        Log.error("Error parsing user metadata for participant count", e);
-                                        totalParticipants++; // At least count the driver
-                                        // Default to not checked in if we can't parse metadata
-                                        if (user.isCheckedIn()) {
-                                            participantsCheckedIn++;
-                                        } else {
-                                            participantsNotCheckedIn++;
-                                        }
-                                    }
+    /**
+     * Counter rows share the event partition with the registrations; only registrations have an
+     * e-mail as sort key.
+     */
+    static boolean isUserRecord(UserModelDB record) {
+        String sortKey = record.getUserEmail();
+        return sortKey != null && !sortKey.startsWith("total")
+                && !sortKey.startsWith(CHECK_IN_COUNTER)
+                && !sortKey.startsWith(PAID_COUNTER)
+                && !sortKey.equals(PARTICIPANTS_CHECKED_IN_COUNTER)
+                && !sortKey.equals(PARTICIPANTS_NOT_CHECKED_IN_COUNTER)
+                && !sortKey.equals(CounterService.COUNTERS_SORT_KEY);
+    }
+
+    public Uni<BackfillResponse> backfillUserAttributes(String event) {
+        return backfillUserAttributes(event, null);
+    }
+
+    /**
+     * Recomputes the top-level attributes derived from a registration's metadata (the normalized
+     * phone number used by {@link UserModelDB#BY_PHONE_INDEX} and the participant count used by the
+     * counters) for registrations written before they existed, moves webhook bodies still
+     * embedded in the metadata to the {@link WebhookArchive}, moves the change history entries still
+     * embedded in it to the {@link ChangeHistoryService} and splits people, vehicle and payment
+     * out of it (see {@link #splitMetadataParts}). Then rewrites the metadata documents
+     * still stored as JSON strings as native attributes, and the metadata not stored in the format
+     * now written (see {@link #reencodeStringDocuments}).
+     * Only registrations whose stored value differs are written, and only if unchanged since they
+     * were read. Registrations are read through the {@link BulkReader}.
+     *
+     * Like a reconciliation (see {@link ReconcileJobRunner}), a call reads pages for at most
+     * {@code backfill.slice-duration}, within the Lambda timeout. If the event isn't done by then,
+     * the response is {@code running} with a cursor to pass to the next call, which carries on
+     * after the last page processed. The backfill only writes what differs, so starting over
+     * without the cursor is safe, just slower.
+     *
+     * @param cursor from the previous call, null to start from the first registration
+     * @throws BadRequestException on an invalid cursor
+     */
+    public Uni<BackfillResponse> backfillUserAttributes(String event, String cursor) {
+        String pass = cursor == null ? BACKFILL_ATTRIBUTES_PASS : backfillPass(cursor);
+        Map<String, AttributeValue> startKey = cursor == null ? null : backfillStartKey(event, cursor);
+        long deadline = System.nanoTime() + backfillSliceDuration.toNanos();
+        AtomicLong scanned = new AtomicLong();
+        AtomicLong updated = new AtomicLong();
+        AtomicLong archived = new AtomicLong();
+        AtomicLong reencoded = new AtomicLong();
+
+        Uni<String> nextCursor;
+        if (BACKFILL_DOCUMENTS_PASS.equals(pass)) {
+            nextCursor = reencodeStringDocuments(event, startKey, deadline, reencoded)
+                    .map(lastEvaluatedKey -> backfillCursor(BACKFILL_DOCUMENTS_PASS, lastEvaluatedKey));
+        } else {
+            QueryEnhancedRequest request = QueryEnhancedRequest.builder()
+                    .queryConditional(QueryConditional.keyEqualTo(Key.builder().partitionValue(event).build()))
+                    .build();
+            nextCursor = backfillPages(request, startKey, deadline, user -> {
+                        scanned.incrementAndGet();
+                        return backfillUser(event, user, updated, archived);
+                    })
+                    .chain(lastEvaluatedKey -> {
+                        if (lastEvaluatedKey != null) {
+                            return Uni.createFrom().item(backfillCursor(BACKFILL_ATTRIBUTES_PASS, lastEvaluatedKey));
+                        }
+                        if (System.nanoTime() >= deadline) {
+                            return Uni.createFrom().item(backfillCursor(BACKFILL_DOCUMENTS_PASS, Map.of()));
+                        }
+                        return reencodeStringDocuments(event, null, deadline, reencoded)
+                                .map(documentsKey -> backfillCursor(BACKFILL_DOCUMENTS_PASS, documentsKey));
+                    });
+        }
+        return nextCursor.onItem().transform(next -> {
+            BackfillResponse response = new BackfillResponse();
+            response.setEventId(event);
+            response.setStatus(next == null ? "success" : "running");
+            response.setCursor(next);
+            response.setScanned(scanned.get());
+            response.setUpdated(updated.get());
+            response.setArchived(archived.get());
+            response.setReencoded(reencoded.get());
+            response.setMessage(next == null
+                    ? "Backfilled " + updated.get() + " of " + scanned.get() + " user records."
+                    : "Backfill in progress: backfilled " + updated.get() + " of " + scanned.get()
+                            + " user records and re-encoded " + reencoded.get() + " in this call, call again with the cursor to continue.");
+            return response;
+        });
+    }
+
+    private Uni<Void> backfillUser(String event, UserModelDB user, AtomicLong updated, AtomicLong archived) {
+        Map<String, AttributeValue> changes = derivedAttributeChanges(user);
+        // the entries are stored before they are removed; storing them again on a retry leaves a single item
+        return changeHistoryService.append(event, user.getUserEmail(), embeddedChangeHistory(user))
+                .chain(() -> archiveEmbeddedWebhook(event, user))
+                .chain(withArchivedWebhook -> {
+                    JsonNode metadata = splitMetadataParts(user,
+                            withArchivedWebhook != null ? withArchivedWebhook : user.getMetadata(), changes);
+                    if (metadata == null) {
+                        metadata = withArchivedWebhook;
+                    }
+                    if (metadata == null && user.getMetadata() != null && user.getMetadata().has(EMBEDDED_CHANGE_HISTORY)) {
+                        metadata = user.getMetadata().deepCopy();
+                    }
+                    if (metadata instanceof ObjectNode document) {
+                        document.remove(EMBEDDED_CHANGE_HISTORY);
+                    }
+                    if (metadata != null) {
+                        changes.put(UserModelDB.METADATA, METADATA_ATTRIBUTE.transformFrom(metadata));
+                    }
+                    if (changes.isEmpty()) {
+                        return Uni.createFrom().voidItem();
+                    }
+                    return setUserAttributes(event, user.getUserEmail(), changes, user)
+                            .onItem().invoke(() -> {
+                                updated.incrementAndGet();
+                                if (withArchivedWebhook != null) {
+                                    archived.incrementAndGet();
                                 }
-                                
-                                long totalUsers = totalCar + totalMotorcycle + totalQuad;
-                                
-                                // Update all counters with actual values
-                                List<Uni<Void>> updates = new ArrayList<>();
-                                
-                                updates.add(setCounter(event, "total", totalUsers));
-                                updates.add(setCounter(event, "totalcar", totalCar));
-                                updates.add(setCounter(event, "totalmotorcycle", totalMotorcycle));
-                                updates.add(setCounter(event, "totalquad", totalQuad));
-                                updates.add(setCounter(event, CHECK_IN_COUNTER + "car", checkedInCar));
-                                updates.add(setCounter(event, CHECK_IN_COUNTER + "motorcycle", checkedInMotorcycle));
-                                updates.add(setCounter(event, CHECK_IN_COUNTER + "quad", checkedInQuad));
-                                updates.add(setCounter(event, PAID_COUNTER, paidTotal));
-                                updates.add(setCounter(event, PAID_COUNTER + "car", paidCar));
-                                updates.add(setCounter(event, PAID_COUNTER + "motorcycle", paidMotorcycle));
-                                updates.add(setCounter(event, PAID_COUNTER + "quad", paidQuad));
-                                updates.add(setCounter(event, TOTAL_PARTICIPANTS_COUNTER, totalParticipants));
-                                updates.add(setCounter(event, PARTICIPANTS_CHECKED_IN_COUNTER, participantsCheckedIn));
-                                updates.add(setCounter(event, PARTICIPANTS_NOT_CHECKED_IN_COUNTER, participantsNotCheckedIn));
-                                
-                                return Uni.combine().all().unis(updates)
-                                        .combinedWith(results -> null)
-                                        .onItem().transformToUni(v -> getCountersByEvent(event))
-                                        .onItem().transform(afterCounters -> {
-                                            ReconcileCountersResponse response = new ReconcileCountersResponse();
-                                            response.setEventId(event);
-                                            response.setStatus("success");
-                                            response.setBefore(beforeCounters);
-                                            response.setAfter(afterCounters);
-                                            response.setMessage("Counters reconciled successfully. Scanned " + users.size() + " user records.");
-                                            return response;
-                                        });
+                            })
+                            .onFailure(ConditionalCheckFailedException.class).recoverWithItem(failure -> {
+                                Log.info("Registration " + user.getUserEmail() + " changed during the backfill, left for the next run");
+                                return null;
                             });
                 });
     }
-    
-    private Uni<Void> setCounter(String event, String sortKey, long value) {
-        Key key = Key.builder().partitionValue(event).sortValue(sortKey).build();
-        
-        return Uni.createFrom().completionStage(() -> counterModelTable.getItem(key))
-                .onItem().transformToUni(counterDB -> {
-                    if (counterDB == null) {
-                        CounterDB newCounter = new CounterDB();
-                        newCounter.setCount(value);
-                        newCounter.setEventName(event);
-                        newCounter.setUserEmail(sortKey);
-                        return Uni.createFrom().completionStage(() -> counterModelTable.putItem(newCounter));
-                    } else {
-                        counterDB.setCount(value);
-                        return Uni.createFrom().completionStage(() -> counterModelTable.updateItem(counterDB));
-                    }
-                })
-                .onItem().ignore().andContinueWithNull();
+
+    /**
+     * The change history entries still embedded in a registration's metadata (written before the
+     * history moved to its own items, see {@link ChangeHistoryService}), which the backfill moves.
+     */
+    private List<ChangeHistoryEntry> embeddedChangeHistory(UserModelDB user) {
+        JsonNode history = user.getMetadata() == null ? null : user.getMetadata().get(EMBEDDED_CHANGE_HISTORY);
+        if (history == null || !history.isArray() || history.isEmpty()) {
+            return List.of();
+        }
+        try {
+            return objectMapper.treeToValue(history, objectMapper.constructType(CHANGE_HISTORY_TYPE));
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static final TypeReference<List<ChangeHistoryEntry>> CHANGE_HISTORY_TYPE = new TypeReference<>() {
+    };
+
+    /**
+     * Rewrites the JSON documents of the registrations still storing them as DynamoDB strings
+     * (written before {@link JsonAttributeConverter}) as native attributes, and the metadata not in
+     * the encoding now written (see {@link CompactJsonAttributeConverter}). They are found with an
+     * {@code attribute_type} filter, so only those are written; every registration is still read.
+     *
+     * @return the key to carry on after (see {@link #backfillPages}), null when done
+     */
+    private Uni<Map<String, AttributeValue>> reencodeStringDocuments(String event, Map<String, AttributeValue> startKey,
+                                                                     long deadline, AtomicLong reencoded) {
+        Expression.Builder filter = Expression.builder()
+                .putExpressionValue(":string", AttributeValue.builder().s("S").build())
+                .putExpressionValue(":otherMetadata", AttributeValue.builder()
+                        .s(CompactJsonAttributeConverter.enabled() ? "M" : "B").build());
+        List<String> conditions = new ArrayList<>();
+        for (int i = 0; i < JSON_DOCUMENTS.size(); i++) {
+            filter.putExpressionName("#d" + i, JSON_DOCUMENTS.get(i));
+            conditions.add("attribute_type(#d" + i + ", :string)");
+        }
+        conditions.add("attribute_type(#d" + JSON_DOCUMENTS.indexOf(UserModelDB.METADATA) + ", :otherMetadata)");
+        QueryEnhancedRequest request = QueryEnhancedRequest.builder()
+                .queryConditional(QueryConditional.keyEqualTo(Key.builder().partitionValue(event).build()))
+                .filterExpression(filter.expression(String.join(" OR ", conditions)).build())
+                .build();
+        return backfillPages(request, startKey, deadline, user -> {
+            Map<String, AttributeValue> documents = new HashMap<>(userModelTable.tableSchema().itemToMap(user, JSON_DOCUMENTS));
+            documents.values().removeIf(value -> Boolean.TRUE.equals(value.nul()));
+            return setUserAttributes(event, user.getUserEmail(), documents, user)
+                    .onItem().invoke(reencoded::incrementAndGet)
+                    .onFailure(ConditionalCheckFailedException.class).recoverWithItem(failure -> {
+                        Log.info("Registration " + user.getUserEmail() + " changed during the backfill, left for the next run");
+                        return null;
+                    });
+        });
+    }
+
+    /**
+     * Backfills the registrations of the pages of {@code request} from {@code startKey}, a page at a
+     * time, until the last page or the first one read after {@code deadline} (a {@link System#nanoTime}).
+     *
+     * @return the {@code LastEvaluatedKey} of the last page backfilled, null if it was the last page
+     */
+    private Uni<Map<String, AttributeValue>> backfillPages(QueryEnhancedRequest request, Map<String, AttributeValue> startKey,
+                                                           long deadline, Function<UserModelDB, Uni<Void>> backfill) {
+        AtomicReference<Map<String, AttributeValue>> lastEvaluatedKey = new AtomicReference<>();
+        return bulkReader.query(userModelTable, request, startKey, page -> System.nanoTime() < deadline)
+                .onItem().transformToUniAndConcatenate(page -> Multi.createFrom().iterable(page.items())
+                        .filter(EventV1Service::isUserRecord)
+                        .onItem().transformToUni(backfill).merge(BACKFILL_CONCURRENCY)
+                        .collect().last()
+                        .onItem().invoke(ignored -> lastEvaluatedKey.set(page.lastEvaluatedKey()))
+                        .replaceWith(page))
+                .collect().last()
+                .onItem().transform(ignored -> lastEvaluatedKey.get() == null || lastEvaluatedKey.get().isEmpty()
+                        ? null : lastEvaluatedKey.get());
+    }
+
+    /**
+     * The cursor of a backfill to carry on with {@code pass} after {@code lastEvaluatedKey} (empty:
+     * from the first registration), null if there is nothing left: the pass and the sort key, as
+     * base64url.
+     */
+    private static String backfillCursor(String pass, Map<String, AttributeValue> lastEvaluatedKey) {
+        if (lastEvaluatedKey == null) {
+            return null;
+        }
+        String sortKey = lastEvaluatedKey.isEmpty() ? "" : lastEvaluatedKey.get(UserModelDB.SORT_KEY).s();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString((pass + ":" + sortKey).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String backfillPass(String cursor) {
+        String pass = decodeBackfillCursor(cursor)[0];
+        if (!BACKFILL_ATTRIBUTES_PASS.equals(pass) && !BACKFILL_DOCUMENTS_PASS.equals(pass)) {
+            throw new BadRequestException("Invalid cursor");
+        }
+        return pass;
+    }
+
+    private static Map<String, AttributeValue> backfillStartKey(String event, String cursor) {
+        String sortKey = decodeBackfillCursor(cursor)[1];
+        return sortKey.isEmpty() ? null : userKey(event, sortKey);
+    }
+
+    private static String[] decodeBackfillCursor(String cursor) {
+        String decoded;
+        try {
+            decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException("Invalid cursor");
+        }
+        String[] parts = decoded.split(":", 2);
+        if (parts.length != 2) {
+            throw new BadRequestException("Invalid cursor");
+        }
+        return parts;
+    }
+
+    private Map<String, AttributeValue> derivedAttributeChanges(UserModelDB user) {
+        Map<String, AttributeValue> changes = new HashMap<>();
+        String phoneNumber = user.getPhoneNumber();
+        if (phoneNumber == null && user.getMetadata() != null) {
+            phoneNumber = user.getMetadata().path("phoneNumber").textValue();
+            if (phoneNumber != null) {
+                changes.put(UserModelDB.PHONE_NUMBER, AttributeValue.builder().s(phoneNumber).build());
+            }
+        }
+        String normalizedPhoneNumber = normalizePhoneNumber(phoneNumber);
+        if (normalizedPhoneNumber != null && !normalizedPhoneNumber.equals(user.getPhoneNumberNormalized())) {
+            changes.put(UserModelDB.PHONE_NORMALIZED, AttributeValue.builder().s(normalizedPhoneNumber).build());
+        }
+        int participantCount = ReconcileAccumulator.countPeople(user);
+        if (user.getParticipantCount() == null || user.getParticipantCount() != participantCount) {
+            changes.put(UserModelDB.PARTICIPANT_COUNT, AttributeValue.builder().n(Integer.toString(participantCount)).build());
+        }
+        return changes;
+    }
+
+    /**
+     * Moves the people, vehicle and payment still embedded in the metadata of a registration written
+     * before they were split out (it has no people attribute) to their own attributes, so reads of
+     * those fields don't fall back to the metadata (see {@link UserFields}). Everything else in the
+     * document is kept as is.
+     *
+     * @param metadata the metadata to split, as stored or as rewritten by {@link #archiveEmbeddedWebhook}
+     * @return the metadata to store instead, the parts being added to {@code changes}; null if there
+     *         was nothing to split
+     */
+    private JsonNode splitMetadataParts(UserModelDB user, JsonNode metadata, Map<String, AttributeValue> changes) {
+        if (user.getPeople() != null || metadata == null || !metadata.isObject()) {
+            return null;
+        }
+        ObjectNode document = metadata.deepCopy();
+        boolean split = false;
+        // the attributes are named as the fields of the document
+        for (String part : List.of(UserModelDB.PEOPLE, UserModelDB.VEHICLE, UserModelDB.PAYMENT_INFO)) {
+            JsonNode value = document.remove(part);
+            if (value != null && !value.isNull()) {
+                changes.put(part, PART_ATTRIBUTE.transformFrom(value));
+                split = true;
+            }
+        }
+        return split ? document : null;
+    }
+
+    /**
+     * Archives the webhook body embedded in a registration's metadata.
+     *
+     * @return the metadata to store instead, referencing the archived body; null if there was none
+     */
+    private Uni<JsonNode> archiveEmbeddedWebhook(String event, UserModelDB user) {
+        if (user.getMetadata() == null || !user.getMetadata().path("rawWebhook").isTextual()) {
+            return Uni.createFrom().nullItem();
+        }
+        ObjectNode metadata = user.getMetadata().deepCopy();
+        return webhookArchive.store(event, user.getUserEmail(), metadata.get("rawWebhook").asText())
+                .onItem().transform(id -> {
+                    metadata.remove("rawWebhook");
+                    metadata.put("rawWebhookId", id);
+                    return metadata;
+                });
+    }
+
+    /**
+     * Sets top-level attributes of a registration, if it is still stored as {@code expected} (see
+     * {@link #expectedState}), and increments its version so writes computed from it before are retried.
+     * Stamps the roster version too, like every registration write (see {@link RosterService}).
+     */
+    private Uni<Void> setUserAttributes(String event, String email, Map<String, AttributeValue> attributes,
+                                        UserModelDB expected) {
+        Expression expectedState = expectedState(expected);
+        Map<String, String> names = new HashMap<>(expectedState.expressionNames());
+        Map<String, AttributeValue> values = new HashMap<>(expectedState.expressionValues());
+        List<String> assignments = new ArrayList<>();
+        int i = 0;
+        for (Map.Entry<String, AttributeValue> attribute : attributes.entrySet()) {
+            names.put("#a" + i, attribute.getKey());
+            values.put(":v" + i, attribute.getValue());
+            assignments.add("#a" + i + " = :v" + i);
+            i++;
+        }
+        names.put("#rosterVersion", UserModelDB.ROSTER_VERSION);
+        values.put(":rosterVersion", CounterService.number(System.currentTimeMillis()));
+        assignments.add("#rosterVersion = :rosterVersion");
+        names.put("#version", UserModelDB.VERSION);
+        values.put(":one", CounterService.number(1));
+        String conditionExpression = expectedState.expression();
+        return DynamoDbMetrics.call(() -> dynamoDbAsyncClient.updateItem(UpdateItemRequest.builder()
+                                .tableName(EVENTS_TABLE)
+                                .key(userKey(event, email))
+                                .updateExpression("SET " + String.join(", ", assignments) + " ADD #version :one")
+                                .conditionExpression(conditionExpression)
+                                .expressionAttributeNames(names)
+                                .expressionAttributeValues(values)
+                                .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL)
+                                .build()),
+                        response -> DynamoDbMetrics.units(response.consumedCapacity()))
+                .replaceWithVoid();
+    }
+
+    static Map<String, AttributeValue> userKey(String event, String email) {
+        Map<String, AttributeValue> key = new HashMap<>();
+        key.put(UserModelDB.PARTITION_KEY, AttributeValue.builder().s(event).build());
+        key.put(UserModelDB.SORT_KEY, AttributeValue.builder().s(email).build());
+        return key;
+    }
+
+    /**
+     * A projection expression of {@code attributes}, as {@code #a0, #a1...} (see {@link #projectionNames}).
+     */
+    static String projection(List<String> attributes) {
+        StringBuilder projection = new StringBuilder();
+        for (int i = 0; i < attributes.size(); i++) {
+            projection.append(i == 0 ? "" : ", ").append("#a").append(i);
+        }
+        return projection.toString();
+    }
+
+    static Map<String, String> projectionNames(List<String> attributes) {
+        Map<String, String> names = new HashMap<>();
+        for (int i = 0; i < attributes.size(); i++) {
+            names.put("#a" + i, attributes.get(i));
+        }
+        return names;
+    }
+
+    /**
+     * The registrations of an event with only the attributes a counter reconciliation needs,
+     * page by page from {@code exclusiveStartKey} (null: from the beginning). Pages are read
+     * through the {@link BulkReader} so a reconciliation leaves most of the read capacity to the
+     * gates; counter rows are left in and have to be skipped with {@link #isUserRecord}.
+     */
+    Multi<Page<UserModelDB>> reconcilePages(String event, Map<String, AttributeValue> exclusiveStartKey) {
+        QueryConditional queryConditional = QueryConditional.keyEqualTo(Key.builder().partitionValue(event).build());
+        return bulkReader.query(userModelTable, QueryEnhancedRequest.builder()
+                        .queryConditional(queryConditional)
+                        .attributesToProject(RECONCILE_ATTRIBUTES)
+                        .build(),
+                exclusiveStartKey);
     }
 }
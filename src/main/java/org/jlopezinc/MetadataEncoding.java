@@ -0,0 +1,25 @@
+package org.jlopezinc;
+
+import io.quarkus.runtime.StartupEvent;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jlopezinc.dynamodb.CompactJsonAttributeConverter;
+
+/**
+ * Applies the {@code metadata.compact-encoding.*} configuration to the
+ * {@link CompactJsonAttributeConverter}, which the enhanced client instantiates itself.
+ */
+@ApplicationScoped
+public class MetadataEncoding {
+
+    @ConfigProperty(name = "metadata.compact-encoding.enabled", defaultValue = "false")
+    boolean enabled;
+
+    @ConfigProperty(name = "metadata.compact-encoding.compress-above", defaultValue = "1024")
+    int compressAbove;
+
+    void onStart(@Observes StartupEvent event) {
+        CompactJsonAttributeConverter.configure(enabled, compressAbove);
+    }
+}
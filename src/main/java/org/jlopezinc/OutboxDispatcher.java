@@ -0,0 +1,94 @@
+package org.jlopezinc;
+
+import io.quarkus.logging.Log;
+import io.quarkus.scheduler.Scheduled;
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.Uni;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.jlopezinc.model.OutboxDispatchResponse;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends the e-mails queued in the {@link EmailOutbox}.
+ *
+ * Each run takes one batch of due messages and sends them with bounded concurrency. A run is
+ * started on a schedule, right after a registration is queued, and on demand through the admin
+ * endpoint. On Lambda the function is frozen between invocations, so neither the schedule nor a
+ * run started after a registration's response can be relied on: the {@code OutboxDispatchSchedule}
+ * EventBridge rule of {@code sam.native.yaml} calls the admin endpoint every minute instead, and
+ * picks up messages whose run was frozen once their claim lease runs out.
+ */
+@ApplicationScoped
+public class OutboxDispatcher {
+
+    static final int BATCH_SIZE = 25;
+    static final int MAX_CONCURRENCY = 4;
+    private static final Duration SEND_TIMEOUT = Duration.ofSeconds(10);
+
+    @Inject
+    EmailOutbox emailOutbox;
+
+    @Inject
+    EventV1Service eventV1Service;
+
+    @Scheduled(every = "{outbox.dispatch.interval}", concurrentExecution = Scheduled.ConcurrentExecution.SKIP)
+    Uni<Void> scheduledDispatch() {
+        return dispatch().replaceWithVoid();
+    }
+
+    /**
+     * Starts a run without waiting for it, so the caller's response isn't held up by SMTP.
+     */
+    public void dispatchInBackground() {
+        dispatch().subscribe().with(
+                response -> Log.debug(response.getMessage()),
+                error -> Log.error("Error dispatching e-mail outbox", error));
+    }
+
+    public Uni<OutboxDispatchResponse> dispatch() {
+        long now = System.currentTimeMillis();
+        AtomicLong sent = new AtomicLong();
+        AtomicLong retried = new AtomicLong();
+        AtomicLong failed = new AtomicLong();
+        return emailOutbox.due(BATCH_SIZE, now)
+                .onItem().transformToMulti(messages -> Multi.createFrom().iterable(messages))
+                .onItem().transformToUni(message -> emailOutbox.claim(message, now)
+                        .chain(claimed -> {
+                            if (!claimed) {
+                                return Uni.createFrom().voidItem();
+                            }
+                            return send(message)
+                                    .onItemOrFailure().transformToUni((ignored, error) -> {
+                                        if (error == null) {
+                                            sent.incrementAndGet();
+                                            return emailOutbox.markSent(message, System.currentTimeMillis());
+                                        }
+                                        Log.warn("Error sending " + message.template + " e-mail to " + message.email
+                                                + " (attempt " + (message.attempts + 1) + ")", error);
+                                        return emailOutbox.markFailed(message, error.getMessage(), System.currentTimeMillis())
+                                                .onItem().invoke(retry -> (retry ? retried : failed).incrementAndGet())
+                                                .replaceWithVoid();
+                                    });
+                        }))
+                .merge(MAX_CONCURRENCY)
+                .collect().last()
+                .onItem().transform(ignored -> {
+                    OutboxDispatchResponse response = new OutboxDispatchResponse();
+                    response.setStatus("success");
+                    response.setSent(sent.get());
+                    response.setRetried(retried.get());
+                    response.setFailed(failed.get());
+                    response.setMessage("Outbox dispatched: " + sent.get() + " sent, " + retried.get()
+                            + " to retry, " + failed.get() + " failed.");
+                    return response;
+                });
+    }
+
+    private Uni<Void> send(EmailOutbox.Message message) {
+        return eventV1Service.sendEmailTemplate(message.event, message.email, message.template)
+                .ifNoItem().after(SEND_TIMEOUT).fail();
+    }
+}
@@ -0,0 +1,171 @@
+package org.jlopezinc;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.jlopezinc.dynamodb.UserModelDB;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.jlopezinc.EventV1Service.CHECK_IN_COUNTER;
+import static org.jlopezinc.EventV1Service.PAID_COUNTER;
+import static org.jlopezinc.EventV1Service.PARTICIPANTS_CHECKED_IN_COUNTER;
+import static org.jlopezinc.EventV1Service.PARTICIPANTS_NOT_CHECKED_IN_COUNTER;
+import static org.jlopezinc.EventV1Service.TOTAL_PARTICIPANTS_COUNTER;
+
+/**
+ * Running totals of a counter reconciliation.
+ *
+ * Registrations are folded in one at a time as query pages arrive, so memory use does not grow
+ * with the size of the event. Only the fields needed for counting are read, and the people are only
+ * counted for records that predate the {@code participantCount} attribute.
+ */
+class ReconcileAccumulator {
+
+    private long scanned;
+    private long totalCar;
+    private long totalMotorcycle;
+    private long totalQuad;
+    private long checkedInCar;
+    private long checkedInMotorcycle;
+    private long checkedInQuad;
+    private long paidTotal;
+    private long paidCar;
+    private long paidMotorcycle;
+    private long paidQuad;
+    private long totalParticipants;
+    private long participantsCheckedIn;
+    private long participantsNotCheckedIn;
+
+    /**
+     * Picks up a reconciliation from the totals saved at a checkpoint ({@link #toCounts()}).
+     */
+    static ReconcileAccumulator restore(long scanned, Map<String, Long> counts) {
+        ReconcileAccumulator accumulator = new ReconcileAccumulator();
+        accumulator.scanned = scanned;
+        accumulator.totalCar = counts.getOrDefault("totalcar", 0L);
+        accumulator.totalMotorcycle = counts.getOrDefault("totalmotorcycle", 0L);
+        accumulator.totalQuad = counts.getOrDefault("totalquad", 0L);
+        accumulator.checkedInCar = counts.getOrDefault(CHECK_IN_COUNTER + "car", 0L);
+        accumulator.checkedInMotorcycle = counts.getOrDefault(CHECK_IN_COUNTER + "motorcycle", 0L);
+        accumulator.checkedInQuad = counts.getOrDefault(CHECK_IN_COUNTER + "quad", 0L);
+        accumulator.paidTotal = counts.getOrDefault(PAID_COUNTER, 0L);
+        accumulator.paidCar = counts.getOrDefault(PAID_COUNTER + "car", 0L);
+        accumulator.paidMotorcycle = counts.getOrDefault(PAID_COUNTER + "motorcycle", 0L);
+        accumulator.paidQuad = counts.getOrDefault(PAID_COUNTER + "quad", 0L);
+        accumulator.totalParticipants = counts.getOrDefault(TOTAL_PARTICIPANTS_COUNTER, 0L);
+        accumulator.participantsCheckedIn = counts.getOrDefault(PARTICIPANTS_CHECKED_IN_COUNTER, 0L);
+        accumulator.participantsNotCheckedIn = counts.getOrDefault(PARTICIPANTS_NOT_CHECKED_IN_COUNTER, 0L);
+        return accumulator;
+    }
+
+    void add(UserModelDB user) {
+        scanned++;
+        String vehicleType = user.getVehicleType();
+        if (vehicleType != null) {
+            switch (vehicleType) {
+                case "car":
+                    totalCar++;
+                    if (user.isCheckedIn()) checkedInCar++;
+                    if (user.isPaid()) paidCar++;
+                    break;
+                case "motorcycle":
+                    totalMotorcycle++;
+                    if (user.isCheckedIn()) checkedInMotorcycle++;
+                    if (user.isPaid()) paidMotorcycle++;
+                    break;
+                case "quad":
+                    totalQuad++;
+                    if (user.isCheckedIn()) checkedInQuad++;
+                    if (user.isPaid()) paidQuad++;
+                    break;
+            }
+        }
+
+        if (user.isPaid()) paidTotal++;
+
+        // Count total participants (driver + guests)
+        int participantCount = participantCount(user);
+        totalParticipants += participantCount;
+        if (user.isCheckedIn()) {
+            participantsCheckedIn += participantCount;
+        } else {
+            participantsNotCheckedIn += participantCount;
+        }
+    }
+
+    long getScanned() {
+        return scanned;
+    }
+
+    Map<String, Long> toCounts() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        counts.put("total", totalCar + totalMotorcycle + totalQuad);
+        counts.put("totalcar", totalCar);
+        counts.put("totalmotorcycle", totalMotorcycle);
+        counts.put("totalquad", totalQuad);
+        counts.put(CHECK_IN_COUNTER + "car", checkedInCar);
+        counts.put(CHECK_IN_COUNTER + "motorcycle", checkedInMotorcycle);
+        counts.put(CHECK_IN_COUNTER + "quad", checkedInQuad);
+        counts.put(PAID_COUNTER, paidTotal);
+        counts.put(PAID_COUNTER + "car", paidCar);
+        counts.put(PAID_COUNTER + "motorcycle", paidMotorcycle);
+        counts.put(PAID_COUNTER + "quad", paidQuad);
+        counts.put(TOTAL_PARTICIPANTS_COUNTER, totalParticipants);
+        counts.put(PARTICIPANTS_CHECKED_IN_COUNTER, participantsCheckedIn);
+        counts.put(PARTICIPANTS_NOT_CHECKED_IN_COUNTER, participantsNotCheckedIn);
+        return counts;
+    }
+
+    /**
+     * How the counters change when a registration goes from {@code before} to {@code after}; either
+     * may be null for a registration that doesn't exist (yet). Computed with the same rules as a
+     * reconciliation, so incremental updates and reconciliations always agree.
+     */
+    static Map<String, Long> deltas(UserModelDB before, UserModelDB after) {
+        Map<String, Long> deltas = counts(after);
+        counts(before).forEach((counter, count) -> deltas.merge(counter, -count, Long::sum));
+        deltas.values().removeIf(delta -> delta == 0);
+        return deltas;
+    }
+
+    private static Map<String, Long> counts(UserModelDB user) {
+        ReconcileAccumulator accumulator = new ReconcileAccumulator();
+        if (user != null) {
+            accumulator.add(user);
+        }
+        return accumulator.toCounts();
+    }
+
+    /**
+     * The number of people on a registration: the stored {@code participantCount} attribute, or,
+     * for records not backfilled yet, the size of the {@code people} array in the metadata.
+     */
+    static int participantCount(UserModelDB user) {
+        if (user.getParticipantCount() != null) {
+            return user.getParticipantCount();
+        }
+        return countPeople(user);
+    }
+
+    /**
+     * Counts the people of a registration from its documents: the {@code people} attribute, or the
+     * copy in the metadata of records written before it was split out.
+     */
+    static int countPeople(UserModelDB user) {
+        return user.getPeople() == null ? countPeople(user.getMetadata()) : countElements(user.getPeople());
+    }
+
+    /**
+     * Counts the entries of the top-level {@code people} array of a metadata document.
+     *
+     * @return the number of people, 1 (the driver) if the array is absent
+     */
+    static int countPeople(JsonNode metadata) {
+        return metadata == null ? 1 : countElements(metadata.path("people"));
+    }
+
+    private static int countElements(JsonNode people) {
+        // at least count the driver
+        return people.isArray() ? people.size() : 1;
+    }
+}
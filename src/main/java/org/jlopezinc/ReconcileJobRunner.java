@@ -0,0 +1,161 @@
+package org.jlopezinc;
+
+import io.quarkus.logging.Log;
+import io.quarkus.scheduler.Scheduled;
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.Uni;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.NotFoundException;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jlopezinc.model.ReconcileCountersResponse;
+import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
+
+import java.time.Duration;
+import java.util.UUID;
+
+/**
+ * Runs the counter reconciliations checkpointed in {@link ReconcileJobs}.
+ *
+ * Each run counts pages for at most {@code reconcile.slice-duration}, well within the Lambda
+ * timeout, saving a checkpoint after every page. When the last page is counted the counters are
+ * overwritten with the totals; until then the job is left for the next run, which picks it up
+ * from the checkpoint. A run is started by the admin endpoint (which also starts new jobs) and on
+ * a schedule; as with the outbox, the schedule only fires while the function is warm, so a large
+ * event may take a few calls to the endpoint.
+ *
+ * Registrations written while a job is running may or may not be counted depending on which side
+ * of the checkpoint they fall; the transactional counter deltas keep the difference small, and a
+ * second reconciliation of a quiet event is exact.
+ */
+@ApplicationScoped
+public class ReconcileJobRunner {
+
+    // a run's last page may still be waiting on throttled reads after the slice ends
+    private static final Duration LEASE_MARGIN = Duration.ofSeconds(30);
+
+    @Inject
+    ReconcileJobs reconcileJobs;
+
+    @Inject
+    EventV1Service eventV1Service;
+
+    @Inject
+    CounterService counterService;
+
+    @ConfigProperty(name = "reconcile.slice-duration", defaultValue = "10s")
+    Duration sliceDuration;
+
+    @Scheduled(every = "{reconcile.resume.interval}", concurrentExecution = Scheduled.ConcurrentExecution.SKIP)
+    Uni<Void> scheduledResume() {
+        return reconcileJobs.resumable(System.currentTimeMillis())
+                .onItem().transformToMulti(events -> Multi.createFrom().iterable(events))
+                .onItem().transformToUniAndConcatenate(event -> resume(event)
+                        .onItem().invoke(response -> Log.debug(response.getMessage()))
+                        .onFailure().recoverWithItem(error -> {
+                            Log.error("Error resuming the reconciliation of " + event, error);
+                            return null;
+                        }))
+                .collect().last()
+                .replaceWithVoid();
+    }
+
+    /**
+     * Continues the reconciliation of {@code event}, or starts a new one if the last one completed,
+     * and counts for one slice.
+     *
+     * @return the job after the slice: {@code success} with the new counters, or {@code running}
+     */
+    public Uni<ReconcileCountersResponse> reconcile(String event) {
+        String owner = UUID.randomUUID().toString();
+        return claim(event, owner)
+                .onItem().ifNull().switchTo(() -> counterService.getAll(event)
+                        .chain(before -> {
+                            long now = System.currentTimeMillis();
+                            return reconcileJobs.start(event, UUID.randomUUID().toString(), before, owner, now, leaseUntil(now));
+                        }))
+                .chain(job -> job == null ? status(event) : run(job, owner));
+    }
+
+    /**
+     * Counts one more slice of the reconciliation of {@code event}, if nobody else is.
+     */
+    public Uni<ReconcileCountersResponse> resume(String event) {
+        String owner = UUID.randomUUID().toString();
+        return claim(event, owner)
+                .chain(job -> job == null ? status(event) : run(job, owner));
+    }
+
+    /**
+     * Where the reconciliation of {@code event} stands, without doing any work.
+     */
+    public Uni<ReconcileCountersResponse> status(String event) {
+        return reconcileJobs.get(event)
+                .onItem().ifNull().failWith(NotFoundException::new)
+                .onItem().transform(ReconcileJobRunner::toResponse);
+    }
+
+    private Uni<ReconcileJobs.Job> claim(String event, String owner) {
+        long now = System.currentTimeMillis();
+        return reconcileJobs.claim(event, owner, now, leaseUntil(now));
+    }
+
+    private Uni<ReconcileCountersResponse> run(ReconcileJobs.Job job, String owner) {
+        Uni<Void> counted = ReconcileJobs.COUNTED.equals(job.status) ? Uni.createFrom().voidItem() : count(job, owner);
+        return counted
+                .chain(() -> reconcileJobs.get(job.event))
+                .chain(current -> {
+                    if (!ReconcileJobs.COUNTED.equals(current.status)) {
+                        return reconcileJobs.release(job.event, owner).replaceWith(current);
+                    }
+                    return counterService.set(job.event, current.counts)
+                            .chain(() -> counterService.getAll(job.event))
+                            .chain(after -> reconcileJobs.complete(job.event, owner, after, System.currentTimeMillis()))
+                            .chain(() -> reconcileJobs.get(job.event));
+                })
+                // another run took the job over after our lease ran out; it carries on from our last checkpoint
+                .onFailure(ConditionalCheckFailedException.class).recoverWithUni(() -> reconcileJobs.get(job.event))
+                .onItem().transform(ReconcileJobRunner::toResponse);
+    }
+
+    /**
+     * Counts pages from the job's checkpoint until the event is done or the slice is over.
+     */
+    private Uni<Void> count(ReconcileJobs.Job job, String owner) {
+        ReconcileAccumulator accumulator = ReconcileAccumulator.restore(job.scanned, job.counts);
+        return eventV1Service.reconcilePages(job.event, job.checkpoint)
+                .select().first(sliceDuration)
+                .onItem().transformToUniAndConcatenate(page -> {
+                    page.items().stream()
+                            // Filter out counter records (they don't have user emails in the sort key)
+                            .filter(EventV1Service::isUserRecord)
+                            .forEach(accumulator::add);
+                    return reconcileJobs.checkpoint(job.event, owner, page.lastEvaluatedKey(),
+                            accumulator.getScanned(), accumulator.toCounts(), System.currentTimeMillis());
+                })
+                .collect().last()
+                .replaceWithVoid();
+    }
+
+    private long leaseUntil(long now) {
+        return now + sliceDuration.plus(LEASE_MARGIN).toMillis();
+    }
+
+    static ReconcileCountersResponse toResponse(ReconcileJobs.Job job) {
+        ReconcileCountersResponse response = new ReconcileCountersResponse();
+        response.setEventId(job.event);
+        response.setJobId(job.jobId);
+        response.setScanned(job.scanned);
+        response.setBefore(EventV1Service.toCountersModel(job.before));
+        if (ReconcileJobs.COMPLETED.equals(job.status)) {
+            response.setStatus("success");
+            response.setAfter(EventV1Service.toCountersModel(job.after));
+            response.setMessage("Counters reconciled successfully. Scanned " + job.scanned + " user records.");
+        } else {
+            response.setStatus("running");
+            response.setMessage("Reconciliation in progress. Scanned " + job.scanned + " user records in "
+                    + job.pages + " pages so far.");
+        }
+        return response;
+    }
+}
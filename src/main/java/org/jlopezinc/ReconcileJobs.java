@@ -0,0 +1,321 @@
+package org.jlopezinc;
+
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.Uni;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import mutiny.zero.flow.adapters.AdaptersToFlow;
+import org.jlopezinc.dynamodb.CounterDB;
+import software.amazon.awssdk.enhanced.dynamodb.TableMetadata;
+import software.amazon.awssdk.enhanced.dynamodb.TableSchema;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
+import software.amazon.awssdk.services.dynamodb.model.PutItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.QueryRequest;
+import software.amazon.awssdk.services.dynamodb.model.ReturnConsumedCapacity;
+import software.amazon.awssdk.services.dynamodb.model.ReturnValue;
+import software.amazon.awssdk.services.dynamodb.model.UpdateItemRequest;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Checkpoints of counter reconciliations, stored in the events table so a reconciliation can be
+ * run across as many invocations as the event needs instead of within one request timeout.
+ * {@link ReconcileJobRunner} does the counting.
+ *
+ * All jobs live in one partition ({@value #JOBS_PARTITION}), one item per event, so there is at
+ * most one reconciliation of an event at a time; starting a new one replaces the last completed
+ * one. A job is {@value #RUNNING} while there are pages left to count, {@value #COUNTED} once
+ * every page is counted but the counters aren't written yet, and {@value #COMPLETED} after that.
+ *
+ * The item holds the {@code LastEvaluatedKey} of the last page counted ({@value #CHECKPOINT}) and
+ * the running totals up to it ({@value #COUNTS}), written together after every page. A runner
+ * takes a lease on the job before counting; every checkpoint is conditional on still holding it,
+ * so a runner whose lease ran out and was taken over can't count pages twice.
+ */
+@ApplicationScoped
+public class ReconcileJobs {
+
+    static final String JOBS_PARTITION = "reconcile-job";
+
+    static final String RUNNING = "RUNNING";
+    static final String COUNTED = "COUNTED";
+    static final String COMPLETED = "COMPLETED";
+
+    static final String JOB_ID = "jobId";
+    static final String STATUS = "status";
+    static final String CHECKPOINT = "checkpoint";
+    static final String SCANNED = "scanned";
+    static final String PAGES = "pages";
+    static final String COUNTS = "counts";
+    static final String BEFORE = "before";
+    static final String AFTER = "after";
+    static final String LEASE_OWNER = "leaseOwner";
+    static final String LEASE_UNTIL = "leaseUntil";
+    static final String STARTED_AT = "startedAt";
+    static final String UPDATED_AT = "updatedAt";
+
+    private final DynamoDbAsyncClient dynamoDbAsyncClient;
+    private final String partitionKeyName;
+    private final String sortKeyName;
+
+    @Inject
+    ReconcileJobs(DynamoDbAsyncClient dynamoDbAsyncClient) {
+        this.dynamoDbAsyncClient = dynamoDbAsyncClient;
+        TableMetadata tableMetadata = TableSchema.fromClass(CounterDB.class).tableMetadata();
+        this.partitionKeyName = tableMetadata.primaryPartitionKey();
+        this.sortKeyName = tableMetadata.primarySortKey().orElseThrow();
+    }
+
+    static final class Job {
+        final String event;
+        final String jobId;
+        final String status;
+        final Map<String, AttributeValue> checkpoint;
+        final long scanned;
+        final long pages;
+        final Map<String, Long> counts;
+        final Map<String, Long> before;
+        final Map<String, Long> after;
+        final long startedAt;
+        final long updatedAt;
+
+        Job(String event, String jobId, String status, Map<String, AttributeValue> checkpoint, long scanned, long pages,
+            Map<String, Long> counts, Map<String, Long> before, Map<String, Long> after, long startedAt, long updatedAt) {
+            this.event = event;
+            this.jobId = jobId;
+            this.status = status;
+            this.checkpoint = checkpoint;
+            this.scanned = scanned;
+            this.pages = pages;
+            this.counts = counts;
+            this.before = before;
+            this.after = after;
+            this.startedAt = startedAt;
+            this.updatedAt = updatedAt;
+        }
+    }
+
+    /**
+     * The current (or last) reconciliation of an event, null if it never had one.
+     */
+    public Uni<Job> get(String event) {
+        return DynamoDbMetrics.call(() -> dynamoDbAsyncClient.getItem(r -> r
+                                .tableName(EventV1Service.EVENTS_TABLE)
+                                .key(key(event))
+                                .consistentRead(true)
+                                .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL)),
+                        response -> DynamoDbMetrics.units(response.consumedCapacity()))
+                .onItem().transform(response -> response.hasItem() && !response.item().isEmpty() ? toJob(response.item()) : null);
+    }
+
+    /**
+     * Starts a reconciliation of {@code event} from its first page, leased to {@code owner}.
+     *
+     * @param before the counters when the job starts, returned with its result
+     * @return the new job, null if a reconciliation of the event is already under way
+     */
+    public Uni<Job> start(String event, String jobId, Map<String, Long> before, String owner, long now, long leaseUntil) {
+        Map<String, AttributeValue> item = key(event);
+        item.put(JOB_ID, string(jobId));
+        item.put(STATUS, string(RUNNING));
+        item.put(SCANNED, CounterService.number(0));
+        item.put(PAGES, CounterService.number(0));
+        item.put(COUNTS, counts(Map.of()));
+        item.put(BEFORE, counts(before));
+        item.put(LEASE_OWNER, string(owner));
+        item.put(LEASE_UNTIL, CounterService.number(leaseUntil));
+        item.put(STARTED_AT, CounterService.number(now));
+        item.put(UPDATED_AT, CounterService.number(now));
+        return DynamoDbMetrics.call(() -> dynamoDbAsyncClient.putItem(PutItemRequest.builder()
+                                .tableName(EventV1Service.EVENTS_TABLE)
+                                .item(item)
+                                .conditionExpression("attribute_not_exists(#sk) OR #status = :completed")
+                                .expressionAttributeNames(Map.of("#sk", sortKeyName, "#status", STATUS))
+                                .expressionAttributeValues(Map.of(":completed", string(COMPLETED)))
+                                .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL)
+                                .build()),
+                        response -> DynamoDbMetrics.units(response.consumedCapacity()))
+                .onItem().transform(response -> toJob(item))
+                .onFailure(ConditionalCheckFailedException.class).recoverWithNull();
+    }
+
+    /**
+     * Takes the lease on an unfinished reconciliation nobody is working on (or whose runner's
+     * lease ran out).
+     *
+     * @return the job as of its last checkpoint, null if there is none to resume
+     */
+    public Uni<Job> claim(String event, String owner, long now, long leaseUntil) {
+        return DynamoDbMetrics.call(() -> dynamoDbAsyncClient.updateItem(UpdateItemRequest.builder()
+                                .tableName(EventV1Service.EVENTS_TABLE)
+                                .key(key(event))
+                                .updateExpression("SET #owner = :owner, #lease = :lease")
+                                .conditionExpression("#status IN (:running, :counted) AND #lease <= :now")
+                                .expressionAttributeNames(Map.of("#owner", LEASE_OWNER, "#lease", LEASE_UNTIL, "#status", STATUS))
+                                .expressionAttributeValues(Map.of(
+                                        ":owner", string(owner),
+                                        ":lease", CounterService.number(leaseUntil),
+                                        ":now", CounterService.number(now),
+                                        ":running", string(RUNNING),
+                                        ":counted", string(COUNTED)))
+                                .returnValues(ReturnValue.ALL_NEW)
+                                .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL)
+                                .build()),
+                        response -> DynamoDbMetrics.units(response.consumedCapacity()))
+                .onItem().transform(response -> toJob(response.attributes()))
+                .onFailure(ConditionalCheckFailedException.class).recoverWithNull();
+    }
+
+    /**
+     * Saves the totals up to the page ending at {@code lastEvaluatedKey}; a null key means it was the
+     * last page and moves the job to {@value #COUNTED}.
+     *
+     * Fails with {@link ConditionalCheckFailedException} if {@code owner} lost the lease.
+     */
+    public Uni<Void> checkpoint(String event, String owner, Map<String, AttributeValue> lastEvaluatedKey,
+                                long scanned, Map<String, Long> counts, long now) {
+        boolean last = lastEvaluatedKey == null || lastEvaluatedKey.isEmpty();
+        Map<String, AttributeValue> values = new HashMap<>();
+        values.put(":owner", string(owner));
+        values.put(":status", string(last ? COUNTED : RUNNING));
+        values.put(":scanned", CounterService.number(scanned));
+        values.put(":counts", counts(counts));
+        values.put(":now", CounterService.number(now));
+        values.put(":one", CounterService.number(1));
+        String updateExpression = "SET #status = :status, #scanned = :scanned, #counts = :counts, #updated = :now";
+        if (last) {
+            updateExpression += " ADD #pages :one REMOVE #checkpoint";
+        } else {
+            values.put(":checkpoint", AttributeValue.builder().m(lastEvaluatedKey).build());
+            updateExpression += ", #checkpoint = :checkpoint ADD #pages :one";
+        }
+        return update(UpdateItemRequest.builder()
+                .tableName(EventV1Service.EVENTS_TABLE)
+                .key(key(event))
+                .updateExpression(updateExpression)
+                .conditionExpression("#owner = :owner")
+                .expressionAttributeNames(Map.of(
+                        "#owner", LEASE_OWNER, "#status", STATUS, "#scanned", SCANNED, "#counts", COUNTS,
+                        "#updated", UPDATED_AT, "#pages", PAGES, "#checkpoint", CHECKPOINT))
+                .expressionAttributeValues(values)
+                .build());
+    }
+
+    /**
+     * Marks a counted job done, with the counters it left.
+     *
+     * Fails with {@link ConditionalCheckFailedException} if {@code owner} lost the lease.
+     */
+    public Uni<Void> complete(String event, String owner, Map<String, Long> after, long now) {
+        return update(UpdateItemRequest.builder()
+                .tableName(EventV1Service.EVENTS_TABLE)
+                .key(key(event))
+                .updateExpression("SET #status = :completed, #after = :after, #updated = :now, #lease = :zero")
+                .conditionExpression("#owner = :owner AND #status = :counted")
+                .expressionAttributeNames(Map.of(
+                        "#status", STATUS, "#after", AFTER, "#updated", UPDATED_AT, "#lease", LEASE_UNTIL, "#owner", LEASE_OWNER))
+                .expressionAttributeValues(Map.of(
+                        ":completed", string(COMPLETED),
+                        ":counted", string(COUNTED),
+                        ":after", counts(after),
+                        ":now", CounterService.number(now),
+                        ":zero", CounterService.number(0),
+                        ":owner", string(owner)))
+                .build());
+    }
+
+    /**
+     * Gives up the lease so the next request (or the schedule) can resume the job straight away.
+     * Does nothing if {@code owner} doesn't hold it anymore.
+     */
+    public Uni<Void> release(String event, String owner) {
+        return update(UpdateItemRequest.builder()
+                .tableName(EventV1Service.EVENTS_TABLE)
+                .key(key(event))
+                .updateExpression("SET #lease = :zero")
+                .conditionExpression("#owner = :owner")
+                .expressionAttributeNames(Map.of("#lease", LEASE_UNTIL, "#owner", LEASE_OWNER))
+                .expressionAttributeValues(Map.of(":zero", CounterService.number(0), ":owner", string(owner)))
+                .build())
+                .onFailure(ConditionalCheckFailedException.class).recoverWithNull();
+    }
+
+    /**
+     * Events with an unfinished reconciliation that nobody holds the lease on.
+     */
+    public Uni<List<String>> resumable(long now) {
+        QueryRequest request = QueryRequest.builder()
+                .tableName(EventV1Service.EVENTS_TABLE)
+                .keyConditionExpression("#pk = :jobs")
+                .filterExpression("#lease <= :now AND #status IN (:running, :counted)")
+                .projectionExpression("#sk")
+                .expressionAttributeNames(Map.of("#pk", partitionKeyName, "#sk", sortKeyName, "#lease", LEASE_UNTIL, "#status", STATUS))
+                .expressionAttributeValues(Map.of(
+                        ":jobs", string(JOBS_PARTITION),
+                        ":now", CounterService.number(now),
+                        ":running", string(RUNNING),
+                        ":counted", string(COUNTED)))
+                .build();
+        return Multi.createFrom().publisher(AdaptersToFlow.publisher(dynamoDbAsyncClient.queryPaginator(request).items()))
+                .onItem().transform(item -> item.get(sortKeyName).s())
+                .collect().asList();
+    }
+
+    private Job toJob(Map<String, AttributeValue> item) {
+        AttributeValue checkpoint = item.get(CHECKPOINT);
+        return new Job(
+                item.get(sortKeyName).s(),
+                item.get(JOB_ID).s(),
+                item.get(STATUS).s(),
+                checkpoint != null && checkpoint.hasM() ? checkpoint.m() : null,
+                number(item.get(SCANNED)),
+                number(item.get(PAGES)),
+                counts(item.get(COUNTS)),
+                counts(item.get(BEFORE)),
+                item.containsKey(AFTER) ? counts(item.get(AFTER)) : null,
+                number(item.get(STARTED_AT)),
+                number(item.get(UPDATED_AT)));
+    }
+
+    private Uni<Void> update(UpdateItemRequest request) {
+        return DynamoDbMetrics.call(() -> dynamoDbAsyncClient.updateItem(request.toBuilder()
+                                .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL)
+                                .build()),
+                        response -> DynamoDbMetrics.units(response.consumedCapacity()))
+                .replaceWithVoid();
+    }
+
+    private Map<String, AttributeValue> key(String event) {
+        Map<String, AttributeValue> key = new HashMap<>();
+        key.put(partitionKeyName, string(JOBS_PARTITION));
+        key.put(sortKeyName, string(event));
+        return key;
+    }
+
+    private static AttributeValue counts(Map<String, Long> counts) {
+        Map<String, AttributeValue> values = new HashMap<>();
+        counts.forEach((counter, count) -> values.put(counter, CounterService.number(count)));
+        return AttributeValue.builder().m(values).build();
+    }
+
+    private static Map<String, Long> counts(AttributeValue value) {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        if (value != null && value.hasM()) {
+            value.m().forEach((counter, count) -> counts.put(counter, Long.parseLong(count.n())));
+        }
+        return counts;
+    }
+
+    private static long number(AttributeValue value) {
+        return value == null || value.n() == null ? 0 : Long.parseLong(value.n());
+    }
+
+    private static AttributeValue string(String value) {
+        return AttributeValue.builder().s(value).build();
+    }
+}
@@ -0,0 +1,153 @@
+package org.jlopezinc;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.Uni;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.jlopezinc.dynamodb.UserModelDB;
+import org.jlopezinc.model.RosterEntry;
+import org.jlopezinc.model.RosterSnapshot;
+import software.amazon.awssdk.enhanced.dynamodb.DynamoDbAsyncIndex;
+import software.amazon.awssdk.enhanced.dynamodb.DynamoDbAsyncTable;
+import software.amazon.awssdk.enhanced.dynamodb.DynamoDbEnhancedAsyncClient;
+import software.amazon.awssdk.enhanced.dynamodb.Key;
+import software.amazon.awssdk.enhanced.dynamodb.TableSchema;
+import software.amazon.awssdk.enhanced.dynamodb.model.Page;
+import software.amazon.awssdk.enhanced.dynamodb.model.QueryConditional;
+import software.amazon.awssdk.enhanced.dynamodb.model.QueryEnhancedRequest;
+import software.amazon.awssdk.services.dynamodb.model.ReturnConsumedCapacity;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The roster of an event as the gates need it: a compact entry per registration instead of the
+ * whole metadata, so scanner devices can keep a local copy and resolve scans without a request each.
+ *
+ * Every registration write stamps {@link UserModelDB#ROSTER_VERSION} with the time of the write, and
+ * the roster's version is the latest stamp, read with one single-item query of
+ * {@link UserModelDB#BY_ROSTER_VERSION_INDEX}. A device downloads the full roster once and then asks
+ * for the registrations written since the version it has, which is a query of that index. Stamps come
+ * from the clocks of concurrent writers and the index is eventually consistent, so the changes
+ * returned go back {@link #VERSION_OVERLAP} before the version asked for: a few entries are sent
+ * twice, none is missed.
+ */
+@ApplicationScoped
+public class RosterService {
+
+    static final Duration VERSION_OVERLAP = Duration.ofSeconds(60);
+    private static final int PAGE_SIZE = 200;
+    private static final List<String> ROSTER_ATTRIBUTES = List.of(
+            UserModelDB.SORT_KEY, UserModelDB.PHONE_NUMBER, UserModelDB.VEHICLE_TYPE, UserModelDB.PAID,
+            UserModelDB.CHECKED_IN, UserModelDB.PEOPLE, UserModelDB.VEHICLE, UserModelDB.ROSTER_VERSION);
+
+    private final DynamoDbAsyncTable<UserModelDB> userModelTable;
+
+    @Inject
+    RosterService(DynamoDbEnhancedAsyncClient dynamoDbEnhancedAsyncClient) {
+        userModelTable = dynamoDbEnhancedAsyncClient.table(EventV1Service.EVENTS_TABLE, TableSchema.fromClass(UserModelDB.class));
+    }
+
+    /**
+     * The roster's current version: the latest write to a registration of {@code event}, 0 if none
+     * was written since versions exist.
+     */
+    public Uni<Long> version(String event) {
+        DynamoDbAsyncIndex<UserModelDB> byVersion = userModelTable.index(UserModelDB.BY_ROSTER_VERSION_INDEX);
+        return DynamoDbMetrics.pages(() -> byVersion.query(r -> r
+                                .queryConditional(QueryConditional.keyEqualTo(Key.builder().partitionValue(event).build()))
+                                .scanIndexForward(false)
+                                .limit(1)
+                                .attributesToProject(UserModelDB.ROSTER_VERSION)
+                                .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL)).limit(1),
+                        page -> DynamoDbMetrics.units(page.consumedCapacity()))
+                .collect().first()
+                .onItem().transform(page -> page == null || page.items().isEmpty() ? 0L
+                        : page.items().get(0).getRosterVersion());
+    }
+
+    /**
+     * Every registration of {@code event}, as of {@code version}.
+     */
+    public Uni<RosterSnapshot> snapshot(String event, long version) {
+        QueryEnhancedRequest request = QueryEnhancedRequest.builder()
+                .queryConditional(QueryConditional.keyEqualTo(Key.builder().partitionValue(event).build()))
+                .attributesToProject(ROSTER_ATTRIBUTES)
+                .limit(PAGE_SIZE)
+                .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL)
+                .build();
+        return collect(event, version, null, DynamoDbMetrics.pages(() -> userModelTable.query(request),
+                page -> DynamoDbMetrics.units(page.consumedCapacity())));
+    }
+
+    /**
+     * The registrations of {@code event} written after {@code since} (less the overlap), as of {@code version}.
+     */
+    public Uni<RosterSnapshot> changes(String event, long since, long version) {
+        if (since >= version) {
+            // nothing written since, and the index read can be spared
+            return Uni.createFrom().item(toSnapshot(event, version, since, new ArrayList<>()));
+        }
+        DynamoDbAsyncIndex<UserModelDB> byVersion = userModelTable.index(UserModelDB.BY_ROSTER_VERSION_INDEX);
+        QueryEnhancedRequest request = QueryEnhancedRequest.builder()
+                .queryConditional(QueryConditional.sortGreaterThan(Key.builder()
+                        .partitionValue(event)
+                        .sortValue(since - VERSION_OVERLAP.toMillis())
+                        .build()))
+                .attributesToProject(ROSTER_ATTRIBUTES)
+                .limit(PAGE_SIZE)
+                .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL)
+                .build();
+        return collect(event, version, since, DynamoDbMetrics.pages(() -> byVersion.query(request),
+                page -> DynamoDbMetrics.units(page.consumedCapacity())));
+    }
+
+    private Uni<RosterSnapshot> collect(String event, long version, Long since, Multi<Page<UserModelDB>> pages) {
+        List<RosterEntry> entries = new ArrayList<>();
+        return pages
+                .onItem().invoke(page -> page.items().stream()
+                        .filter(EventV1Service::isUserRecord)
+                        .forEach(user -> entries.add(toEntry(user))))
+                .collect().last()
+                .onItem().transform(ignored -> toSnapshot(event, version, since, entries));
+    }
+
+    private static RosterSnapshot toSnapshot(String event, long version, Long since, List<RosterEntry> entries) {
+        RosterSnapshot snapshot = new RosterSnapshot();
+        snapshot.setEventId(event);
+        snapshot.setVersion(version);
+        snapshot.setSince(since);
+        snapshot.setEntries(entries);
+        return snapshot;
+    }
+
+    /**
+     * The roster entry of a registration. Names and plate are picked out of the people and vehicle
+     * attributes; the metadata isn't read, so records written before those were split out of it have
+     * neither until the backfill splits them (see {@code EventV1Service#backfillUserAttributes}).
+     */
+    static RosterEntry toEntry(UserModelDB user) {
+        RosterEntry entry = new RosterEntry();
+        entry.setEmail(user.getUserEmail());
+        entry.setPhone(user.getPhoneNumber());
+        entry.setVehicleType(user.getVehicleType());
+        entry.setPaid(user.isPaid());
+        entry.setCheckedIn(user.isCheckedIn());
+        List<String> names = new ArrayList<>();
+        entry.setNames(names);
+        if (user.getPeople() != null && user.getPeople().isArray()) {
+            for (JsonNode person : user.getPeople()) {
+                String name = person.path("name").textValue();
+                if (name != null) {
+                    names.add(name);
+                }
+            }
+        }
+        if (user.getVehicle() != null) {
+            entry.setPlate(user.getVehicle().path("plate").textValue());
+        }
+        return entry;
+    }
+}
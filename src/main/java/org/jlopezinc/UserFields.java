@@ -0,0 +1,149 @@
+package org.jlopezinc;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import jakarta.ws.rs.BadRequestException;
+import org.jlopezinc.dynamodb.UserModelDB;
+import org.jlopezinc.model.UserModel;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The parts of a {@link UserModel} a client asked for with {@code fields} (comma separated) or a
+ * named {@code view}, e.g. {@code view=gate} for scanners. They decide both the attributes read
+ * from DynamoDB and what is serialized: fields of the metadata, which holds the raw webhook, only
+ * cause it to be read and parsed when one of them is asked for, and the change history is only
+ * queried when asked for.
+ *
+ * Top-level fields keep their place in the response and metadata fields stay under {@code metadata}.
+ */
+final class UserFields {
+
+    /**
+     * Fields and the attributes they are read from; metadata fields not listed are read from {@link UserModelDB#METADATA}.
+     */
+    private static final Map<String, List<String>> TOP_LEVEL = new LinkedHashMap<>();
+
+    static {
+        TOP_LEVEL.put("eventName", List.of());
+        TOP_LEVEL.put("userEmail", List.of());
+        TOP_LEVEL.put("paid", List.of(UserModelDB.PAID));
+        TOP_LEVEL.put("vehicleType", List.of(UserModelDB.VEHICLE_TYPE));
+        TOP_LEVEL.put("checkedIn", List.of(UserModelDB.CHECKED_IN));
+    }
+
+    static final Set<String> METADATA_FIELDS = new LinkedHashSet<>(List.of(
+            "vehicle", "people", "phoneNumber", "registeredAt", "checkIn", "rawWebhook", "rawWebhookId", "paymentInfo",
+            "comment", "commentsHistory", "changeHistory"));
+
+    /**
+     * Metadata fields stored as attributes of their own, read from those only. Records written before
+     * they were split out still have them in the metadata until the backfill or their next update;
+     * they have no {@link UserModelDB#PEOPLE} (every registration has a driver), which is read along
+     * to tell them apart (see {@link #readsSplitFields}).
+     */
+    private static final Map<String, String> SPLIT_METADATA_FIELDS = Map.of(
+            "people", UserModelDB.PEOPLE, "vehicle", UserModelDB.VEHICLE, "paymentInfo", UserModelDB.PAYMENT_INFO);
+
+    static final Map<String, String> VIEWS = Map.of(
+            "gate", "userEmail,paid,vehicleType,checkedIn,vehicle,people,checkIn,paymentInfo",
+            "summary", "eventName,userEmail,paid,vehicleType,checkedIn,vehicle,people,phoneNumber,registeredAt,checkIn,paymentInfo,comment");
+
+    private final Set<String> fields;
+
+    private UserFields(Set<String> fields) {
+        this.fields = fields;
+    }
+
+    /**
+     * @return the fields asked for, null for the whole registration (neither parameter, or {@code view=full})
+     * @throws BadRequestException on an unknown field or view
+     */
+    static UserFields parse(String fields, String view) {
+        if ((fields == null || fields.isBlank()) && (view == null || view.isBlank() || "full".equals(view))) {
+            return null;
+        }
+        String names = fields;
+        if (names == null || names.isBlank()) {
+            names = VIEWS.get(view);
+            if (names == null) {
+                throw new BadRequestException("Unknown view " + view + ", expected full or one of " + VIEWS.keySet());
+            }
+        }
+        Set<String> parsed = new LinkedHashSet<>();
+        for (String name : names.split(",")) {
+            String field = name.trim();
+            if (!TOP_LEVEL.containsKey(field) && !METADATA_FIELDS.contains(field)) {
+                throw new BadRequestException("Unknown field " + field);
+            }
+            parsed.add(field);
+        }
+        return new UserFields(parsed);
+    }
+
+    boolean includes(String field) {
+        return fields.contains(field);
+    }
+
+    /**
+     * Whether the metadata document has to be read: any metadata field but the check-in (stored at
+     * the top level), the change history (stored in its own items) and the split fields.
+     */
+    boolean needsMetadata() {
+        return fields.stream().anyMatch(field -> METADATA_FIELDS.contains(field)
+                && !"checkIn".equals(field) && !"changeHistory".equals(field)
+                && !SPLIT_METADATA_FIELDS.containsKey(field));
+    }
+
+    /**
+     * Whether any of the fields stored as attributes of their own was asked for.
+     */
+    boolean readsSplitFields() {
+        return fields.stream().anyMatch(SPLIT_METADATA_FIELDS::containsKey);
+    }
+
+    /**
+     * The attributes to project when reading the registration.
+     */
+    List<String> attributes() {
+        Set<String> attributes = new LinkedHashSet<>(List.of(UserModelDB.PARTITION_KEY, UserModelDB.SORT_KEY));
+        for (String field : fields) {
+            if (TOP_LEVEL.containsKey(field)) {
+                attributes.addAll(TOP_LEVEL.get(field));
+            }
+            if (SPLIT_METADATA_FIELDS.containsKey(field)) {
+                attributes.add(SPLIT_METADATA_FIELDS.get(field));
+            }
+        }
+        if (readsSplitFields()) {
+            attributes.add(UserModelDB.PEOPLE);
+        }
+        if (includes("checkIn")) {
+            attributes.addAll(List.of(UserModelDB.CHECKED_IN, UserModelDB.CHECK_IN_AT, UserModelDB.CHECK_IN_BY));
+        }
+        if (needsMetadata()) {
+            attributes.add(UserModelDB.METADATA);
+        }
+        return new ArrayList<>(attributes);
+    }
+
+    /**
+     * The requested fields of {@code userModel}.
+     */
+    ObjectNode write(ObjectMapper objectMapper, UserModel userModel) {
+        ObjectNode node = objectMapper.valueToTree(userModel);
+        node.retain(fields);
+        if (fields.stream().anyMatch(METADATA_FIELDS::contains)) {
+            ObjectNode metadata = userModel.getMetadata() == null ? objectMapper.createObjectNode()
+                    : objectMapper.valueToTree(userModel.getMetadata());
+            metadata.retain(fields);
+            node.set("metadata", metadata);
+        }
+        return node;
+    }
+}
@@ -7,8 +7,10 @@ import io.smallrye.mutiny.Uni;
 import jakarta.annotation.security.PermitAll;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
+import jakarta.ws.rs.BadRequestException;
 import jakarta.ws.rs.Consumes;
 import jakarta.ws.rs.DELETE;
+import jakarta.ws.rs.DefaultValue;
 import jakarta.ws.rs.GET;
 import jakarta.ws.rs.HeaderParam;
 import jakarta.ws.rs.POST;
@@ -16,17 +18,31 @@ import jakarta.ws.rs.PUT;
 import jakarta.ws.rs.Path;
 import jakarta.ws.rs.PathParam;
 import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.QueryParam;
+import jakarta.ws.rs.core.EntityTag;
+import jakarta.ws.rs.core.HttpHeaders;
 import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import org.jlopezinc.model.BackfillResponse;
+import org.jlopezinc.model.BulkCheckInRequest;
+import org.jlopezinc.model.BulkCheckInResponse;
+import org.jlopezinc.model.ChangeHistoryPage;
 import org.jlopezinc.model.CountersModel;
+import org.jlopezinc.model.OutboxDispatchResponse;
 import org.jlopezinc.model.PaymentInfo;
 import org.jlopezinc.model.ReconcileCountersResponse;
-import org.jlopezinc.model.UserModel;
+import org.jlopezinc.model.ScannerSyncRequest;
+import org.jlopezinc.model.ScannerSyncResponse;
+
+import java.util.List;
+import java.util.Locale;
 
 @Path("/v1")
 @ApplicationScoped
 @Authenticated
 public class V1Resource {
     private static final String HARD_KEY = "7KVjU7bQmy";
+    static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
 
     @Inject
     SecurityIdentity securityIdentity;
@@ -34,46 +50,141 @@ public class V1Resource {
     @Inject
     EventV1Service eventV1Service;
 
+    @Inject
+    OutboxDispatcher outboxDispatcher;
+
+    @Inject
+    ReconcileJobRunner reconcileJobRunner;
+
+    @Inject
+    DynamoDbMetrics dynamoDbMetrics;
+
+    @Inject
+    RosterService rosterService;
+
+    @Inject
+    EventExporter eventExporter;
+
 
     @GET
     @Path("/{event}/{email}")
     @Produces(MediaType.APPLICATION_JSON)
-    public Uni<UserModel> getUserByEmail(@PathParam("event") String event, @PathParam("email") String email){
-        return eventV1Service.getByEventAndEmail(event, email);
+    public Uni<Object> getUserByEmail(@PathParam("event") String event, @PathParam("email") String email,
+                                      @QueryParam("history") @DefaultValue("20") int history,
+                                      @QueryParam("fields") String fields, @QueryParam("view") String view){
+        UserFields userFields = UserFields.parse(fields, view);
+        return dynamoDbMetrics.track("get-user", () -> eventV1Service.getByEventAndEmail(event, email, history, userFields)
+                .onItem().transform(userModel -> eventV1Service.view(userModel, userFields)));
+    }
+
+    @GET
+    @Path("/{event}/{email}/history")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Uni<ChangeHistoryPage> getChangeHistory(@PathParam("event") String event, @PathParam("email") String email,
+                                                   @QueryParam("limit") @DefaultValue("50") int limit,
+                                                   @QueryParam("cursor") String cursor){
+        return dynamoDbMetrics.track("history", () -> eventV1Service.getChangeHistory(event, email, limit, cursor));
+    }
+
+    /**
+     * The webhook body the registration was made with, read from the archive for audits.
+     */
+    @GET
+    @Path("/{event}/{email}/webhook")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Uni<String> getRawWebhook(@PathParam("event") String event, @PathParam("email") String email){
+        return dynamoDbMetrics.track("raw-webhook", () -> eventV1Service.getRawWebhook(event, email));
     }
 
     @GET
     @Path("/{event}/phone/{phoneNumber}")
     @Produces(MediaType.APPLICATION_JSON)
-    public Uni<UserModel> getUserByPhone(@PathParam("event") String event, @PathParam("phoneNumber") String phoneNumber){
-        return eventV1Service.getByEventAndPhoneNumber(event, phoneNumber);
+    public Uni<Object> getUserByPhone(@PathParam("event") String event, @PathParam("phoneNumber") String phoneNumber,
+                                      @QueryParam("fields") String fields, @QueryParam("view") String view){
+        UserFields userFields = UserFields.parse(fields, view);
+        return dynamoDbMetrics.track("phone-lookup", () -> eventV1Service.getByEventAndPhoneNumber(event, phoneNumber, userFields)
+                .onItem().transform(userModel -> eventV1Service.view(userModel, userFields)));
     }
 
     @GET
     @Path("/{event}/counters")
     @Produces(MediaType.APPLICATION_JSON)
     public Uni<CountersModel> getCountersByEvent(@PathParam("event") String event){
-        return eventV1Service.getCountersByEvent(event);
+        return dynamoDbMetrics.track("counters", () -> eventV1Service.getCountersByEvent(event));
+    }
+
+    /**
+     * The event's roster for scanner devices, or with {@code since} only the registrations written
+     * after that version. The ETag is the roster's version: with a matching {@code If-None-Match}
+     * nothing changed and the answer is 304, after a single-item read.
+     */
+    @GET
+    @Path("/{event}/roster")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Uni<Response> getRoster(@PathParam("event") String event, @QueryParam("since") Long since,
+                                   @HeaderParam(HttpHeaders.IF_NONE_MATCH) String ifNoneMatch){
+        return dynamoDbMetrics.track("roster", () -> rosterService.version(event)
+                .onItem().transformToUni(version -> {
+                    EntityTag etag = new EntityTag(Long.toString(version));
+                    if (etag.toString().equals(ifNoneMatch)) {
+                        return Uni.createFrom().item(Response.notModified(etag).build());
+                    }
+                    return (since == null ? rosterService.snapshot(event, version) : rosterService.changes(event, since, version))
+                            .onItem().transform(snapshot -> Response.ok(snapshot).tag(etag).build());
+                }));
     }
 
     @PUT
     @Path("/{event}/{email}/")
     @Produces(MediaType.APPLICATION_JSON)
-    public Uni<UserModel> checkInToken(@PathParam("event") String event, @PathParam("email") String email){
+    public Uni<Object> checkInToken(@PathParam("event") String event, @PathParam("email") String email,
+                                    @QueryParam("fields") String fields, @QueryParam("view") String view){
+        UserFields userFields = UserFields.parse(fields, view);
         String cognitoUser = getCognitoUser();
-        return  eventV1Service.checkInByEventAndEmail(event, email, cognitoUser);
+        return dynamoDbMetrics.track("check-in", () -> eventV1Service.checkInByEventAndEmail(event, email, cognitoUser, userFields)
+                .onItem().transform(userModel -> eventV1Service.view(userModel, userFields)));
     }
 
     @PUT
     @Path("/{event}/{email}/b2b")
     @Produces(MediaType.APPLICATION_JSON)
     @PermitAll
-    public Uni<UserModel> checkInTokenB2B(@PathParam("event") String event, @PathParam("email") String email,
-                                          @HeaderParam("x-api-key") String key, @HeaderParam("byWho") String byWho){
+    public Uni<Object> checkInTokenB2B(@PathParam("event") String event, @PathParam("email") String email,
+                                       @HeaderParam("x-api-key") String key, @HeaderParam("byWho") String byWho,
+                                       @QueryParam("fields") String fields, @QueryParam("view") String view){
         if (!HARD_KEY.equals(key)){
             throw new UnauthorizedException();
         }
-        return  eventV1Service.checkInByEventAndEmail(event, email, byWho);
+        UserFields userFields = UserFields.parse(fields, view);
+        return dynamoDbMetrics.track("check-in", () -> eventV1Service.checkInByEventAndEmail(event, email, byWho, userFields)
+                .onItem().transform(userModel -> eventV1Service.view(userModel, userFields)));
+    }
+
+    @POST
+    @Path("/{event}/checkins/b2b")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    @PermitAll
+    public Uni<BulkCheckInResponse> bulkCheckInB2B(@PathParam("event") String event, @HeaderParam("x-api-key") String key,
+                                                   @HeaderParam("byWho") String byWho, BulkCheckInRequest body){
+        if (!HARD_KEY.equals(key)){
+            throw new UnauthorizedException();
+        }
+        return dynamoDbMetrics.track("bulk-check-in", () -> eventV1Service.bulkCheckIn(event, body == null ? null : body.getEmails(), byWho));
+    }
+
+    @POST
+    @Path("/{event}/scanner-sync/b2b")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    @PermitAll
+    public Uni<ScannerSyncResponse> scannerSyncB2B(@PathParam("event") String event, @HeaderParam("x-api-key") String key,
+                                                   @HeaderParam("byWho") String byWho, ScannerSyncRequest body){
+        if (!HARD_KEY.equals(key)){
+            throw new UnauthorizedException();
+        }
+        return dynamoDbMetrics.track("scanner-sync", () -> eventV1Service.syncScannerOperations(event,
+                body == null ? null : body.getDeviceId(), body == null ? null : body.getOperations(), byWho));
     }
 
     @POST
@@ -85,7 +196,8 @@ public class V1Resource {
         if (!HARD_KEY.equals(key)){
             throw new UnauthorizedException();
         }
-        return eventV1Service.register(event, body);
+        return dynamoDbMetrics.track("register", () -> eventV1Service.register(event, body))
+                .invoke(() -> outboxDispatcher.dispatchInBackground());
     }
 
 
@@ -98,15 +210,18 @@ public class V1Resource {
         if (!HARD_KEY.equals(key)){
             throw new UnauthorizedException();
         }
-        return eventV1Service.updatePaymentInfo(event, email, body);
+        return dynamoDbMetrics.track("payment", () -> eventV1Service.updatePaymentInfo(event, email, body));
     }
 
     @DELETE
     @Path("/{event}/{email}")
     @Produces(MediaType.APPLICATION_JSON)
-    public Uni<UserModel> cancelCheckInToken(@PathParam("event") String event, @PathParam("email") String email){
+    public Uni<Object> cancelCheckInToken(@PathParam("event") String event, @PathParam("email") String email,
+                                          @QueryParam("fields") String fields, @QueryParam("view") String view){
+        UserFields userFields = UserFields.parse(fields, view);
         String cognitoUser = getCognitoUser();
-        return  eventV1Service.cancelCheckInByEventAndEmail(event, email, cognitoUser);
+        return dynamoDbMetrics.track("cancel-check-in", () -> eventV1Service.cancelCheckInByEventAndEmail(event, email, cognitoUser, userFields)
+                .onItem().transform(userModel -> eventV1Service.view(userModel, userFields)));
     }
 
     private String getCognitoUser(){
@@ -123,7 +238,7 @@ public class V1Resource {
         if (!HARD_KEY.equals(key)){
             throw new UnauthorizedException();
         }
-        return eventV1Service.sendEmailTemplate(event, email, emailTemplate);
+        return dynamoDbMetrics.track("send-email", () -> eventV1Service.sendEmailTemplate(event, email, emailTemplate));
     }
 
     @POST
@@ -135,14 +250,118 @@ public class V1Resource {
         if (!HARD_KEY.equals(key)){
             throw new UnauthorizedException();
         }
-        return eventV1Service.reconcileCounters(eventId);
+        return dynamoDbMetrics.track("reconcile", () -> reconcileJobRunner.reconcile(eventId));
+    }
+
+    @GET
+    @Path("/admin/reconcile-counters/{eventId}")
+    @Produces(MediaType.APPLICATION_JSON)
+    @PermitAll
+    public Uni<ReconcileCountersResponse> reconcileStatus(@PathParam("eventId") String eventId,
+                                                          @HeaderParam("x-api-key") String key){
+        if (!HARD_KEY.equals(key)){
+            throw new UnauthorizedException();
+        }
+        return dynamoDbMetrics.track("reconcile-status", () -> reconcileJobRunner.status(eventId));
+    }
+
+    @POST
+    @Path("/admin/migrate-counters/{eventId}")
+    @Produces(MediaType.APPLICATION_JSON)
+    @PermitAll
+    public Uni<Void> migrateCounters(@PathParam("eventId") String eventId,
+                                     @HeaderParam("x-api-key") String key){
+        if (!HARD_KEY.equals(key)){
+            throw new UnauthorizedException();
+        }
+        return dynamoDbMetrics.track("migrate-counters", () -> eventV1Service.migrateCounters(eventId));
+    }
+
+    @POST
+    @Path("/admin/outbox/dispatch")
+    @Produces(MediaType.APPLICATION_JSON)
+    @PermitAll
+    public Uni<OutboxDispatchResponse> dispatchOutbox(@HeaderParam("x-api-key") String key){
+        if (!HARD_KEY.equals(key)){
+            throw new UnauthorizedException();
+        }
+        return dynamoDbMetrics.track("outbox-dispatch", () -> outboxDispatcher.dispatch());
+    }
+
+    @POST
+    @Path("/admin/backfill/{eventId}")
+    @Produces(MediaType.APPLICATION_JSON)
+    @PermitAll
+    public Uni<BackfillResponse> backfill(@PathParam("eventId") String eventId,
+                                          @HeaderParam("x-api-key") String key, @QueryParam("cursor") String cursor){
+        if (!HARD_KEY.equals(key)){
+            throw new UnauthorizedException();
+        }
+        return dynamoDbMetrics.track("backfill", () -> eventV1Service.backfillUserAttributes(eventId, cursor));
+    }
+
+    @GET
+    @Path("/admin/export/{eventId}")
+    @Produces(MediaType.APPLICATION_OCTET_STREAM)
+    @PermitAll
+    public Uni<Response> export(@PathParam("eventId") String eventId, @HeaderParam("x-api-key") String key,
+                                @QueryParam("format") @DefaultValue("csv") String format, @QueryParam("fields") String fields,
+                                @QueryParam("gzip") boolean gzip, @QueryParam("cursor") String cursor){
+        if (!HARD_KEY.equals(key)){
+            throw new UnauthorizedException();
+        }
+        return exportResponse(eventId, format, fields, gzip, cursor);
     }
 
     @POST
     @Path("/reconcile-counters/{eventId}")
     @Produces(MediaType.APPLICATION_JSON)
     public Uni<ReconcileCountersResponse> reconcileCountersWithCognito(@PathParam("eventId") String eventId){
-        return eventV1Service.reconcileCounters(eventId);
+        return dynamoDbMetrics.track("reconcile", () -> reconcileJobRunner.reconcile(eventId));
+    }
+
+    @GET
+    @Path("/reconcile-counters/{eventId}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Uni<ReconcileCountersResponse> reconcileStatusWithCognito(@PathParam("eventId") String eventId){
+        return dynamoDbMetrics.track("reconcile-status", () -> reconcileJobRunner.status(eventId));
+    }
+
+    @GET
+    @Path("/export/{eventId}")
+    @Produces(MediaType.APPLICATION_OCTET_STREAM)
+    public Uni<Response> exportWithCognito(@PathParam("eventId") String eventId,
+                                           @QueryParam("format") @DefaultValue("csv") String format,
+                                           @QueryParam("fields") String fields, @QueryParam("gzip") boolean gzip,
+                                           @QueryParam("cursor") String cursor){
+        return exportResponse(eventId, format, fields, gzip, cursor);
+    }
+
+    /**
+     * One part of the export (see {@link EventExporter}); the {@value #NEXT_CURSOR_HEADER} header,
+     * when present, is the {@code cursor} of the next one.
+     */
+    private Uni<Response> exportResponse(String eventId, String format, String fields, boolean gzip, String cursor){
+        EventExporter.Format exportFormat;
+        try {
+            exportFormat = EventExporter.Format.valueOf(format.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException("Unknown format " + format + ", expected csv or ndjson");
+        }
+        List<String> columns = EventExporter.columns(fields);
+        return dynamoDbMetrics.track("export", () -> eventExporter.export(eventId, exportFormat, columns, gzip, cursor))
+                .onItem().transform(part -> {
+                    Response.ResponseBuilder response = Response.ok(part.body)
+                            .header(HttpHeaders.CONTENT_TYPE, exportFormat.contentType)
+                            .header("Content-Disposition", "attachment; filename=\"" + eventId + "." + exportFormat.extension + "\"");
+                    if (gzip) {
+                        response.header(HttpHeaders.CONTENT_ENCODING, "gzip");
+                    }
+                    if (part.nextCursor != null) {
+                        response.header(NEXT_CURSOR_HEADER, part.nextCursor);
+                    }
+                    return response.build();
+                });
     }
 
 }
@@ -7,11 +7,17 @@ import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
 import jakarta.ws.rs.Consumes;
 import jakarta.ws.rs.DELETE;
+import jakarta.ws.rs.POST;
 import jakarta.ws.rs.PUT;
 import jakarta.ws.rs.Path;
 import jakarta.ws.rs.PathParam;
 import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.QueryParam;
 import jakarta.ws.rs.core.MediaType;
+import org.jlopezinc.model.BulkCheckInRequest;
+import org.jlopezinc.model.BulkCheckInResponse;
+import org.jlopezinc.model.ScannerSyncRequest;
+import org.jlopezinc.model.ScannerSyncResponse;
 import org.jlopezinc.model.UserModel;
 
 @Path("/v2")
@@ -24,28 +30,56 @@ public class V2Resource {
     @Inject
     EventV1Service eventV1Service;
 
+    @Inject
+    DynamoDbMetrics dynamoDbMetrics;
+
     @PUT
     @Path("/{event}/{email}")
     @Consumes(MediaType.APPLICATION_JSON)
     @Produces(MediaType.APPLICATION_JSON)
     public Uni<UserModel> updateUserMetadata(@PathParam("event") String event, @PathParam("email") String email, UserModel body){
-        return eventV1Service.updateUserMetadata(event, email, body);
+        return dynamoDbMetrics.track("update-user", () -> eventV1Service.updateUserMetadata(event, email, body));
     }
 
     @PUT
     @Path("/{event}/{email}/checkin")
     @Produces(MediaType.APPLICATION_JSON)
-    public Uni<UserModel> checkInToken(@PathParam("event") String event, @PathParam("email") String email){
+    public Uni<Object> checkInToken(@PathParam("event") String event, @PathParam("email") String email,
+                                    @QueryParam("fields") String fields, @QueryParam("view") String view){
+        UserFields userFields = UserFields.parse(fields, view);
+        String cognitoUser = getCognitoUser();
+        return dynamoDbMetrics.track("check-in", () -> eventV1Service.checkInByEventAndEmail(event, email, cognitoUser, userFields)
+                .onItem().transform(userModel -> eventV1Service.view(userModel, userFields)));
+    }
+
+    @POST
+    @Path("/{event}/checkins")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public Uni<BulkCheckInResponse> bulkCheckIn(@PathParam("event") String event, BulkCheckInRequest body){
+        String cognitoUser = getCognitoUser();
+        return dynamoDbMetrics.track("bulk-check-in", () -> eventV1Service.bulkCheckIn(event, body == null ? null : body.getEmails(), cognitoUser));
+    }
+
+    @POST
+    @Path("/{event}/scanner-sync")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public Uni<ScannerSyncResponse> scannerSync(@PathParam("event") String event, ScannerSyncRequest body){
         String cognitoUser = getCognitoUser();
-        return  eventV1Service.checkInByEventAndEmail(event, email, cognitoUser);
+        return dynamoDbMetrics.track("scanner-sync", () -> eventV1Service.syncScannerOperations(event,
+                body == null ? null : body.getDeviceId(), body == null ? null : body.getOperations(), cognitoUser));
     }
 
     @DELETE
     @Path("/{event}/{email}/checkin")
     @Produces(MediaType.APPLICATION_JSON)
-    public Uni<UserModel> cancelCheckInToken(@PathParam("event") String event, @PathParam("email") String email){
+    public Uni<Object> cancelCheckInToken(@PathParam("event") String event, @PathParam("email") String email,
+                                          @QueryParam("fields") String fields, @QueryParam("view") String view){
+        UserFields userFields = UserFields.parse(fields, view);
         String cognitoUser = getCognitoUser();
-        return  eventV1Service.cancelCheckInByEventAndEmail(event, email, cognitoUser);
+        return dynamoDbMetrics.track("cancel-check-in", () -> eventV1Service.cancelCheckInByEventAndEmail(event, email, cognitoUser, userFields)
+                .onItem().transform(userModel -> eventV1Service.view(userModel, userFields)));
     }
 
     private String getCognitoUser(){
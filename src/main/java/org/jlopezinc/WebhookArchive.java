@@ -0,0 +1,154 @@
+package org.jlopezinc;
+
+import io.smallrye.mutiny.Uni;
+import io.smallrye.mutiny.infrastructure.Infrastructure;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.ReturnConsumedCapacity;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Optional;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Cold storage for the raw webhook bodies of registrations. They are only needed to audit a
+ * registration, so instead of travelling inside the metadata of every read and write they are
+ * stored gzipped on their own and the metadata keeps their id ({@code rawWebhookId}).
+ *
+ * Bodies are stored as items of the events table under {@value #ARCHIVE_PREFIX}{@code <event>}, out
+ * of the event's partition so queries of its registrations never read them. With
+ * {@code webhook-archive.dir} set they are files in that directory instead, a stand-in for local
+ * runs and tests.
+ *
+ * The id is derived from the body, so archiving a retried webhook again is harmless.
+ */
+@ApplicationScoped
+public class WebhookArchive {
+
+    static final String ARCHIVE_PREFIX = "webhook#";
+    static final String BODY = "body";
+
+    private final DynamoDbAsyncClient dynamoDbAsyncClient;
+    private final Optional<Path> directory;
+
+    @Inject
+    WebhookArchive(DynamoDbAsyncClient dynamoDbAsyncClient,
+                   @ConfigProperty(name = "webhook-archive.dir") Optional<String> directory) {
+        this.dynamoDbAsyncClient = dynamoDbAsyncClient;
+        this.directory = directory.filter(dir -> !dir.isBlank()).map(Path::of);
+    }
+
+    /**
+     * Archives the webhook body of a registration.
+     *
+     * @return the id to fetch it with
+     */
+    public Uni<String> store(String event, String email, String rawWebhook) {
+        String id = archiveId(email, rawWebhook);
+        byte[] compressed = gzip(rawWebhook);
+        if (directory.isPresent()) {
+            Path file = file(event, id);
+            return Uni.createFrom().item(() -> {
+                        try {
+                            Files.createDirectories(file.getParent());
+                            Files.write(file, compressed);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                        return id;
+                    })
+                    .runSubscriptionOn(Infrastructure.getDefaultWorkerPool());
+        }
+        Map<String, AttributeValue> item = EventV1Service.userKey(ARCHIVE_PREFIX + event, id);
+        item.put(BODY, AttributeValue.builder().b(SdkBytes.fromByteArray(compressed)).build());
+        return DynamoDbMetrics.call(() -> dynamoDbAsyncClient.putItem(r -> r
+                                .tableName(EventV1Service.EVENTS_TABLE)
+                                .item(item)
+                                .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL)),
+                        response -> DynamoDbMetrics.units(response.consumedCapacity()))
+                .replaceWith(id);
+    }
+
+    /**
+     * The archived webhook body with {@code id}, null if there is none.
+     */
+    public Uni<String> fetch(String event, String id) {
+        if (directory.isPresent()) {
+            Path file = file(event, id);
+            return Uni.createFrom().item(() -> {
+                        try {
+                            return gunzip(Files.readAllBytes(file));
+                        } catch (NoSuchFileException e) {
+                            return null;
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    })
+                    .runSubscriptionOn(Infrastructure.getDefaultWorkerPool());
+        }
+        return DynamoDbMetrics.call(() -> dynamoDbAsyncClient.getItem(r -> r
+                                .tableName(EventV1Service.EVENTS_TABLE)
+                                .key(EventV1Service.userKey(ARCHIVE_PREFIX + event, id))
+                                .projectionExpression("#body")
+                                .expressionAttributeNames(Map.of("#body", BODY))
+                                .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL)),
+                        response -> DynamoDbMetrics.units(response.consumedCapacity()))
+                .map(response -> response.hasItem() && response.item().containsKey(BODY)
+                        ? gunzip(response.item().get(BODY).b().asByteArray()) : null);
+    }
+
+    static String archiveId(String email, String rawWebhook) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest(rawWebhook.getBytes(StandardCharsets.UTF_8));
+            return email + "#" + HexFormat.of().formatHex(hash, 0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * The file of an archived body; event and id are encoded so neither can leave the directory.
+     */
+    private Path file(String event, String id) {
+        Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        return directory.orElseThrow()
+                .resolve(encoder.encodeToString(event.getBytes(StandardCharsets.UTF_8)))
+                .resolve(encoder.encodeToString(id.getBytes(StandardCharsets.UTF_8)) + ".json.gz");
+    }
+
+    static byte[] gzip(String text) {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+            gzip.write(text.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return compressed.toByteArray();
+    }
+
+    static String gunzip(byte[] compressed) {
+        try (GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            return new String(gzip.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
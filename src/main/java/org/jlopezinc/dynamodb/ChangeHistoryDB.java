@@ -0,0 +1,40 @@
+package org.jlopezinc.dynamodb;
+
+import lombok.Data;
+import lombok.experimental.SuperBuilder;
+import software.amazon.awssdk.enhanced.dynamodb.mapper.annotations.DynamoDbAttribute;
+import software.amazon.awssdk.enhanced.dynamodb.mapper.annotations.DynamoDbBean;
+
+/**
+ * One change history entry of a registration.
+ *
+ * Entries live in their own partition per registration ({@code history#<event>#<email>}) so they
+ * never show up in event-wide queries, and the sort key is {@code <timestamp>#<id>} so a query
+ * returns them in chronological order.
+ */
+@Data
+@DynamoDbBean
+@SuperBuilder
+public class ChangeHistoryDB extends EventsRegisterDb {
+
+    private String timestamp;
+    private String action;
+    private String description;
+
+    public ChangeHistoryDB(){}
+
+    @DynamoDbAttribute("timestamp")
+    public String getTimestamp() {
+        return timestamp;
+    }
+
+    @DynamoDbAttribute("action")
+    public String getAction() {
+        return action;
+    }
+
+    @DynamoDbAttribute("description")
+    public String getDescription() {
+        return description;
+    }
+}
@@ -0,0 +1,115 @@
+package org.jlopezinc.dynamodb;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import io.quarkus.runtime.annotations.RegisterForReflection;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * The metadata document, which grows with the guests and is the bulk of a registration's read and
+ * write capacity, optionally stored as a DynamoDB binary: Smile (binary JSON, which also writes
+ * repeated field names once), deflated when larger than a threshold. The first byte tells which.
+ *
+ * Off by default (see {@link #configure}); documents are then stored as native maps by
+ * {@link JsonAttributeConverter}. Binaries, maps and strings are all read, so switching it on or off
+ * only changes how documents are written; the backfill rewrites the others
+ * (see {@code EventV1Service#backfillUserAttributes}).
+ */
+// instantiated by the enhanced client from @DynamoDbConvertedBy, hence the static configuration
+@RegisterForReflection
+public class CompactJsonAttributeConverter extends JsonAttributeConverter {
+
+    static final byte SMILE = 1;
+    static final byte SMILE_DEFLATED = 2;
+
+    private static final ObjectMapper SMILE_MAPPER = new ObjectMapper(new SmileFactory())
+            .enable(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS);
+
+    private static volatile boolean enabled;
+    private static volatile int compressAbove = 1024;
+
+    public static CompactJsonAttributeConverter create() {
+        return new CompactJsonAttributeConverter();
+    }
+
+    /**
+     * @param compressAbove size in bytes of the Smile document above which it is deflated
+     */
+    public static void configure(boolean enabled, int compressAbove) {
+        CompactJsonAttributeConverter.enabled = enabled;
+        CompactJsonAttributeConverter.compressAbove = compressAbove;
+    }
+
+    public static boolean enabled() {
+        return enabled;
+    }
+
+    @Override
+    public AttributeValue transformFrom(JsonNode document) {
+        if (!enabled) {
+            return super.transformFrom(document);
+        }
+        return AttributeValue.builder().b(SdkBytes.fromByteArrayUnsafe(encode(document, compressAbove))).build();
+    }
+
+    @Override
+    public JsonNode transformTo(AttributeValue attributeValue) {
+        if (attributeValue.b() == null) {
+            return super.transformTo(attributeValue);
+        }
+        return decode(attributeValue.b().asByteArrayUnsafe());
+    }
+
+    static byte[] encode(JsonNode document, int compressAbove) {
+        try {
+            ByteArrayOutputStream smile = new ByteArrayOutputStream(256);
+            smile.write(SMILE);
+            // fields sorted, so the same document is always the same bytes: documents read back from
+            // maps come in any order, and unchanged ones are compared to skip writing them
+            SMILE_MAPPER.writeValue(smile, SMILE_MAPPER.treeToValue(document, Object.class));
+            if (smile.size() <= compressAbove) {
+                return smile.toByteArray();
+            }
+            ByteArrayOutputStream deflated = new ByteArrayOutputStream(smile.size() / 2 + 1);
+            deflated.write(SMILE_DEFLATED);
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            try (DeflaterOutputStream out = new DeflaterOutputStream(deflated, deflater)) {
+                out.write(smile.toByteArray(), 1, smile.size() - 1);
+            } finally {
+                deflater.end();
+            }
+            // not worth inflating on every read otherwise
+            return deflated.size() < smile.size() ? deflated.toByteArray() : smile.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static JsonNode decode(byte[] bytes) {
+        try {
+            InputStream in = new ByteArrayInputStream(bytes, 1, bytes.length - 1);
+            if (bytes[0] == SMILE_DEFLATED) {
+                in = new InflaterInputStream(in);
+            } else if (bytes[0] != SMILE) {
+                throw new IOException("Unknown metadata encoding " + bytes[0]);
+            }
+            try (InputStream document = in) {
+                return SMILE_MAPPER.readTree(document);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
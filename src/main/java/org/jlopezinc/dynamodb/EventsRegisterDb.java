@@ -9,7 +9,7 @@ import software.amazon.awssdk.enhanced.dynamodb.mapper.annotations.DynamoDbSortK
 @Data
 @SuperBuilder
 abstract class EventsRegisterDb {
-    private static final String EVENT_PK = "event_name";
+    static final String EVENT_PK = "event_name";
 
     public EventsRegisterDb(){}
 
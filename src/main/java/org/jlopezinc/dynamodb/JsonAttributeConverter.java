@@ -0,0 +1,124 @@
+package org.jlopezinc.dynamodb;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.quarkus.runtime.annotations.RegisterForReflection;
+import software.amazon.awssdk.enhanced.dynamodb.AttributeConverter;
+import software.amazon.awssdk.enhanced.dynamodb.AttributeValueType;
+import software.amazon.awssdk.enhanced.dynamodb.EnhancedType;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stores a JSON document held as a tree in the bean as native DynamoDB attributes: objects as maps,
+ * arrays as lists, and so on down. DynamoDB can then project and update parts of it, and it isn't
+ * encoded twice (JSON in a DynamoDB string). The tree is mapped to and from the attribute values
+ * directly, without JSON text in between, and bound to the model with {@code ObjectMapper#treeToValue}.
+ *
+ * Documents written before are DynamoDB strings with the JSON text; they are parsed, so both formats
+ * can be in a table at once (see {@code EventV1Service#backfillUserAttributes}).
+ */
+// instantiated by the enhanced client from @DynamoDbConvertedBy
+@RegisterForReflection
+public class JsonAttributeConverter implements AttributeConverter<JsonNode> {
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+    private static final JsonNodeFactory NODES = JsonNodeFactory.instance;
+
+    public static JsonAttributeConverter create() {
+        return new JsonAttributeConverter();
+    }
+
+    @Override
+    public AttributeValue transformFrom(JsonNode document) {
+        return attributeValue(document);
+    }
+
+    @Override
+    public JsonNode transformTo(AttributeValue attributeValue) {
+        if (attributeValue.s() != null) {
+            // written before documents were stored natively
+            try {
+                return JSON.readTree(attributeValue.s());
+            } catch (JsonProcessingException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return jsonNode(attributeValue);
+    }
+
+    @Override
+    public EnhancedType<JsonNode> type() {
+        return EnhancedType.of(JsonNode.class);
+    }
+
+    /**
+     * A map for the metadata document; the people are a list, but the type is only used for keys.
+     */
+    @Override
+    public AttributeValueType attributeValueType() {
+        return AttributeValueType.M;
+    }
+
+    static AttributeValue attributeValue(JsonNode node) {
+        if (node.isObject()) {
+            Map<String, AttributeValue> map = new HashMap<>();
+            node.fields().forEachRemaining(field -> map.put(field.getKey(), attributeValue(field.getValue())));
+            return AttributeValue.builder().m(map).build();
+        }
+        if (node.isArray()) {
+            List<AttributeValue> list = new ArrayList<>();
+            node.forEach(element -> list.add(attributeValue(element)));
+            return AttributeValue.builder().l(list).build();
+        }
+        if (node.isTextual()) {
+            return AttributeValue.builder().s(node.textValue()).build();
+        }
+        if (node.isIntegralNumber()) {
+            return AttributeValue.builder().n(node.bigIntegerValue().toString()).build();
+        }
+        if (node.isNumber()) {
+            return AttributeValue.builder().n(node.decimalValue().toPlainString()).build();
+        }
+        if (node.isBoolean()) {
+            return AttributeValue.builder().bool(node.booleanValue()).build();
+        }
+        return AttributeValue.builder().nul(true).build();
+    }
+
+    static JsonNode jsonNode(AttributeValue value) {
+        if (value.hasM()) {
+            ObjectNode object = NODES.objectNode();
+            value.m().forEach((name, field) -> object.set(name, jsonNode(field)));
+            return object;
+        }
+        if (value.hasL()) {
+            ArrayNode array = NODES.arrayNode();
+            value.l().forEach(element -> array.add(jsonNode(element)));
+            return array;
+        }
+        if (value.s() != null) {
+            return NODES.textNode(value.s());
+        }
+        if (value.n() != null) {
+            String number = value.n();
+            return number.contains(".") || number.contains("e") || number.contains("E")
+                    ? NODES.numberNode(new BigDecimal(number)) : NODES.numberNode(new BigInteger(number));
+        }
+        if (value.bool() != null) {
+            return NODES.booleanNode(value.bool());
+        }
+        return NODES.nullNode();
+    }
+}
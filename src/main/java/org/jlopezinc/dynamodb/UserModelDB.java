@@ -1,46 +1,173 @@
 package org.jlopezinc.dynamodb;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import lombok.Data;
 import lombok.experimental.SuperBuilder;
 import software.amazon.awssdk.enhanced.dynamodb.mapper.annotations.DynamoDbAttribute;
 import software.amazon.awssdk.enhanced.dynamodb.mapper.annotations.DynamoDbBean;
+import software.amazon.awssdk.enhanced.dynamodb.mapper.annotations.DynamoDbConvertedBy;
+import software.amazon.awssdk.enhanced.dynamodb.mapper.annotations.DynamoDbPartitionKey;
+import software.amazon.awssdk.enhanced.dynamodb.mapper.annotations.DynamoDbSecondaryPartitionKey;
+import software.amazon.awssdk.enhanced.dynamodb.mapper.annotations.DynamoDbSecondarySortKey;
+
+import java.time.Instant;
 
 @Data
 @DynamoDbBean
 @SuperBuilder
 public class UserModelDB extends EventsRegisterDb {
 
+    /**
+     * GSI keyed on event plus normalized phone number, used by the phone lookup.
+     */
+    public static final String BY_PHONE_INDEX = "byPhone";
+    /**
+     * GSI keyed on event plus {@link #ROSTER_VERSION}, used for the roster's delta queries.
+     */
+    public static final String BY_ROSTER_VERSION_INDEX = "byRosterVersion";
+
+    public static final String PARTITION_KEY = EVENT_PK;
+    public static final String SORT_KEY = "email";
+    public static final String PAID = "paid";
+    public static final String VEHICLE_TYPE = "vehicle_type";
+    public static final String METADATA = "metadata";
+    public static final String PEOPLE = "people";
+    public static final String VEHICLE = "vehicle";
+    public static final String PAYMENT_INFO = "paymentInfo";
+    public static final String CHECKED_IN = "checkedIn";
+    public static final String PHONE_NUMBER = "phoneNumber";
+    public static final String PHONE_NORMALIZED = "phone_normalized";
+    public static final String PARTICIPANT_COUNT = "participantCount";
+    public static final String CHECK_IN_AT = "checkInAt";
+    public static final String CHECK_IN_BY = "checkInBy";
+    public static final String ROSTER_VERSION = "roster_version";
+    public static final String VERSION = "version";
+
     private boolean paid;
     private String vehicleType;
-    private String metadata;
+    /**
+     * JSON document, stored as a native DynamoDB map (see {@link JsonAttributeConverter}) or, when
+     * enabled, as compact binary (see {@link CompactJsonAttributeConverter}); the parts split out of
+     * it below are stored as native attributes.
+     */
+    private JsonNode metadata;
+    /**
+     * Parts of the metadata stored as attributes of their own, so editing one rewrites only it;
+     * they win over the copy in {@link #metadata}. Null on records not written since they were split
+     * out, whose metadata still has them.
+     */
+    private JsonNode people;
+    private JsonNode vehicle;
+    private JsonNode paymentInfo;
     private boolean checkedIn;
     private String phoneNumber;
+    private String phoneNumberNormalized;
+    /**
+     * Number of people (driver + guests) in the metadata, so counters don't need to parse it.
+     * Null on records written before the attribute existed.
+     */
+    private Integer participantCount;
+    /**
+     * When and by whom the registration was checked in. Check-in writes only these attributes
+     * (not the metadata), so they take precedence over {@code metadata.checkIn}.
+     */
+    private Instant checkInAt;
+    private String checkInBy;
+    /**
+     * When the registration was last written, in epoch millis; the roster's delta queries ask for
+     * the registrations written after a version. Null on records not written since it exists.
+     */
+    private Long rosterVersion;
+    /**
+     * Incremented by every write of the registration, which is conditioned on the version it read,
+     * so concurrent writes can't overwrite each other. Null on records not written since it exists.
+     */
+    private Long version;
 
     public UserModelDB() {
     }
 
-    @DynamoDbAttribute("paid")
+    @Override
+    @DynamoDbPartitionKey
+    @DynamoDbSecondaryPartitionKey(indexNames = {BY_PHONE_INDEX, BY_ROSTER_VERSION_INDEX})
+    @DynamoDbAttribute(EVENT_PK)
+    public String getEventName() {
+        return super.getEventName();
+    }
+
+    @DynamoDbAttribute(PAID)
     public boolean isPaid() {
         return paid;
     }
 
-    @DynamoDbAttribute("vehicle_type")
+    @DynamoDbAttribute(VEHICLE_TYPE)
     public String getVehicleType() {
         return vehicleType;
     }
 
-    @DynamoDbAttribute("metadata")
-    public String getMetadata() {
+    @DynamoDbAttribute(METADATA)
+    @DynamoDbConvertedBy(CompactJsonAttributeConverter.class)
+    public JsonNode getMetadata() {
         return metadata;
     }
 
-    @DynamoDbAttribute("checkedIn")
+    @DynamoDbAttribute(PEOPLE)
+    @DynamoDbConvertedBy(JsonAttributeConverter.class)
+    public JsonNode getPeople() {
+        return people;
+    }
+
+    @DynamoDbAttribute(VEHICLE)
+    @DynamoDbConvertedBy(JsonAttributeConverter.class)
+    public JsonNode getVehicle() {
+        return vehicle;
+    }
+
+    @DynamoDbAttribute(PAYMENT_INFO)
+    @DynamoDbConvertedBy(JsonAttributeConverter.class)
+    public JsonNode getPaymentInfo() {
+        return paymentInfo;
+    }
+
+    @DynamoDbAttribute(CHECKED_IN)
     public boolean isCheckedIn() {
         return checkedIn;
     }
 
-    @DynamoDbAttribute("phoneNumber")
+    @DynamoDbAttribute(PHONE_NUMBER)
     public String getPhoneNumber() {
         return phoneNumber;
     }
+
+    @DynamoDbSecondarySortKey(indexNames = BY_PHONE_INDEX)
+    @DynamoDbAttribute(PHONE_NORMALIZED)
+    public String getPhoneNumberNormalized() {
+        return phoneNumberNormalized;
+    }
+
+    @DynamoDbAttribute(PARTICIPANT_COUNT)
+    public Integer getParticipantCount() {
+        return participantCount;
+    }
+
+    @DynamoDbAttribute(CHECK_IN_AT)
+    public Instant getCheckInAt() {
+        return checkInAt;
+    }
+
+    @DynamoDbAttribute(CHECK_IN_BY)
+    public String getCheckInBy() {
+        return checkInBy;
+    }
+
+    @DynamoDbSecondarySortKey(indexNames = BY_ROSTER_VERSION_INDEX)
+    @DynamoDbAttribute(ROSTER_VERSION)
+    public Long getRosterVersion() {
+        return rosterVersion;
+    }
+
+    @DynamoDbAttribute(VERSION)
+    public Long getVersion() {
+        return version;
+    }
 }
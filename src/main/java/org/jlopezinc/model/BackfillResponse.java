@@ -0,0 +1,15 @@
+package org.jlopezinc.model;
+
+import lombok.Data;
+
+@Data
+public class BackfillResponse {
+    private String eventId;
+    private String status;
+    private String cursor;
+    private long scanned;
+    private long updated;
+    private long archived;
+    private long reencoded;
+    private String message;
+}
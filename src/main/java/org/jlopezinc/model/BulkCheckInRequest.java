@@ -0,0 +1,15 @@
+package org.jlopezinc.model;
+
+import io.quarkus.runtime.annotations.RegisterForReflection;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * Registrations to check in together, by e-mail.
+ */
+@Data
+@RegisterForReflection
+public class BulkCheckInRequest {
+    private List<String> emails;
+}
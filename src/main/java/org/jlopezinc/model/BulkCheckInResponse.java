@@ -0,0 +1,20 @@
+package org.jlopezinc.model;
+
+import io.quarkus.runtime.annotations.RegisterForReflection;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * Outcome of a bulk check-in, per registration in the order requested, with the totals.
+ */
+@Data
+@RegisterForReflection
+public class BulkCheckInResponse {
+    private String eventId;
+    private long checkedIn;
+    private long alreadyCheckedIn;
+    private long notFound;
+    private long conflicts;
+    private List<BulkCheckInResult> results;
+}
@@ -0,0 +1,28 @@
+package org.jlopezinc.model;
+
+import io.quarkus.runtime.annotations.RegisterForReflection;
+import lombok.Data;
+
+import java.util.Date;
+
+/**
+ * What a bulk check-in did with one registration. For checked in registrations (new or earlier
+ * ones) {@code checkInAt} and {@code checkInBy} are those stored.
+ */
+@Data
+@RegisterForReflection
+public class BulkCheckInResult {
+
+    public enum Outcome {
+        CHECKED_IN,
+        ALREADY_CHECKED_IN,
+        NOT_FOUND,
+        // the registration kept changing while it was being checked in; retry it on its own
+        CONFLICT
+    }
+
+    private String email;
+    private Outcome outcome;
+    private Date checkInAt;
+    private String checkInBy;
+}
@@ -0,0 +1,17 @@
+package org.jlopezinc.model;
+
+import io.quarkus.runtime.annotations.RegisterForReflection;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * A page of a registration's change history, newest first.
+ * Pass {@code nextCursor} back as {@code cursor} to get the next (older) page; it is null on the last page.
+ */
+@Data
+@RegisterForReflection
+public class ChangeHistoryPage {
+    private List<ChangeHistoryEntry> entries;
+    private String nextCursor;
+}
@@ -0,0 +1,12 @@
+package org.jlopezinc.model;
+
+import lombok.Data;
+
+@Data
+public class OutboxDispatchResponse {
+    private String status;
+    private long sent;
+    private long retried;
+    private long failed;
+    private String message;
+}
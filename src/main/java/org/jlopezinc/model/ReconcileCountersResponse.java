@@ -5,7 +5,9 @@ import lombok.Data;
 @Data
 public class ReconcileCountersResponse {
     private String eventId;
+    private String jobId;
     private String status;
+    private long scanned;
     private CountersModel before;
     private CountersModel after;
     private String message;
@@ -0,0 +1,22 @@
+package org.jlopezinc.model;
+
+import io.quarkus.runtime.annotations.RegisterForReflection;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * What a gate needs to know about a registration to resolve a scan offline.
+ */
+@Data
+@RegisterForReflection
+public class RosterEntry {
+    private String email;
+    private String phone;
+    // driver first, then guests
+    private List<String> names;
+    private String plate;
+    private String vehicleType;
+    private boolean paid;
+    private boolean checkedIn;
+}
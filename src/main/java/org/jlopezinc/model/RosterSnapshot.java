@@ -0,0 +1,20 @@
+package org.jlopezinc.model;
+
+import io.quarkus.runtime.annotations.RegisterForReflection;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * The roster of an event, or the registrations written since {@code since}; pass {@code version}
+ * back as {@code since} to get the next changes. Entries replace the device's entry for the same e-mail.
+ */
+@Data
+@RegisterForReflection
+public class RosterSnapshot {
+    private String eventId;
+    private long version;
+    // null for a full snapshot
+    private Long since;
+    private List<RosterEntry> entries;
+}
@@ -0,0 +1,27 @@
+package org.jlopezinc.model;
+
+import io.quarkus.runtime.annotations.RegisterForReflection;
+import lombok.Data;
+
+import java.util.Date;
+
+/**
+ * A check-in or cancellation recorded by a scanner while it was offline.
+ * {@code opId} is generated by the device and identifies the operation across retried syncs;
+ * {@code at} and {@code byWho} are when and by whom it happened at the gate.
+ */
+@Data
+@RegisterForReflection
+public class ScannerOperation {
+
+    public enum Type {
+        CHECK_IN,
+        CANCEL_CHECK_IN
+    }
+
+    private String opId;
+    private String email;
+    private Type type;
+    private Date at;
+    private String byWho;
+}
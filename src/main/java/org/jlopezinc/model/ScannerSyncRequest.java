@@ -0,0 +1,16 @@
+package org.jlopezinc.model;
+
+import io.quarkus.runtime.annotations.RegisterForReflection;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * The operations a scanner queued while offline, in the order it recorded them.
+ */
+@Data
+@RegisterForReflection
+public class ScannerSyncRequest {
+    private String deviceId;
+    private List<ScannerOperation> operations;
+}
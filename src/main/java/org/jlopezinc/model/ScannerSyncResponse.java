@@ -0,0 +1,21 @@
+package org.jlopezinc.model;
+
+import io.quarkus.runtime.annotations.RegisterForReflection;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * Outcome of a scanner sync, per operation in the order sent, with the totals.
+ */
+@Data
+@RegisterForReflection
+public class ScannerSyncResponse {
+    private String eventId;
+    private String deviceId;
+    private long applied;
+    private long duplicates;
+    private long conflicts;
+    private long notFound;
+    private List<ScannerSyncResult> results;
+}
@@ -0,0 +1,32 @@
+package org.jlopezinc.model;
+
+import io.quarkus.runtime.annotations.RegisterForReflection;
+import lombok.Data;
+
+import java.util.Date;
+
+/**
+ * What a sync did with one operation, and the registration's check-in state after the sync so the
+ * device can update its copy.
+ */
+@Data
+@RegisterForReflection
+public class ScannerSyncResult {
+
+    public enum Outcome {
+        APPLIED,
+        // applied by an earlier sync
+        DUPLICATE,
+        // not applied: see reason and the stored state
+        CONFLICT,
+        NOT_FOUND
+    }
+
+    private String opId;
+    private String email;
+    private Outcome outcome;
+    private String reason;
+    private boolean checkedIn;
+    private Date checkInAt;
+    private String checkInBy;
+}
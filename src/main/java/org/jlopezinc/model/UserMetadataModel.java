@@ -13,7 +13,14 @@ public class UserMetadataModel {
     private String phoneNumber;
     private Date registeredAt;
     private CheckIn checkIn;
+    /**
+     * Webhook body embedded in registrations written before bodies were archived; see rawWebhookId.
+     */
     private String rawWebhook;
+    /**
+     * Id of the webhook body in the archive, fetched only on an explicit audit request.
+     */
+    private String rawWebhookId;
     private PaymentInfo paymentInfo;
     private String comment;
     /**
@@ -0,0 +1,112 @@
+package org.jlopezinc;
+
+import io.smallrye.mutiny.Uni;
+import jakarta.ws.rs.BadRequestException;
+import jakarta.ws.rs.core.NoContentException;
+import org.jlopezinc.model.BulkCheckInResponse;
+import org.jlopezinc.model.BulkCheckInResult;
+import org.jlopezinc.model.CountersModel;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.IntStream;
+
+import static org.jlopezinc.EventsRegisterFixtures.register;
+import static org.jlopezinc.EventsRegisterFixtures.service;
+import static org.junit.jupiter.api.Assertions.*;
+
+class BulkCheckInTest {
+
+    private static final String EVENT = "bulk-check-in-event";
+    private static final int REGISTRATIONS = 60;
+
+    @Test
+    void testChecksInAGroupWithOneReadAndOneCountersUpdatePerTransaction() {
+        InMemoryDynamoDbAsyncClient dynamoDb = InMemoryDynamoDbAsyncClient.eventsRegister().build();
+        EventV1Service service = service(dynamoDb);
+        register(service, EVENT, "member", REGISTRATIONS);
+        service.checkInByEventAndEmail(EVENT, email(0), "gate-1").await().indefinitely();
+        long transactionsBefore = dynamoDb.calls("transactWriteItems");
+
+        List<String> emails = new ArrayList<>();
+        IntStream.range(0, REGISTRATIONS).forEach(i -> emails.add(email(i)));
+        emails.add("nobody@example.com");
+        emails.add(email(1));
+        BulkCheckInResponse response = service.bulkCheckIn(EVENT, emails, "gate-2").await().atMost(Duration.ofSeconds(10));
+
+        assertEquals(REGISTRATIONS - 1, response.getCheckedIn());
+        assertEquals(1, response.getAlreadyCheckedIn());
+        assertEquals(1, response.getNotFound());
+        assertEquals(0, response.getConflicts());
+        assertEquals(REGISTRATIONS + 1, response.getResults().size());
+        BulkCheckInResult first = response.getResults().get(0);
+        assertEquals(BulkCheckInResult.Outcome.ALREADY_CHECKED_IN, first.getOutcome());
+        assertEquals("gate-1", first.getCheckInBy());
+        assertEquals(BulkCheckInResult.Outcome.CHECKED_IN, response.getResults().get(1).getOutcome());
+        assertEquals("gate-2", response.getResults().get(1).getCheckInBy());
+        assertNotNull(response.getResults().get(1).getCheckInAt());
+        assertEquals(BulkCheckInResult.Outcome.NOT_FOUND, response.getResults().get(REGISTRATIONS).getOutcome());
+
+        assertEquals(1, dynamoDb.calls("batchGetItem"));
+        // 49 check-ins and their history entries, then the other 10
+        assertEquals(2, dynamoDb.calls("transactWriteItems") - transactionsBefore);
+        assertTrue(service.getByEventAndEmail(EVENT, email(REGISTRATIONS - 1)).await().indefinitely().isCheckedIn());
+        assertEquals(REGISTRATIONS, checkedIn(service.getCountersByEvent(EVENT).await().indefinitely()));
+        assertEquals(0, service.getCountersByEvent(EVENT).await().indefinitely().getParticipantsNotCheckedIn());
+    }
+
+    @Test
+    void testRetriesTheRegistrationsCheckedInByAGateMeanwhile() {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        InMemoryDynamoDbAsyncClient dynamoDb = InMemoryDynamoDbAsyncClient.eventsRegister()
+                .latency(Duration.ofMillis(1), Duration.ofMillis(4))
+                .executor(executor)
+                .build();
+        EventV1Service service = service(dynamoDb);
+        register(service, EVENT, "member", REGISTRATIONS);
+
+        List<String> emails = IntStream.range(0, REGISTRATIONS).mapToObj(BulkCheckInTest::email).toList();
+        List<Uni<Void>> gates = new ArrayList<>();
+        for (int i = 0; i < REGISTRATIONS; i += 3) {
+            gates.add(service.checkInByEventAndEmail(EVENT, email(i), "gate-1")
+                    .onFailure(NoContentException.class).recoverWithNull()
+                    .replaceWithVoid());
+        }
+        List<BulkCheckInResponse> bulk = Collections.synchronizedList(new ArrayList<>());
+        gates.add(service.bulkCheckIn(EVENT, emails, "gate-2").onItem().invoke(bulk::add).replaceWithVoid());
+        Uni.join().all(gates).andFailFast().await().atMost(Duration.ofSeconds(30));
+
+        BulkCheckInResponse response = bulk.get(0);
+        assertEquals(REGISTRATIONS, response.getCheckedIn() + response.getAlreadyCheckedIn() + response.getConflicts());
+        for (BulkCheckInResult result : response.getResults()) {
+            if (result.getOutcome() != BulkCheckInResult.Outcome.CONFLICT) {
+                assertTrue(service.getByEventAndEmail(EVENT, result.getEmail()).await().indefinitely().isCheckedIn(), result.getEmail());
+            }
+        }
+        // every check-in counted once, whoever won
+        long stored = emails.stream().filter(email -> service.getByEventAndEmail(EVENT, email).await().indefinitely().isCheckedIn()).count();
+        assertEquals(stored, checkedIn(service.getCountersByEvent(EVENT).await().indefinitely()));
+        executor.shutdownNow();
+    }
+
+    @Test
+    void testRejectsEmptyAndOversizedGroups() {
+        EventV1Service service = service(InMemoryDynamoDbAsyncClient.eventsRegister().build());
+        assertThrows(BadRequestException.class, () -> service.bulkCheckIn(EVENT, List.of(), "gate-1"));
+        List<String> tooMany = IntStream.range(0, EventV1Service.MAX_BULK_CHECK_IN + 1).mapToObj(BulkCheckInTest::email).toList();
+        assertThrows(BadRequestException.class, () -> service.bulkCheckIn(EVENT, tooMany, "gate-1"));
+    }
+
+    private static long checkedIn(CountersModel counters) {
+        return counters.getCheckedInCar() + counters.getCheckedInMotorcycle() + counters.getCheckedInQuad();
+    }
+
+    private static String email(int i) {
+        return EventsRegisterFixtures.email("member", i);
+    }
+}
@@ -0,0 +1,118 @@
+package org.jlopezinc;
+
+import org.jlopezinc.dynamodb.UserModelDB;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.enhanced.dynamodb.DynamoDbAsyncTable;
+import software.amazon.awssdk.enhanced.dynamodb.DynamoDbEnhancedAsyncClient;
+import software.amazon.awssdk.enhanced.dynamodb.Key;
+import software.amazon.awssdk.enhanced.dynamodb.TableSchema;
+import software.amazon.awssdk.enhanced.dynamodb.model.Page;
+import software.amazon.awssdk.enhanced.dynamodb.model.QueryConditional;
+import software.amazon.awssdk.enhanced.dynamodb.model.QueryEnhancedRequest;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BulkReaderTest {
+
+    private static final String EVENT = "bulk-event";
+
+    @Test
+    void testBudgetWaitsOffTheDebtOfEachPage() {
+        AtomicLong now = new AtomicLong();
+        BulkReader.ReadBudget budget = new BulkReader.ReadBudget(0.5, now::get);
+
+        assertEquals(Duration.ZERO, budget.delay());
+        // a 2 RCU page at 0.5 RCU/s: 0.5 of burst, then 1.5 of debt
+        budget.consumed(2);
+        assertEquals(Duration.ofSeconds(3), budget.delay());
+        now.addAndGet(Duration.ofSeconds(2).toNanos());
+        assertEquals(Duration.ofSeconds(1), budget.delay());
+        now.addAndGet(Duration.ofSeconds(1).toNanos());
+        assertEquals(Duration.ZERO, budget.delay());
+    }
+
+    @Test
+    void testBudgetBacksOffOnThrottlesAndRecovers() {
+        AtomicLong now = new AtomicLong();
+        BulkReader.ReadBudget budget = new BulkReader.ReadBudget(4, now::get);
+
+        budget.throttled();
+        assertEquals(2, budget.rate());
+        // sits out one second at the new rate
+        assertEquals(Duration.ofSeconds(1), budget.delay());
+        budget.throttled();
+        budget.throttled();
+        budget.throttled();
+        budget.throttled();
+        assertEquals(0.25, budget.rate(), "never below a sixteenth of the target");
+
+        for (int i = 0; i < 20; i++) {
+            budget.consumed(0);
+        }
+        assertEquals(4, budget.rate());
+    }
+
+    @Test
+    void testReadsEveryPageAndResumesFromAKey() {
+        InMemoryDynamoDbAsyncClient dynamoDb = InMemoryDynamoDbAsyncClient.eventsRegister().build();
+        DynamoDbAsyncTable<UserModelDB> table = table(dynamoDb, 250);
+        BulkReader bulkReader = new BulkReader(dynamoDb, 1, 1000, 100);
+
+        List<Page<UserModelDB>> pages = bulkReader.query(table, request()).collect().asList().await().atMost(Duration.ofSeconds(10));
+        assertEquals(List.of(100, 100, 50), pages.stream().map(page -> page.items().size()).toList());
+        assertEquals(3, dynamoDb.calls("query"));
+
+        Map<String, AttributeValue> checkpoint = pages.get(0).lastEvaluatedKey();
+        List<UserModelDB> rest = bulkReader.query(table, request(), checkpoint)
+                .onItem().transformToIterable(Page::items)
+                .collect().asList().await().atMost(Duration.ofSeconds(10));
+        assertEquals(150, rest.size());
+        assertEquals(email(100), rest.get(0).getUserEmail());
+    }
+
+    @Test
+    void testSlowsDownWhenTheTableThrottles() {
+        // the job believes it has 20 RCU/s but the table only has 2
+        InMemoryDynamoDbAsyncClient dynamoDb = InMemoryDynamoDbAsyncClient.eventsRegister().readCapacity(2).build();
+        DynamoDbAsyncTable<UserModelDB> table = table(dynamoDb, 300);
+        BulkReader bulkReader = new BulkReader(dynamoDb, 1, 20, 50);
+
+        long items = bulkReader.query(table, request())
+                .onItem().transformToIterable(Page::items)
+                .collect().asList().await().atMost(Duration.ofSeconds(30))
+                .size();
+
+        assertEquals(300, items);
+        assertTrue(dynamoDb.throttled() > 0);
+    }
+
+    private static QueryEnhancedRequest request() {
+        return QueryEnhancedRequest.builder()
+                .queryConditional(QueryConditional.keyEqualTo(Key.builder().partitionValue(EVENT).build()))
+                .build();
+    }
+
+    private static DynamoDbAsyncTable<UserModelDB> table(InMemoryDynamoDbAsyncClient dynamoDb, int registrations) {
+        DynamoDbAsyncTable<UserModelDB> table = DynamoDbEnhancedAsyncClient.builder().dynamoDbClient(dynamoDb).build()
+                .table(EventV1Service.EVENTS_TABLE, TableSchema.fromClass(UserModelDB.class));
+        for (int i = 0; i < registrations; i++) {
+            String email = email(i);
+            dynamoDb.putItem(r -> r.tableName(EventV1Service.EVENTS_TABLE).item(Map.of(
+                    UserModelDB.PARTITION_KEY, AttributeValue.builder().s(EVENT).build(),
+                    UserModelDB.SORT_KEY, AttributeValue.builder().s(email).build(),
+                    UserModelDB.VEHICLE_TYPE, AttributeValue.builder().s("car").build(),
+                    UserModelDB.METADATA, AttributeValue.builder().s("{\"people\":[{\"name\":\"Driver\"}]}").build())));
+        }
+        return table;
+    }
+
+    private static String email(int i) {
+        return String.format("user%04d@example.com", i);
+    }
+}
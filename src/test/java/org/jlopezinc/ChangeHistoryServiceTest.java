@@ -0,0 +1,59 @@
+package org.jlopezinc;
+
+import org.jlopezinc.model.ChangeHistoryEntry;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ChangeHistoryServiceTest {
+
+    @Test
+    public void testSortKeysOrderChronologicallyWhateverTheFractionDigits() {
+        // Instant.toString() drops trailing zeros, so legacy timestamps have variable width
+        String whole = ChangeHistoryService.sortKey(entry("2026-01-06T15:30:00Z", "A", "a"));
+        String millis = ChangeHistoryService.sortKey(entry("2026-01-06T15:30:00.120Z", "A", "a"));
+        String micros = ChangeHistoryService.sortKey(entry("2026-01-06T15:30:00.120500Z", "A", "a"));
+
+        assertTrue(whole.startsWith("2026-01-06T15:30:00.000Z#"));
+        assertTrue(whole.compareTo(millis) < 0);
+        assertEquals(millis, micros);
+    }
+
+    @Test
+    public void testSortKeyIdentifiesTheEntry() {
+        ChangeHistoryEntry checkIn = entry("2026-01-06T15:30:00.000Z", "CHECK_IN_ADDED", "User checked in by gate1");
+        assertEquals(ChangeHistoryService.sortKey(checkIn),
+                ChangeHistoryService.sortKey(entry("2026-01-06T15:30:00.000Z", "CHECK_IN_ADDED", "User checked in by gate1")));
+        assertNotEquals(ChangeHistoryService.sortKey(checkIn),
+                ChangeHistoryService.sortKey(entry("2026-01-06T15:30:00.000Z", "PAYMENT_ADDED", "Payment confirmed")));
+    }
+
+    @Test
+    public void testPartitionIsPerRegistration() {
+        assertEquals("history#ttamigosnatal2023#someone@example.com",
+                ChangeHistoryService.partition("ttamigosnatal2023", "someone@example.com"));
+    }
+
+    @Test
+    public void testMergeKeepsLatestEntriesOldestFirstWithoutDuplicates() {
+        ChangeHistoryEntry first = entry("2026-01-06T10:00:00.000Z", "USER_REGISTERED", "registered");
+        ChangeHistoryEntry second = entry("2026-01-06T11:00:00.000Z", "PAYMENT_ADDED", "paid");
+        ChangeHistoryEntry third = entry("2026-01-06T12:00:00.000Z", "CHECK_IN_ADDED", "checked in");
+
+        // the legacy entries were already migrated once, so they are both embedded and stored
+        List<ChangeHistoryEntry> merged = EventV1Service.mergeChangeHistory(
+                List.of(first, second), List.of(second, third), 10);
+        assertEquals(List.of(first, second, third), merged);
+
+        assertEquals(List.of(second, third), EventV1Service.mergeChangeHistory(List.of(first, second), List.of(third), 2));
+        assertEquals(List.of(), EventV1Service.mergeChangeHistory(null, List.of(third), 0));
+    }
+
+    private static ChangeHistoryEntry entry(String timestamp, String action, String description) {
+        return new ChangeHistoryEntry(timestamp, action, description);
+    }
+}
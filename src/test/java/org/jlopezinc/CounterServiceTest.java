@@ -0,0 +1,473 @@
+package org.jlopezinc;
+
+import io.smallrye.mutiny.Uni;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.BatchGetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchGetItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.CancellationReason;
+import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
+import software.amazon.awssdk.services.dynamodb.model.GetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.GetItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.KeysAndAttributes;
+import software.amazon.awssdk.services.dynamodb.model.ProvisionedThroughputExceededException;
+import software.amazon.awssdk.services.dynamodb.model.Put;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItem;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItemsRequest;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItemsResponse;
+import software.amazon.awssdk.services.dynamodb.model.TransactionCanceledException;
+import software.amazon.awssdk.services.dynamodb.model.Update;
+import software.amazon.awssdk.services.dynamodb.model.UpdateItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.UpdateItemResponse;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Stress test for the atomic counter engine.
+ *
+ * The DynamoDB client is replaced by a stand-in that applies each request atomically after a
+ * random delay, so hundreds of in-flight requests interleave the way concurrent gate scans do.
+ * Any read-modify-write in the engine would lose updates and make the final counts drift.
+ */
+class CounterServiceTest {
+
+    private static final String EVENT = "stress-event";
+    private static final int REGISTRATIONS = 500;
+
+    private ExecutorService executor;
+    private AtomicCounterTable table;
+    private CounterService counterService;
+
+    @BeforeEach
+    void setUp() {
+        executor = Executors.newFixedThreadPool(32);
+        table = new AtomicCounterTable(executor);
+        counterService = new CounterService(table);
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        executor.shutdownNow();
+        executor.awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void testParallelCheckInsNeverDrift() {
+        long totalParticipants = 0;
+        for (int i = 0; i < REGISTRATIONS; i++) {
+            totalParticipants += participantsOf(i);
+        }
+        counterService.set(EVENT, Map.of(EventV1Service.PARTICIPANTS_NOT_CHECKED_IN_COUNTER, totalParticipants)).await().indefinitely();
+
+        long expectedCheckedIn = 0;
+        long expectedParticipantsCheckedIn = 0;
+        List<Uni<Void>> checkIns = new ArrayList<>();
+        for (int i = 0; i < REGISTRATIONS; i++) {
+            int participants = participantsOf(i);
+            boolean cancelAfterwards = i % 4 == 0;
+            Uni<Void> checkIn = checkIn(participants, true);
+            if (cancelAfterwards) {
+                checkIn = checkIn.call(() -> checkIn(participants, false));
+            } else {
+                expectedCheckedIn++;
+                expectedParticipantsCheckedIn += participants;
+            }
+            checkIns.add(checkIn);
+        }
+
+        Uni.join().all(checkIns).andFailFast().await().atMost(Duration.ofMinutes(1));
+
+        assertEquals(expectedCheckedIn, table.count(EventV1Service.CHECK_IN_COUNTER + "car"));
+        assertEquals(expectedParticipantsCheckedIn, table.count(EventV1Service.PARTICIPANTS_CHECKED_IN_COUNTER));
+        assertEquals(totalParticipants - expectedParticipantsCheckedIn, table.count(EventV1Service.PARTICIPANTS_NOT_CHECKED_IN_COUNTER));
+        assertEquals(0, table.reads.get(), "counter changes must not read the item first");
+    }
+
+    @Test
+    void testDecrementIsFlooredAtZero() {
+        counterService.set(EVENT, Map.of(EventV1Service.PAID_COUNTER, 2L)).await().indefinitely();
+
+        counterService.add(EVENT, EventV1Service.PAID_COUNTER, -5).await().indefinitely();
+
+        assertEquals(0, table.count(EventV1Service.PAID_COUNTER));
+    }
+
+    @Test
+    void testCountersAreCreatedOnFirstUse() {
+        counterService.add(EVENT, "totalquad", 3).await().indefinitely();
+        counterService.add(EVENT, "totalmotorcycle", -1).await().indefinitely();
+
+        assertEquals(3, table.count("totalquad"));
+        assertEquals(0, table.count("totalmotorcycle"));
+    }
+
+    @Test
+    void testParallelDecrementsStopAtZero() {
+        counterService.set(EVENT, Map.of(EventV1Service.CHECK_IN_COUNTER + "quad", 100L)).await().indefinitely();
+
+        List<Uni<Void>> decrements = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            decrements.add(counterService.add(EVENT, EventV1Service.CHECK_IN_COUNTER + "quad", -1));
+        }
+        Uni.join().all(decrements).andFailFast().await().atMost(Duration.ofMinutes(1));
+
+        assertEquals(0, table.count(EventV1Service.CHECK_IN_COUNTER + "quad"));
+    }
+
+    @Test
+    void testMultiCounterUpdateFloorsOnlyTheCounterGoingNegative() {
+        counterService.set(EVENT, Map.of(EventV1Service.PARTICIPANTS_NOT_CHECKED_IN_COUNTER, 1L)).await().indefinitely();
+
+        Map<String, Long> deltas = new LinkedHashMap<>();
+        deltas.put(EventV1Service.PARTICIPANTS_CHECKED_IN_COUNTER, 3L);
+        deltas.put(EventV1Service.PARTICIPANTS_NOT_CHECKED_IN_COUNTER, -3L);
+        counterService.add(EVENT, deltas).await().indefinitely();
+
+        assertEquals(3, table.count(EventV1Service.PARTICIPANTS_CHECKED_IN_COUNTER));
+        assertEquals(0, table.count(EventV1Service.PARTICIPANTS_NOT_CHECKED_IN_COUNTER));
+    }
+
+    @Test
+    void testGetAllReadsOneItem() {
+        counterService.set(EVENT, Map.of("total", 7L, "totalcar", 4L, EventV1Service.PAID_COUNTER, 2L)).await().indefinitely();
+
+        Map<String, Long> counts = counterService.getAll(EVENT).await().indefinitely();
+
+        assertEquals(7L, counts.get("total"));
+        assertEquals(4L, counts.get("totalcar"));
+        assertEquals(2L, counts.get(EventV1Service.PAID_COUNTER));
+        assertEquals(1, table.reads.get());
+    }
+
+    @Test
+    void testLegacyRowsAreMigratedOnceAndKeepNewIncrements() {
+        table.putLegacyRow("total", 10);
+        table.putLegacyRow(EventV1Service.PAID_COUNTER, 4);
+        // a check-in that reached the new layout before the migration ran
+        counterService.add(EVENT, "total", 1).await().indefinitely();
+
+        Map<String, Long> counts = counterService.getAll(EVENT).await().indefinitely();
+        assertEquals(11L, counts.get("total"));
+        assertEquals(4L, counts.get(EventV1Service.PAID_COUNTER));
+
+        counterService.migrateLegacyCounters(EVENT).await().indefinitely();
+        assertEquals(11L, counterService.getAll(EVENT).await().indefinitely().get("total"));
+    }
+
+    @Test
+    void testLegacyRowsLeftUnprocessedAreReadAgain() {
+        table.putLegacyRow("total", 10);
+        table.putLegacyRow(EventV1Service.PAID_COUNTER, 4);
+        table.partialBatches.set(2);
+
+        Map<String, Long> counts = counterService.getAll(EVENT).await().indefinitely();
+
+        assertEquals(10L, counts.get("total"));
+        assertEquals(4L, counts.get(EventV1Service.PAID_COUNTER));
+    }
+
+    @Test
+    void testMigrationIsNotMarkedDoneWhenLegacyRowsCantBeRead() {
+        table.putLegacyRow("total", 10);
+        table.partialBatches.set(Integer.MAX_VALUE);
+
+        assertThrows(ProvisionedThroughputExceededException.class,
+                () -> counterService.migrateLegacyCounters(EVENT).await().indefinitely());
+        assertFalse(table.contains(CounterService.COUNTERS_SORT_KEY));
+
+        table.partialBatches.set(0);
+        assertEquals(10L, counterService.getAll(EVENT).await().indefinitely().get("total"));
+    }
+
+    @Test
+    void testTransactionWritesCountersAndItemsTogether() {
+        Map<String, Long> deltas = new LinkedHashMap<>();
+        deltas.put(EventV1Service.CHECK_IN_COUNTER + "car", 1L);
+        deltas.put(EventV1Service.PARTICIPANTS_CHECKED_IN_COUNTER, 2L);
+
+        counterService.addInTransaction(EVENT, deltas, List.of(historyPut("entry-1"))).await().indefinitely();
+
+        assertEquals(1, table.count(EventV1Service.CHECK_IN_COUNTER + "car"));
+        assertEquals(2, table.count(EventV1Service.PARTICIPANTS_CHECKED_IN_COUNTER));
+        assertTrue(table.contains("entry-1"));
+        assertEquals(1, table.transactions.get());
+    }
+
+    @Test
+    void testTransactionFloorsCounterGoingNegativeAndStillWritesItems() {
+        counterService.set(EVENT, Map.of(EventV1Service.PARTICIPANTS_NOT_CHECKED_IN_COUNTER, 1L)).await().indefinitely();
+
+        Map<String, Long> deltas = new LinkedHashMap<>();
+        deltas.put(EventV1Service.PARTICIPANTS_CHECKED_IN_COUNTER, 3L);
+        deltas.put(EventV1Service.PARTICIPANTS_NOT_CHECKED_IN_COUNTER, -3L);
+        counterService.addInTransaction(EVENT, deltas, List.of(historyPut("entry-2"))).await().indefinitely();
+
+        assertEquals(3, table.count(EventV1Service.PARTICIPANTS_CHECKED_IN_COUNTER));
+        assertEquals(0, table.count(EventV1Service.PARTICIPANTS_NOT_CHECKED_IN_COUNTER));
+        assertTrue(table.contains("entry-2"));
+    }
+
+    @Test
+    void testTransactionLeavesCountersUntouchedWhenAnItemConditionFails() {
+        counterService.addInTransaction(EVENT, Map.of("total", 1L), List.of(historyPut("entry-3"))).await().indefinitely();
+
+        TransactWriteItem createOnly = TransactWriteItem.builder().update(Update.builder()
+                .tableName(EventV1Service.EVENTS_TABLE)
+                .key(Map.of(
+                        "event_name", AttributeValue.builder().s("history#" + EVENT + "#someone@example.com").build(),
+                        "email", AttributeValue.builder().s("entry-3").build()))
+                .updateExpression("SET #v = :v")
+                .conditionExpression("attribute_not_exists(#sk)")
+                .expressionAttributeNames(Map.of("#sk", "email", "#v", "value"))
+                .expressionAttributeValues(Map.of(":v", CounterService.number(1)))
+                .build()).build();
+        Throwable failure = assertThrows(TransactionCanceledException.class, () ->
+                counterService.addInTransaction(EVENT, Map.of("total", 1L), List.of(createOnly)).await().indefinitely());
+
+        assertTrue(EventV1Service.isUserWriteConflict(failure));
+        assertEquals(1, table.count("total"));
+    }
+
+    private static TransactWriteItem historyPut(String sortKey) {
+        return TransactWriteItem.builder().put(Put.builder()
+                .tableName(EventV1Service.EVENTS_TABLE)
+                .item(Map.of(
+                        "event_name", AttributeValue.builder().s("history#" + EVENT + "#someone@example.com").build(),
+                        "email", AttributeValue.builder().s(sortKey).build()))
+                .build()).build();
+    }
+
+    private Uni<Void> checkIn(int participants, boolean checkIn) {
+        int sign = checkIn ? 1 : -1;
+        Map<String, Long> deltas = new LinkedHashMap<>();
+        deltas.put(EventV1Service.CHECK_IN_COUNTER + "car", (long) sign);
+        deltas.put(EventV1Service.PARTICIPANTS_CHECKED_IN_COUNTER, (long) sign * participants);
+        deltas.put(EventV1Service.PARTICIPANTS_NOT_CHECKED_IN_COUNTER, (long) -sign * participants);
+        return counterService.add(EVENT, deltas);
+    }
+
+    private static int participantsOf(int registration) {
+        return 1 + registration % 4;
+    }
+
+    /**
+     * Minimal stand-in for the counters item: understands exactly the expressions the engine issues
+     * and applies each request atomically on a worker thread after a random delay.
+     */
+    private static class AtomicCounterTable implements DynamoDbAsyncClient {
+        private final Map<String, Map<String, AttributeValue>> items = new ConcurrentHashMap<>();
+        private final ExecutorService executor;
+        private final AtomicInteger reads = new AtomicInteger();
+        private final AtomicInteger transactions = new AtomicInteger();
+        // BatchGetItem calls that return only their first key, as when short of capacity
+        private final AtomicInteger partialBatches = new AtomicInteger();
+
+        AtomicCounterTable(ExecutorService executor) {
+            this.executor = executor;
+        }
+
+        long count(String counter) {
+            AttributeValue value = items.getOrDefault(CounterService.COUNTERS_SORT_KEY, Map.of()).get(counter);
+            return value == null ? -1 : Long.parseLong(value.n());
+        }
+
+        boolean contains(String sortKey) {
+            return items.containsKey(sortKey);
+        }
+
+        void putLegacyRow(String counter, long count) {
+            items.put(counter, new HashMap<>(Map.of(
+                    "event_name", AttributeValue.builder().s(EVENT).build(),
+                    "email", AttributeValue.builder().s(counter).build(),
+                    CounterService.COUNT_ATTRIBUTE, CounterService.number(count))));
+        }
+
+        @Override
+        public CompletableFuture<GetItemResponse> getItem(GetItemRequest request) {
+            reads.incrementAndGet();
+            return later(() -> {
+                Map<String, AttributeValue> item = items.get(request.key().get("email").s());
+                return GetItemResponse.builder().item(item == null ? null : new HashMap<>(item)).build();
+            });
+        }
+
+        @Override
+        public CompletableFuture<BatchGetItemResponse> batchGetItem(BatchGetItemRequest request) {
+            reads.incrementAndGet();
+            return later(() -> {
+                List<Map<String, AttributeValue>> keys = request.requestItems().get(EventV1Service.EVENTS_TABLE).keys();
+                List<Map<String, AttributeValue>> unprocessed = List.of();
+                if (partialBatches.getAndUpdate(left -> Math.max(left - 1, 0)) > 0) {
+                    unprocessed = keys.subList(1, keys.size());
+                    keys = keys.subList(0, 1);
+                }
+                List<Map<String, AttributeValue>> found = new ArrayList<>();
+                for (Map<String, AttributeValue> key : keys) {
+                    Map<String, AttributeValue> item = items.get(key.get("email").s());
+                    if (item != null) {
+                        found.add(new HashMap<>(item));
+                    }
+                }
+                return BatchGetItemResponse.builder()
+                        .responses(Map.of(EventV1Service.EVENTS_TABLE, found))
+                        .unprocessedKeys(unprocessed.isEmpty() ? Map.of()
+                                : Map.of(EventV1Service.EVENTS_TABLE, KeysAndAttributes.builder().keys(unprocessed).build()))
+                        .build();
+            });
+        }
+
+        @Override
+        public CompletableFuture<UpdateItemResponse> updateItem(UpdateItemRequest request) {
+            return later(() -> {
+                String sortKey = request.key().get("email").s();
+                synchronized (items) {
+                    Map<String, AttributeValue> item = items.computeIfAbsent(sortKey, k -> new HashMap<>(request.key()));
+                    if (!conditionHolds(request, item)) {
+                        throw ConditionalCheckFailedException.builder().message("The conditional request failed").build();
+                    }
+                    apply(request, item);
+                }
+                return UpdateItemResponse.builder().build();
+            });
+        }
+
+        @Override
+        public CompletableFuture<TransactWriteItemsResponse> transactWriteItems(TransactWriteItemsRequest request) {
+            transactions.incrementAndGet();
+            return later(() -> {
+                synchronized (items) {
+                    List<CancellationReason> reasons = new ArrayList<>();
+                    boolean cancelled = false;
+                    for (TransactWriteItem transactItem : request.transactItems()) {
+                        boolean holds = transactItem.update() == null
+                                || conditionHolds(toRequest(transactItem.update()), existingOrNew(transactItem.update().key()));
+                        reasons.add(CancellationReason.builder().code(holds ? "None" : "ConditionalCheckFailed").build());
+                        cancelled |= !holds;
+                    }
+                    if (cancelled) {
+                        throw TransactionCanceledException.builder().cancellationReasons(reasons).build();
+                    }
+                    for (TransactWriteItem transactItem : request.transactItems()) {
+                        if (transactItem.update() != null) {
+                            Map<String, AttributeValue> key = transactItem.update().key();
+                            apply(toRequest(transactItem.update()), items.computeIfAbsent(key.get("email").s(), k -> new HashMap<>(key)));
+                        } else {
+                            items.put(transactItem.put().item().get("email").s(), new HashMap<>(transactItem.put().item()));
+                        }
+                    }
+                }
+                return TransactWriteItemsResponse.builder().build();
+            });
+        }
+
+        private Map<String, AttributeValue> existingOrNew(Map<String, AttributeValue> key) {
+            return items.getOrDefault(key.get("email").s(), new HashMap<>(key));
+        }
+
+        private static UpdateItemRequest toRequest(Update update) {
+            return UpdateItemRequest.builder()
+                    .key(update.key())
+                    .updateExpression(update.updateExpression())
+                    .conditionExpression(update.conditionExpression())
+                    .expressionAttributeNames(update.expressionAttributeNames())
+                    .expressionAttributeValues(update.expressionAttributeValues())
+                    .build();
+        }
+
+        private void apply(UpdateItemRequest request, Map<String, AttributeValue> item) {
+            Matcher clause = Pattern.compile("(SET|ADD) (.+?)(?= SET | ADD |$)").matcher(request.updateExpression());
+            while (clause.find()) {
+                for (String action : clause.group(2).split(", ")) {
+                    if (clause.group(1).equals("SET")) {
+                        String[] assignment = action.split(" = ");
+                        item.put(name(request, assignment[0]), request.expressionAttributeValues().get(assignment[1]));
+                    } else {
+                        String[] addition = action.split(" ");
+                        String attribute = name(request, addition[0]);
+                        long current = item.containsKey(attribute) ? Long.parseLong(item.get(attribute).n()) : 0;
+                        long delta = Long.parseLong(request.expressionAttributeValues().get(addition[1]).n());
+                        item.put(attribute, CounterService.number(current + delta));
+                    }
+                }
+            }
+        }
+
+        private boolean conditionHolds(UpdateItemRequest request, Map<String, AttributeValue> item) {
+            if (request.conditionExpression() == null) {
+                return true;
+            }
+            for (String alternative : request.conditionExpression().split(" OR ")) {
+                boolean holds = true;
+                for (String term : alternative.split(" AND ")) {
+                    holds &= termHolds(request, item, term);
+                }
+                if (holds) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean termHolds(UpdateItemRequest request, Map<String, AttributeValue> item, String term) {
+            Matcher notExists = Pattern.compile("attribute_not_exists\\((#\\w+)\\)").matcher(term);
+            if (notExists.matches()) {
+                return !item.containsKey(name(request, notExists.group(1)));
+            }
+            String[] comparison = term.split(" ");
+            AttributeValue current = item.get(name(request, comparison[0]));
+            if (current == null) {
+                return false;
+            }
+            long left = Long.parseLong(current.n());
+            long right = Long.parseLong(request.expressionAttributeValues().get(comparison[2]).n());
+            return switch (comparison[1]) {
+                case ">=" -> left >= right;
+                case "<" -> left < right;
+                default -> throw new UnsupportedOperationException(term);
+            };
+        }
+
+        private static String name(UpdateItemRequest request, String placeholder) {
+            return request.expressionAttributeNames().get(placeholder);
+        }
+
+        private <T> CompletableFuture<T> later(java.util.function.Supplier<T> operation) {
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    Thread.sleep(ThreadLocalRandom.current().nextInt(3));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return operation.get();
+            }, executor);
+        }
+
+        @Override
+        public String serviceName() {
+            return "dynamodb";
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
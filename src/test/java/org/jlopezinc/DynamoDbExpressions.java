@@ -0,0 +1,694 @@
+package org.jlopezinc;
+
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Evaluates DynamoDB expressions against in-memory items for {@link InMemoryDynamoDbAsyncClient}.
+ *
+ * Covers what the service and the enhanced client emit: top-level and dotted attribute paths,
+ * comparisons, {@code BETWEEN}, {@code IN}, {@code attribute_exists}, {@code attribute_not_exists},
+ * {@code attribute_type}, {@code begins_with}, {@code contains}, {@code size}, {@code AND}/{@code OR}/{@code NOT} and
+ * parentheses in conditions; {@code SET} (with {@code +}, {@code -}, {@code if_not_exists} and
+ * {@code list_append}), {@code REMOVE}, {@code ADD} and {@code DELETE} in updates. List indexes are
+ * not supported.
+ */
+final class DynamoDbExpressions {
+
+    private static final Set<String> UPDATE_CLAUSES = Set.of("SET", "REMOVE", "ADD", "DELETE");
+
+    private DynamoDbExpressions() {
+    }
+
+    /**
+     * Whether {@code item} satisfies a condition, filter or key condition expression. A null
+     * expression always holds.
+     */
+    static boolean holds(String expression, Map<String, String> names, Map<String, AttributeValue> values,
+                         Map<String, AttributeValue> item) {
+        if (expression == null || expression.isBlank()) {
+            return true;
+        }
+        Parser parser = new Parser(expression, names, values);
+        Predicate<Map<String, AttributeValue>> condition = parser.or();
+        parser.end();
+        return condition.test(item);
+    }
+
+    /**
+     * Applies an update expression to {@code item} in place. Every operand is read from the item as
+     * it was before the update, like DynamoDB does.
+     */
+    static void update(String expression, Map<String, String> names, Map<String, AttributeValue> values,
+                       Map<String, AttributeValue> item) {
+        Parser parser = new Parser(expression, names, values);
+        Map<String, AttributeValue> before = new HashMap<>(item);
+        List<Runnable> actions = new ArrayList<>();
+        while (parser.peek() != null) {
+            String clause = parser.next().toUpperCase();
+            if (!UPDATE_CLAUSES.contains(clause)) {
+                throw new IllegalArgumentException("Unexpected '" + clause + "' in update expression " + expression);
+            }
+            do {
+                List<String> path = parser.path();
+                switch (clause) {
+                    case "SET" -> {
+                        parser.expect("=");
+                        AttributeValue value = parser.setValue().apply(before);
+                        actions.add(() -> setPath(item, path, value));
+                    }
+                    case "REMOVE" -> actions.add(() -> removePath(item, path));
+                    case "ADD" -> {
+                        AttributeValue delta = parser.operand().apply(before);
+                        AttributeValue current = resolve(before, path);
+                        actions.add(() -> setPath(item, path, add(current, delta)));
+                    }
+                    default -> {
+                        AttributeValue removed = parser.operand().apply(before);
+                        AttributeValue current = resolve(before, path);
+                        actions.add(() -> {
+                            AttributeValue remaining = delete(current, removed);
+                            if (remaining == null) {
+                                removePath(item, path);
+                            } else {
+                                setPath(item, path, remaining);
+                            }
+                        });
+                    }
+                }
+            } while (parser.accept(","));
+        }
+        actions.forEach(Runnable::run);
+    }
+
+    /**
+     * The top-level attributes named by a projection expression, or the whole item if there is none.
+     */
+    static Map<String, AttributeValue> project(String expression, Map<String, String> names, Map<String, AttributeValue> item) {
+        if (expression == null || expression.isBlank()) {
+            return new HashMap<>(item);
+        }
+        Parser parser = new Parser(expression, names, Map.of());
+        Map<String, AttributeValue> projected = new HashMap<>();
+        do {
+            String attribute = parser.path().get(0);
+            if (item.containsKey(attribute)) {
+                projected.put(attribute, item.get(attribute));
+            }
+        } while (parser.accept(","));
+        parser.end();
+        return projected;
+    }
+
+    /**
+     * The value {@code expression} compares {@code attribute} to with {@code =}, e.g. the partition key
+     * value of a key condition.
+     */
+    static AttributeValue equalityValue(String expression, Map<String, String> names, Map<String, AttributeValue> values,
+                                        String attribute) {
+        List<String> tokens = tokenize(expression);
+        for (int i = 0; i + 2 < tokens.size(); i++) {
+            if ("=".equals(tokens.get(i + 1)) && attribute.equals(name(tokens.get(i), names))
+                    && tokens.get(i + 2).startsWith(":")) {
+                return values.get(tokens.get(i + 2));
+            }
+            if ("=".equals(tokens.get(i + 1)) && attribute.equals(name(tokens.get(i + 2), names))
+                    && tokens.get(i).startsWith(":")) {
+                return values.get(tokens.get(i));
+            }
+        }
+        throw new IllegalArgumentException("No equality condition on " + attribute + " in " + expression);
+    }
+
+    static boolean valueEquals(AttributeValue a, AttributeValue b) {
+        if (a == null || b == null) {
+            return a == b;
+        }
+        if (a.s() != null || b.s() != null) {
+            return Objects.equals(a.s(), b.s());
+        }
+        if (a.n() != null || b.n() != null) {
+            return a.n() != null && b.n() != null && new BigDecimal(a.n()).compareTo(new BigDecimal(b.n())) == 0;
+        }
+        if (a.b() != null || b.b() != null) {
+            return Objects.equals(a.b(), b.b());
+        }
+        if (a.bool() != null || b.bool() != null) {
+            return Objects.equals(a.bool(), b.bool());
+        }
+        if (a.hasSs() || b.hasSs()) {
+            return a.hasSs() && b.hasSs() && Set.copyOf(a.ss()).equals(Set.copyOf(b.ss()));
+        }
+        if (a.hasNs() || b.hasNs()) {
+            return a.hasNs() && b.hasNs() && numberSet(a).equals(numberSet(b));
+        }
+        if (a.hasL() || b.hasL()) {
+            if (!a.hasL() || !b.hasL() || a.l().size() != b.l().size()) {
+                return false;
+            }
+            for (int i = 0; i < a.l().size(); i++) {
+                if (!valueEquals(a.l().get(i), b.l().get(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (a.hasM() || b.hasM()) {
+            if (!a.hasM() || !b.hasM() || !a.m().keySet().equals(b.m().keySet())) {
+                return false;
+            }
+            return a.m().keySet().stream().allMatch(key -> valueEquals(a.m().get(key), b.m().get(key)));
+        }
+        return Objects.equals(a.nul(), b.nul());
+    }
+
+    /**
+     * The DynamoDB type name of a value, as {@code attribute_type} takes it.
+     */
+    static String type(AttributeValue value) {
+        return switch (value.type()) {
+            case S -> "S";
+            case N -> "N";
+            case B -> "B";
+            case SS -> "SS";
+            case NS -> "NS";
+            case BS -> "BS";
+            case M -> "M";
+            case L -> "L";
+            case BOOL -> "BOOL";
+            case NUL -> "NULL";
+            default -> null;
+        };
+    }
+
+    /**
+     * Orders two scalar values of the same type (string, number or binary); null if they can't be compared.
+     */
+    static Integer compare(AttributeValue a, AttributeValue b) {
+        if (a == null || b == null) {
+            return null;
+        }
+        if (a.s() != null && b.s() != null) {
+            return Integer.signum(a.s().compareTo(b.s()));
+        }
+        if (a.n() != null && b.n() != null) {
+            return new BigDecimal(a.n()).compareTo(new BigDecimal(b.n()));
+        }
+        if (a.b() != null && b.b() != null) {
+            return Integer.signum(Arrays.compareUnsigned(a.b().asByteArrayUnsafe(), b.b().asByteArrayUnsafe()));
+        }
+        return null;
+    }
+
+    /**
+     * Approximate stored size of an item in bytes, as DynamoDB counts it for capacity and limits.
+     */
+    static int size(Map<String, AttributeValue> item) {
+        int size = 0;
+        for (Map.Entry<String, AttributeValue> attribute : item.entrySet()) {
+            size += attribute.getKey().getBytes(StandardCharsets.UTF_8).length + size(attribute.getValue());
+        }
+        return size;
+    }
+
+    private static int size(AttributeValue value) {
+        if (value.s() != null) {
+            return value.s().getBytes(StandardCharsets.UTF_8).length;
+        }
+        if (value.n() != null) {
+            return value.n().length() / 2 + 2;
+        }
+        if (value.b() != null) {
+            return value.b().asByteArrayUnsafe().length;
+        }
+        if (value.hasSs()) {
+            return value.ss().stream().mapToInt(s -> s.getBytes(StandardCharsets.UTF_8).length).sum();
+        }
+        if (value.hasNs()) {
+            return value.ns().stream().mapToInt(n -> n.length() / 2 + 2).sum();
+        }
+        if (value.hasBs()) {
+            return value.bs().stream().mapToInt(b -> b.asByteArrayUnsafe().length).sum();
+        }
+        if (value.hasL()) {
+            return 3 + value.l().stream().mapToInt(element -> 1 + size(element)).sum();
+        }
+        if (value.hasM()) {
+            return 3 + size(value.m()) + value.m().size();
+        }
+        return 1;
+    }
+
+    private static AttributeValue resolve(Map<String, AttributeValue> item, List<String> path) {
+        AttributeValue value = item.get(path.get(0));
+        for (int i = 1; i < path.size() && value != null; i++) {
+            value = value.hasM() ? value.m().get(path.get(i)) : null;
+        }
+        return value;
+    }
+
+    private static void setPath(Map<String, AttributeValue> map, List<String> path, AttributeValue value) {
+        if (path.size() == 1) {
+            map.put(path.get(0), value);
+            return;
+        }
+        AttributeValue parent = map.get(path.get(0));
+        if (parent == null || !parent.hasM()) {
+            throw new IllegalArgumentException("The document path provided in the update expression is invalid for update");
+        }
+        Map<String, AttributeValue> copy = new HashMap<>(parent.m());
+        setPath(copy, path.subList(1, path.size()), value);
+        map.put(path.get(0), AttributeValue.builder().m(copy).build());
+    }
+
+    private static void removePath(Map<String, AttributeValue> map, List<String> path) {
+        if (path.size() == 1) {
+            map.remove(path.get(0));
+            return;
+        }
+        AttributeValue parent = map.get(path.get(0));
+        if (parent == null || !parent.hasM()) {
+            return;
+        }
+        Map<String, AttributeValue> copy = new HashMap<>(parent.m());
+        removePath(copy, path.subList(1, path.size()));
+        map.put(path.get(0), AttributeValue.builder().m(copy).build());
+    }
+
+    private static AttributeValue add(AttributeValue current, AttributeValue delta) {
+        if (current == null) {
+            return delta;
+        }
+        if (current.n() != null && delta.n() != null) {
+            return number(new BigDecimal(current.n()).add(new BigDecimal(delta.n())));
+        }
+        if (current.hasSs() && delta.hasSs()) {
+            Set<String> union = new LinkedHashSet<>(current.ss());
+            union.addAll(delta.ss());
+            return AttributeValue.builder().ss(union).build();
+        }
+        if (current.hasNs() && delta.hasNs()) {
+            Set<String> union = new LinkedHashSet<>(current.ns());
+            union.addAll(delta.ns());
+            return AttributeValue.builder().ns(union).build();
+        }
+        throw new IllegalArgumentException("An operand in the update expression has an incorrect data type");
+    }
+
+    private static AttributeValue delete(AttributeValue current, AttributeValue removed) {
+        if (current == null) {
+            return null;
+        }
+        if (current.hasSs() && removed.hasSs()) {
+            Set<String> remaining = new LinkedHashSet<>(current.ss());
+            remaining.removeAll(removed.ss());
+            return remaining.isEmpty() ? null : AttributeValue.builder().ss(remaining).build();
+        }
+        if (current.hasNs() && removed.hasNs()) {
+            Set<String> remaining = new LinkedHashSet<>(current.ns());
+            remaining.removeAll(removed.ns());
+            return remaining.isEmpty() ? null : AttributeValue.builder().ns(remaining).build();
+        }
+        throw new IllegalArgumentException("An operand in the update expression has an incorrect data type");
+    }
+
+    private static Set<BigDecimal> numberSet(AttributeValue value) {
+        Set<BigDecimal> numbers = new TreeSet<>();
+        value.ns().forEach(n -> numbers.add(new BigDecimal(n)));
+        return numbers;
+    }
+
+    private static AttributeValue number(BigDecimal value) {
+        return AttributeValue.builder().n(value.stripTrailingZeros().toPlainString()).build();
+    }
+
+    private static String name(String token, Map<String, String> names) {
+        if (token.startsWith("#")) {
+            String name = names == null ? null : names.get(token);
+            if (name == null) {
+                throw new IllegalArgumentException("An expression attribute name used in the document path is not defined: " + token);
+            }
+            return name;
+        }
+        return token;
+    }
+
+    private static List<String> tokenize(String expression) {
+        List<String> tokens = new ArrayList<>();
+        int i = 0;
+        while (i < expression.length()) {
+            char c = expression.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if ("(),+-".indexOf(c) >= 0) {
+                tokens.add(String.valueOf(c));
+                i++;
+            } else if (c == '<' || c == '>' || c == '=') {
+                boolean twoChars = i + 1 < expression.length()
+                        && (expression.charAt(i + 1) == '=' || (c == '<' && expression.charAt(i + 1) == '>'));
+                tokens.add(expression.substring(i, twoChars ? i + 2 : i + 1));
+                i += twoChars ? 2 : 1;
+            } else {
+                int start = i;
+                while (i < expression.length()
+                        && (Character.isLetterOrDigit(expression.charAt(i)) || "_#:.".indexOf(expression.charAt(i)) >= 0)) {
+                    i++;
+                }
+                if (start == i) {
+                    throw new IllegalArgumentException("Unexpected '" + c + "' in expression " + expression);
+                }
+                tokens.add(expression.substring(start, i));
+            }
+        }
+        return tokens;
+    }
+
+    private static final class Parser {
+        private final String expression;
+        private final List<String> tokens;
+        private final Map<String, String> names;
+        private final Map<String, AttributeValue> values;
+        private int position;
+
+        Parser(String expression, Map<String, String> names, Map<String, AttributeValue> values) {
+            this.expression = expression;
+            this.tokens = tokenize(expression);
+            this.names = names == null ? Map.of() : names;
+            this.values = values == null ? Map.of() : values;
+        }
+
+        String peek() {
+            return position < tokens.size() ? tokens.get(position) : null;
+        }
+
+        String next() {
+            if (position >= tokens.size()) {
+                throw new IllegalArgumentException("Unexpected end of expression " + expression);
+            }
+            return tokens.get(position++);
+        }
+
+        boolean accept(String token) {
+            if (token.equalsIgnoreCase(peek())) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        void expect(String token) {
+            if (!accept(token)) {
+                throw new IllegalArgumentException("Expected '" + token + "' but found '" + peek() + "' in expression " + expression);
+            }
+        }
+
+        void end() {
+            if (peek() != null) {
+                throw new IllegalArgumentException("Unexpected '" + peek() + "' in expression " + expression);
+            }
+        }
+
+        Predicate<Map<String, AttributeValue>> or() {
+            Predicate<Map<String, AttributeValue>> condition = and();
+            while (accept("OR")) {
+                condition = condition.or(and());
+            }
+            return condition;
+        }
+
+        Predicate<Map<String, AttributeValue>> and() {
+            Predicate<Map<String, AttributeValue>> condition = not();
+            while (accept("AND")) {
+                condition = condition.and(not());
+            }
+            return condition;
+        }
+
+        Predicate<Map<String, AttributeValue>> not() {
+            if (accept("NOT")) {
+                return not().negate();
+            }
+            return primary();
+        }
+
+        Predicate<Map<String, AttributeValue>> primary() {
+            if (accept("(")) {
+                Predicate<Map<String, AttributeValue>> condition = or();
+                expect(")");
+                return condition;
+            }
+            String function = peek() == null ? "" : peek().toLowerCase();
+            switch (function) {
+                case "attribute_exists", "attribute_not_exists" -> {
+                    next();
+                    expect("(");
+                    List<String> path = path();
+                    expect(")");
+                    Predicate<Map<String, AttributeValue>> exists = item -> resolve(item, path) != null;
+                    return function.equals("attribute_exists") ? exists : exists.negate();
+                }
+                case "begins_with" -> {
+                    next();
+                    expect("(");
+                    Function<Map<String, AttributeValue>, AttributeValue> value = operand();
+                    expect(",");
+                    Function<Map<String, AttributeValue>, AttributeValue> prefix = operand();
+                    expect(")");
+                    return item -> {
+                        AttributeValue actual = value.apply(item);
+                        AttributeValue expected = prefix.apply(item);
+                        return actual != null && expected != null && actual.s() != null && expected.s() != null
+                                && actual.s().startsWith(expected.s());
+                    };
+                }
+                case "attribute_type" -> {
+                    next();
+                    expect("(");
+                    List<String> path = path();
+                    expect(",");
+                    Function<Map<String, AttributeValue>, AttributeValue> type = operand();
+                    expect(")");
+                    return item -> {
+                        AttributeValue value = resolve(item, path);
+                        AttributeValue expected = type.apply(item);
+                        return value != null && expected != null && expected.s() != null && expected.s().equals(type(value));
+                    };
+                }
+                case "contains" -> {
+                    next();
+                    expect("(");
+                    Function<Map<String, AttributeValue>, AttributeValue> container = operand();
+                    expect(",");
+                    Function<Map<String, AttributeValue>, AttributeValue> element = operand();
+                    expect(")");
+                    return item -> contains(container.apply(item), element.apply(item));
+                }
+                default -> {
+                }
+            }
+            Function<Map<String, AttributeValue>, AttributeValue> left = operand();
+            if (accept("BETWEEN")) {
+                Function<Map<String, AttributeValue>, AttributeValue> low = operand();
+                expect("AND");
+                Function<Map<String, AttributeValue>, AttributeValue> high = operand();
+                return item -> {
+                    AttributeValue value = left.apply(item);
+                    Integer fromLow = compare(value, low.apply(item));
+                    Integer toHigh = compare(value, high.apply(item));
+                    return fromLow != null && toHigh != null && fromLow >= 0 && toHigh <= 0;
+                };
+            }
+            if (accept("IN")) {
+                expect("(");
+                List<Function<Map<String, AttributeValue>, AttributeValue>> candidates = new ArrayList<>();
+                do {
+                    candidates.add(operand());
+                } while (accept(","));
+                expect(")");
+                return item -> {
+                    AttributeValue value = left.apply(item);
+                    return candidates.stream().anyMatch(candidate -> value != null && valueEquals(value, candidate.apply(item)));
+                };
+            }
+            String comparator = next();
+            Function<Map<String, AttributeValue>, AttributeValue> right = operand();
+            return switch (comparator) {
+                case "=" -> item -> {
+                    AttributeValue a = left.apply(item);
+                    return a != null && valueEquals(a, right.apply(item));
+                };
+                // like DynamoDB, a missing attribute is "not equal" to any value
+                case "<>" -> item -> !valueEquals(left.apply(item), right.apply(item));
+                case "<", "<=", ">", ">=" -> item -> {
+                    Integer order = compare(left.apply(item), right.apply(item));
+                    if (order == null) {
+                        return false;
+                    }
+                    return switch (comparator) {
+                        case "<" -> order < 0;
+                        case "<=" -> order <= 0;
+                        case ">" -> order > 0;
+                        default -> order >= 0;
+                    };
+                };
+                default -> throw new IllegalArgumentException("Unknown comparator '" + comparator + "' in expression " + expression);
+            };
+        }
+
+        Function<Map<String, AttributeValue>, AttributeValue> operand() {
+            String token = peek();
+            if (token == null) {
+                throw new IllegalArgumentException("Unexpected end of expression " + expression);
+            }
+            if (token.equalsIgnoreCase("size") && position + 1 < tokens.size() && tokens.get(position + 1).equals("(")) {
+                next();
+                expect("(");
+                Function<Map<String, AttributeValue>, AttributeValue> value = operand();
+                expect(")");
+                return item -> {
+                    AttributeValue actual = value.apply(item);
+                    return actual == null ? null : number(BigDecimal.valueOf(sizeOf(actual)));
+                };
+            }
+            if (token.startsWith(":")) {
+                next();
+                AttributeValue value = values.get(token);
+                if (value == null) {
+                    throw new IllegalArgumentException("An expression attribute value used in expression is not defined: " + token);
+                }
+                return item -> value;
+            }
+            List<String> path = path();
+            return item -> resolve(item, path);
+        }
+
+        Function<Map<String, AttributeValue>, AttributeValue> setValue() {
+            Function<Map<String, AttributeValue>, AttributeValue> left = setOperand();
+            if (accept("+")) {
+                Function<Map<String, AttributeValue>, AttributeValue> right = setOperand();
+                return item -> number(numeric(left.apply(item)).add(numeric(right.apply(item))));
+            }
+            if (accept("-")) {
+                Function<Map<String, AttributeValue>, AttributeValue> right = setOperand();
+                return item -> number(numeric(left.apply(item)).subtract(numeric(right.apply(item))));
+            }
+            return left;
+        }
+
+        Function<Map<String, AttributeValue>, AttributeValue> setOperand() {
+            String function = peek() == null ? "" : peek().toLowerCase();
+            if (function.equals("if_not_exists")) {
+                next();
+                expect("(");
+                List<String> path = path();
+                expect(",");
+                Function<Map<String, AttributeValue>, AttributeValue> fallback = setValue();
+                expect(")");
+                return item -> {
+                    AttributeValue current = resolve(item, path);
+                    return current != null ? current : fallback.apply(item);
+                };
+            }
+            if (function.equals("list_append")) {
+                next();
+                expect("(");
+                Function<Map<String, AttributeValue>, AttributeValue> first = setValue();
+                expect(",");
+                Function<Map<String, AttributeValue>, AttributeValue> second = setValue();
+                expect(")");
+                return item -> {
+                    List<AttributeValue> appended = new ArrayList<>(list(first.apply(item)));
+                    appended.addAll(list(second.apply(item)));
+                    return AttributeValue.builder().l(appended).build();
+                };
+            }
+            return operand();
+        }
+
+        List<String> path() {
+            String token = next();
+            if (token.startsWith(":") || !(Character.isLetter(token.charAt(0)) || token.charAt(0) == '#' || token.charAt(0) == '_')) {
+                throw new IllegalArgumentException("Expected an attribute path but found '" + token + "' in expression " + expression);
+            }
+            List<String> path = new ArrayList<>();
+            for (String segment : token.split("\\.")) {
+                path.add(name(segment, names));
+            }
+            return path;
+        }
+
+        private BigDecimal numeric(AttributeValue value) {
+            if (value == null || value.n() == null) {
+                throw new IllegalArgumentException("An operand in the update expression has an incorrect data type");
+            }
+            return new BigDecimal(value.n());
+        }
+
+        private List<AttributeValue> list(AttributeValue value) {
+            if (value == null || !value.hasL()) {
+                throw new IllegalArgumentException("An operand in the update expression has an incorrect data type");
+            }
+            return value.l();
+        }
+    }
+
+    private static boolean contains(AttributeValue container, AttributeValue element) {
+        if (container == null || element == null) {
+            return false;
+        }
+        if (container.s() != null && element.s() != null) {
+            return container.s().contains(element.s());
+        }
+        if (container.hasSs() && element.s() != null) {
+            return container.ss().contains(element.s());
+        }
+        if (container.hasNs() && element.n() != null) {
+            return container.ns().stream().anyMatch(n -> new BigDecimal(n).compareTo(new BigDecimal(element.n())) == 0);
+        }
+        if (container.hasBs() && element.b() != null) {
+            return container.bs().contains(element.b());
+        }
+        if (container.hasL()) {
+            return container.l().stream().anyMatch(value -> valueEquals(value, element));
+        }
+        return false;
+    }
+
+    private static int sizeOf(AttributeValue value) {
+        if (value.s() != null) {
+            return value.s().length();
+        }
+        if (value.b() != null) {
+            return value.b().asByteArrayUnsafe().length;
+        }
+        if (value.hasSs()) {
+            return value.ss().size();
+        }
+        if (value.hasNs()) {
+            return value.ns().size();
+        }
+        if (value.hasBs()) {
+            return value.bs().size();
+        }
+        if (value.hasL()) {
+            return value.l().size();
+        }
+        if (value.hasM()) {
+            return value.m().size();
+        }
+        throw new IllegalArgumentException("Invalid operand type for size");
+    }
+}
@@ -0,0 +1,74 @@
+package org.jlopezinc;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.dynamodb.model.CancellationReason;
+import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
+import software.amazon.awssdk.services.dynamodb.model.ProvisionedThroughputExceededException;
+import software.amazon.awssdk.services.dynamodb.model.TransactionCanceledException;
+
+import java.time.Duration;
+import java.util.concurrent.CompletionException;
+
+import static org.jlopezinc.EventsRegisterFixtures.service;
+import static org.junit.jupiter.api.Assertions.*;
+
+class DynamoDbMetricsTest {
+
+    private static final String EVENT = "metrics-event";
+    private static final String WEBHOOK = "{\"driverName\":\"Driver\",\"driverCc\":\"1\",\"phoneNumber\":\"916165469\","
+            + "\"vehicleType\":\"Jipe\",\"guestsNumber\":\"1\",\"guestsNames\":\"Guest\",\"guestsCc\":\"2\","
+            + "\"email\":\"driver@example.com\"}";
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final DynamoDbMetrics metrics = new DynamoDbMetrics(registry);
+
+    @Test
+    void testRecordsRequestsAndCapacityPerOperation() {
+        EventV1Service service = service(InMemoryDynamoDbAsyncClient.eventsRegister().build());
+
+        metrics.track("register", () -> service.register(EVENT, WEBHOOK)).await().atMost(Duration.ofSeconds(5));
+        metrics.track("check-in", () -> service.checkInByEventAndEmail(EVENT, "driver@example.com", "gate-1"))
+                .await().atMost(Duration.ofSeconds(5));
+        metrics.track("cancel-check-in", () -> service.cancelCheckInByEventAndEmail(EVENT, "driver@example.com", "gate-1"))
+                .await().atMost(Duration.ofSeconds(5));
+
+        // archived webhook, conditional transaction with the counters (no read for a new registration), outbox message
+        assertEquals(3, registry.get("dynamodb.operation.requests").tag("operation", "register").counter().count());
+        // read, transaction with the counters and the history entry
+        assertEquals(2, registry.get("dynamodb.operation.requests").tag("operation", "check-in").counter().count());
+        double checkInCapacity = registry.get("dynamodb.operation.capacity").tag("operation", "check-in").summary().totalAmount();
+        // an eventually consistent read (0.5) and three transactional writes (2 each)
+        assertEquals(6.5, checkInCapacity);
+        assertEquals(1, registry.get("dynamodb.operation").tags("operation", "check-in", "outcome", "success").timer().count());
+        assertEquals(2, registry.get("dynamodb.operation.requests").tag("operation", "cancel-check-in").counter().count());
+
+        // calls outside a tracked operation aren't recorded anywhere
+        service.getCountersByEvent(EVENT).await().atMost(Duration.ofSeconds(5));
+        assertTrue(registry.find("dynamodb.operation").tag("operation", "counters").timers().isEmpty());
+    }
+
+    @Test
+    void testRecordsThrottledOperations() {
+        EventV1Service service = service(InMemoryDynamoDbAsyncClient.eventsRegister().throttleProbability(1).build());
+
+        assertThrows(ProvisionedThroughputExceededException.class,
+                () -> metrics.track("counters", () -> service.getCountersByEvent(EVENT)).await().atMost(Duration.ofSeconds(5)));
+
+        assertEquals(1, registry.get("dynamodb.operation.throttles").tag("operation", "counters").counter().count());
+        assertEquals(1, registry.get("dynamodb.operation").tags("operation", "counters", "outcome", "throttled").timer().count());
+    }
+
+    @Test
+    void testThrottleClassification() {
+        assertTrue(DynamoDbMetrics.isThrottle(new CompletionException(ProvisionedThroughputExceededException.builder().build())));
+        assertTrue(DynamoDbMetrics.isThrottle(TransactionCanceledException.builder()
+                .cancellationReasons(CancellationReason.builder().code("None").build(),
+                        CancellationReason.builder().code("ThrottlingError").build())
+                .build()));
+        assertFalse(DynamoDbMetrics.isThrottle(TransactionCanceledException.builder()
+                .cancellationReasons(CancellationReason.builder().code("ConditionalCheckFailed").build())
+                .build()));
+        assertFalse(DynamoDbMetrics.isThrottle(ConditionalCheckFailedException.builder().build()));
+    }
+}
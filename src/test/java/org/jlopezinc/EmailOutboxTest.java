@@ -0,0 +1,68 @@
+package org.jlopezinc;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class EmailOutboxTest {
+
+    @Test
+    public void testSameWebhookQueuesTheSameMessage() {
+        String body = "{\"email\":\"someone@example.com\",\"driverName\":\"Someone\"}";
+        String id = EmailOutbox.messageId("ttamigosnatal2023", "someone@example.com", "userRegistration", body);
+
+        assertEquals(id, EmailOutbox.messageId("ttamigosnatal2023", "someone@example.com", "userRegistration", body));
+        assertTrue(id.startsWith("userRegistration#ttamigosnatal2023#someone@example.com#"));
+        // a re-registration with different data is a new message
+        assertNotEquals(id, EmailOutbox.messageId("ttamigosnatal2023", "someone@example.com", "userRegistration", body + " "));
+    }
+
+    @Test
+    public void testOnlyMessagesStillToSendAreQueried() {
+        InMemoryDynamoDbAsyncClient dynamoDb = InMemoryDynamoDbAsyncClient.eventsRegister().build();
+        EmailOutbox outbox = new EmailOutbox(dynamoDb);
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < 4; i++) {
+            outbox.enqueue("ttamigosnatal2023", "someone" + i + "@example.com", "userRegistration", "body " + i)
+                    .await().atMost(Duration.ofSeconds(5));
+        }
+        List<EmailOutbox.Message> due = outbox.due(10, start + 1).await().atMost(Duration.ofSeconds(5));
+        assertEquals(4, due.size());
+
+        // sent, retried later, given up on, and claimed by a dispatcher
+        outbox.markSent(due.get(0), start + 1).await().atMost(Duration.ofSeconds(5));
+        assertTrue(outbox.markFailed(due.get(1), "timeout", start + 1).await().atMost(Duration.ofSeconds(5)));
+        EmailOutbox.Message lastAttempt = new EmailOutbox.Message(due.get(2).id, due.get(2).event, due.get(2).email,
+                due.get(2).template, EmailOutbox.MAX_ATTEMPTS - 1);
+        assertFalse(outbox.markFailed(lastAttempt, "timeout", start + 1).await().atMost(Duration.ofSeconds(5)));
+        assertTrue(outbox.claim(due.get(3), start + 1).await().atMost(Duration.ofSeconds(5)));
+
+        assertTrue(outbox.due(10, start + 1).await().atMost(Duration.ofSeconds(5)).isEmpty());
+        assertFalse(dynamoDb.item(EventV1Service.EVENTS_TABLE, EmailOutbox.OUTBOX_PARTITION, due.get(0).id).containsKey(EmailOutbox.DUE));
+        assertFalse(dynamoDb.item(EventV1Service.EVENTS_TABLE, EmailOutbox.OUTBOX_PARTITION, due.get(2).id).containsKey(EmailOutbox.DUE));
+        // the retry and the expired lease, the retry first, and nothing else is read
+        int queries = dynamoDb.calls("query");
+        List<EmailOutbox.Message> later = outbox.due(10, start + EmailOutbox.CLAIM_LEASE_MILLIS + 3_600_000)
+                .await().atMost(Duration.ofSeconds(5));
+        assertEquals(List.of(due.get(1).id, due.get(3).id), later.stream().map(message -> message.id).toList());
+        assertEquals(queries + 1, dynamoDb.calls("query"));
+    }
+
+    @Test
+    public void testBackoffGrowsExponentiallyUpToOneHour() {
+        for (int i = 0; i < 100; i++) {
+            long first = EmailOutbox.backoffMillis(1);
+            assertTrue(first >= 15_000 && first <= 30_000, "first retry after " + first);
+            long third = EmailOutbox.backoffMillis(3);
+            assertTrue(third >= 60_000 && third <= 120_000, "third retry after " + third);
+            long late = EmailOutbox.backoffMillis(30);
+            assertTrue(late >= 1_800_000 && late <= 3_600_000, "late retry after " + late);
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package org.jlopezinc;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import jakarta.ws.rs.BadRequestException;
+import org.jlopezinc.dynamodb.UserModelDB;
+import org.jlopezinc.model.UserMetadataModel;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.enhanced.dynamodb.DynamoDbEnhancedAsyncClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import static org.jlopezinc.EventsRegisterFixtures.service;
+import static org.junit.jupiter.api.Assertions.*;
+
+class EventExporterTest {
+
+    private static final String EVENT = "export-event";
+
+    @Test
+    void testExportsTheRequestedColumnsAsCsv() {
+        InMemoryDynamoDbAsyncClient dynamoDb = InMemoryDynamoDbAsyncClient.eventsRegister().build();
+        EventV1Service service = service(dynamoDb);
+        register(service, 3);
+        service.checkInByEventAndEmail(EVENT, email(1), "gate-1").await().indefinitely();
+        EventExporter exporter = exporter(dynamoDb, service, BulkReader.DEFAULT_PAGE_SIZE);
+
+        EventExporter.Part part = exporter.export(EVENT, EventExporter.Format.CSV, EventExporter.columns("email,checkedIn,names,plate"), false, null)
+                .await().atMost(Duration.ofSeconds(10));
+
+        assertNull(part.nextCursor);
+        assertEquals("email,checkedIn,names,plate\r\n"
+                + email(0) + ",false,\"Driver 0; Ana \"\"Nita\"\" Silva; Rui\",AA-00-00\r\n"
+                + email(1) + ",true,\"Driver 1; Ana \"\"Nita\"\" Silva; Rui\",AA-00-01\r\n"
+                + email(2) + ",false,\"Driver 2; Ana \"\"Nita\"\" Silva; Rui\",AA-00-02\r\n", text(part));
+    }
+
+    @Test
+    void testReadsTheMetadataOnlyForRecordsNotSplit() throws Exception {
+        InMemoryDynamoDbAsyncClient dynamoDb = InMemoryDynamoDbAsyncClient.eventsRegister().build();
+        EventV1Service service = service(dynamoDb);
+        register(service, 3);
+        // as written before people and vehicle were split out of the metadata
+        UserMetadataModel legacy = service.getByEventAndEmail(EVENT, email(1)).await().indefinitely().getMetadata();
+        legacy.setChangeHistory(null);
+        String legacyMetadata = service.objectMapper.writeValueAsString(legacy);
+        dynamoDb.updateItem(r -> r.tableName(EventV1Service.EVENTS_TABLE)
+                .key(EventV1Service.userKey(EVENT, email(1)))
+                .updateExpression("SET #m = :m REMOVE #people, #vehicle")
+                .expressionAttributeNames(Map.of("#m", UserModelDB.METADATA,
+                        "#people", UserModelDB.PEOPLE, "#vehicle", UserModelDB.VEHICLE))
+                .expressionAttributeValues(Map.of(":m", AttributeValue.builder().s(legacyMetadata).build()))).join();
+        EventExporter exporter = exporter(dynamoDb, service, BulkReader.DEFAULT_PAGE_SIZE);
+        List<String> columns = EventExporter.columns("email,names,plate");
+        String expected = "email,names,plate\r\n"
+                + email(0) + ",\"Driver 0; Ana \"\"Nita\"\" Silva; Rui\",AA-00-00\r\n"
+                + email(1) + ",\"Driver 1; Ana \"\"Nita\"\" Silva; Rui\",AA-00-01\r\n"
+                + email(2) + ",\"Driver 2; Ana \"\"Nita\"\" Silva; Rui\",AA-00-02\r\n";
+
+        int batchGets = dynamoDb.calls("batchGetItem");
+        assertEquals(expected, text(exporter.export(EVENT, EventExporter.Format.CSV, columns, false, null)
+                .await().atMost(Duration.ofSeconds(10))));
+        assertEquals(batchGets + 1, dynamoDb.calls("batchGetItem"));
+
+        service.backfillUserAttributes(EVENT).await().indefinitely();
+        batchGets = dynamoDb.calls("batchGetItem");
+        assertEquals(expected, text(exporter.export(EVENT, EventExporter.Format.CSV, columns, false, null)
+                .await().atMost(Duration.ofSeconds(10))));
+        assertEquals(batchGets, dynamoDb.calls("batchGetItem"));
+    }
+
+    @Test
+    void testGzipsNdjson() throws IOException {
+        InMemoryDynamoDbAsyncClient dynamoDb = InMemoryDynamoDbAsyncClient.eventsRegister().build();
+        EventV1Service service = service(dynamoDb);
+        register(service, 25);
+        EventExporter exporter = exporter(dynamoDb, service, 10);
+
+        EventExporter.Part part = exporter.export(EVENT, EventExporter.Format.NDJSON, EventExporter.columns("email,paid,participantCount"), true, null)
+                .await().atMost(Duration.ofSeconds(10));
+
+        assertNull(part.nextCursor);
+        String ndjson = new String(new GZIPInputStream(new ByteArrayInputStream(part.body)).readAllBytes(), StandardCharsets.UTF_8);
+        String[] lines = ndjson.split("\n");
+        assertEquals(25, lines.length);
+        JsonNode first = service.objectMapper.readTree(lines[0]);
+        assertEquals(email(0), first.get("email").asText());
+        assertFalse(first.get("paid").asBoolean());
+        assertEquals(3, first.get("participantCount").asInt());
+        assertEquals(3, first.size());
+    }
+
+    @Test
+    void testSplitsLargeExportsIntoPartsWithACursor() {
+        InMemoryDynamoDbAsyncClient dynamoDb = InMemoryDynamoDbAsyncClient.eventsRegister().build();
+        EventV1Service service = service(dynamoDb);
+        register(service, 50);
+        EventExporter exporter = exporter(dynamoDb, service, 10);
+        // about two pages of 10 registrations
+        exporter.maxPartBytes = 1500;
+        long queries = dynamoDb.calls("query");
+
+        StringBuilder csv = new StringBuilder();
+        List<String> columns = EventExporter.columns("email,names");
+        int parts = 0;
+        String cursor = null;
+        do {
+            EventExporter.Part part = exporter.export(EVENT, EventExporter.Format.CSV, columns, false, cursor)
+                    .await().atMost(Duration.ofSeconds(10));
+            assertTrue(part.body.length < exporter.maxPartBytes + 1000, "part of " + part.body.length + " bytes");
+            csv.append(text(part));
+            cursor = part.nextCursor;
+            parts++;
+        } while (cursor != null);
+
+        String[] lines = csv.toString().split("\r\n");
+        assertEquals(51, lines.length);
+        assertEquals("email,names", lines[0]);
+        assertEquals(email(49) + ",\"Driver 49; Ana \"\"Nita\"\" Silva; Rui\"", lines[50]);
+        assertTrue(parts > 1);
+        // no page is read twice, or read and left out of a part
+        assertEquals(6, dynamoDb.calls("query") - queries);
+    }
+
+    @Test
+    void testEndsPartsWhenTheirTimeIsUp() {
+        InMemoryDynamoDbAsyncClient dynamoDb = InMemoryDynamoDbAsyncClient.eventsRegister().build();
+        EventV1Service service = service(dynamoDb);
+        register(service, 25);
+        EventExporter exporter = exporter(dynamoDb, service, 10);
+        exporter.partDuration = Duration.ZERO;
+
+        List<String> columns = EventExporter.columns("email");
+        int lines = 0;
+        int parts = 0;
+        String cursor = null;
+        do {
+            EventExporter.Part part = exporter.export(EVENT, EventExporter.Format.NDJSON, columns, false, cursor)
+                    .await().atMost(Duration.ofSeconds(10));
+            lines += (int) text(part).lines().count();
+            cursor = part.nextCursor;
+            parts++;
+        } while (cursor != null);
+
+        // a page of 10 per part, well under the size limit
+        assertEquals(25, lines);
+        assertTrue(parts >= 3);
+    }
+
+    @Test
+    void testRejectsUnknownFieldsAndInvalidCursors() {
+        assertThrows(BadRequestException.class, () -> EventExporter.columns("email,rawWebhook"));
+        assertEquals(List.of("email", "paid"), EventExporter.columns(" email, paid,email"));
+        InMemoryDynamoDbAsyncClient dynamoDb = InMemoryDynamoDbAsyncClient.eventsRegister().build();
+        EventExporter exporter = exporter(dynamoDb, service(dynamoDb), 10);
+        assertThrows(BadRequestException.class, () -> exporter.export(EVENT, EventExporter.Format.CSV, List.of("email"), false, "%%%"));
+    }
+
+    private static String text(EventExporter.Part part) {
+        return new String(part.body, StandardCharsets.UTF_8);
+    }
+
+    private static EventExporter exporter(InMemoryDynamoDbAsyncClient dynamoDb, EventV1Service service, int pageSize) {
+        EventExporter exporter = new EventExporter(DynamoDbEnhancedAsyncClient.builder().dynamoDbClient(dynamoDb).build());
+        exporter.objectMapper = service.objectMapper;
+        exporter.bulkReader = new BulkReader(dynamoDb, 1, 1000, pageSize);
+        exporter.eventV1Service = service;
+        return exporter;
+    }
+
+    private static void register(EventV1Service service, int registrations) {
+        EventsRegisterFixtures.register(service, EVENT, "export", registrations, "Ana \"Nita\" Silva", "Rui");
+    }
+
+    private static String email(int i) {
+        return EventsRegisterFixtures.email("export", i);
+    }
+}
@@ -0,0 +1,232 @@
+package org.jlopezinc;
+
+import io.smallrye.mutiny.Uni;
+import jakarta.ws.rs.core.NoContentException;
+import org.jlopezinc.model.CountersModel;
+import org.jlopezinc.model.PaymentInfo;
+import org.jlopezinc.model.UserMetadataModel;
+import org.jlopezinc.model.UserModel;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Registrations, payments and gate scans racing each other against {@link InMemoryDynamoDbAsyncClient},
+ * through the same service code and enhanced client as production.
+ *
+ * Every write is conditioned on the registration it was computed from, so whatever the interleaving
+ * the incremental counters must match a full recount.
+ */
+class EventV1ServiceConcurrencyTest {
+
+    private static final String EVENT = "load-event";
+    private static final int REGISTRATIONS = 120;
+    private static final String[] VEHICLE_TYPES = {"Jipe", "Mota", "Quad"};
+
+    private ExecutorService executor;
+    private InMemoryDynamoDbAsyncClient dynamoDb;
+    private EventV1Service service;
+    private ReconcileJobRunner reconcileJobRunner;
+
+    @BeforeEach
+    void setUp() {
+        executor = Executors.newFixedThreadPool(16);
+        dynamoDb = InMemoryDynamoDbAsyncClient.eventsRegister()
+                .latency(Duration.ofMillis(1), Duration.ofMillis(4))
+                .executor(executor)
+                .build();
+        service = EventsRegisterFixtures.service(dynamoDb);
+        reconcileJobRunner = new ReconcileJobRunner();
+        reconcileJobRunner.reconcileJobs = new ReconcileJobs(dynamoDb);
+        reconcileJobRunner.eventV1Service = service;
+        reconcileJobRunner.counterService = service.counterService;
+        reconcileJobRunner.objectMapper = service.objectMapper;
+        reconcileJobRunner.sliceDuration = Duration.ofSeconds(10);
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        executor.shutdownNow();
+        executor.awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void testConcurrentWritesKeepCountersExact() {
+        List<Uni<Void>> registrations = new ArrayList<>();
+        for (int i = 0; i < REGISTRATIONS; i++) {
+            registrations.add(service.register(EVENT, webhook(i, VEHICLE_TYPES[i % 3], i % 4)));
+        }
+        Uni.join().all(registrations).andFailFast().await().atMost(Duration.ofSeconds(30));
+
+        // half of the registrations are re-submitted while they are being paid
+        List<Uni<Void>> updates = new ArrayList<>();
+        for (int i = 0; i < REGISTRATIONS; i++) {
+            PaymentInfo paymentInfo = new PaymentInfo();
+            paymentInfo.setAmount(new BigDecimal("25.0"));
+            paymentInfo.setByWho("admin@example.com");
+            updates.add(service.updatePaymentInfo(EVENT, email(i), paymentInfo));
+            if (i % 2 == 0) {
+                updates.add(service.register(EVENT, webhook(i, VEHICLE_TYPES[(i + 1) % 3], (i + 1) % 4)));
+            }
+        }
+        Uni.join().all(updates).andFailFast().await().atMost(Duration.ofSeconds(30));
+
+        // and every registration is scanned by two gates at once
+        AtomicInteger checkedIn = new AtomicInteger();
+        AtomicInteger alreadyCheckedIn = new AtomicInteger();
+        List<Uni<Void>> checkIns = new ArrayList<>();
+        for (int i = 0; i < REGISTRATIONS; i++) {
+            for (String gate : List.of("gate-1", "gate-2")) {
+                checkIns.add(service.checkInByEventAndEmail(EVENT, email(i), gate)
+                        .onItem().invoke(checkedInUser -> checkedIn.incrementAndGet())
+                        .onFailure(NoContentException.class).recoverWithItem(e -> {
+                            alreadyCheckedIn.incrementAndGet();
+                            return null;
+                        })
+                        .replaceWithVoid());
+            }
+        }
+        Uni.join().all(checkIns).andFailFast().await().atMost(Duration.ofSeconds(30));
+
+        assertEquals(REGISTRATIONS, checkedIn.get());
+        assertEquals(REGISTRATIONS, alreadyCheckedIn.get());
+        for (int i = 0; i < REGISTRATIONS; i++) {
+            UserModel user = service.getByEventAndEmail(EVENT, email(i)).await().indefinitely();
+            assertTrue(user.isCheckedIn(), email(i));
+        }
+
+        CountersModel incremental = service.getCountersByEvent(EVENT).await().indefinitely();
+        assertEquals(REGISTRATIONS, incremental.getTotal());
+        assertEquals(REGISTRATIONS, incremental.getCheckedInCar() + incremental.getCheckedInMotorcycle() + incremental.getCheckedInQuad());
+        assertEquals(0, incremental.getParticipantsNotCheckedIn());
+
+        CountersModel recounted = reconcileJobRunner.reconcile(EVENT).await().indefinitely().getAfter();
+        assertEquals(recounted, incremental);
+        assertTrue(dynamoDb.calls("transactWriteItems") >= 3 * REGISTRATIONS + REGISTRATIONS / 2);
+    }
+
+    @Test
+    void testNewRegistrationIsOneWriteAndDuplicatesAreCountedOnce() {
+        service.register(EVENT, webhook(0, "Jipe", 1)).await().atMost(Duration.ofSeconds(5));
+        // written without reading the registration first
+        assertEquals(0, dynamoDb.calls("getItem"));
+        assertEquals(1, dynamoDb.calls("transactWriteItems"));
+
+        // the same new e-mail delivered by several webhooks at once
+        List<Uni<Void>> duplicates = new ArrayList<>();
+        for (int guests = 0; guests < 4; guests++) {
+            duplicates.add(service.register(EVENT, webhook(1, VEHICLE_TYPES[guests % 3], guests)));
+        }
+        Uni.join().all(duplicates).andFailFast().await().atMost(Duration.ofSeconds(30));
+
+        CountersModel incremental = service.getCountersByEvent(EVENT).await().indefinitely();
+        assertEquals(2, incremental.getTotal());
+        assertEquals(reconcileJobRunner.reconcile(EVENT).await().indefinitely().getAfter(), incremental);
+        // the ones that lost the race were merged into the stored registration
+        assertTrue(dynamoDb.calls("getItem") >= 3);
+    }
+
+    @Test
+    void testCheckInReadsOnlyWhatItWritesFrom() {
+        service.register(EVENT, webhook(0, "Mota", 2)).await().atMost(Duration.ofSeconds(5));
+        UserFields gate = UserFields.parse(null, "gate");
+
+        // one projected read and one transaction
+        UserModel checkedIn = service.checkInByEventAndEmail(EVENT, email(0), "gate-1", gate).await().atMost(Duration.ofSeconds(5));
+        assertTrue(checkedIn.isCheckedIn());
+        assertEquals("Driver 0", checkedIn.getMetadata().getPeople().get(0).getName());
+        assertEquals(1, dynamoDb.calls("getItem"));
+        assertEquals(1, dynamoDb.calls("transactWriteItems") - 1);
+
+        NoContentException already = assertThrows(NoContentException.class,
+                () -> service.checkInByEventAndEmail(EVENT, email(0), "gate-2", gate).await().atMost(Duration.ofSeconds(5)));
+        assertEquals("Already checked in", already.getMessage());
+        assertThrows(NoContentException.class,
+                () -> service.checkInByEventAndEmail(EVENT, "nobody@example.com", "gate-1", gate).await().atMost(Duration.ofSeconds(5)));
+        assertEquals(1, dynamoDb.calls("transactWriteItems") - 1);
+
+        PaymentInfo paymentInfo = new PaymentInfo();
+        paymentInfo.setAmount(new BigDecimal("25.0"));
+        paymentInfo.setByWho("admin@example.com");
+        EventsRegisterFixtures.service(dynamoDb).updatePaymentInfo(EVENT, email(0), paymentInfo).await().atMost(Duration.ofSeconds(5));
+        assertFalse(service.cancelCheckInByEventAndEmail(EVENT, email(0), "gate-1", gate).await().atMost(Duration.ofSeconds(5)).isCheckedIn());
+        service.checkInByEventAndEmail(EVENT, email(0), "gate-1", gate).await().atMost(Duration.ofSeconds(5));
+
+        CountersModel incremental = service.getCountersByEvent(EVENT).await().indefinitely();
+        assertEquals(1, incremental.getCheckedInMotorcycle());
+        assertEquals(3, incremental.getParticipantsCheckedIn());
+        assertEquals(reconcileJobRunner.reconcile(EVENT).await().indefinitely().getAfter(), incremental);
+    }
+
+    @Test
+    void testConcurrentPaymentAndMetadataEditsAreBothKept() {
+        int users = 20;
+        List<Uni<Void>> registrations = new ArrayList<>();
+        for (int i = 0; i < users; i++) {
+            registrations.add(service.register(EVENT, webhook(i, VEHICLE_TYPES[i % 3], 1)));
+        }
+        Uni.join().all(registrations).andFailFast().await().atMost(Duration.ofSeconds(30));
+
+        // a comment only changes the metadata, which the counters know nothing about
+        List<Uni<Void>> updates = new ArrayList<>();
+        for (int i = 0; i < users; i++) {
+            PaymentInfo paymentInfo = new PaymentInfo();
+            paymentInfo.setAmount(new BigDecimal("25.0"));
+            paymentInfo.setByWho("admin@example.com");
+            UserModel comment = new UserModel();
+            // the edit form sends the paid flag as it was shown
+            comment.setPaid(true);
+            comment.setMetadata(new UserMetadataModel());
+            comment.getMetadata().setComment("Arrives late");
+            updates.add(service.updatePaymentInfo(EVENT, email(i), paymentInfo));
+            updates.add(service.updateUserMetadata(EVENT, email(i), comment).replaceWithVoid());
+        }
+        Uni.join().all(updates).andFailFast().await().atMost(Duration.ofSeconds(30));
+
+        for (int i = 0; i < users; i++) {
+            UserModel user = service.getByEventAndEmail(EVENT, email(i)).await().indefinitely();
+            assertTrue(user.isPaid(), email(i));
+            assertNotNull(user.getMetadata().getPaymentInfo(), email(i));
+            assertEquals("Arrives late", user.getMetadata().getComment(), email(i));
+        }
+    }
+
+    private static String email(int i) {
+        return "user" + i + "@example.com";
+    }
+
+    private static String webhook(int i, String vehicleType, int guests) {
+        List<String> names = new ArrayList<>();
+        List<String> ccs = new ArrayList<>();
+        for (int guest = 0; guest < guests; guest++) {
+            names.add("Guest " + guest);
+            ccs.add(Integer.toString(1000 + guest));
+        }
+        return "{\n" +
+                "    \"created_at\": \"1698171807321\",\n" +
+                "    \"submittedAt\": \"1698171313407\",\n" +
+                "    \"driverName\": \"Driver " + i + "\",\n" +
+                "    \"driverCc\": \"" + (12800000 + i) + "\",\n" +
+                "    \"phoneNumber\": \"91" + String.format("%07d", i) + "\",\n" +
+                "    \"vehicleType\": \"" + vehicleType + "\",\n" +
+                "    \"vehiclePlate\": \"12-AB-" + i + "\",\n" +
+                "    \"vehicleBrand\": \"land rover\",\n" +
+                "    \"guestsNumber\": \"" + guests + "\",\n" +
+                "    \"guestsNames\": \"" + String.join("<BR/>", names) + "\",\n" +
+                "    \"guestsCc\": \"" + String.join("<BR/>", ccs) + "\",\n" +
+                "    \"accept\": \"Sim\",\n" +
+                "    \"email\": \"" + email(i) + "\"\n" +
+                "}";
+    }
+}
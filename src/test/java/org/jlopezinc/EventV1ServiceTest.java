@@ -38,8 +38,10 @@ class EventV1ServiceTest {
 
         ObjectMapper objectMapper = new ObjectMapper();
         objectMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
-        UserModelDB userModelDB = new EventV1Service(null).transformWebHook("ttamigosnatal2023", raw, objectMapper);
-        UserMetadataModel userMetadataModel = objectMapper.readValue(userModelDB.getMetadata(), UserMetadataModel.class);
+        EventV1Service service = new EventV1Service(null);
+        service.objectMapper = objectMapper;
+        UserModelDB userModelDB = service.transformWebHook("ttamigosnatal2023", raw, objectMapper);
+        UserMetadataModel userMetadataModel = EventV1Service.readMetadata(objectMapper, userModelDB);
         Assertions.assertEquals(3, userMetadataModel.getPeople().size());
         Assertions.assertEquals("128085", userMetadataModel.getPeople().get(1).getCc());
         Assertions.assertEquals("656465465", userMetadataModel.getPeople().get(2).getCc());
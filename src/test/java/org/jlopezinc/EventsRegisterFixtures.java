@@ -0,0 +1,81 @@
+package org.jlopezinc;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import io.smallrye.mutiny.Uni;
+import software.amazon.awssdk.enhanced.dynamodb.DynamoDbEnhancedAsyncClient;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * An {@link EventV1Service} wired over an {@link InMemoryDynamoDbAsyncClient} the way Quarkus wires
+ * it, and registrations to fill an event with.
+ */
+final class EventsRegisterFixtures {
+
+    private EventsRegisterFixtures() {
+    }
+
+    /**
+     * Same settings as the Quarkus-managed mapper.
+     */
+    static ObjectMapper objectMapper() {
+        return new ObjectMapper()
+                .registerModule(new JavaTimeModule())
+                .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+                .configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false);
+    }
+
+    static EventV1Service service(InMemoryDynamoDbAsyncClient dynamoDb) {
+        return service(dynamoDb, new WebhookArchive(dynamoDb, Optional.empty()));
+    }
+
+    static EventV1Service service(InMemoryDynamoDbAsyncClient dynamoDb, WebhookArchive webhookArchive) {
+        DynamoDbEnhancedAsyncClient enhancedClient = DynamoDbEnhancedAsyncClient.builder().dynamoDbClient(dynamoDb).build();
+        EventV1Service service = new EventV1Service(enhancedClient);
+        service.objectMapper = objectMapper();
+        service.dynamoDbAsyncClient = dynamoDb;
+        service.counterService = new CounterService(dynamoDb);
+        service.changeHistoryService = new ChangeHistoryService(enhancedClient);
+        service.emailOutbox = new EmailOutbox(dynamoDb);
+        service.webhookArchive = webhookArchive;
+        service.bulkReader = new BulkReader(dynamoDb, 1, 1000, BulkReader.DEFAULT_PAGE_SIZE);
+        return service;
+    }
+
+    /**
+     * Zero-padded, so registrations sort (by e-mail) in the order they were made.
+     */
+    static String email(String prefix, int i) {
+        return String.format("%s%02d@example.com", prefix, i);
+    }
+
+    /**
+     * The webhook of registration {@code i}: driver {@code Driver <i>} in a Jipe with plate
+     * {@code AA-00-<i>}, and the guests named.
+     */
+    static String webhook(String email, int i, String... guests) {
+        return "{\"driverName\":\"Driver " + i + "\",\"driverCc\":\"" + i + "\","
+                + "\"phoneNumber\":\"91" + String.format("%07d", i) + "\",\"vehicleType\":\"Jipe\","
+                + "\"guestsNumber\":\"" + guests.length + "\","
+                + "\"guestsNames\":\"" + String.join("<BR/>", guests).replace("\"", "\\\"") + "\","
+                + "\"vehiclePlate\":\"AA-00-" + String.format("%02d", i) + "\","
+                + "\"email\":\"" + email + "\"}";
+    }
+
+    /**
+     * Registers {@code registrations} drivers, {@code prefix}00@example.com and up, all at once.
+     */
+    static void register(EventV1Service service, String event, String prefix, int registrations, String... guests) {
+        List<Uni<Void>> writes = new ArrayList<>();
+        for (int i = 0; i < registrations; i++) {
+            writes.add(service.register(event, webhook(email(prefix, i), i, guests)));
+        }
+        Uni.join().all(writes).andFailFast().await().atMost(Duration.ofSeconds(30));
+    }
+}
@@ -0,0 +1,830 @@
+package org.jlopezinc;
+
+import org.jlopezinc.dynamodb.UserModelDB;
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.BatchGetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchGetItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.CancellationReason;
+import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
+import software.amazon.awssdk.services.dynamodb.model.ConsumedCapacity;
+import software.amazon.awssdk.services.dynamodb.model.DeleteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.DeleteItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.DynamoDbException;
+import software.amazon.awssdk.services.dynamodb.model.GetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.GetItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.KeysAndAttributes;
+import software.amazon.awssdk.services.dynamodb.model.ProvisionedThroughputExceededException;
+import software.amazon.awssdk.services.dynamodb.model.PutItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.PutItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.QueryRequest;
+import software.amazon.awssdk.services.dynamodb.model.QueryResponse;
+import software.amazon.awssdk.services.dynamodb.model.ResourceNotFoundException;
+import software.amazon.awssdk.services.dynamodb.model.ReturnConsumedCapacity;
+import software.amazon.awssdk.services.dynamodb.model.ReturnValue;
+import software.amazon.awssdk.services.dynamodb.model.ReturnValuesOnConditionCheckFailure;
+import software.amazon.awssdk.services.dynamodb.model.ScanRequest;
+import software.amazon.awssdk.services.dynamodb.model.ScanResponse;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItem;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItemsRequest;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItemsResponse;
+import software.amazon.awssdk.services.dynamodb.model.TransactionCanceledException;
+import software.amazon.awssdk.services.dynamodb.model.UpdateItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.UpdateItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.WriteRequest;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * In-process stand-in for DynamoDB, for hermetic service-level tests, load tests and benchmarks.
+ *
+ * It implements the low-level {@link DynamoDbAsyncClient} operations the service uses (get, put,
+ * update, delete, query and scan with filters, projections and paging, batch get/write and
+ * transactional writes, all with condition expressions), so a {@code DynamoDbEnhancedAsyncClient}
+ * built on top of it works unchanged. Each request is applied atomically; queries are paged at 1 MB
+ * like the real service.
+ *
+ * Latency (a base delay plus random jitter) is added to every request without blocking a thread.
+ * Throttling can be injected randomly ({@link Builder#throttleProbability}) or by provisioned
+ * capacity ({@link Builder#readCapacity}/{@link Builder#writeCapacity}, one second of burst);
+ * throttled requests fail with {@link ProvisionedThroughputExceededException} before being applied.
+ * Consumed capacity is reported when the request asks for it.
+ *
+ * There are no SDK retries: throttles and condition failures reach the caller directly.
+ */
+class InMemoryDynamoDbAsyncClient implements DynamoDbAsyncClient {
+
+    private static final int PAGE_SIZE_LIMIT = 1024 * 1024;
+    private static final int MAX_TRANSACTION_ITEMS = 100;
+
+    private final Map<String, Table> tables;
+    private final Executor executor;
+    private final Duration latency;
+    private final Duration jitter;
+    private final double throttleProbability;
+    private final TokenBucket readCapacity;
+    private final TokenBucket writeCapacity;
+    private final Map<String, AtomicInteger> calls = new ConcurrentHashMap<>();
+    private final AtomicInteger throttled = new AtomicInteger();
+
+    private InMemoryDynamoDbAsyncClient(Builder builder) {
+        this.tables = builder.tables;
+        this.executor = builder.executor;
+        this.latency = builder.latency;
+        this.jitter = builder.jitter;
+        this.throttleProbability = builder.throttleProbability;
+        this.readCapacity = builder.readCapacity > 0 ? new TokenBucket(builder.readCapacity) : null;
+        this.writeCapacity = builder.writeCapacity > 0 ? new TokenBucket(builder.writeCapacity) : null;
+    }
+
+    static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * A builder with the {@code eventsRegister} table and its indexes, as in {@code eventsRegister_cf_template.json}.
+     */
+    static Builder eventsRegister() {
+        return builder()
+                .table(EventV1Service.EVENTS_TABLE, UserModelDB.PARTITION_KEY, UserModelDB.SORT_KEY)
+                .globalSecondaryIndex(EventV1Service.EVENTS_TABLE, "byEmail", UserModelDB.SORT_KEY, UserModelDB.PARTITION_KEY)
+                .globalSecondaryIndex(EventV1Service.EVENTS_TABLE, UserModelDB.BY_PHONE_INDEX, UserModelDB.PARTITION_KEY, UserModelDB.PHONE_NORMALIZED)
+                .globalSecondaryIndex(EventV1Service.EVENTS_TABLE, UserModelDB.BY_ROSTER_VERSION_INDEX, UserModelDB.PARTITION_KEY, UserModelDB.ROSTER_VERSION)
+                .globalSecondaryIndex(EventV1Service.EVENTS_TABLE, EmailOutbox.BY_DUE_INDEX, UserModelDB.PARTITION_KEY, EmailOutbox.DUE);
+    }
+
+    static class Builder {
+        private final Map<String, Table> tables = new HashMap<>();
+        private Executor executor = ForkJoinPool.commonPool();
+        private Duration latency = Duration.ZERO;
+        private Duration jitter = Duration.ZERO;
+        private double throttleProbability;
+        private double readCapacity;
+        private double writeCapacity;
+
+        Builder table(String name, String partitionKey, String sortKey) {
+            tables.put(name, new Table(name, partitionKey, sortKey));
+            return this;
+        }
+
+        Builder globalSecondaryIndex(String table, String name, String partitionKey, String sortKey) {
+            tables.get(table).indexes.put(name, new Index(partitionKey, sortKey));
+            return this;
+        }
+
+        /**
+         * Every request completes after {@code latency} plus a random delay of up to {@code jitter}.
+         */
+        Builder latency(Duration latency, Duration jitter) {
+            this.latency = latency;
+            this.jitter = jitter;
+            return this;
+        }
+
+        /**
+         * Fraction of requests (0 to 1) rejected with {@link ProvisionedThroughputExceededException}.
+         */
+        Builder throttleProbability(double throttleProbability) {
+            this.throttleProbability = throttleProbability;
+            return this;
+        }
+
+        /**
+         * Read capacity units per second; requests beyond it are throttled. 0 (default) is unlimited.
+         */
+        Builder readCapacity(double unitsPerSecond) {
+            this.readCapacity = unitsPerSecond;
+            return this;
+        }
+
+        /**
+         * Write capacity units per second; requests beyond it are throttled. 0 (default) is unlimited.
+         */
+        Builder writeCapacity(double unitsPerSecond) {
+            this.writeCapacity = unitsPerSecond;
+            return this;
+        }
+
+        Builder executor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        InMemoryDynamoDbAsyncClient build() {
+            return new InMemoryDynamoDbAsyncClient(this);
+        }
+    }
+
+    /**
+     * Number of requests of an operation so far, e.g. {@code "transactWriteItems"}.
+     */
+    int calls(String operation) {
+        AtomicInteger count = calls.get(operation);
+        return count == null ? 0 : count.get();
+    }
+
+    int throttled() {
+        return throttled.get();
+    }
+
+    /**
+     * A copy of a stored item, or null.
+     */
+    Map<String, AttributeValue> item(String table, String partitionKey, String sortKey) {
+        synchronized (this) {
+            Table stored = table(table);
+            Map<String, AttributeValue> item = stored.get(key(stored, partitionKey, sortKey));
+            return item == null ? null : new HashMap<>(item);
+        }
+    }
+
+    int size(String table) {
+        synchronized (this) {
+            return table(table).partitions.values().stream().mapToInt(Map::size).sum();
+        }
+    }
+
+    @Override
+    public CompletableFuture<GetItemResponse> getItem(GetItemRequest request) {
+        return execute("getItem", () -> {
+            Table table = table(request.tableName());
+            Map<String, AttributeValue> item = table.get(request.key());
+            double units = readUnits(item == null ? 0 : DynamoDbExpressions.size(item), Boolean.TRUE.equals(request.consistentRead()));
+            consumeRead(units);
+            GetItemResponse.Builder response = GetItemResponse.builder()
+                    .consumedCapacity(capacity(request.returnConsumedCapacity(), table.name, units));
+            if (item != null) {
+                response.item(DynamoDbExpressions.project(request.projectionExpression(), request.expressionAttributeNames(), item));
+            }
+            return response.build();
+        });
+    }
+
+    @Override
+    public CompletableFuture<PutItemResponse> putItem(PutItemRequest request) {
+        return execute("putItem", () -> {
+            Table table = table(request.tableName());
+            Map<String, AttributeValue> key = table.keyOf(request.item());
+            Map<String, AttributeValue> existing = table.get(key);
+            double units = writeUnits(existing, request.item());
+            consumeWrite(units);
+            checkCondition(request.conditionExpression(), request.expressionAttributeNames(), request.expressionAttributeValues(),
+                    existing, request.returnValuesOnConditionCheckFailure());
+            table.put(new HashMap<>(request.item()));
+            PutItemResponse.Builder response = PutItemResponse.builder()
+                    .consumedCapacity(capacity(request.returnConsumedCapacity(), table.name, units));
+            if (request.returnValues() == ReturnValue.ALL_OLD && existing != null) {
+                response.attributes(existing);
+            }
+            return response.build();
+        });
+    }
+
+    @Override
+    public CompletableFuture<UpdateItemResponse> updateItem(UpdateItemRequest request) {
+        return execute("updateItem", () -> {
+            Table table = table(request.tableName());
+            Map<String, AttributeValue> existing = table.get(request.key());
+            checkCondition(request.conditionExpression(), request.expressionAttributeNames(), request.expressionAttributeValues(),
+                    existing, request.returnValuesOnConditionCheckFailure());
+            Map<String, AttributeValue> updated = updated(table, request.key(), existing, request.updateExpression(),
+                    request.expressionAttributeNames(), request.expressionAttributeValues());
+            double units = writeUnits(existing, updated);
+            consumeWrite(units);
+            table.put(updated);
+            UpdateItemResponse.Builder response = UpdateItemResponse.builder()
+                    .consumedCapacity(capacity(request.returnConsumedCapacity(), table.name, units));
+            ReturnValue returnValue = request.returnValues();
+            if (returnValue == ReturnValue.ALL_NEW || returnValue == ReturnValue.UPDATED_NEW) {
+                response.attributes(new HashMap<>(updated));
+            } else if ((returnValue == ReturnValue.ALL_OLD || returnValue == ReturnValue.UPDATED_OLD) && existing != null) {
+                response.attributes(existing);
+            }
+            return response.build();
+        });
+    }
+
+    @Override
+    public CompletableFuture<DeleteItemResponse> deleteItem(DeleteItemRequest request) {
+        return execute("deleteItem", () -> {
+            Table table = table(request.tableName());
+            Map<String, AttributeValue> existing = table.get(request.key());
+            double units = writeUnits(existing, null);
+            consumeWrite(units);
+            checkCondition(request.conditionExpression(), request.expressionAttributeNames(), request.expressionAttributeValues(),
+                    existing, request.returnValuesOnConditionCheckFailure());
+            table.remove(request.key());
+            DeleteItemResponse.Builder response = DeleteItemResponse.builder()
+                    .consumedCapacity(capacity(request.returnConsumedCapacity(), table.name, units));
+            if (request.returnValues() == ReturnValue.ALL_OLD && existing != null) {
+                response.attributes(existing);
+            }
+            return response.build();
+        });
+    }
+
+    @Override
+    public CompletableFuture<QueryResponse> query(QueryRequest request) {
+        return execute("query", () -> {
+            Table table = table(request.tableName());
+            Index index = request.indexName() == null ? table.primary : table.indexes.get(request.indexName());
+            if (index == null) {
+                throw validation("The table does not have the specified index: " + request.indexName());
+            }
+            AttributeValue partition = DynamoDbExpressions.equalityValue(request.keyConditionExpression(),
+                    request.expressionAttributeNames(), request.expressionAttributeValues(), index.partitionKey);
+            List<Map<String, AttributeValue>> candidates = index == table.primary
+                    ? new ArrayList<>(table.partition(partition).values())
+                    : table.indexPartition(index, partition);
+            Comparator<Map<String, AttributeValue>> order = table.order(index);
+            if (Boolean.FALSE.equals(request.scanIndexForward())) {
+                Collections.reverse(candidates);
+                order = order.reversed();
+            }
+            Page page = page(candidates, order, request.exclusiveStartKey(), request.limit(),
+                    item -> DynamoDbExpressions.holds(request.keyConditionExpression(), request.expressionAttributeNames(),
+                            request.expressionAttributeValues(), item),
+                    request.filterExpression(), request.expressionAttributeNames(), request.expressionAttributeValues(),
+                    request.projectionExpression(), table, index);
+            double units = readUnits(page.evaluatedBytes, Boolean.TRUE.equals(request.consistentRead()));
+            consumeRead(units);
+            return QueryResponse.builder()
+                    .items(page.items)
+                    .count(page.items.size())
+                    .scannedCount(page.scanned)
+                    .lastEvaluatedKey(page.lastEvaluatedKey)
+                    .consumedCapacity(capacity(request.returnConsumedCapacity(), table.name, units))
+                    .build();
+        });
+    }
+
+    @Override
+    public CompletableFuture<ScanResponse> scan(ScanRequest request) {
+        return execute("scan", () -> {
+            Table table = table(request.tableName());
+            Index index = request.indexName() == null ? table.primary : table.indexes.get(request.indexName());
+            List<Map<String, AttributeValue>> candidates = new ArrayList<>();
+            table.partitions.values().forEach(partition -> partition.values().stream()
+                    .filter(item -> item.containsKey(index.partitionKey) && (index.sortKey == null || item.containsKey(index.sortKey)))
+                    .forEach(candidates::add));
+            Comparator<Map<String, AttributeValue>> order = Comparator
+                    .<Map<String, AttributeValue>, String>comparing(item -> item.get(index.partitionKey).toString())
+                    .thenComparing(table.order(index));
+            candidates.sort(order);
+            if (request.totalSegments() != null) {
+                candidates.removeIf(item -> Math.floorMod(item.get(table.primary.partitionKey).hashCode(), request.totalSegments())
+                        != request.segment());
+            }
+            Page page = page(candidates, order, request.exclusiveStartKey(), request.limit(), item -> true,
+                    request.filterExpression(), request.expressionAttributeNames(), request.expressionAttributeValues(),
+                    request.projectionExpression(), table, index);
+            double units = readUnits(page.evaluatedBytes, Boolean.TRUE.equals(request.consistentRead()));
+            consumeRead(units);
+            return ScanResponse.builder()
+                    .items(page.items)
+                    .count(page.items.size())
+                    .scannedCount(page.scanned)
+                    .lastEvaluatedKey(page.lastEvaluatedKey)
+                    .consumedCapacity(capacity(request.returnConsumedCapacity(), table.name, units))
+                    .build();
+        });
+    }
+
+    @Override
+    public CompletableFuture<BatchGetItemResponse> batchGetItem(BatchGetItemRequest request) {
+        return execute("batchGetItem", () -> {
+            int keys = request.requestItems().values().stream().mapToInt(k -> k.keys().size()).sum();
+            if (keys > 100) {
+                throw validation("Too many items requested for the BatchGetItem call");
+            }
+            Map<String, List<Map<String, AttributeValue>>> responses = new HashMap<>();
+            List<ConsumedCapacity> consumed = new ArrayList<>();
+            double total = 0;
+            for (Map.Entry<String, KeysAndAttributes> entry : request.requestItems().entrySet()) {
+                Table table = table(entry.getKey());
+                KeysAndAttributes keysAndAttributes = entry.getValue();
+                List<Map<String, AttributeValue>> found = new ArrayList<>();
+                double units = 0;
+                for (Map<String, AttributeValue> key : keysAndAttributes.keys()) {
+                    Map<String, AttributeValue> item = table.get(key);
+                    units += readUnits(item == null ? 0 : DynamoDbExpressions.size(item), Boolean.TRUE.equals(keysAndAttributes.consistentRead()));
+                    if (item != null) {
+                        found.add(DynamoDbExpressions.project(keysAndAttributes.projectionExpression(),
+                                keysAndAttributes.expressionAttributeNames(), item));
+                    }
+                }
+                total += units;
+                responses.put(table.name, found);
+                ConsumedCapacity capacity = capacity(request.returnConsumedCapacity(), table.name, units);
+                if (capacity != null) {
+                    consumed.add(capacity);
+                }
+            }
+            consumeRead(total);
+            return BatchGetItemResponse.builder()
+                    .responses(responses)
+                    .unprocessedKeys(Map.of())
+                    .consumedCapacity(consumed.isEmpty() ? null : consumed)
+                    .build();
+        });
+    }
+
+    @Override
+    public CompletableFuture<BatchWriteItemResponse> batchWriteItem(BatchWriteItemRequest request) {
+        return execute("batchWriteItem", () -> {
+            int writes = request.requestItems().values().stream().mapToInt(List::size).sum();
+            if (writes > 25) {
+                throw validation("Too many items requested for the BatchWriteItem call");
+            }
+            double units = 0;
+            for (Map.Entry<String, List<WriteRequest>> entry : request.requestItems().entrySet()) {
+                Table table = table(entry.getKey());
+                for (WriteRequest write : entry.getValue()) {
+                    if (write.putRequest() != null) {
+                        units += writeUnits(table.get(table.keyOf(write.putRequest().item())), write.putRequest().item());
+                    } else {
+                        units += writeUnits(table.get(write.deleteRequest().key()), null);
+                    }
+                }
+            }
+            consumeWrite(units);
+            for (Map.Entry<String, List<WriteRequest>> entry : request.requestItems().entrySet()) {
+                Table table = table(entry.getKey());
+                for (WriteRequest write : entry.getValue()) {
+                    if (write.putRequest() != null) {
+                        table.put(new HashMap<>(write.putRequest().item()));
+                    } else {
+                        table.remove(write.deleteRequest().key());
+                    }
+                }
+            }
+            return BatchWriteItemResponse.builder().unprocessedItems(Map.of()).build();
+        });
+    }
+
+    @Override
+    public CompletableFuture<TransactWriteItemsResponse> transactWriteItems(TransactWriteItemsRequest request) {
+        return execute("transactWriteItems", () -> {
+            List<TransactWriteItem> items = request.transactItems();
+            if (items.size() > MAX_TRANSACTION_ITEMS) {
+                throw validation("Member must have length less than or equal to " + MAX_TRANSACTION_ITEMS);
+            }
+            Set<String> touched = new HashSet<>();
+            Set<String> tableNames = new HashSet<>();
+            List<CancellationReason> reasons = new ArrayList<>();
+            boolean cancelled = false;
+            double units = 0;
+            for (TransactWriteItem item : items) {
+                Operation operation = Operation.of(item);
+                Table table = table(operation.tableName);
+                tableNames.add(table.name);
+                Map<String, AttributeValue> key = operation.key(table);
+                if (!touched.add(table.name + "|" + table.primary.keyString(key))) {
+                    throw validation("Transaction request cannot include multiple operations on one item");
+                }
+                Map<String, AttributeValue> existing = table.get(key);
+                units += 2 * writeUnits(existing, operation.put);
+                boolean holds = DynamoDbExpressions.holds(operation.condition, operation.names, operation.values,
+                        existing == null ? Map.of() : existing);
+                CancellationReason.Builder reason = CancellationReason.builder().code(holds ? "None" : "ConditionalCheckFailed");
+                if (!holds && operation.returnOldItem && existing != null) {
+                    reason.item(existing);
+                }
+                reasons.add(reason.build());
+                cancelled |= !holds;
+            }
+            consumeWrite(units);
+            if (cancelled) {
+                throw TransactionCanceledException.builder()
+                        .message("Transaction cancelled, please refer cancellation reasons for specific reasons")
+                        .cancellationReasons(reasons)
+                        .build();
+            }
+            for (TransactWriteItem item : items) {
+                Operation operation = Operation.of(item);
+                Table table = table(operation.tableName);
+                Map<String, AttributeValue> key = operation.key(table);
+                if (item.put() != null) {
+                    table.put(new HashMap<>(item.put().item()));
+                } else if (item.update() != null) {
+                    table.put(updated(table, key, table.get(key), item.update().updateExpression(),
+                            item.update().expressionAttributeNames(), item.update().expressionAttributeValues()));
+                } else if (item.delete() != null) {
+                    table.remove(key);
+                }
+            }
+            ConsumedCapacity capacity = capacity(request.returnConsumedCapacity(), tableNames.iterator().next(), units);
+            return TransactWriteItemsResponse.builder()
+                    .consumedCapacity(capacity == null ? null : List.of(capacity))
+                    .build();
+        });
+    }
+
+    @Override
+    public String serviceName() {
+        return "dynamodb";
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private <T> CompletableFuture<T> execute(String operation, Supplier<T> request) {
+        calls.computeIfAbsent(operation, k -> new AtomicInteger()).incrementAndGet();
+        long delayNanos = latency.toNanos();
+        if (!jitter.isZero()) {
+            delayNanos += ThreadLocalRandom.current().nextLong(jitter.toNanos() + 1);
+        }
+        Executor delayed = delayNanos > 0 ? CompletableFuture.delayedExecutor(delayNanos, TimeUnit.NANOSECONDS, executor) : executor;
+        return CompletableFuture.supplyAsync(() -> {
+            if (throttleProbability > 0 && ThreadLocalRandom.current().nextDouble() < throttleProbability) {
+                throw throttle();
+            }
+            synchronized (this) {
+                return request.get();
+            }
+        }, delayed);
+    }
+
+    private void checkCondition(String condition, Map<String, String> names, Map<String, AttributeValue> values,
+                                Map<String, AttributeValue> existing, ReturnValuesOnConditionCheckFailure returnOnFailure) {
+        if (!DynamoDbExpressions.holds(condition, names, values, existing == null ? Map.of() : existing)) {
+            ConditionalCheckFailedException.Builder failure = ConditionalCheckFailedException.builder()
+                    .message("The conditional request failed");
+            if (returnOnFailure == ReturnValuesOnConditionCheckFailure.ALL_OLD && existing != null) {
+                failure.item(existing);
+            }
+            throw failure.build();
+        }
+    }
+
+    private Map<String, AttributeValue> updated(Table table, Map<String, AttributeValue> key, Map<String, AttributeValue> existing,
+                                                String expression, Map<String, String> names, Map<String, AttributeValue> values) {
+        Map<String, AttributeValue> updated = existing == null ? new HashMap<>(key) : new HashMap<>(existing);
+        if (expression != null) {
+            DynamoDbExpressions.update(expression, names, values, updated);
+        }
+        if (!table.primary.keyString(table.keyOf(updated)).equals(table.primary.keyString(key))) {
+            throw validation("Cannot update attribute " + table.primary.partitionKey + ". This attribute is part of the key");
+        }
+        return updated;
+    }
+
+    private Page page(List<Map<String, AttributeValue>> candidates, Comparator<Map<String, AttributeValue>> order,
+                      Map<String, AttributeValue> exclusiveStartKey, Integer limit,
+                      java.util.function.Predicate<Map<String, AttributeValue>> keyCondition,
+                      String filter, Map<String, String> names, Map<String, AttributeValue> values, String projection,
+                      Table table, Index index) {
+        Page page = new Page();
+        boolean started = exclusiveStartKey == null || exclusiveStartKey.isEmpty();
+        for (int i = 0; i < candidates.size(); i++) {
+            Map<String, AttributeValue> item = candidates.get(i);
+            if (!started) {
+                started = order.compare(item, exclusiveStartKey) > 0;
+                if (!started) {
+                    continue;
+                }
+            }
+            if (!keyCondition.test(item)) {
+                continue;
+            }
+            page.scanned++;
+            page.evaluatedBytes += DynamoDbExpressions.size(item);
+            if (DynamoDbExpressions.holds(filter, names, values, item)) {
+                page.items.add(DynamoDbExpressions.project(projection, names, item));
+            }
+            boolean limitReached = limit != null && page.scanned >= limit;
+            if (limitReached || page.evaluatedBytes >= PAGE_SIZE_LIMIT) {
+                if (limitReached || i + 1 < candidates.size()) {
+                    page.lastEvaluatedKey = table.lastEvaluatedKey(index, item);
+                }
+                break;
+            }
+        }
+        return page;
+    }
+
+    private Table table(String name) {
+        Table table = tables.get(name);
+        if (table == null) {
+            throw ResourceNotFoundException.builder().message("Requested resource not found: Table: " + name + " not found").build();
+        }
+        return table;
+    }
+
+    private static Map<String, AttributeValue> key(Table table, String partitionKey, String sortKey) {
+        Map<String, AttributeValue> key = new HashMap<>();
+        key.put(table.primary.partitionKey, AttributeValue.builder().s(partitionKey).build());
+        if (table.primary.sortKey != null) {
+            key.put(table.primary.sortKey, AttributeValue.builder().s(sortKey).build());
+        }
+        return key;
+    }
+
+    private static double readUnits(int bytes, boolean consistent) {
+        double units = Math.max(1, Math.ceil(bytes / 4096.0));
+        return consistent ? units : units / 2;
+    }
+
+    private static double writeUnits(Map<String, AttributeValue> before, Map<String, AttributeValue> after) {
+        int bytes = Math.max(before == null ? 0 : DynamoDbExpressions.size(before), after == null ? 0 : DynamoDbExpressions.size(after));
+        return Math.max(1, Math.ceil(bytes / 1024.0));
+    }
+
+    private void consumeRead(double units) {
+        if (readCapacity != null && !readCapacity.tryConsume(units)) {
+            throw throttle();
+        }
+    }
+
+    private void consumeWrite(double units) {
+        if (writeCapacity != null && !writeCapacity.tryConsume(units)) {
+            throw throttle();
+        }
+    }
+
+    private ProvisionedThroughputExceededException throttle() {
+        throttled.incrementAndGet();
+        return ProvisionedThroughputExceededException.builder()
+                .message("The level of configured provisioned throughput for the table was exceeded")
+                .statusCode(400)
+                .build();
+    }
+
+    private static ConsumedCapacity capacity(ReturnConsumedCapacity returnConsumedCapacity, String table, double units) {
+        if (returnConsumedCapacity == null || returnConsumedCapacity == ReturnConsumedCapacity.NONE) {
+            return null;
+        }
+        return ConsumedCapacity.builder().tableName(table).capacityUnits(units).build();
+    }
+
+    private static DynamoDbException validation(String message) {
+        return (DynamoDbException) DynamoDbException.builder()
+                .message(message)
+                .statusCode(400)
+                .awsErrorDetails(AwsErrorDetails.builder().errorCode("ValidationException").errorMessage(message).build())
+                .build();
+    }
+
+    private static final class Page {
+        private final List<Map<String, AttributeValue>> items = new ArrayList<>();
+        private int scanned;
+        private int evaluatedBytes;
+        private Map<String, AttributeValue> lastEvaluatedKey;
+    }
+
+    private static final class Index {
+        private final String partitionKey;
+        private final String sortKey;
+
+        Index(String partitionKey, String sortKey) {
+            this.partitionKey = partitionKey;
+            this.sortKey = sortKey;
+        }
+
+        String keyString(Map<String, AttributeValue> key) {
+            return key.get(partitionKey) + "|" + (sortKey == null ? "" : key.get(sortKey));
+        }
+    }
+
+    private static final class Table {
+        private final String name;
+        private final Index primary;
+        private final Map<String, Index> indexes = new HashMap<>();
+        // partition key value -> items ordered by sort key
+        private final Map<String, TreeMap<AttributeValue, Map<String, AttributeValue>>> partitions = new HashMap<>();
+
+        Table(String name, String partitionKey, String sortKey) {
+            this.name = name;
+            this.primary = new Index(partitionKey, sortKey);
+        }
+
+        Map<String, AttributeValue> keyOf(Map<String, AttributeValue> item) {
+            Map<String, AttributeValue> key = new HashMap<>();
+            AttributeValue partition = item.get(primary.partitionKey);
+            if (partition == null || (primary.sortKey != null && item.get(primary.sortKey) == null)) {
+                throw validation("One or more parameter values were invalid: Missing the key " + primary.partitionKey
+                        + (primary.sortKey == null ? "" : " or " + primary.sortKey) + " in the item");
+            }
+            key.put(primary.partitionKey, partition);
+            if (primary.sortKey != null) {
+                key.put(primary.sortKey, item.get(primary.sortKey));
+            }
+            return key;
+        }
+
+        TreeMap<AttributeValue, Map<String, AttributeValue>> partition(AttributeValue partitionKey) {
+            TreeMap<AttributeValue, Map<String, AttributeValue>> partition = partitions.get(partitionKey.toString());
+            return partition == null ? new TreeMap<>(Table::compareKeys) : partition;
+        }
+
+        Map<String, AttributeValue> get(Map<String, AttributeValue> key) {
+            Map<String, AttributeValue> normalized = keyOf(key);
+            TreeMap<AttributeValue, Map<String, AttributeValue>> partition = partitions.get(normalized.get(primary.partitionKey).toString());
+            if (partition == null) {
+                return null;
+            }
+            Map<String, AttributeValue> item = partition.get(sortValue(normalized));
+            return item == null ? null : new HashMap<>(item);
+        }
+
+        void put(Map<String, AttributeValue> item) {
+            Map<String, AttributeValue> key = keyOf(item);
+            partitions.computeIfAbsent(key.get(primary.partitionKey).toString(), k -> new TreeMap<>(Table::compareKeys))
+                    .put(sortValue(key), item);
+        }
+
+        void remove(Map<String, AttributeValue> key) {
+            Map<String, AttributeValue> normalized = keyOf(key);
+            TreeMap<AttributeValue, Map<String, AttributeValue>> partition = partitions.get(normalized.get(primary.partitionKey).toString());
+            if (partition != null) {
+                partition.remove(sortValue(normalized));
+            }
+        }
+
+        List<Map<String, AttributeValue>> indexPartition(Index index, AttributeValue partitionKey) {
+            List<Map<String, AttributeValue>> items = new ArrayList<>();
+            for (TreeMap<AttributeValue, Map<String, AttributeValue>> partition : partitions.values()) {
+                for (Map<String, AttributeValue> item : partition.values()) {
+                    if (DynamoDbExpressions.valueEquals(item.get(index.partitionKey), partitionKey)
+                            && (index.sortKey == null || item.containsKey(index.sortKey))) {
+                        items.add(item);
+                    }
+                }
+            }
+            items.sort(order(index));
+            return items;
+        }
+
+        /**
+         * Order of the items of one partition of {@code index}; GSI ties are broken by the table key.
+         */
+        Comparator<Map<String, AttributeValue>> order(Index index) {
+            Comparator<Map<String, AttributeValue>> bySortKey = (a, b) -> index.sortKey == null ? 0
+                    : compareKeys(a.get(index.sortKey), b.get(index.sortKey));
+            if (index == primary) {
+                return bySortKey;
+            }
+            return bySortKey
+                    .thenComparing((a, b) -> compareKeys(a.get(primary.partitionKey), b.get(primary.partitionKey)))
+                    .thenComparing((a, b) -> primary.sortKey == null ? 0 : compareKeys(a.get(primary.sortKey), b.get(primary.sortKey)));
+        }
+
+        Map<String, AttributeValue> lastEvaluatedKey(Index index, Map<String, AttributeValue> item) {
+            Map<String, AttributeValue> key = new HashMap<>(keyOf(item));
+            key.put(index.partitionKey, item.get(index.partitionKey));
+            if (index.sortKey != null) {
+                key.put(index.sortKey, item.get(index.sortKey));
+            }
+            return key;
+        }
+
+        private AttributeValue sortValue(Map<String, AttributeValue> key) {
+            return primary.sortKey == null ? AttributeValue.builder().s("").build() : key.get(primary.sortKey);
+        }
+
+        private static int compareKeys(AttributeValue a, AttributeValue b) {
+            if (a == null || b == null) {
+                return a == null ? (b == null ? 0 : -1) : 1;
+            }
+            Integer order = DynamoDbExpressions.compare(a, b);
+            return order != null ? order : a.toString().compareTo(b.toString());
+        }
+    }
+
+    /**
+     * The parts of a transaction item the client needs, whatever its kind.
+     */
+    private static final class Operation {
+        private String tableName;
+        private Map<String, AttributeValue> key;
+        private Map<String, AttributeValue> put;
+        private String condition;
+        private Map<String, String> names;
+        private Map<String, AttributeValue> values;
+        private boolean returnOldItem;
+
+        static Operation of(TransactWriteItem item) {
+            Operation operation = new Operation();
+            if (item.put() != null) {
+                operation.tableName = item.put().tableName();
+                operation.put = item.put().item();
+                operation.condition = item.put().conditionExpression();
+                operation.names = item.put().expressionAttributeNames();
+                operation.values = item.put().expressionAttributeValues();
+                operation.returnOldItem = item.put().returnValuesOnConditionCheckFailure() == ReturnValuesOnConditionCheckFailure.ALL_OLD;
+            } else if (item.update() != null) {
+                operation.tableName = item.update().tableName();
+                operation.key = item.update().key();
+                operation.condition = item.update().conditionExpression();
+                operation.names = item.update().expressionAttributeNames();
+                operation.values = item.update().expressionAttributeValues();
+                operation.returnOldItem = item.update().returnValuesOnConditionCheckFailure() == ReturnValuesOnConditionCheckFailure.ALL_OLD;
+            } else if (item.delete() != null) {
+                operation.tableName = item.delete().tableName();
+                operation.key = item.delete().key();
+                operation.condition = item.delete().conditionExpression();
+                operation.names = item.delete().expressionAttributeNames();
+                operation.values = item.delete().expressionAttributeValues();
+                operation.returnOldItem = item.delete().returnValuesOnConditionCheckFailure() == ReturnValuesOnConditionCheckFailure.ALL_OLD;
+            } else {
+                operation.tableName = item.conditionCheck().tableName();
+                operation.key = item.conditionCheck().key();
+                operation.condition = item.conditionCheck().conditionExpression();
+                operation.names = item.conditionCheck().expressionAttributeNames();
+                operation.values = item.conditionCheck().expressionAttributeValues();
+                operation.returnOldItem = item.conditionCheck().returnValuesOnConditionCheckFailure() == ReturnValuesOnConditionCheckFailure.ALL_OLD;
+            }
+            return operation;
+        }
+
+        Map<String, AttributeValue> key(Table table) {
+            return table.keyOf(put != null ? put : key);
+        }
+    }
+
+    /**
+     * Provisioned capacity: refills {@code unitsPerSecond} continuously, holding at most one second's worth.
+     */
+    private static final class TokenBucket {
+        private final double unitsPerSecond;
+        private double available;
+        private long refilledAt = System.nanoTime();
+
+        TokenBucket(double unitsPerSecond) {
+            this.unitsPerSecond = unitsPerSecond;
+            this.available = unitsPerSecond;
+        }
+
+        synchronized boolean tryConsume(double units) {
+            long now = System.nanoTime();
+            available = Math.min(unitsPerSecond, available + (now - refilledAt) / 1e9 * unitsPerSecond);
+            refilledAt = now;
+            if (available < units) {
+                return false;
+            }
+            available -= units;
+            return true;
+        }
+    }
+}
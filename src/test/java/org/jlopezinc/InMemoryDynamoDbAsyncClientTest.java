@@ -0,0 +1,242 @@
+package org.jlopezinc;
+
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
+import software.amazon.awssdk.services.dynamodb.model.ConditionCheck;
+import software.amazon.awssdk.services.dynamodb.model.DynamoDbException;
+import software.amazon.awssdk.services.dynamodb.model.GetItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.ProvisionedThroughputExceededException;
+import software.amazon.awssdk.services.dynamodb.model.Put;
+import software.amazon.awssdk.services.dynamodb.model.QueryResponse;
+import software.amazon.awssdk.services.dynamodb.model.ReturnConsumedCapacity;
+import software.amazon.awssdk.services.dynamodb.model.ReturnValue;
+import software.amazon.awssdk.services.dynamodb.model.ReturnValuesOnConditionCheckFailure;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItem;
+import software.amazon.awssdk.services.dynamodb.model.TransactionCanceledException;
+import software.amazon.awssdk.services.dynamodb.model.Update;
+import software.amazon.awssdk.services.dynamodb.model.UpdateItemResponse;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InMemoryDynamoDbAsyncClientTest {
+
+    private static final String TABLE = EventV1Service.EVENTS_TABLE;
+
+    private final InMemoryDynamoDbAsyncClient client = InMemoryDynamoDbAsyncClient.eventsRegister().build();
+
+    @Test
+    void testConditionalPutAndUpdate() {
+        Map<String, AttributeValue> item = user("event", "a@example.com", "car", 2);
+        put(item, "attribute_not_exists(#sk)");
+
+        CompletionException failure = assertThrows(CompletionException.class, () -> client.putItem(r -> r
+                .tableName(TABLE)
+                .item(item)
+                .conditionExpression("attribute_not_exists(#sk)")
+                .expressionAttributeNames(Map.of("#sk", "email"))
+                .returnValuesOnConditionCheckFailure(ReturnValuesOnConditionCheckFailure.ALL_OLD)).join());
+        ConditionalCheckFailedException conditionFailure = (ConditionalCheckFailedException) failure.getCause();
+        assertEquals("car", conditionFailure.item().get("vehicle_type").s());
+
+        UpdateItemResponse updated = client.updateItem(r -> r
+                .tableName(TABLE)
+                .key(key("event", "a@example.com"))
+                .updateExpression("SET #checkedIn = :true, #count = #count + :one REMOVE #vehicleType")
+                .conditionExpression("#checkedIn = :false AND begins_with(#sk, :prefix)")
+                .expressionAttributeNames(Map.of("#checkedIn", "checkedIn", "#count", "participantCount",
+                        "#vehicleType", "vehicle_type", "#sk", "email"))
+                .expressionAttributeValues(Map.of(":true", bool(true), ":false", bool(false), ":one", n(1), ":prefix", s("a@")))
+                .returnValues(ReturnValue.ALL_NEW)).join();
+        assertTrue(updated.attributes().get("checkedIn").bool());
+        assertEquals("3", updated.attributes().get("participantCount").n());
+        assertFalse(updated.attributes().containsKey("vehicle_type"));
+
+        // ADD creates missing numbers
+        client.updateItem(r -> r
+                .tableName(TABLE)
+                .key(key("event", "counters"))
+                .updateExpression("ADD #count :delta")
+                .expressionAttributeNames(Map.of("#count", "count"))
+                .expressionAttributeValues(Map.of(":delta", n(-2)))).join();
+        assertEquals("-2", client.item(TABLE, "event", "counters").get("count").n());
+    }
+
+    @Test
+    void testQueryPagesWithFilterAndProjection() {
+        for (int i = 0; i < 25; i++) {
+            put(user("event", String.format("user%02d@example.com", i), i % 2 == 0 ? "car" : "quad", 1), null);
+        }
+        put(user("other", "user00@example.com", "car", 1), null);
+
+        List<String> emails = new ArrayList<>();
+        Map<String, AttributeValue> startKey = null;
+        int pages = 0;
+        do {
+            Map<String, AttributeValue> exclusiveStartKey = startKey;
+            QueryResponse page = client.query(r -> r
+                    .tableName(TABLE)
+                    .keyConditionExpression("#pk = :event")
+                    .filterExpression("#vehicleType = :car")
+                    .projectionExpression("#sk")
+                    .expressionAttributeNames(Map.of("#pk", "event_name", "#sk", "email", "#vehicleType", "vehicle_type"))
+                    .expressionAttributeValues(Map.of(":event", s("event"), ":car", s("car")))
+                    .exclusiveStartKey(exclusiveStartKey)
+                    .limit(10)).join();
+            // the limit applies before the filter
+            assertEquals(page.lastEvaluatedKey().isEmpty() ? 5 : 10, page.scannedCount());
+            page.items().forEach(item -> {
+                assertEquals(1, item.size());
+                emails.add(item.get("email").s());
+            });
+            startKey = page.hasLastEvaluatedKey() && !page.lastEvaluatedKey().isEmpty() ? page.lastEvaluatedKey() : null;
+            pages++;
+        } while (startKey != null);
+
+        assertEquals(3, pages);
+        assertEquals(13, emails.size());
+        assertEquals("user00@example.com", emails.get(0));
+        assertEquals("user24@example.com", emails.get(12));
+    }
+
+    @Test
+    void testQueryOnSecondaryIndex() {
+        put(user("event1", "a@example.com", "car", 1), null);
+        put(user("event2", "a@example.com", "car", 1), null);
+        put(user("event2", "b@example.com", "car", 1), null);
+
+        QueryResponse response = client.query(r -> r
+                .tableName(TABLE)
+                .indexName("byEmail")
+                .keyConditionExpression("email = :email")
+                .expressionAttributeValues(Map.of(":email", s("a@example.com")))
+                .scanIndexForward(false)).join();
+        assertEquals(List.of("event2", "event1"), response.items().stream().map(item -> item.get("event_name").s()).toList());
+    }
+
+    @Test
+    void testCancelledTransactionWritesNothing() {
+        put(user("event", "a@example.com", "car", 1), null);
+
+        TransactWriteItem newUser = TransactWriteItem.builder().put(Put.builder()
+                .tableName(TABLE)
+                .item(user("event", "b@example.com", "car", 1))
+                .conditionExpression("attribute_not_exists(email)")
+                .build()).build();
+        TransactWriteItem counters = TransactWriteItem.builder().update(Update.builder()
+                .tableName(TABLE)
+                .key(key("event", "counters"))
+                .updateExpression("ADD #count :one")
+                .expressionAttributeNames(Map.of("#count", "count"))
+                .expressionAttributeValues(Map.of(":one", n(1)))
+                .build()).build();
+        TransactWriteItem stale = TransactWriteItem.builder().conditionCheck(ConditionCheck.builder()
+                .tableName(TABLE)
+                .key(key("event", "a@example.com"))
+                .conditionExpression("vehicle_type = :quad")
+                .expressionAttributeValues(Map.of(":quad", s("quad")))
+                .build()).build();
+
+        CompletionException failure = assertThrows(CompletionException.class,
+                () -> client.transactWriteItems(r -> r.transactItems(newUser, counters, stale)).join());
+        TransactionCanceledException cancelled = (TransactionCanceledException) failure.getCause();
+        assertEquals(List.of("None", "None", "ConditionalCheckFailed"),
+                cancelled.cancellationReasons().stream().map(reason -> reason.code()).toList());
+        assertNull(client.item(TABLE, "event", "b@example.com"));
+        assertNull(client.item(TABLE, "event", "counters"));
+
+        client.transactWriteItems(r -> r.transactItems(newUser, counters)).join();
+        assertNotNull(client.item(TABLE, "event", "b@example.com"));
+        assertEquals("1", client.item(TABLE, "event", "counters").get("count").n());
+
+        // two operations on one item are rejected before anything is evaluated
+        failure = assertThrows(CompletionException.class,
+                () -> client.transactWriteItems(r -> r.transactItems(counters, counters)).join());
+        assertEquals("ValidationException", ((DynamoDbException) failure.getCause()).awsErrorDetails().errorCode());
+    }
+
+    @Test
+    void testProvisionedCapacityThrottles() {
+        InMemoryDynamoDbAsyncClient throttled = InMemoryDynamoDbAsyncClient.eventsRegister()
+                .readCapacity(10)
+                .build();
+        put(throttled, user("event", "a@example.com", "car", 1));
+
+        int failures = 0;
+        for (int i = 0; i < 40; i++) {
+            try {
+                GetItemResponse response = throttled.getItem(r -> r
+                        .tableName(TABLE)
+                        .key(key("event", "a@example.com"))
+                        .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL)).join();
+                // eventually consistent reads of items under 4 KB cost half a unit
+                assertEquals(0.5, response.consumedCapacity().capacityUnits());
+            } catch (CompletionException e) {
+                assertInstanceOf(ProvisionedThroughputExceededException.class, e.getCause());
+                failures++;
+            }
+        }
+        assertTrue(failures >= 15, failures + " throttled reads");
+        assertEquals(failures, throttled.throttled());
+    }
+
+    @Test
+    void testLatencyDelaysWithoutBlocking() {
+        InMemoryDynamoDbAsyncClient slow = InMemoryDynamoDbAsyncClient.eventsRegister()
+                .latency(Duration.ofMillis(50), Duration.ofMillis(10))
+                .build();
+        long start = System.nanoTime();
+        List<CompletableFuture<?>> requests = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            requests.add(slow.getItem(r -> r.tableName(TABLE).key(key("event", "a@example.com"))));
+        }
+        CompletableFuture.allOf(requests.toArray(CompletableFuture[]::new)).join();
+        long elapsedMillis = Duration.ofNanos(System.nanoTime() - start).toMillis();
+        assertTrue(elapsedMillis >= 50 && elapsedMillis < 1000, "100 parallel requests took " + elapsedMillis + " ms");
+        assertEquals(100, slow.calls("getItem"));
+    }
+
+    private void put(Map<String, AttributeValue> item, String condition) {
+        client.putItem(r -> r
+                .tableName(TABLE)
+                .item(item)
+                .conditionExpression(condition)
+                .expressionAttributeNames(condition == null ? null : Map.of("#sk", "email"))).join();
+    }
+
+    private static void put(InMemoryDynamoDbAsyncClient client, Map<String, AttributeValue> item) {
+        client.putItem(r -> r.tableName(TABLE).item(item)).join();
+    }
+
+    private static Map<String, AttributeValue> user(String event, String email, String vehicleType, int participants) {
+        Map<String, AttributeValue> item = new HashMap<>(key(event, email));
+        item.put("vehicle_type", s(vehicleType));
+        item.put("checkedIn", bool(false));
+        item.put("participantCount", n(participants));
+        return item;
+    }
+
+    private static Map<String, AttributeValue> key(String event, String email) {
+        return Map.of("event_name", s(event), "email", s(email));
+    }
+
+    private static AttributeValue s(String value) {
+        return AttributeValue.builder().s(value).build();
+    }
+
+    private static AttributeValue n(long value) {
+        return AttributeValue.builder().n(Long.toString(value)).build();
+    }
+
+    private static AttributeValue bool(boolean value) {
+        return AttributeValue.builder().bool(value).build();
+    }
+}
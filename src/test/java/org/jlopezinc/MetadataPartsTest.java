@@ -0,0 +1,331 @@
+package org.jlopezinc;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.ws.rs.BadRequestException;
+import jakarta.ws.rs.core.NoContentException;
+import org.jlopezinc.dynamodb.CompactJsonAttributeConverter;
+import org.jlopezinc.dynamodb.JsonAttributeConverter;
+import org.jlopezinc.dynamodb.UserModelDB;
+import org.jlopezinc.model.BackfillResponse;
+import org.jlopezinc.model.ChangeHistoryEntry;
+import org.jlopezinc.model.PaymentInfo;
+import org.jlopezinc.model.UserMetadataModel;
+import org.jlopezinc.model.UserModel;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.jlopezinc.EventsRegisterFixtures.service;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * People, vehicle and payment are stored as attributes of their own, so a payment or a comment only
+ * rewrites the attributes it changes.
+ */
+class MetadataPartsTest {
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+    private static final String EVENT = "parts-event";
+    private static final String EMAIL = "parts@example.com";
+    private static final String WEBHOOK = "{\"driverName\":\"Driver\",\"driverCc\":\"1\",\"phoneNumber\":\"912345678\","
+            + "\"vehicleType\":\"Jipe\",\"guestsNumber\":\"2\",\"guestsNames\":\"Ana,Rui\",\"vehiclePlate\":\"AA-11-22\","
+            + "\"email\":\"" + EMAIL + "\"}";
+
+    @Test
+    void testPaymentLeavesTheMetadataDocumentUntouched() {
+        InMemoryDynamoDbAsyncClient dynamoDb = InMemoryDynamoDbAsyncClient.eventsRegister().build();
+        EventV1Service service = service(dynamoDb);
+        service.register(EVENT, WEBHOOK).await().indefinitely();
+        Map<String, AttributeValue> registered = item(dynamoDb);
+        assertFalse(text(registered, UserModelDB.METADATA).contains("AA-11-22"));
+        assertTrue(text(registered, UserModelDB.VEHICLE).contains("AA-11-22"));
+
+        service.updatePaymentInfo(EVENT, EMAIL, payment()).await().indefinitely();
+
+        Map<String, AttributeValue> paid = item(dynamoDb);
+        assertEquals(registered.get(UserModelDB.METADATA), paid.get(UserModelDB.METADATA));
+        assertEquals(registered.get(UserModelDB.PEOPLE), paid.get(UserModelDB.PEOPLE));
+        assertTrue(paid.get(UserModelDB.PAID).bool());
+        assertTrue(text(paid, UserModelDB.PAYMENT_INFO).contains("25.0"));
+        UserModel user = service.getByEventAndEmail(EVENT, EMAIL).await().indefinitely();
+        assertEquals(new BigDecimal("25.0"), user.getMetadata().getPaymentInfo().getAmount());
+        assertEquals(3, user.getMetadata().getPeople().size());
+    }
+
+    @Test
+    void testRecordsWithEverythingInTheMetadataAreSplitByTheirFirstUpdate() throws Exception {
+        InMemoryDynamoDbAsyncClient dynamoDb = InMemoryDynamoDbAsyncClient.eventsRegister().build();
+        EventV1Service service = service(dynamoDb);
+        registerUnsplit(dynamoDb, service);
+        assertEquals("AA-11-22", service.getByEventAndEmail(EVENT, EMAIL).await().indefinitely()
+                .getMetadata().getVehicle().getPlate());
+
+        UserModel comment = new UserModel();
+        comment.setMetadata(new UserMetadataModel());
+        comment.getMetadata().setComment("Arrives late");
+        service.updateUserMetadata(EVENT, EMAIL, comment).await().indefinitely();
+
+        Map<String, AttributeValue> split = item(dynamoDb);
+        assertFalse(text(split, UserModelDB.METADATA).contains("AA-11-22"));
+        assertTrue(text(split, UserModelDB.VEHICLE).contains("AA-11-22"));
+        assertTrue(text(split, UserModelDB.PEOPLE).contains("Ana"));
+        UserMetadataModel metadata = service.getByEventAndEmail(EVENT, EMAIL).await().indefinitely().getMetadata();
+        assertEquals("Arrives late", metadata.getComment());
+        assertEquals("AA-11-22", metadata.getVehicle().getPlate());
+        assertEquals(3, metadata.getPeople().size());
+    }
+
+    @Test
+    void testSplitFieldsAreReadFromTheMetadataOnlyForRecordsNotSplit() throws Exception {
+        InMemoryDynamoDbAsyncClient dynamoDb = InMemoryDynamoDbAsyncClient.eventsRegister().build();
+        EventV1Service service = service(dynamoDb);
+        service.register(EVENT, WEBHOOK).await().indefinitely();
+        UserFields gate = UserFields.parse(null, "gate");
+        assertFalse(gate.attributes().contains(UserModelDB.METADATA));
+        long reads = dynamoDb.calls("getItem");
+        assertEquals("AA-11-22", service.getByEventAndEmail(EVENT, EMAIL, 20, gate).await().indefinitely()
+                .getMetadata().getVehicle().getPlate());
+        assertEquals(reads + 1, dynamoDb.calls("getItem"));
+
+        registerUnsplit(dynamoDb, service);
+        reads = dynamoDb.calls("getItem");
+        UserMetadataModel metadata = service.getByEventAndEmail(EVENT, EMAIL, 20, gate).await().indefinitely().getMetadata();
+        assertEquals("AA-11-22", metadata.getVehicle().getPlate());
+        assertEquals(3, metadata.getPeople().size());
+        // the projected read, then the metadata
+        assertEquals(reads + 2, dynamoDb.calls("getItem"));
+        assertEquals(3, service.getByEventAndPhoneNumber(EVENT, "912345678", gate).await().indefinitely()
+                .getMetadata().getPeople().size());
+    }
+
+    @Test
+    void testBackfillSplitsThePartsOutOfTheMetadata() throws Exception {
+        InMemoryDynamoDbAsyncClient dynamoDb = InMemoryDynamoDbAsyncClient.eventsRegister().build();
+        EventV1Service service = service(dynamoDb);
+        service.register(EVENT, WEBHOOK).await().indefinitely();
+        Map<String, AttributeValue> registered = item(dynamoDb);
+        registerUnsplit(dynamoDb, service);
+
+        assertEquals(1, service.backfillUserAttributes(EVENT).await().indefinitely().getUpdated());
+
+        Map<String, AttributeValue> split = item(dynamoDb);
+        assertFalse(text(split, UserModelDB.METADATA).contains("AA-11-22"));
+        assertEquals(registered.get(UserModelDB.VEHICLE), split.get(UserModelDB.VEHICLE));
+        assertEquals(registered.get(UserModelDB.PEOPLE), split.get(UserModelDB.PEOPLE));
+        assertEquals("912345678", service.getByEventAndEmail(EVENT, EMAIL).await().indefinitely().getMetadata().getPhoneNumber());
+        assertEquals(0, service.backfillUserAttributes(EVENT).await().indefinitely().getUpdated());
+    }
+
+    @Test
+    void testBackfillMovesTheEmbeddedChangeHistory() throws Exception {
+        InMemoryDynamoDbAsyncClient dynamoDb = InMemoryDynamoDbAsyncClient.eventsRegister().build();
+        EventV1Service service = service(dynamoDb);
+        service.register(EVENT, WEBHOOK).await().indefinitely();
+        UserMetadataModel legacy = service.getByEventAndEmail(EVENT, EMAIL).await().indefinitely().getMetadata();
+        legacy.setChangeHistory(new ArrayList<>(List.of(
+                new ChangeHistoryEntry("2023-05-01T10:00:00Z", "COMMENT_UPDATED", "Legacy comment"))));
+        String legacyMetadata = service.objectMapper.writeValueAsString(legacy);
+        dynamoDb.updateItem(r -> r.tableName(EventV1Service.EVENTS_TABLE)
+                .key(EventV1Service.userKey(EVENT, EMAIL))
+                .updateExpression("SET #m = :m")
+                .expressionAttributeNames(Map.of("#m", UserModelDB.METADATA))
+                .expressionAttributeValues(Map.of(":m", AttributeValue.builder().s(legacyMetadata).build()))).join();
+
+        // listing only queries the stored entries
+        assertTrue(service.getChangeHistory(EVENT, EMAIL, 50, null).await().indefinitely().getEntries().stream()
+                .noneMatch(entry -> "Legacy comment".equals(entry.getDescription())));
+        assertTrue(text(item(dynamoDb), UserModelDB.METADATA).contains("Legacy comment"));
+
+        assertEquals(1, service.backfillUserAttributes(EVENT).await().indefinitely().getUpdated());
+
+        assertFalse(text(item(dynamoDb), UserModelDB.METADATA).contains("changeHistory"));
+        assertEquals(1, service.getChangeHistory(EVENT, EMAIL, 50, null).await().indefinitely().getEntries().stream()
+                .filter(entry -> "Legacy comment".equals(entry.getDescription())).count());
+        assertEquals(0, service.backfillUserAttributes(EVENT).await().indefinitely().getUpdated());
+        assertThrows(NoContentException.class,
+                () -> service.getChangeHistory(EVENT, "nobody@example.com", 50, null).await().indefinitely());
+    }
+
+    @Test
+    void testBackfillCarriesOnFromItsCursor() {
+        InMemoryDynamoDbAsyncClient dynamoDb = InMemoryDynamoDbAsyncClient.eventsRegister().build();
+        EventV1Service service = service(dynamoDb);
+        EventsRegisterFixtures.register(service, EVENT, "slice", 5, "Ana");
+        dynamoDb.updateItem(r -> r.tableName(EventV1Service.EVENTS_TABLE)
+                .key(EventV1Service.userKey(EVENT, EventsRegisterFixtures.email("slice", 3)))
+                .updateExpression("REMOVE #count")
+                .expressionAttributeNames(Map.of("#count", UserModelDB.PARTICIPANT_COUNT))).join();
+        // a page of 2 per call
+        service.bulkReader = new BulkReader(dynamoDb, 1, 1000, 2);
+        service.backfillSliceDuration = Duration.ZERO;
+
+        long scanned = 0;
+        long updated = 0;
+        int calls = 0;
+        BackfillResponse response;
+        String cursor = null;
+        do {
+            response = service.backfillUserAttributes(EVENT, cursor).await().indefinitely();
+            scanned += response.getScanned();
+            updated += response.getUpdated();
+            cursor = response.getCursor();
+            calls++;
+        } while ("running".equals(response.getStatus()));
+
+        assertEquals("success", response.getStatus());
+        assertNull(cursor);
+        assertTrue(calls > 3);
+        assertEquals(5, scanned);
+        assertEquals(1, updated);
+        assertThrows(BadRequestException.class, () -> service.backfillUserAttributes(EVENT, "%%%"));
+    }
+
+    @Test
+    void testBackfillCountsThePeopleAttribute() {
+        InMemoryDynamoDbAsyncClient dynamoDb = InMemoryDynamoDbAsyncClient.eventsRegister().build();
+        EventV1Service service = service(dynamoDb);
+        service.register(EVENT, WEBHOOK).await().indefinitely();
+        assertEquals("3", item(dynamoDb).get(UserModelDB.PARTICIPANT_COUNT).n());
+
+        // the people are no longer in the metadata, the count must not fall back to the driver
+        assertEquals(0, service.backfillUserAttributes(EVENT).await().indefinitely().getUpdated());
+        assertEquals("3", item(dynamoDb).get(UserModelDB.PARTICIPANT_COUNT).n());
+
+        dynamoDb.updateItem(r -> r.tableName(EventV1Service.EVENTS_TABLE)
+                .key(EventV1Service.userKey(EVENT, EMAIL))
+                .updateExpression("REMOVE #count")
+                .expressionAttributeNames(Map.of("#count", UserModelDB.PARTICIPANT_COUNT))).join();
+        assertEquals(1, service.backfillUserAttributes(EVENT).await().indefinitely().getUpdated());
+        assertEquals("3", item(dynamoDb).get(UserModelDB.PARTICIPANT_COUNT).n());
+    }
+
+    @Test
+    void testDocumentsAreStoredAsNativeAttributes() throws Exception {
+        JsonAttributeConverter converter = JsonAttributeConverter.create();
+        AttributeValue stored = converter.transformFrom(JSON.readTree("{\"plate\":\"AA-11-22\",\"seats\":5,\"amount\":25.0,\"4x4\":true,\"model\":null,"
+                + "\"people\":[{\"name\":\"Ana\"}]}"));
+
+        assertEquals("AA-11-22", stored.m().get("plate").s());
+        assertEquals("5", stored.m().get("seats").n());
+        assertEquals("25.0", stored.m().get("amount").n());
+        assertTrue(stored.m().get("4x4").bool());
+        assertTrue(stored.m().get("model").nul());
+        assertEquals("Ana", stored.m().get("people").l().get(0).m().get("name").s());
+        assertEquals(stored, converter.transformFrom(converter.transformTo(stored)));
+        // as written before
+        assertEquals("AA-11-22", converter.transformTo(AttributeValue.builder().s("{\"plate\":\"AA-11-22\"}").build()).get("plate").textValue());
+    }
+
+    @Test
+    void testBackfillReencodesDocumentsStoredAsStrings() {
+        InMemoryDynamoDbAsyncClient dynamoDb = InMemoryDynamoDbAsyncClient.eventsRegister().build();
+        EventV1Service service = service(dynamoDb);
+        service.register(EVENT, WEBHOOK).await().indefinitely();
+        Map<String, AttributeValue> registered = item(dynamoDb);
+        // as written before documents were stored natively
+        dynamoDb.updateItem(r -> r.tableName(EventV1Service.EVENTS_TABLE)
+                .key(EventV1Service.userKey(EVENT, EMAIL))
+                .updateExpression("SET #m = :m, #people = :people")
+                .expressionAttributeNames(Map.of("#m", UserModelDB.METADATA, "#people", UserModelDB.PEOPLE))
+                .expressionAttributeValues(Map.of(
+                        ":m", AttributeValue.builder().s(text(registered, UserModelDB.METADATA)).build(),
+                        ":people", AttributeValue.builder().s(text(registered, UserModelDB.PEOPLE)).build()))).join();
+        assertEquals(3, service.getByEventAndEmail(EVENT, EMAIL).await().indefinitely().getMetadata().getPeople().size());
+
+        assertEquals(1, service.backfillUserAttributes(EVENT).await().indefinitely().getReencoded());
+
+        Map<String, AttributeValue> reencoded = item(dynamoDb);
+        assertEquals(registered.get(UserModelDB.METADATA), reencoded.get(UserModelDB.METADATA));
+        assertEquals(registered.get(UserModelDB.PEOPLE), reencoded.get(UserModelDB.PEOPLE));
+        assertEquals(0, service.backfillUserAttributes(EVENT).await().indefinitely().getReencoded());
+    }
+
+    @Test
+    void testCompactMetadataRoundTrip() throws Exception {
+        CompactJsonAttributeConverter converter = CompactJsonAttributeConverter.create();
+        JsonNode json = JSON.readTree("{\"amount\":25.0,\"comment\":\"Arrives late\",\"commentsHistory\":["
+                + "{\"byWho\":\"admin@example.com\",\"comment\":\"Arrives late\"},".repeat(40)
+                + "{\"byWho\":\"admin@example.com\",\"comment\":\"Arrives late\"}],\"registeredAt\":\"2023-10-24T18:23:27Z\"}");
+        JsonNode comment = JSON.readTree("{\"comment\":\"Arrives late\"}");
+        try {
+            CompactJsonAttributeConverter.configure(true, 64);
+            AttributeValue deflated = converter.transformFrom(json);
+            assertEquals(2, deflated.b().asByteArray()[0]);
+            assertTrue(deflated.b().asByteArray().length < json.toString().length() / 4);
+            assertEquals(json, converter.transformTo(deflated));
+
+            CompactJsonAttributeConverter.configure(true, 1024);
+            AttributeValue smile = converter.transformFrom(comment);
+            assertEquals(1, smile.b().asByteArray()[0]);
+            assertEquals(comment, converter.transformTo(smile));
+        } finally {
+            CompactJsonAttributeConverter.configure(false, 1024);
+        }
+        assertEquals("Arrives late", converter.transformFrom(comment).m().get("comment").s());
+    }
+
+    @Test
+    void testBackfillMovesTheMetadataToTheEncodingInUse() {
+        InMemoryDynamoDbAsyncClient dynamoDb = InMemoryDynamoDbAsyncClient.eventsRegister().build();
+        EventV1Service service = service(dynamoDb);
+        service.register(EVENT, WEBHOOK).await().indefinitely();
+        AttributeValue stored = item(dynamoDb).get(UserModelDB.METADATA);
+        assertTrue(stored.hasM());
+        try {
+            CompactJsonAttributeConverter.configure(true, 64);
+            assertEquals("912345678", service.getByEventAndEmail(EVENT, EMAIL).await().indefinitely().getMetadata().getPhoneNumber());
+
+            assertEquals(1, service.backfillUserAttributes(EVENT).await().indefinitely().getReencoded());
+            AttributeValue compact = item(dynamoDb).get(UserModelDB.METADATA);
+            assertNotNull(compact.b());
+            assertEquals("912345678", service.getByEventAndEmail(EVENT, EMAIL).await().indefinitely().getMetadata().getPhoneNumber());
+            assertEquals(0, service.backfillUserAttributes(EVENT).await().indefinitely().getReencoded());
+
+            // unchanged documents keep the same bytes, so a payment doesn't rewrite the metadata
+            service.updatePaymentInfo(EVENT, EMAIL, payment()).await().indefinitely();
+            assertEquals(compact, item(dynamoDb).get(UserModelDB.METADATA));
+        } finally {
+            CompactJsonAttributeConverter.configure(false, 1024);
+        }
+        assertEquals("912345678", service.getByEventAndEmail(EVENT, EMAIL).await().indefinitely().getMetadata().getPhoneNumber());
+        assertEquals(1, service.backfillUserAttributes(EVENT).await().indefinitely().getReencoded());
+        assertEquals(stored, item(dynamoDb).get(UserModelDB.METADATA));
+    }
+
+    /**
+     * Rewrites the registration as written before the parts were split out of the metadata.
+     */
+    private static void registerUnsplit(InMemoryDynamoDbAsyncClient dynamoDb, EventV1Service service) throws Exception {
+        UserMetadataModel legacy = service.getByEventAndEmail(EVENT, EMAIL).await().indefinitely().getMetadata();
+        legacy.setChangeHistory(null);
+        String legacyMetadata = service.objectMapper.writeValueAsString(legacy);
+        dynamoDb.updateItem(r -> r.tableName(EventV1Service.EVENTS_TABLE)
+                .key(EventV1Service.userKey(EVENT, EMAIL))
+                .updateExpression("SET #m = :m REMOVE #people, #vehicle")
+                .expressionAttributeNames(Map.of("#m", UserModelDB.METADATA,
+                        "#people", UserModelDB.PEOPLE, "#vehicle", UserModelDB.VEHICLE))
+                .expressionAttributeValues(Map.of(":m", AttributeValue.builder().s(legacyMetadata).build()))).join();
+    }
+
+    private static Map<String, AttributeValue> item(InMemoryDynamoDbAsyncClient dynamoDb) {
+        return dynamoDb.getItem(r -> r.tableName(EventV1Service.EVENTS_TABLE)
+                .key(EventV1Service.userKey(EVENT, EMAIL))).join().item();
+    }
+
+    private static String text(Map<String, AttributeValue> item, String attribute) {
+        return CompactJsonAttributeConverter.create().transformTo(item.get(attribute)).toString();
+    }
+
+    private static PaymentInfo payment() {
+        PaymentInfo paymentInfo = new PaymentInfo();
+        paymentInfo.setAmount(new BigDecimal("25.0"));
+        paymentInfo.setByWho("admin@example.com");
+        return paymentInfo;
+    }
+}
@@ -0,0 +1,52 @@
+package org.jlopezinc;
+
+import org.jlopezinc.dynamodb.UserModelDB;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.enhanced.dynamodb.TableMetadata;
+import software.amazon.awssdk.enhanced.dynamodb.TableSchema;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PhoneLookupTest {
+
+    @Test
+    public void testPhoneNumberFormatsNormalizeToTheSameKey() {
+        assertEquals("916165469", EventV1Service.normalizePhoneNumber("916165469"));
+        assertEquals("916165469", EventV1Service.normalizePhoneNumber("+351 916 165 469"));
+        assertEquals("916165469", EventV1Service.normalizePhoneNumber("00351916165469"));
+        assertEquals("916165469", EventV1Service.normalizePhoneNumber("916-165-469"));
+    }
+
+    @Test
+    public void testForeignNumbersKeepTheirCountryCode() {
+        assertEquals("34612345678", EventV1Service.normalizePhoneNumber("+34 612 345 678"));
+        assertEquals("351123", EventV1Service.normalizePhoneNumber("351123"));
+    }
+
+    @Test
+    public void testPhoneNumberWithoutDigitsIsNotIndexed() {
+        assertNull(EventV1Service.normalizePhoneNumber(null));
+        assertNull(EventV1Service.normalizePhoneNumber(""));
+        assertNull(EventV1Service.normalizePhoneNumber("n/a"));
+    }
+
+    @Test
+    public void testByPhoneIndexIsKeyedOnEventAndNormalizedPhone() {
+        TableMetadata metadata = TableSchema.fromClass(UserModelDB.class).tableMetadata();
+        assertEquals("event_name", metadata.primaryPartitionKey());
+        assertEquals("email", metadata.primarySortKey().orElseThrow());
+        assertEquals("event_name", metadata.indexPartitionKey(UserModelDB.BY_PHONE_INDEX));
+        assertEquals("phone_normalized", metadata.indexSortKey(UserModelDB.BY_PHONE_INDEX).orElseThrow());
+    }
+
+    @Test
+    public void testCounterRowsAreNotUserRecords() {
+        assertTrue(EventV1Service.isUserRecord(UserModelDB.builder().userEmail("someone@example.com").build()));
+        assertFalse(EventV1Service.isUserRecord(UserModelDB.builder().userEmail("totalcar").build()));
+        assertFalse(EventV1Service.isUserRecord(UserModelDB.builder().userEmail("counters").build()));
+        assertFalse(EventV1Service.isUserRecord(UserModelDB.builder().userEmail(null).build()));
+    }
+}
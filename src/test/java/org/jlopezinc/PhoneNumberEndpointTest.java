@@ -39,13 +39,15 @@ class PhoneNumberEndpointTest {
         ObjectMapper objectMapper = new ObjectMapper();
         objectMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
         
-        UserModelDB userModelDB = new EventV1Service(null).transformWebHook("ttamigosnatal2023", raw, objectMapper);
+        EventV1Service service = new EventV1Service(null);
+        service.objectMapper = objectMapper;
+        UserModelDB userModelDB = service.transformWebHook("ttamigosnatal2023", raw, objectMapper);
         
         // Verify phoneNumber is set on UserModelDB
         Assertions.assertEquals("916165469", userModelDB.getPhoneNumber());
         
         // Verify phoneNumber is also in metadata
-        UserMetadataModel userMetadataModel = objectMapper.readValue(userModelDB.getMetadata(), UserMetadataModel.class);
+        UserMetadataModel userMetadataModel = objectMapper.treeToValue(userModelDB.getMetadata(), UserMetadataModel.class);
         Assertions.assertEquals("916165469", userMetadataModel.getPhoneNumber());
     }
 
@@ -0,0 +1,117 @@
+package org.jlopezinc;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.jlopezinc.dynamodb.UserModelDB;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class ReconcileAccumulatorTest {
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    @Test
+    public void testCountPeopleReadsOnlyThePeopleArray() {
+        String metadata = "{\"vehicle\":{\"plate\":\"AA-00-AA\",\"make\":\"Land Rover\"},"
+                + "\"people\":[{\"name\":\"Driver\",\"cc\":\"1\"},{\"name\":\"Guest\",\"cc\":\"2\",\"extra\":[1,2]}],"
+                + "\"rawWebhook\":\"{\\\"people\\\":[1,2,3,4]}\"}";
+        assertEquals(2, ReconcileAccumulator.countPeople(document(metadata)));
+    }
+
+    @Test
+    public void testCountPeopleDefaultsToTheDriver() {
+        assertEquals(1, ReconcileAccumulator.countPeople((JsonNode) null));
+        assertEquals(1, ReconcileAccumulator.countPeople(document("{\"vehicle\":{}}")));
+        assertEquals(1, ReconcileAccumulator.countPeople(document("{\"people\":null}")));
+        assertEquals(0, ReconcileAccumulator.countPeople(document("{\"people\":[]}")));
+    }
+
+    @Test
+    public void testStoredParticipantCountWinsOverMetadata() {
+        UserModelDB backfilled = user("car", false, false, "{\"people\":[{}]}");
+        backfilled.setParticipantCount(4);
+        assertEquals(4, ReconcileAccumulator.participantCount(backfilled));
+        assertEquals(1, ReconcileAccumulator.participantCount(user("car", false, false, "{\"people\":[{}]}")));
+    }
+
+    @Test
+    public void testAccumulatesCountersPerVehicleType() {
+        ReconcileAccumulator accumulator = new ReconcileAccumulator();
+        accumulator.add(user("car", true, true, "{\"people\":[{},{},{}]}"));
+        accumulator.add(user("car", false, true, "{\"people\":[{}]}"));
+        accumulator.add(user("motorcycle", true, false, null));
+        accumulator.add(user("quad", false, false, "{\"people\":[{},{}]}"));
+
+        Map<String, Long> counts = accumulator.toCounts();
+        assertEquals(4, accumulator.getScanned());
+        assertEquals(4L, counts.get("total"));
+        assertEquals(2L, counts.get("totalcar"));
+        assertEquals(1L, counts.get("totalmotorcycle"));
+        assertEquals(1L, counts.get("totalquad"));
+        assertEquals(1L, counts.get("checkInCountercar"));
+        assertEquals(1L, counts.get("checkInCountermotorcycle"));
+        assertEquals(0L, counts.get("checkInCounterquad"));
+        assertEquals(2L, counts.get("paidCounter"));
+        assertEquals(2L, counts.get("paidCountercar"));
+        assertEquals(7L, counts.get("totalParticipants"));
+        assertEquals(4L, counts.get("participantsCheckedIn"));
+        assertEquals(3L, counts.get("participantsNotCheckedIn"));
+    }
+
+    @Test
+    public void testRestoresFromACheckpoint() {
+        ReconcileAccumulator first = new ReconcileAccumulator();
+        first.add(user("car", true, true, "{\"people\":[{},{}]}"));
+        first.add(user("quad", false, false, null));
+
+        ReconcileAccumulator resumed = ReconcileAccumulator.restore(first.getScanned(), first.toCounts());
+        resumed.add(user("motorcycle", false, true, "{\"people\":[{},{},{}]}"));
+        first.add(user("motorcycle", false, true, "{\"people\":[{},{},{}]}"));
+
+        assertEquals(3, resumed.getScanned());
+        assertEquals(first.toCounts(), resumed.toCounts());
+    }
+
+    @Test
+    public void testDeltasOfACheckIn() {
+        UserModelDB before = user("quad", false, true, "{\"people\":[{},{}]}");
+        UserModelDB after = user("quad", true, true, "{\"people\":[{},{}]}");
+
+        Map<String, Long> deltas = ReconcileAccumulator.deltas(before, after);
+        assertEquals(Map.of("checkInCounterquad", 1L, "participantsCheckedIn", 2L, "participantsNotCheckedIn", -2L), deltas);
+    }
+
+    @Test
+    public void testDeltasOfANewAndAChangedRegistration() {
+        UserModelDB registered = user("car", false, false, "{\"people\":[{},{}]}");
+        assertEquals(Map.of("total", 1L, "totalcar", 1L, "totalParticipants", 2L, "participantsNotCheckedIn", 2L),
+                ReconcileAccumulator.deltas(null, registered));
+
+        // re-registered as a paid motorcycle with one person less
+        UserModelDB changed = user("motorcycle", false, true, "{\"people\":[{}]}");
+        assertEquals(Map.of("totalcar", -1L, "totalmotorcycle", 1L, "paidCounter", 1L, "paidCountermotorcycle", 1L,
+                        "totalParticipants", -1L, "participantsNotCheckedIn", -1L),
+                ReconcileAccumulator.deltas(registered, changed));
+    }
+
+    private static UserModelDB user(String vehicleType, boolean checkedIn, boolean paid, String metadata) {
+        return UserModelDB.builder()
+                .vehicleType(vehicleType)
+                .checkedIn(checkedIn)
+                .paid(paid)
+                .metadata(document(metadata))
+                .build();
+    }
+
+    private static JsonNode document(String json) {
+        try {
+            return json == null ? null : JSON.readTree(json);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package org.jlopezinc;
+
+import org.jlopezinc.dynamodb.UserModelDB;
+import org.jlopezinc.model.CountersModel;
+import org.jlopezinc.model.ReconcileCountersResponse;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
+
+import java.time.Duration;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReconcileJobRunnerTest {
+
+    private static final String EVENT = "reconcile-event";
+    private static final int REGISTRATIONS = 95;
+
+    @Test
+    void testResumesFromTheCheckpointUntilTheEventIsCounted() {
+        // 10 registrations per page and ~20ms per page: a few pages per 50ms slice
+        InMemoryDynamoDbAsyncClient dynamoDb = InMemoryDynamoDbAsyncClient.eventsRegister()
+                .latency(Duration.ofMillis(20), Duration.ZERO)
+                .build();
+        register(dynamoDb);
+        ReconcileJobRunner runner = runner(dynamoDb, Duration.ofMillis(50));
+
+        ReconcileCountersResponse response = runner.reconcile(EVENT).await().atMost(Duration.ofSeconds(5));
+        assertEquals("running", response.getStatus());
+        assertTrue(response.getScanned() > 0 && response.getScanned() < REGISTRATIONS, "scanned " + response.getScanned());
+        assertEquals(response.getJobId(), runner.status(EVENT).await().atMost(Duration.ofSeconds(5)).getJobId());
+
+        long previous = response.getScanned();
+        int calls = 1;
+        while (!"success".equals(response.getStatus())) {
+            assertTrue(calls++ < 50, "reconciliation doesn't make progress");
+            response = runner.reconcile(EVENT).await().atMost(Duration.ofSeconds(5));
+            assertTrue(response.getScanned() >= previous);
+            previous = response.getScanned();
+        }
+
+        assertEquals(REGISTRATIONS, response.getScanned());
+        CountersModel after = response.getAfter();
+        assertEquals(REGISTRATIONS, after.getTotal());
+        assertEquals(48, after.getTotalCar());
+        assertEquals(47, after.getTotalQuad());
+        assertEquals(32, after.getCheckedInCar() + after.getCheckedInQuad());
+        assertEquals(2 * REGISTRATIONS, after.getTotalParticipants());
+        assertEquals(0, response.getBefore().getTotal());
+
+        // the next call starts over
+        ReconcileCountersResponse again = runner(dynamoDb, Duration.ofSeconds(10)).reconcile(EVENT).await().atMost(Duration.ofSeconds(5));
+        assertEquals("success", again.getStatus());
+        assertNotEquals(response.getJobId(), again.getJobId());
+        assertEquals(after, again.getBefore());
+        assertEquals(after, again.getAfter());
+    }
+
+    @Test
+    void testLeavesAJobAloneWhileItsLeaseHolds() {
+        InMemoryDynamoDbAsyncClient dynamoDb = InMemoryDynamoDbAsyncClient.eventsRegister().build();
+        register(dynamoDb);
+        ReconcileJobs jobs = new ReconcileJobs(dynamoDb);
+        long now = System.currentTimeMillis();
+        assertNotNull(jobs.start(EVENT, "job-1", Map.of(), "other-runner", now, now + 60_000).await().indefinitely());
+
+        ReconcileCountersResponse response = runner(dynamoDb, Duration.ofSeconds(10)).resume(EVENT).await().atMost(Duration.ofSeconds(5));
+        assertEquals("running", response.getStatus());
+        assertEquals(0, response.getScanned());
+        assertEquals(0, dynamoDb.calls("query"));
+        assertTrue(jobs.resumable(now).await().indefinitely().isEmpty());
+        assertTrue(jobs.resumable(now + 60_000).await().indefinitely().contains(EVENT));
+    }
+
+    @Test
+    void testCheckpointsFailOnceTheLeaseIsTakenOver() {
+        InMemoryDynamoDbAsyncClient dynamoDb = InMemoryDynamoDbAsyncClient.eventsRegister().build();
+        ReconcileJobs jobs = new ReconcileJobs(dynamoDb);
+        long now = System.currentTimeMillis();
+        jobs.start(EVENT, "job-1", Map.of(), "slow-runner", now - 60_000, now - 1).await().indefinitely();
+        // a second start doesn't replace a job that isn't completed
+        assertNull(jobs.start(EVENT, "job-2", Map.of(), "other-runner", now, now + 60_000).await().indefinitely());
+
+        ReconcileJobs.Job claimed = jobs.claim(EVENT, "new-runner", now, now + 60_000).await().indefinitely();
+        assertEquals("job-1", claimed.jobId);
+        assertNull(jobs.claim(EVENT, "third-runner", now, now + 60_000).await().indefinitely());
+
+        Map<String, AttributeValue> lastKey = EventV1Service.userKey(EVENT, "someone@example.com");
+        assertThrows(ConditionalCheckFailedException.class,
+                () -> jobs.checkpoint(EVENT, "slow-runner", lastKey, 10, Map.of("total", 10L), now).await().indefinitely());
+        jobs.checkpoint(EVENT, "new-runner", lastKey, 12, Map.of("total", 12L), now).await().indefinitely();
+
+        ReconcileJobs.Job job = jobs.get(EVENT).await().indefinitely();
+        assertEquals(ReconcileJobs.RUNNING, job.status);
+        assertEquals(lastKey, job.checkpoint);
+        assertEquals(12, job.scanned);
+        assertEquals(1, job.pages);
+        assertEquals(Map.of("total", 12L), job.counts);
+    }
+
+    private static ReconcileJobRunner runner(InMemoryDynamoDbAsyncClient dynamoDb, Duration sliceDuration) {
+        EventV1Service service = EventsRegisterFixtures.service(dynamoDb);
+        service.bulkReader = new BulkReader(dynamoDb, 1, 1000, 10);
+        ReconcileJobRunner runner = new ReconcileJobRunner();
+        runner.reconcileJobs = new ReconcileJobs(dynamoDb);
+        runner.eventV1Service = service;
+        runner.counterService = service.counterService;
+        runner.sliceDuration = sliceDuration;
+        return runner;
+    }
+
+    private static void register(InMemoryDynamoDbAsyncClient dynamoDb) {
+        for (int i = 0; i < REGISTRATIONS; i++) {
+            Map<String, AttributeValue> item = EventV1Service.userKey(EVENT, "user" + i + "@example.com");
+            item.put(UserModelDB.VEHICLE_TYPE, AttributeValue.builder().s(i % 2 == 0 ? "car" : "quad").build());
+            item.put(UserModelDB.CHECKED_IN, AttributeValue.builder().bool(i % 3 == 0).build());
+            item.put(UserModelDB.PAID, AttributeValue.builder().bool(false).build());
+            item.put(UserModelDB.PARTICIPANT_COUNT, CounterService.number(2));
+            dynamoDb.putItem(r -> r.tableName(EventV1Service.EVENTS_TABLE).item(item)).join();
+        }
+    }
+}
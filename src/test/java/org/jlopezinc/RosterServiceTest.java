@@ -0,0 +1,133 @@
+package org.jlopezinc;
+
+import org.jlopezinc.dynamodb.UserModelDB;
+import org.jlopezinc.model.RosterEntry;
+import org.jlopezinc.model.RosterSnapshot;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.enhanced.dynamodb.DynamoDbEnhancedAsyncClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.jlopezinc.EventsRegisterFixtures.register;
+import static org.jlopezinc.EventsRegisterFixtures.service;
+import static org.junit.jupiter.api.Assertions.*;
+
+class RosterServiceTest {
+
+    private static final String EVENT = "roster-event";
+    private static final int REGISTRATIONS = 5;
+
+    @Test
+    void testSnapshotHasTheGateFieldsOfEveryRegistration() {
+        InMemoryDynamoDbAsyncClient dynamoDb = InMemoryDynamoDbAsyncClient.eventsRegister().build();
+        EventV1Service service = service(dynamoDb);
+        register(service, EVENT, "roster", REGISTRATIONS, "Guest A", "Guest B");
+        // written before versions existed
+        Map<String, AttributeValue> legacy = EventV1Service.userKey(EVENT, "legacy@example.com");
+        legacy.put(UserModelDB.PAID, AttributeValue.builder().bool(true).build());
+        legacy.put(UserModelDB.CHECKED_IN, AttributeValue.builder().bool(false).build());
+        dynamoDb.putItem(r -> r.tableName(EventV1Service.EVENTS_TABLE).item(legacy)).join();
+        service.checkInByEventAndEmail(EVENT, email(2), "gate-1").await().indefinitely();
+
+        RosterService roster = roster(dynamoDb);
+        long version = roster.version(EVENT).await().indefinitely();
+        assertTrue(version > 0);
+        RosterSnapshot snapshot = roster.snapshot(EVENT, version).await().atMost(Duration.ofSeconds(5));
+
+        assertNull(snapshot.getSince());
+        assertEquals(version, snapshot.getVersion());
+        // the counters item is left out
+        assertEquals(REGISTRATIONS + 1, snapshot.getEntries().size());
+        RosterEntry entry = snapshot.getEntries().stream().filter(e -> e.getEmail().equals(email(2))).findFirst().orElseThrow();
+        assertEquals(List.of("Driver 2", "Guest A", "Guest B"), entry.getNames());
+        assertEquals("AA-00-02", entry.getPlate());
+        assertEquals("910000002", entry.getPhone());
+        assertEquals("car", entry.getVehicleType());
+        assertTrue(entry.isCheckedIn());
+        RosterEntry legacyEntry = snapshot.getEntries().stream().filter(e -> e.getEmail().equals("legacy@example.com")).findFirst().orElseThrow();
+        assertTrue(legacyEntry.isPaid());
+        assertTrue(legacyEntry.getNames().isEmpty());
+    }
+
+    @Test
+    void testChangesQueryOnlyTheRegistrationsWrittenSinceAVersion() {
+        InMemoryDynamoDbAsyncClient dynamoDb = InMemoryDynamoDbAsyncClient.eventsRegister().build();
+        EventV1Service service = service(dynamoDb);
+        register(service, EVENT, "roster", REGISTRATIONS, "Guest A", "Guest B");
+        // registrations written a minute apart, 10 to 6 minutes ago
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < REGISTRATIONS; i++) {
+            long written = now - Duration.ofMinutes(10 - i).toMillis();
+            Map<String, AttributeValue> key = EventV1Service.userKey(EVENT, email(i));
+            dynamoDb.updateItem(r -> r.tableName(EventV1Service.EVENTS_TABLE)
+                    .key(key)
+                    .updateExpression("SET #v = :v")
+                    .expressionAttributeNames(Map.of("#v", UserModelDB.ROSTER_VERSION))
+                    .expressionAttributeValues(Map.of(":v", CounterService.number(written)))).join();
+        }
+        RosterService roster = roster(dynamoDb);
+        long before = roster.version(EVENT).await().indefinitely();
+        assertEquals(now - Duration.ofMinutes(6).toMillis(), before);
+
+        service.checkInByEventAndEmail(EVENT, email(1), "gate-1").await().indefinitely();
+        long after = roster.version(EVENT).await().indefinitely();
+        assertTrue(after > before);
+        RosterSnapshot changes = roster.changes(EVENT, before, after).await().atMost(Duration.ofSeconds(5));
+
+        assertEquals(before, changes.getSince());
+        assertEquals(after, changes.getVersion());
+        // the last one before the version asked for is within the overlap
+        assertEquals(Set.of(email(1), email(REGISTRATIONS - 1)),
+                changes.getEntries().stream().map(RosterEntry::getEmail).collect(Collectors.toSet()));
+        assertTrue(changes.getEntries().stream().filter(e -> e.getEmail().equals(email(1))).findFirst().orElseThrow().isCheckedIn());
+
+        long queries = dynamoDb.calls("query");
+        assertTrue(roster.changes(EVENT, after, after).await().indefinitely().getEntries().isEmpty());
+        assertEquals(queries, dynamoDb.calls("query"));
+    }
+
+    @Test
+    void testBackfilledRegistrationsAreChanges() {
+        InMemoryDynamoDbAsyncClient dynamoDb = InMemoryDynamoDbAsyncClient.eventsRegister().build();
+        EventV1Service service = service(dynamoDb);
+        register(service, EVENT, "roster", REGISTRATIONS, "Guest A", "Guest B");
+        // written 10 minutes ago, the one in the middle before the participant count existed
+        long written = System.currentTimeMillis() - Duration.ofMinutes(10).toMillis();
+        for (int i = 0; i < REGISTRATIONS; i++) {
+            Map<String, AttributeValue> key = EventV1Service.userKey(EVENT, email(i));
+            dynamoDb.updateItem(r -> r.tableName(EventV1Service.EVENTS_TABLE)
+                    .key(key)
+                    .updateExpression("SET #v = :v")
+                    .expressionAttributeNames(Map.of("#v", UserModelDB.ROSTER_VERSION))
+                    .expressionAttributeValues(Map.of(":v", CounterService.number(written)))).join();
+        }
+        dynamoDb.updateItem(r -> r.tableName(EventV1Service.EVENTS_TABLE)
+                .key(EventV1Service.userKey(EVENT, email(2)))
+                .updateExpression("REMOVE #count")
+                .expressionAttributeNames(Map.of("#count", UserModelDB.PARTICIPANT_COUNT))).join();
+        RosterService roster = roster(dynamoDb);
+        assertEquals(written, roster.version(EVENT).await().indefinitely());
+
+        assertEquals(1, service.backfillUserAttributes(EVENT).await().indefinitely().getUpdated());
+
+        long after = roster.version(EVENT).await().indefinitely();
+        // a device that synced after those writes, past the overlap
+        long since = written + Duration.ofMinutes(2).toMillis();
+        assertTrue(after > since);
+        assertEquals(List.of(email(2)), roster.changes(EVENT, since, after).await().atMost(Duration.ofSeconds(5))
+                .getEntries().stream().map(RosterEntry::getEmail).toList());
+    }
+
+    private static RosterService roster(InMemoryDynamoDbAsyncClient dynamoDb) {
+        return new RosterService(DynamoDbEnhancedAsyncClient.builder().dynamoDbClient(dynamoDb).build());
+    }
+
+    private static String email(int i) {
+        return EventsRegisterFixtures.email("roster", i);
+    }
+}
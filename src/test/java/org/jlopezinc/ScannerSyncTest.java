@@ -0,0 +1,151 @@
+package org.jlopezinc;
+
+import io.smallrye.mutiny.Uni;
+import jakarta.ws.rs.BadRequestException;
+import org.jlopezinc.dynamodb.UserModelDB;
+import org.jlopezinc.model.ChangeHistoryEntry;
+import org.jlopezinc.model.CountersModel;
+import org.jlopezinc.model.ScannerOperation;
+import org.jlopezinc.model.ScannerSyncResponse;
+import org.jlopezinc.model.ScannerSyncResult;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.enhanced.dynamodb.TableSchema;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.IntStream;
+
+import static org.jlopezinc.EventsRegisterFixtures.register;
+import static org.jlopezinc.EventsRegisterFixtures.service;
+import static org.junit.jupiter.api.Assertions.*;
+
+class ScannerSyncTest {
+
+    private static final String EVENT = "scanner-sync-event";
+    private static final int REGISTRATIONS = 10;
+    private static final Instant GATES_OPEN = Instant.parse("2024-05-18T08:00:00Z");
+
+    @Test
+    void testReplaysAQueueWithTheDeviceTimesInOneRoundTrip() {
+        InMemoryDynamoDbAsyncClient dynamoDb = InMemoryDynamoDbAsyncClient.eventsRegister().build();
+        EventV1Service service = service(dynamoDb);
+        register(service, EVENT, "scanned", REGISTRATIONS);
+        service.checkInByEventAndEmail(EVENT, email(2), "gate-1").await().indefinitely();
+        long transactionsBefore = dynamoDb.calls("transactWriteItems");
+
+        List<ScannerOperation> operations = List.of(
+                operation("op-1", email(0), ScannerOperation.Type.CHECK_IN, 10, "Maria"),
+                // queued out of order: the cancellation happened after the check-in above
+                operation("op-3", email(1), ScannerOperation.Type.CANCEL_CHECK_IN, 30, null),
+                operation("op-2", email(1), ScannerOperation.Type.CHECK_IN, 20, "Maria"),
+                operation("op-4", email(1), ScannerOperation.Type.CHECK_IN, 40, "Rui"),
+                operation("op-5", email(2), ScannerOperation.Type.CHECK_IN, 50, "Maria"),
+                operation("op-6", "nobody@example.com", ScannerOperation.Type.CHECK_IN, 60, "Maria"),
+                operation("op-1", email(0), ScannerOperation.Type.CHECK_IN, 10, "Maria"));
+        ScannerSyncResponse response = service.syncScannerOperations(EVENT, "scanner-3", operations, "gate-2")
+                .await().atMost(Duration.ofSeconds(10));
+
+        assertEquals(4, response.getApplied());
+        assertEquals(1, response.getDuplicates());
+        assertEquals(1, response.getConflicts());
+        assertEquals(1, response.getNotFound());
+        assertEquals(operations.size(), response.getResults().size());
+        ScannerSyncResult cancelled = response.getResults().get(1);
+        assertEquals(ScannerSyncResult.Outcome.APPLIED, cancelled.getOutcome());
+        // every result carries where the registration ended up
+        assertTrue(cancelled.isCheckedIn());
+        assertEquals("Rui", cancelled.getCheckInBy());
+        assertEquals(Date.from(GATES_OPEN.plusSeconds(40)), cancelled.getCheckInAt());
+        ScannerSyncResult conflict = response.getResults().get(4);
+        assertEquals(ScannerSyncResult.Outcome.CONFLICT, conflict.getOutcome());
+        assertEquals("gate-1", conflict.getCheckInBy());
+        assertEquals(ScannerSyncResult.Outcome.NOT_FOUND, response.getResults().get(5).getOutcome());
+        assertEquals(ScannerSyncResult.Outcome.DUPLICATE, response.getResults().get(6).getOutcome());
+
+        UserModelDB first = TableSchema.fromClass(UserModelDB.class).mapToItem(dynamoDb.getItem(r -> r
+                .tableName(EventV1Service.EVENTS_TABLE).key(EventV1Service.userKey(EVENT, email(0)))).join().item());
+        assertTrue(first.isCheckedIn());
+        assertEquals("Maria", first.getCheckInBy());
+        assertEquals(GATES_OPEN.plusSeconds(10), first.getCheckInAt());
+        assertEquals(1, dynamoDb.calls("batchGetItem"));
+        assertEquals(1, dynamoDb.calls("transactWriteItems") - transactionsBefore);
+        assertEquals(3, checkedIn(service.getCountersByEvent(EVENT).await().indefinitely()));
+        List<ChangeHistoryEntry> history = service.changeHistoryService.page(EVENT, email(1), 50, null).await().indefinitely().getEntries();
+        assertEquals(List.of("CHECK_IN_ADDED", "CHECK_IN_REMOVED", "CHECK_IN_ADDED"), history.stream()
+                .map(ChangeHistoryEntry::getAction).filter(action -> action.startsWith("CHECK_IN")).toList());
+
+        // the device didn't get the response and sends its queue again
+        ScannerSyncResponse again = service.syncScannerOperations(EVENT, "scanner-3", operations, "gate-2")
+                .await().atMost(Duration.ofSeconds(10));
+        assertEquals(0, again.getApplied());
+        assertEquals(5, again.getDuplicates());
+        assertEquals(3, checkedIn(service.getCountersByEvent(EVENT).await().indefinitely()));
+    }
+
+    @Test
+    void testConcurrentSyncsOfTheSameQueueApplyItOnce() {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        InMemoryDynamoDbAsyncClient dynamoDb = InMemoryDynamoDbAsyncClient.eventsRegister()
+                .latency(Duration.ofMillis(1), Duration.ofMillis(4))
+                .executor(executor)
+                .build();
+        EventV1Service service = service(dynamoDb);
+        register(service, EVENT, "scanned", REGISTRATIONS);
+
+        List<ScannerOperation> operations = IntStream.range(0, REGISTRATIONS)
+                .mapToObj(i -> operation("op-" + i, email(i), ScannerOperation.Type.CHECK_IN, i, "Maria"))
+                .toList();
+        List<ScannerSyncResponse> responses = Collections.synchronizedList(new ArrayList<>());
+        List<Uni<Void>> syncs = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            syncs.add(service.syncScannerOperations(EVENT, "scanner-3", operations, "gate-2")
+                    .onItem().invoke(responses::add).replaceWithVoid());
+        }
+        Uni.join().all(syncs).andFailFast().await().atMost(Duration.ofSeconds(30));
+
+        assertEquals(REGISTRATIONS, responses.stream().mapToLong(ScannerSyncResponse::getApplied).sum());
+        for (ScannerSyncResponse response : responses) {
+            assertEquals(REGISTRATIONS, response.getApplied() + response.getDuplicates() + response.getConflicts());
+            response.getResults().forEach(result -> assertTrue(result.isCheckedIn(), result.getEmail()));
+        }
+        assertEquals(REGISTRATIONS, checkedIn(service.getCountersByEvent(EVENT).await().indefinitely()));
+        executor.shutdownNow();
+    }
+
+    @Test
+    void testRejectsIncompleteAndOversizedQueues() {
+        EventV1Service service = service(InMemoryDynamoDbAsyncClient.eventsRegister().build());
+        assertThrows(BadRequestException.class, () -> service.syncScannerOperations(EVENT, "scanner-3", List.of(), "gate-1"));
+        List<ScannerOperation> withoutTime = List.of(operation("op-1", email(0), ScannerOperation.Type.CHECK_IN, 0, null));
+        withoutTime.get(0).setAt(null);
+        assertThrows(BadRequestException.class, () -> service.syncScannerOperations(EVENT, "scanner-3", withoutTime, "gate-1"));
+        List<ScannerOperation> tooMany = IntStream.range(0, EventV1Service.MAX_SYNC_OPERATIONS + 1)
+                .mapToObj(i -> operation("op-" + i, email(0), ScannerOperation.Type.CHECK_IN, i, null))
+                .toList();
+        assertThrows(BadRequestException.class, () -> service.syncScannerOperations(EVENT, "scanner-3", tooMany, "gate-1"));
+    }
+
+    private static ScannerOperation operation(String opId, String email, ScannerOperation.Type type, int second, String byWho) {
+        ScannerOperation operation = new ScannerOperation();
+        operation.setOpId(opId);
+        operation.setEmail(email);
+        operation.setType(type);
+        operation.setAt(Date.from(GATES_OPEN.plusSeconds(second)));
+        operation.setByWho(byWho);
+        return operation;
+    }
+
+    private static long checkedIn(CountersModel counters) {
+        return counters.getCheckedInCar() + counters.getCheckedInMotorcycle() + counters.getCheckedInQuad();
+    }
+
+    private static String email(int i) {
+        return EventsRegisterFixtures.email("scanned", i);
+    }
+}
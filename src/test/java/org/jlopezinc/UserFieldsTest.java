@@ -0,0 +1,84 @@
+package org.jlopezinc;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import jakarta.ws.rs.BadRequestException;
+import org.jlopezinc.model.UserModel;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import static org.jlopezinc.EventsRegisterFixtures.service;
+import static org.junit.jupiter.api.Assertions.*;
+
+class UserFieldsTest {
+
+    private static final String EVENT = "fields-event";
+    private static final String EMAIL = "fields@example.com";
+
+    @Test
+    void testReadsOnlyTheAttributesBehindTheFields() {
+        InMemoryDynamoDbAsyncClient dynamoDb = InMemoryDynamoDbAsyncClient.eventsRegister().build();
+        EventV1Service service = service(dynamoDb);
+        register(service);
+        service.checkInByEventAndEmail(EVENT, EMAIL, "gate-1").await().indefinitely();
+        long queries = dynamoDb.calls("query");
+
+        UserFields fields = UserFields.parse("paid,checkedIn,checkIn", null);
+        UserModel userModel = service.getByEventAndEmail(EVENT, EMAIL, 20, fields).await().indefinitely();
+        // no change history asked for, so it wasn't queried
+        assertEquals(queries, dynamoDb.calls("query"));
+        assertNull(userModel.getMetadata().getPeople());
+        assertEquals("gate-1", userModel.getMetadata().getCheckIn().getByWho());
+
+        ObjectNode view = (ObjectNode) service.view(userModel, fields);
+        assertEquals(Set.of("paid", "checkedIn", "metadata"), Set.copyOf(names(view.fieldNames())));
+        assertTrue(view.get("checkedIn").asBoolean());
+        assertEquals(List.of("checkIn"), names(view.get("metadata").fieldNames()));
+    }
+
+    @Test
+    void testGateViewHasTheNamesAndPlate() {
+        InMemoryDynamoDbAsyncClient dynamoDb = InMemoryDynamoDbAsyncClient.eventsRegister().build();
+        EventV1Service service = service(dynamoDb);
+        register(service);
+
+        UserFields gate = UserFields.parse(null, "gate");
+        ObjectNode view = (ObjectNode) service.view(service.getByEventAndPhoneNumber(EVENT, "912345678", gate)
+                .await().indefinitely(), gate);
+
+        assertEquals(EMAIL, view.get("userEmail").asText());
+        assertEquals("AA-11-22", view.get("metadata").get("vehicle").get("plate").asText());
+        assertEquals(3, view.get("metadata").get("people").size());
+        assertNull(view.get("metadata").get("rawWebhook"));
+        assertNull(view.get("eventName"));
+    }
+
+    @Test
+    void testParsesFieldsAndViews() {
+        assertNull(UserFields.parse(null, null));
+        assertNull(UserFields.parse("", "full"));
+        // fields win over the view
+        assertFalse(UserFields.parse("paid", "gate").includes("people"));
+        assertFalse(UserFields.parse("checkIn,changeHistory", null).needsMetadata());
+        // people, vehicle and payment are attributes of their own
+        assertFalse(UserFields.parse(null, "gate").needsMetadata());
+        assertTrue(UserFields.parse(null, "summary").needsMetadata());
+        assertThrows(BadRequestException.class, () -> UserFields.parse("paid,password", null));
+        assertThrows(BadRequestException.class, () -> UserFields.parse(null, "everything"));
+    }
+
+    private static <T> List<T> names(Iterator<T> iterator) {
+        List<T> items = new ArrayList<>();
+        iterator.forEachRemaining(items::add);
+        return items;
+    }
+
+    private static void register(EventV1Service service) {
+        service.register(EVENT, "{\"driverName\":\"Driver\",\"driverCc\":\"1\",\"phoneNumber\":\"912345678\","
+                + "\"vehicleType\":\"Jipe\",\"guestsNumber\":\"2\",\"guestsNames\":\"Ana,Rui\",\"vehiclePlate\":\"AA-11-22\","
+                + "\"email\":\"" + EMAIL + "\"}").await().indefinitely();
+    }
+}
@@ -0,0 +1,91 @@
+package org.jlopezinc;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.jlopezinc.dynamodb.JsonAttributeConverter;
+import org.jlopezinc.dynamodb.UserModelDB;
+import org.jlopezinc.model.BackfillResponse;
+import org.jlopezinc.model.UserMetadataModel;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.jlopezinc.EventsRegisterFixtures.service;
+import static org.junit.jupiter.api.Assertions.*;
+
+class WebhookArchiveTest {
+
+    private static final String EVENT = "archive-event";
+    private static final String EMAIL = "archive@example.com";
+    private static final String WEBHOOK = "{\"driverName\":\"Driver\",\"driverCc\":\"1\",\"phoneNumber\":\"912345678\","
+            + "\"vehicleType\":\"Jipe\",\"guestsNumber\":\"1\",\"guestsNames\":\"Ana\",\"vehiclePlate\":\"AA-11-22\","
+            + "\"email\":\"" + EMAIL + "\"}";
+
+    @Test
+    void testRegistrationKeepsOnlyTheIdOfItsWebhook() throws Exception {
+        InMemoryDynamoDbAsyncClient dynamoDb = InMemoryDynamoDbAsyncClient.eventsRegister().build();
+        EventV1Service service = service(dynamoDb, new WebhookArchive(dynamoDb, Optional.empty()));
+
+        service.register(EVENT, WEBHOOK).await().indefinitely();
+        // retried by the form provider
+        service.register(EVENT, WEBHOOK).await().indefinitely();
+
+        JsonNode metadata = JsonAttributeConverter.create().transformTo(dynamoDb.getItem(r -> r.tableName(EventV1Service.EVENTS_TABLE)
+                .key(EventV1Service.userKey(EVENT, EMAIL))).join().item().get(UserModelDB.METADATA));
+        UserMetadataModel stored = service.objectMapper.treeToValue(metadata, UserMetadataModel.class);
+        assertNull(stored.getRawWebhook());
+        assertEquals(WebhookArchive.archiveId(EMAIL, WEBHOOK), stored.getRawWebhookId());
+        assertEquals(WEBHOOK, service.getRawWebhook(EVENT, EMAIL).await().indefinitely());
+        // one archived body, outside the event's partition
+        assertEquals(1, dynamoDb.query(r -> r.tableName(EventV1Service.EVENTS_TABLE)
+                .keyConditionExpression("#pk = :pk")
+                .expressionAttributeNames(Map.of("#pk", UserModelDB.PARTITION_KEY))
+                .expressionAttributeValues(Map.of(":pk", AttributeValue.builder().s(WebhookArchive.ARCHIVE_PREFIX + EVENT).build())))
+                .join().count());
+    }
+
+    @Test
+    void testStoresBodiesAsFilesInTheStandIn(@TempDir Path directory) {
+        InMemoryDynamoDbAsyncClient dynamoDb = InMemoryDynamoDbAsyncClient.eventsRegister().build();
+        WebhookArchive archive = new WebhookArchive(dynamoDb, Optional.of(directory.toString()));
+
+        String id = archive.store("../" + EVENT, EMAIL, WEBHOOK).await().indefinitely();
+
+        assertEquals(WEBHOOK, archive.fetch("../" + EVENT, id).await().indefinitely());
+        assertNull(archive.fetch(EVENT, id).await().indefinitely());
+        assertEquals(0, dynamoDb.calls("putItem"));
+    }
+
+    @Test
+    void testBackfillMovesEmbeddedWebhooksToTheArchive() throws Exception {
+        InMemoryDynamoDbAsyncClient dynamoDb = InMemoryDynamoDbAsyncClient.eventsRegister().build();
+        EventV1Service service = service(dynamoDb, new WebhookArchive(dynamoDb, Optional.empty()));
+        service.register(EVENT, WEBHOOK).await().indefinitely();
+        // as written before bodies were archived
+        UserMetadataModel legacy = service.objectMapper.treeToValue(JsonAttributeConverter.create().transformTo(dynamoDb.getItem(r -> r
+                .tableName(EventV1Service.EVENTS_TABLE)
+                .key(EventV1Service.userKey(EVENT, EMAIL))).join().item().get(UserModelDB.METADATA)), UserMetadataModel.class);
+        legacy.setRawWebhookId(null);
+        legacy.setRawWebhook("{\"legacy\":true}");
+        String legacyMetadata = service.objectMapper.writeValueAsString(legacy);
+        dynamoDb.updateItem(r -> r.tableName(EventV1Service.EVENTS_TABLE)
+                .key(EventV1Service.userKey(EVENT, EMAIL))
+                .updateExpression("SET #m = :m")
+                .expressionAttributeNames(Map.of("#m", UserModelDB.METADATA))
+                .expressionAttributeValues(Map.of(":m", AttributeValue.builder().s(legacyMetadata).build()))).join();
+        assertEquals("{\"legacy\":true}", service.getRawWebhook(EVENT, EMAIL).await().indefinitely());
+
+        BackfillResponse response = service.backfillUserAttributes(EVENT).await().indefinitely();
+
+        assertEquals(1, response.getArchived());
+        UserMetadataModel stored = service.getByEventAndEmail(EVENT, EMAIL).await().indefinitely().getMetadata();
+        assertNull(stored.getRawWebhook());
+        assertNotNull(stored.getRawWebhookId());
+        assertEquals("AA-11-22", stored.getVehicle().getPlate());
+        assertEquals("{\"legacy\":true}", service.getRawWebhook(EVENT, EMAIL).await().indefinitely());
+        assertEquals(0, service.backfillUserAttributes(EVENT).await().indefinitely().getArchived());
+    }
+}